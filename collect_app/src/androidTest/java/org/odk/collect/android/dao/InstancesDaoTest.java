@@ -17,7 +17,11 @@
 package org.odk.collect.android.dao;
 
 import android.Manifest;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
 import androidx.test.rule.GrantPermissionRule;
 import androidx.test.runner.AndroidJUnit4;
 
@@ -28,11 +32,18 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dto.Instance;
+import org.odk.collect.android.dto.InstanceListItem;
 import org.odk.collect.android.provider.InstanceProviderAPI;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 @RunWith(AndroidJUnit4.class)
 /**
@@ -164,6 +175,109 @@ public class InstancesDaoTest {
         assertEquals(biggestNOfSet2Instance, instances.get(0));
     }
 
+    @Test
+    public void saveInstancesTest() {
+        List<Uri> uris = instancesDao.saveInstances(asList(
+                newInstanceValues("First"), newInstanceValues("Second")));
+
+        assertEquals(2, uris.size());
+        assertEquals(1, getInstances("First").size());
+        assertEquals(uris.get(0).getLastPathSegment(), getInstances("First").get(0).getDatabaseId().toString());
+        assertEquals(uris.get(1).getLastPathSegment(), getInstances("Second").get(0).getDatabaseId().toString());
+    }
+
+    @Test
+    public void saveInstancesTest_whenAnInstanceCantBeInserted_savesTheOthers() {
+        ContentValues invalid = newInstanceValues("Invalid");
+        invalid.remove(InstanceProviderAPI.InstanceColumns.DISPLAY_NAME);
+
+        List<Uri> uris = instancesDao.saveInstances(asList(
+                newInstanceValues("First"), invalid, newInstanceValues("Second")));
+
+        assertEquals(3, uris.size());
+        assertNotNull(uris.get(0));
+        assertNull(uris.get(1));
+        assertNotNull(uris.get(2));
+        assertEquals(1, getInstances("First").size());
+        assertEquals(0, getInstances("Invalid").size());
+        assertEquals(1, getInstances("Second").size());
+    }
+
+    @Test
+    public void applyBatchTest_whenAnOperationFails_appliesNone() throws Exception {
+        ContentValues invalid = newInstanceValues("Invalid");
+        invalid.remove(InstanceProviderAPI.InstanceColumns.DISPLAY_NAME);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : asList(newInstanceValues("First"), invalid)) {
+            operations.add(ContentProviderOperation
+                    .newInsert(InstanceProviderAPI.InstanceColumns.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+
+        try {
+            Collect.getInstance().getContentResolver().applyBatch(InstanceProviderAPI.AUTHORITY, operations);
+            fail();
+        } catch (SQLException expected) {
+            // the second insert failed
+        }
+
+        assertEquals(0, getInstances("First").size());
+    }
+
+    @Test
+    public void getUnsentInstancesPageSourceTest() {
+        InstancePageSource byName = instancesDao.getUnsentInstancesPageSource("", InstancePageSource.Order.BY_NAME_ASC);
+        assertEquals(asList("Biggest N of Set", "Cascading Select Form", "Hypertension Screening", "sample"),
+                loadAllPages(byName, 3));
+
+        InstancePageSource byDate = instancesDao.getUnsentInstancesPageSource("", InstancePageSource.Order.BY_DATE_DESC);
+        assertEquals(asList("Biggest N of Set", "sample", "Cascading Select Form", "Hypertension Screening"),
+                loadAllPages(byDate, 3));
+
+        InstancePageSource filtered = instancesDao.getUnsentInstancesPageSource("s", InstancePageSource.Order.BY_NAME_DESC);
+        assertEquals(asList("sample", "Hypertension Screening", "Cascading Select Form", "Biggest N of Set"),
+                loadAllPages(filtered, 1));
+    }
+
+    @Test
+    public void getSentInstancesPageSourceTest() {
+        InstancePageSource source = instancesDao.getSentInstancesPageSource("", InstancePageSource.Order.BY_NAME_ASC);
+        List<InstanceListItem> items = source.loadPage(null, 10);
+
+        assertEquals(2, items.size());
+        assertEquals("Biggest N of Set", items.get(0).getDisplayName());
+        // the instance has been deleted
+        assertEquals("Widgets", items.get(1).getDisplayName());
+        assertFalse(items.get(1).isEnabled());
+    }
+
+    private static ContentValues newInstanceValues(String name) {
+        ContentValues values = new ContentValues();
+        values.put(InstanceProviderAPI.InstanceColumns.DISPLAY_NAME, name);
+        values.put(InstanceProviderAPI.InstanceColumns.INSTANCE_FILE_PATH, Collect.INSTANCES_PATH + "/" + name + "/" + name + ".xml");
+        values.put(InstanceProviderAPI.InstanceColumns.JR_FORM_ID, "sample");
+        return values;
+    }
+
+    private List<Instance> getInstances(String name) {
+        Cursor cursor = instancesDao.getInstancesCursorForFilePath(Collect.INSTANCES_PATH + "/" + name + "/" + name + ".xml");
+        return instancesDao.getInstancesFromCursor(cursor);
+    }
+
+    private static List<String> loadAllPages(InstancePageSource source, int pageSize) {
+        List<String> displayNames = new ArrayList<>();
+        List<InstanceListItem> page = source.loadPage(null, pageSize);
+        while (!page.isEmpty()) {
+            for (InstanceListItem item : page) {
+                displayNames.add(item.getDisplayName());
+            }
+            page = source.loadPage(page.get(page.size() - 1), pageSize);
+        }
+        return displayNames;
+    }
+
     private void fillDatabase() {
         hypertensionScreeningInstance = new Instance.Builder()
                 .displayName("Hypertension Screening")
@@ -23,6 +23,7 @@ import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 
 @RunWith(Parameterized.class)
@@ -40,7 +41,9 @@ public class InstancesDatabaseHelperTest {
                 {"Downgrading from version with missing column adds that column", "instances_v7000_removed_jrVersion.db"},
 
                 {"Upgrading from version with extra column drops that column", "instances_v4_real.db"},
-                {"Upgrading from version with missing column adds that column", "instances_v4_removed_jrVersion.db"}
+                {"Upgrading from version with missing column adds that column", "instances_v4_removed_jrVersion.db"},
+
+                {"Upgrading from version without indexes adds them", "instances_v5.db"}
         });
     }
 
@@ -69,6 +72,8 @@ public class InstancesDatabaseHelperTest {
         List<String> newColumnNames = InstancesDatabaseHelper.getInstancesColumnNames(db);
 
         assertThat(newColumnNames, contains(InstancesDatabaseHelper.CURRENT_VERSION_COLUMN_NAMES));
+        assertThat(InstancesDatabaseHelper.getInstancesIndexNames(db),
+                containsInAnyOrder(InstancesDatabaseHelper.CURRENT_VERSION_INDEX_NAMES));
     }
 
     private void writeDatabaseFile(String dbPath) throws IOException {
@@ -0,0 +1,133 @@
+package org.odk.collect.android.tasks;
+
+import android.Manifest;
+import android.database.Cursor;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.rule.GrantPermissionRule;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.dao.InstancesDao;
+import org.odk.collect.android.dto.Form;
+import org.odk.collect.android.dto.Instance;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.utilities.ResetUtility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class InstanceSyncTaskTest {
+
+    private final InstancesDao instancesDao = new InstancesDao();
+
+    @Rule
+    public GrantPermissionRule permissionRule = GrantPermissionRule.grant(
+            Manifest.permission.READ_EXTERNAL_STORAGE,
+            Manifest.permission.WRITE_EXTERNAL_STORAGE
+    );
+
+    @Before
+    public void setUp() throws IOException {
+        resetAppState();
+
+        assertTrue(new File(Collect.FORMS_PATH + "/sample.xml").createNewFile());
+        Form form = new Form.Builder()
+                .displayName("sample")
+                .jrFormId("sample")
+                .md5Hash("d41d8cd98f00b204e9800998ecf8427e")
+                .date(1487773315435L)
+                .formMediaPath(Collect.FORMS_PATH + "/sample-media")
+                .formFilePath(Collect.FORMS_PATH + "/sample.xml")
+                .build();
+        FormsDao formsDao = new FormsDao();
+        formsDao.saveForm(formsDao.getValuesFromFormObject(form));
+    }
+
+    @After
+    public void tearDown() {
+        resetAppState();
+    }
+
+    @Test
+    public void addsInstancesOfKnownFormsFoundOnDisk() throws IOException {
+        String path = writeInstance("sample_2019-01-01_00-00-00", "sample");
+        String unknownFormPath = writeInstance("unknown_2019-01-01_00-00-00", "unknown");
+
+        new InstanceSyncTask().doInBackground();
+
+        List<Instance> instances = getInstances(path);
+        assertEquals(1, instances.size());
+        assertEquals("sample", instances.get(0).getJrFormId());
+        assertEquals(InstanceProviderAPI.STATUS_COMPLETE, instances.get(0).getStatus());
+        assertEquals(0, getInstances(unknownFormPath).size());
+    }
+
+    @Test
+    public void removesRowsOfInstancesNoLongerOnDisk_exceptSubmittedOnes() throws IOException {
+        String keptPath = writeInstance("sample_2019-01-01_00-00-00", "sample");
+        String deletedPath = Collect.INSTANCES_PATH + "/sample_2019-01-02_00-00-00/sample_2019-01-02_00-00-00.xml";
+        String submittedPath = Collect.INSTANCES_PATH + "/sample_2019-01-03_00-00-00/sample_2019-01-03_00-00-00.xml";
+        saveInstance(keptPath, InstanceProviderAPI.STATUS_INCOMPLETE);
+        saveInstance(deletedPath, InstanceProviderAPI.STATUS_COMPLETE);
+        saveInstance(submittedPath, InstanceProviderAPI.STATUS_SUBMITTED);
+
+        new InstanceSyncTask().doInBackground();
+
+        assertEquals(1, getInstances(keptPath).size());
+        assertEquals(InstanceProviderAPI.STATUS_INCOMPLETE, getInstances(keptPath).get(0).getStatus());
+        assertEquals(0, getInstances(deletedPath).size());
+        assertEquals(1, getInstances(submittedPath).size());
+    }
+
+    private static String writeInstance(String name, String formId) throws IOException {
+        File instanceDir = new File(Collect.INSTANCES_PATH, name);
+        assertTrue(instanceDir.mkdirs());
+        File instanceFile = new File(instanceDir, name + ".xml");
+        try (OutputStream out = new FileOutputStream(instanceFile)) {
+            out.write(("<data id=\"" + formId + "\"><meta><instanceID>uuid:" + name
+                    + "</instanceID></meta></data>").getBytes("UTF-8"));
+        }
+        return instanceFile.getAbsolutePath();
+    }
+
+    private void saveInstance(String path, String status) {
+        Instance instance = new Instance.Builder()
+                .displayName("sample")
+                .instanceFilePath(path)
+                .jrFormId("sample")
+                .status(status)
+                .lastStatusChangeDate(1487595836793L)
+                .build();
+        instancesDao.saveInstance(instancesDao.getValuesFromInstanceObject(instance));
+    }
+
+    private List<Instance> getInstances(String path) {
+        Cursor cursor = instancesDao.getInstancesCursorForFilePath(path);
+        return instancesDao.getInstancesFromCursor(cursor);
+    }
+
+    private static void resetAppState() {
+        List<Integer> resetActions = Arrays.asList(
+                ResetUtility.ResetAction.RESET_PREFERENCES, ResetUtility.ResetAction.RESET_INSTANCES,
+                ResetUtility.ResetAction.RESET_FORMS
+        );
+
+        List<Integer> failedResetActions = new ResetUtility().reset(InstrumentationRegistry.getTargetContext(), resetActions);
+        assertEquals(0, failedResetActions.size());
+    }
+}
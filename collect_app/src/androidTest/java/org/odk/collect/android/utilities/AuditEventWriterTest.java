@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package org.odk.collect.android.tasks;
+package org.odk.collect.android.utilities;
 
 import android.os.Environment;
 
@@ -51,9 +51,10 @@ import static org.odk.collect.android.logic.AuditEvent.AuditEventType.PROMPT_NEW
 import static org.odk.collect.android.logic.AuditEvent.AuditEventType.QUESTION;
 
 @RunWith(AndroidJUnit4.class)
-public class AuditEventSaveTaskTest {
+public class AuditEventWriterTest {
 
     private File testFile;
+    private final AuditEventWriter auditEventWriter = new AuditEventWriter();
 
     @Rule
     public GrantPermissionRule permissionRule = GrantPermissionRule.grant(android.Manifest.permission.READ_EXTERNAL_STORAGE, android.Manifest.permission.WRITE_EXTERNAL_STORAGE);
@@ -67,8 +68,8 @@ public class AuditEventSaveTaskTest {
     @Test
     public void updateHeaderTest() throws IOException, ExecutionException, InterruptedException {
         // Use a form with enabled audit but without location
-        AuditEventSaveTask auditEventSaveTask = new AuditEventSaveTask(testFile, false, false);
-        auditEventSaveTask.execute(getSampleAuditEventsWithoutLocations().toArray(new AuditEvent[0])).get();
+        auditEventWriter.write(testFile, false, false, getSampleAuditEventsWithoutLocations());
+        auditEventWriter.flush().get();
         String expectedAuditContent = FileUtils.readFileToString(testFile);
         String expectedData = "event,node,start,end\n" +
                 "form start,,1548106927319,\n" +
@@ -85,8 +86,8 @@ public class AuditEventSaveTaskTest {
         assertEquals(expectedData, expectedAuditContent);
 
         // Upgrade a form to use location
-        auditEventSaveTask = new AuditEventSaveTask(testFile, true, false);
-        auditEventSaveTask.execute(getMoreSampleAuditEventsWithLocations().toArray(new AuditEvent[0])).get();
+        auditEventWriter.write(testFile, true, false, getMoreSampleAuditEventsWithLocations());
+        auditEventWriter.flush().get();
         expectedAuditContent = FileUtils.readFileToString(testFile);
         String expectedData2 = "event,node,start,end,latitude,longitude,accuracy\n" +
                 "form start,,1548106927319,\n" +
@@ -112,8 +113,8 @@ public class AuditEventSaveTaskTest {
         assertEquals(expectedData2, expectedAuditContent);
 
         // Upgrade a form to use location and tracking changes
-        auditEventSaveTask = new AuditEventSaveTask(testFile, true, true);
-        auditEventSaveTask.execute(getMoreSampleAuditEventsWithLocationsAndTrackingChanges().toArray(new AuditEvent[0])).get();
+        auditEventWriter.write(testFile, true, true, getMoreSampleAuditEventsWithLocationsAndTrackingChanges());
+        auditEventWriter.flush().get();
         expectedAuditContent = FileUtils.readFileToString(testFile);
         String expectedData3 = "event,node,start,end,latitude,longitude,accuracy,old-value,new-value\n" +
                 "form start,,1548106927319,\n" +
@@ -149,8 +150,8 @@ public class AuditEventSaveTaskTest {
 
     @Test
     public void saveAuditWithLocation() throws ExecutionException, InterruptedException, IOException {
-        AuditEventSaveTask auditEventSaveTask = new AuditEventSaveTask(testFile, true, false);
-        auditEventSaveTask.execute(getSampleAuditEventsWithLocations().toArray(new AuditEvent[0])).get();
+        auditEventWriter.write(testFile, true, false, getSampleAuditEventsWithLocations());
+        auditEventWriter.flush().get();
         String expectedAuditContent = FileUtils.readFileToString(testFile);
         String expectedData = "event,node,start,end,latitude,longitude,accuracy\n" +
                 "form start,,1548106927319,,,,\n" +
@@ -172,8 +173,8 @@ public class AuditEventSaveTaskTest {
 
     @Test
     public void saveAuditWithLocationAndTrackingChanges() throws ExecutionException, InterruptedException, IOException {
-        AuditEventSaveTask auditEventSaveTask = new AuditEventSaveTask(testFile, true, true);
-        auditEventSaveTask.execute(getSampleAuditEventsWithLocationsAndTrackingChanges().toArray(new AuditEvent[0])).get();
+        auditEventWriter.write(testFile, true, true, getSampleAuditEventsWithLocationsAndTrackingChanges());
+        auditEventWriter.flush().get();
         String expectedAuditContent = FileUtils.readFileToString(testFile);
         String expectedData = "event,node,start,end,latitude,longitude,accuracy,old-value,new-value\n" +
                 "form start,,1548106927319,,,,,,\n" +
@@ -189,6 +190,28 @@ public class AuditEventSaveTaskTest {
         assertEquals(expectedData, expectedAuditContent);
     }
 
+    @Test
+    public void writtenEventsAreFlushedAfterADelay() throws InterruptedException, IOException {
+        ArrayList<AuditEvent> auditEvents = getSampleAuditEventsWithoutLocations();
+        auditEventWriter.write(testFile, false, false, auditEvents.subList(0, 2));
+        auditEventWriter.write(testFile, false, false, auditEvents.subList(2, 4));
+
+        String expectedData = "event,node,start,end\n" +
+                "form start,,1548106927319,\n" +
+                "question,/data/q1,1548106927323,1548106930112\n" +
+                "add repeat,/data/g1[1],1548106930118,1548106931611\n" +
+                "question,/data/g1[1]/q2,1548106931612,1548106937122\n";
+
+        // Nothing asks for the events to be flushed, so they are written once the delay has passed
+        long deadline = System.currentTimeMillis() + 5 * AuditEventWriter.FLUSH_DELAY_MILLIS;
+        String auditContent = "";
+        while (!expectedData.equals(auditContent) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            auditContent = testFile.exists() ? FileUtils.readFileToString(testFile) : "";
+        }
+        assertEquals(expectedData, auditContent);
+    }
+
     private ArrayList<AuditEvent> getSampleAuditEventsWithoutLocations() {
         AuditEvent event;
         ArrayList<AuditEvent> auditEvents = new ArrayList<>();
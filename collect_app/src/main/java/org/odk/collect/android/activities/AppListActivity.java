@@ -122,16 +122,20 @@ abstract class AppListActivity extends CollectAbstractActivity {
     public void setContentView(@LayoutRes int layoutResID) {
         super.setContentView(layoutResID);
 
-        listView = findViewById(android.R.id.list);
-        listView.setOnItemClickListener((AdapterView.OnItemClickListener) this);
-        listView.setEmptyView(findViewById(android.R.id.empty));
         progressBar = findViewById(R.id.progressBar);
         llParent = findViewById(R.id.llParent);
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            // Use the nicer-looking drawable with Material Design insets.
-            listView.setDivider(getResources().getDrawable(R.drawable.list_item_divider, getTheme()));
-            listView.setDividerHeight(1);
+        // Lists that are loaded a page at a time use a RecyclerView instead
+        listView = findViewById(android.R.id.list);
+        if (listView != null) {
+            listView.setOnItemClickListener((AdapterView.OnItemClickListener) this);
+            listView.setEmptyView(findViewById(android.R.id.empty));
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                // Use the nicer-looking drawable with Material Design insets.
+                listView.setDivider(getResources().getDrawable(R.drawable.list_item_divider, getTheme()));
+                listView.setDividerHeight(1);
+            }
         }
 
         setSupportActionBar(findViewById(R.id.toolbar));
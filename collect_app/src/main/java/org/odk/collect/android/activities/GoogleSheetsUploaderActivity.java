@@ -293,6 +293,11 @@ public class GoogleSheetsUploaderActivity extends CollectAbstractActivity implem
         }
     }
 
+    @Override
+    public void bytesSentUpdate(long bytesSent, long bytesTotal) {
+        // rows are appended to the sheet one request at a time, so there are no bytes to report
+    }
+
     @Override
     protected Dialog onCreateDialog(int id) {
         switch (id) {
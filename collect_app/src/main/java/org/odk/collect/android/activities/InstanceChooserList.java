@@ -18,22 +18,25 @@ import android.app.AlertDialog;
 import android.content.ContentUris;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import androidx.annotation.NonNull;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.Loader;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.TextView;
 
 import android.widget.Toast;
 import org.odk.collect.android.R;
-import org.odk.collect.android.adapters.InstanceListCursorAdapter;
+import org.odk.collect.android.adapters.InstanceListAdapter;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.InstancesDao;
+import org.odk.collect.android.dto.InstanceListItem;
 import org.odk.collect.android.listeners.DiskSyncListener;
 import org.odk.collect.android.listeners.PermissionListener;
 import org.odk.collect.android.provider.InstanceProviderAPI;
@@ -53,7 +56,7 @@ import static org.odk.collect.android.utilities.PermissionUtils.finishAllActivit
  * @author Carl Hartung (carlhartung@gmail.com)
  */
 public class InstanceChooserList extends InstanceListActivity implements
-        DiskSyncListener, AdapterView.OnItemClickListener, LoaderManager.LoaderCallbacks<Cursor> {
+        DiskSyncListener, InstanceListAdapter.Listener {
     private static final String INSTANCE_LIST_ACTIVITY_SORTING_ORDER = "instanceListActivitySortingOrder";
     private static final String VIEW_SENT_FORM_SORTING_ORDER = "ViewSentFormSortingOrder";
 
@@ -61,13 +64,24 @@ public class InstanceChooserList extends InstanceListActivity implements
     private static final boolean DO_NOT_EXIT = false;
 
     private InstanceSyncTask instanceSyncTask;
+    private InstanceListAdapter instanceListAdapter;
+    private RecyclerView instanceList;
+    private TextView emptyView;
 
     private boolean editMode;
 
+    // loads the rows shown again when instances are added, changed or removed
+    private final ContentObserver instancesObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            instanceListAdapter.refresh();
+        }
+    };
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.form_chooser_list);
+        setContentView(R.layout.instance_chooser_list);
 
         String formMode = getIntent().getStringExtra(ApplicationConstants.BundleKeys.FORM_MODE);
         if (formMode == null || ApplicationConstants.FormModes.EDIT_SAVED.equalsIgnoreCase(formMode)) {
@@ -115,20 +129,19 @@ public class InstanceChooserList extends InstanceListActivity implements
         instanceSyncTask = new InstanceSyncTask();
         instanceSyncTask.setDiskSyncListener(this);
         instanceSyncTask.execute();
-        getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+        getContentResolver().registerContentObserver(InstanceColumns.CONTENT_URI, true, instancesObserver);
+        updateAdapter();
     }
 
     /**
      * Stores the path of selected instance in the parent class and finishes.
      */
     @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+    public void onItemClick(InstanceListItem item) {
         if (Collect.allowClick(getClass().getName())) {
-            if (view.isEnabled()) {
-                Cursor c = (Cursor) listView.getAdapter().getItem(position);
+            if (item.isEnabled()) {
                 Uri instanceUri =
-                        ContentUris.withAppendedId(InstanceColumns.CONTENT_URI,
-                                c.getLong(c.getColumnIndex(InstanceColumns._ID)));
+                        ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, item.getId());
 
                 String action = getIntent().getAction();
                 if (Intent.ACTION_PICK.equals(action)) {
@@ -138,12 +151,8 @@ public class InstanceChooserList extends InstanceListActivity implements
                     // the form can be edited if it is incomplete or if, when it was
                     // marked as complete, it was determined that it could be edited
                     // later.
-                    String status = c.getString(c.getColumnIndex(InstanceColumns.STATUS));
-                    String strCanEditWhenComplete =
-                            c.getString(c.getColumnIndex(InstanceColumns.CAN_EDIT_WHEN_COMPLETE));
-
-                    boolean canEdit = status.equals(InstanceProviderAPI.STATUS_INCOMPLETE)
-                            || Boolean.parseBoolean(strCanEditWhenComplete);
+                    boolean canEdit = item.getStatus().equals(InstanceProviderAPI.STATUS_INCOMPLETE)
+                            || item.canEditWhenComplete();
                     if (!canEdit) {
                         createErrorDialog(getString(R.string.cannot_edit_completed_form),
                                 DO_NOT_EXIT);
@@ -162,8 +171,7 @@ public class InstanceChooserList extends InstanceListActivity implements
                 }
                 finish();
             } else {
-                TextView disabledCause = view.findViewById(R.id.form_subtitle2);
-                Toast.makeText(this, disabledCause.getText(), Toast.LENGTH_SHORT).show();
+                Toast.makeText(this, item.getDisabledMessage(), Toast.LENGTH_SHORT).show();
             }
         }
     }
@@ -195,17 +203,22 @@ public class InstanceChooserList extends InstanceListActivity implements
     }
 
     private void setupAdapter() {
-        String[] data = new String[]{
-                InstanceColumns.DISPLAY_NAME, InstanceColumns.DELETED_DATE
-        };
-        int[] view = new int[]{
-                R.id.form_title, R.id.form_subtitle2
-        };
+        instanceListAdapter = new InstanceListAdapter(this);
+
+        instanceList = findViewById(R.id.instance_list);
+        instanceList.setLayoutManager(new LinearLayoutManager(this));
+        instanceList.setAdapter(instanceListAdapter);
 
-        boolean shouldCheckDisabled = !editMode;
-        listAdapter = new InstanceListCursorAdapter(
-                this, R.layout.form_chooser_list_item, null, data, view, shouldCheckDisabled);
-        listView.setAdapter(listAdapter);
+        DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Use the nicer-looking drawable with Material Design insets. Its color is a theme
+            // attribute, which drawables can only resolve from Lollipop on.
+            divider.setDrawable(getResources().getDrawable(R.drawable.list_item_divider, getTheme()));
+        }
+        instanceList.addItemDecoration(divider);
+
+        emptyView = findViewById(android.R.id.empty);
+        emptyView.setVisibility(View.GONE);
     }
 
     @Override
@@ -215,29 +228,32 @@ public class InstanceChooserList extends InstanceListActivity implements
 
     @Override
     protected void updateAdapter() {
-        getSupportLoaderManager().restartLoader(LOADER_ID, null, this);
-    }
+        if (instanceListAdapter == null) {
+            return;
+        }
 
-    @NonNull
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         showProgressBar();
         if (editMode) {
-            return new InstancesDao().getUnsentInstancesCursorLoader(getFilterText(), getSortingOrder());
+            instanceListAdapter.setSource(new InstancesDao().getUnsentInstancesPageSource(getFilterText(), getPageOrder()));
         } else {
-            return new InstancesDao().getSentInstancesCursorLoader(getFilterText(), getSortingOrder());
+            instanceListAdapter.setSource(new InstancesDao().getSentInstancesPageSource(getFilterText(), getPageOrder()));
         }
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
+    public void onListLoaded(int itemCount) {
         hideProgressBarIfAllowed();
-        listAdapter.swapCursor(cursor);
+        instanceList.setVisibility(itemCount > 0 ? View.VISIBLE : View.GONE);
+        emptyView.setVisibility(itemCount > 0 ? View.GONE : View.VISIBLE);
     }
 
     @Override
-    public void onLoaderReset(@NonNull Loader loader) {
-        listAdapter.swapCursor(null);
+    protected void onDestroy() {
+        if (instanceListAdapter != null) {
+            getContentResolver().unregisterContentObserver(instancesObserver);
+            instanceListAdapter.release();
+        }
+        super.onDestroy();
     }
 
     private void createErrorDialog(String errorMsg, final boolean shouldExit) {
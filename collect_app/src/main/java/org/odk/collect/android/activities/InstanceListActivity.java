@@ -1,6 +1,6 @@
 package org.odk.collect.android.activities;
 
-import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.dao.InstancePageSource;
 
 import static org.odk.collect.android.utilities.ApplicationConstants.SortingOrder.BY_DATE_ASC;
 import static org.odk.collect.android.utilities.ApplicationConstants.SortingOrder.BY_DATE_DESC;
@@ -10,28 +10,20 @@ import static org.odk.collect.android.utilities.ApplicationConstants.SortingOrde
 import static org.odk.collect.android.utilities.ApplicationConstants.SortingOrder.BY_STATUS_DESC;
 
 abstract class InstanceListActivity extends AppListActivity {
-    protected String getSortingOrder() {
-        String sortingOrder = InstanceColumns.DISPLAY_NAME + " COLLATE NOCASE ASC, " + InstanceColumns.STATUS + " DESC";
+    protected InstancePageSource.Order getPageOrder() {
         switch (getSelectedSortingOrder()) {
-            case BY_NAME_ASC:
-                sortingOrder = InstanceColumns.DISPLAY_NAME + " COLLATE NOCASE ASC, " + InstanceColumns.STATUS + " DESC";
-                break;
             case BY_NAME_DESC:
-                sortingOrder = InstanceColumns.DISPLAY_NAME + " COLLATE NOCASE DESC, " + InstanceColumns.STATUS + " DESC";
-                break;
+                return InstancePageSource.Order.BY_NAME_DESC;
             case BY_DATE_ASC:
-                sortingOrder = InstanceColumns.LAST_STATUS_CHANGE_DATE + " ASC";
-                break;
+                return InstancePageSource.Order.BY_DATE_ASC;
             case BY_DATE_DESC:
-                sortingOrder = InstanceColumns.LAST_STATUS_CHANGE_DATE + " DESC";
-                break;
+                return InstancePageSource.Order.BY_DATE_DESC;
             case BY_STATUS_ASC:
-                sortingOrder = InstanceColumns.STATUS + " ASC, " + InstanceColumns.DISPLAY_NAME + " COLLATE NOCASE ASC";
-                break;
+                return InstancePageSource.Order.BY_STATUS_ASC;
             case BY_STATUS_DESC:
-                sortingOrder = InstanceColumns.STATUS + " DESC, " + InstanceColumns.DISPLAY_NAME + " COLLATE NOCASE ASC";
-                break;
+                return InstancePageSource.Order.BY_STATUS_DESC;
+            default:
+                return InstancePageSource.Order.BY_NAME_ASC;
         }
-        return sortingOrder;
     }
-}
\ No newline at end of file
+}
@@ -19,6 +19,7 @@ import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.net.Uri;
 import android.os.Bundle;
+import android.text.format.Formatter;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -261,6 +262,12 @@ public class InstanceUploaderActivity extends CollectAbstractActivity implements
         progressDialog.setMessage(alertMsg);
     }
 
+    @Override
+    public void bytesSentUpdate(long bytesSent, long bytesTotal) {
+        progressDialog.setMessage(alertMsg + "\n" + getString(R.string.sending_bytes,
+                Formatter.formatShortFileSize(this, bytesSent), Formatter.formatShortFileSize(this, bytesTotal)));
+    }
+
     @Override
     protected Dialog onCreateDialog(int id) {
         switch (id) {
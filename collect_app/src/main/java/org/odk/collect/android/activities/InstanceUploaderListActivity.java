@@ -20,35 +20,39 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import androidx.annotation.NonNull;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.Loader;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnLongClickListener;
-import android.widget.AdapterView;
 import android.widget.Button;
-import android.widget.ListView;
+import android.widget.TextView;
 
 import com.google.android.gms.analytics.HitBuilders;
 import com.google.android.gms.analytics.Tracker;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.adapters.InstanceUploaderAdapter;
+import org.odk.collect.android.dao.InstancePageSource;
 import org.odk.collect.android.dao.InstancesDao;
+import org.odk.collect.android.dto.InstanceListItem;
 import org.odk.collect.android.injection.DaggerUtils;
 import org.odk.collect.android.listeners.DiskSyncListener;
 import org.odk.collect.android.listeners.PermissionListener;
 import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.preferences.PreferencesActivity;
 import org.odk.collect.android.preferences.Transport;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 import org.odk.collect.android.tasks.InstanceSyncTask;
 import org.odk.collect.android.tasks.sms.SmsNotificationReceiver;
 import org.odk.collect.android.tasks.sms.SmsService;
@@ -59,7 +63,11 @@ import org.odk.collect.android.utilities.PermissionUtils;
 import org.odk.collect.android.utilities.PlayServicesUtil;
 import org.odk.collect.android.utilities.ToastUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
 
@@ -84,7 +92,7 @@ import static org.odk.collect.android.utilities.PermissionUtils.finishAllActivit
  */
 
 public class InstanceUploaderListActivity extends InstanceListActivity implements
-        OnLongClickListener, DiskSyncListener, AdapterView.OnItemClickListener, LoaderManager.LoaderCallbacks<Cursor> {
+        OnLongClickListener, DiskSyncListener, InstanceUploaderAdapter.Listener {
     private static final String SHOW_ALL_MODE = "showAllMode";
     private static final String INSTANCE_UPLOADER_LIST_SORTING_ORDER = "instanceUploaderListSortingOrder";
 
@@ -100,6 +108,15 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
     private InstancesDao instancesDao;
 
     private InstanceSyncTask instanceSyncTask;
+    private InstanceUploaderAdapter instanceUploaderAdapter;
+    private RecyclerView instanceList;
+    private TextView emptyView;
+
+    // the ids of all the instances in the list, not just of the rows loaded so far, so that they
+    // can all be selected and only the selected ones that are in the list are sent
+    private InstancePageSource source;
+    private List<Long> allIds = Collections.emptyList();
+    private final ExecutorService idsExecutor = Executors.newSingleThreadExecutor();
 
     private boolean showAllMode;
 
@@ -107,6 +124,14 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
     // observer
     private boolean autoSendOngoing = true;
 
+    // loads the rows shown again when instances are added, changed or removed
+    private final ContentObserver instancesObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            instanceUploaderAdapter.refresh();
+        }
+    };
+
     private final BroadcastReceiver smsForegroundReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -190,15 +215,13 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
             }
         }
 
-        int checkedItemCount = getCheckedCount();
+        long[] instanceIds = getSelectedIds();
 
-        if (checkedItemCount > 0) {
+        if (instanceIds.length > 0) {
             // items selected
-            uploadSelectedFiles(button.getId());
-            setAllToCheckedState(listView, false);
-            toggleButtonLabel(findViewById(R.id.toggle_button), listView);
-            uploadButton.setEnabled(false);
-            smsUploadButton.setEnabled(false);
+            uploadSelectedFiles(instanceIds, button.getId());
+            selectedInstances.clear();
+            onSelectionChanged();
         } else {
             // no items selected
             ToastUtils.showLongToast(R.string.noselect_error);
@@ -226,29 +249,19 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
 
         toggleSelsButton.setLongClickable(true);
         toggleSelsButton.setOnClickListener(v -> {
-            ListView lv = listView;
-            boolean allChecked = toggleChecked(lv);
-            toggleButtonLabel(toggleSelsButton, lv);
-            uploadButton.setEnabled(allChecked);
-            smsUploadButton.setEnabled(allChecked);
-            if (allChecked) {
-                for (int i = 0; i < lv.getCount(); i++) {
-                    selectedInstances.add(lv.getItemIdAtPosition(i));
-                }
-            } else {
+            // if ANY items are unchecked, check them all, if ALL items are checked, uncheck them all
+            if (areAllSelected()) {
                 selectedInstances.clear();
+            } else {
+                selectedInstances.addAll(allIds);
             }
+            onSelectionChanged();
         });
         toggleSelsButton.setOnLongClickListener(this);
 
         setupAdapter();
-
-        listView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
-        listView.setItemsCanFocus(false);
-        listView.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> {
-            uploadButton.setEnabled(areCheckedItems());
-            smsUploadButton.setEnabled(areCheckedItems());
-        });
+        uploadButton.setEnabled(false);
+        smsUploadButton.setEnabled(false);
 
         instanceSyncTask = new InstanceSyncTask();
         instanceSyncTask.setDiskSyncListener(this);
@@ -259,7 +272,8 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
                 R.string.sort_by_date_asc, R.string.sort_by_date_desc
         };
 
-        getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+        getContentResolver().registerContentObserver(InstanceColumns.CONTENT_URI, true, instancesObserver);
+        updateAdapter();
 
         // Start observer that sets autoSendOngoing field based on AutoSendWorker status
         updateAutoSendStatus();
@@ -324,8 +338,7 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
         showSnackbar(result);
     }
 
-    private void uploadSelectedFiles(int buttonId) {
-        long[] instanceIds = listView.getCheckedItemIds();
+    private void uploadSelectedFiles(long[] instanceIds, int buttonId) {
         Transport transport = Transport.fromPreference(GeneralSharedPreferences.getInstance().get(KEY_SUBMISSION_TRANSPORT_TYPE));
 
         if (transport.equals(Transport.Sms) || buttonId == R.id.sms_upload_button) {
@@ -413,17 +426,54 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
     }
 
     @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long rowId) {
-        if (listView.isItemChecked(position)) {
-            selectedInstances.add(listView.getItemIdAtPosition(position));
-        } else {
-            selectedInstances.remove(listView.getItemIdAtPosition(position));
+    public void onItemClick(InstanceListItem item) {
+        if (!selectedInstances.remove(item.getId())) {
+            selectedInstances.add(item.getId());
         }
+        updateSelectionButtons();
+    }
+
+    @Override
+    public boolean isSelected(long instanceId) {
+        return selectedInstances.contains(instanceId);
+    }
+
+    /**
+     * @return the ids of the selected instances that are in the list, in the order of the list
+     */
+    private long[] getSelectedIds() {
+        List<Long> selectedIds = new ArrayList<>();
+        for (long id : allIds) {
+            if (selectedInstances.contains(id)) {
+                selectedIds.add(id);
+            }
+        }
+
+        long[] ids = new long[selectedIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = selectedIds.get(i);
+        }
+        return ids;
+    }
 
+    private boolean areAllSelected() {
+        return selectedInstances.containsAll(allIds);
+    }
+
+    @Override
+    protected int getCheckedCount() {
+        return getSelectedIds().length;
+    }
+
+    private void onSelectionChanged() {
+        instanceUploaderAdapter.notifyItemRangeChanged(0, instanceUploaderAdapter.getItemCount());
+        updateSelectionButtons();
+    }
+
+    private void updateSelectionButtons() {
+        toggleSelsButton.setText(areAllSelected() ? R.string.clear_all : R.string.select_all);
         uploadButton.setEnabled(areCheckedItems());
         smsUploadButton.setEnabled(areCheckedItems());
-        Button toggleSelectionsButton = findViewById(R.id.toggle_button);
-        toggleButtonLabel(toggleSelectionsButton, listView);
     }
 
     @Override
@@ -442,8 +492,9 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
             // returns with a form path, start entry
             case INSTANCE_UPLOADER:
                 if (intent.getBooleanExtra(FormEntryActivity.KEY_SUCCESS, false)) {
-                    listView.clearChoices();
-                    if (listAdapter.isEmpty()) {
+                    selectedInstances.clear();
+                    onSelectionChanged();
+                    if (instanceUploaderAdapter.getItemCount() == 0) {
                         finish();
                     }
                 }
@@ -453,9 +504,21 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
     }
 
     private void setupAdapter() {
-        listAdapter = new InstanceUploaderAdapter(this, null);
-        listView.setAdapter(listAdapter);
-        checkPreviouslyCheckedItems();
+        instanceUploaderAdapter = new InstanceUploaderAdapter(this, this);
+
+        instanceList = findViewById(R.id.instance_list);
+        instanceList.setLayoutManager(new LinearLayoutManager(this));
+        instanceList.setAdapter(instanceUploaderAdapter);
+
+        DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Use the nicer-looking drawable with Material Design insets.
+            divider.setDrawable(getResources().getDrawable(R.drawable.list_item_divider, getTheme()));
+        }
+        instanceList.addItemDecoration(divider);
+
+        emptyView = findViewById(android.R.id.empty);
+        emptyView.setVisibility(View.GONE);
     }
 
     @Override
@@ -465,31 +528,42 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
 
     @Override
     protected void updateAdapter() {
-        getSupportLoaderManager().restartLoader(LOADER_ID, null, this);
-    }
+        if (instanceUploaderAdapter == null) {
+            return;
+        }
 
-    @NonNull
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         showProgressBar();
         if (showAllMode) {
-            return instancesDao.getCompletedUndeletedInstancesCursorLoader(getFilterText(), getSortingOrder());
+            source = instancesDao.getCompletedUndeletedInstancesPageSource(getFilterText(), getPageOrder());
         } else {
-            return instancesDao.getFinalizedInstancesCursorLoader(getFilterText(), getSortingOrder());
+            source = instancesDao.getFinalizedInstancesPageSource(getFilterText(), getPageOrder());
         }
+        instanceUploaderAdapter.setSource(source);
     }
 
     @Override
-    public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
+    public void onListLoaded(int itemCount) {
         hideProgressBarIfAllowed();
-        listAdapter.changeCursor(cursor);
-        checkPreviouslyCheckedItems();
-        toggleButtonLabel(findViewById(R.id.toggle_button), listView);
+        instanceList.setVisibility(itemCount > 0 ? View.VISIBLE : View.GONE);
+        emptyView.setVisibility(itemCount > 0 ? View.GONE : View.VISIBLE);
+        loadAllIds();
     }
 
-    @Override
-    public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        listAdapter.swapCursor(null);
+    /**
+     * Loads the ids of all the instances in the list again, which only queries their ids.
+     */
+    private void loadAllIds() {
+        final InstancePageSource idsSource = source;
+        idsExecutor.execute(() -> {
+            List<Long> ids = idsSource.loadIds();
+            runOnUiThread(() -> {
+                if (idsExecutor.isShutdown() || idsSource != source) {
+                    return;
+                }
+                allIds = ids;
+                updateSelectionButtons();
+            });
+        });
     }
 
     @Override
@@ -537,11 +611,13 @@ public class InstanceUploaderListActivity extends InstanceListActivity implement
 
     @Override
     protected void onDestroy() {
-        super.onDestroy();
-
-        if (listAdapter != null) {
-            ((InstanceUploaderAdapter) listAdapter).onDestroy();
+        if (instanceUploaderAdapter != null) {
+            getContentResolver().unregisterContentObserver(instancesObserver);
+            instanceUploaderAdapter.release();
         }
+        idsExecutor.shutdownNow();
+
+        super.onDestroy();
     }
 
     private void deleteIfSubmissionCompleted(String instanceId) {
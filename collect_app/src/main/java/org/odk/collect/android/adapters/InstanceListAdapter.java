@@ -0,0 +1,265 @@
+package org.odk.collect.android.adapters;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.odk.collect.android.R;
+import org.odk.collect.android.dao.InstancePageSource;
+import org.odk.collect.android.dto.InstanceListItem;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows the instances of an {@link InstancePageSource}, loading a page of them on a background
+ * thread whenever the list is scrolled close to the end of the rows loaded so far.
+ * <p>
+ * When the source or its data changes, the rows that were loaded are loaded again and compared with
+ * the ones shown on the background thread as well, so that only the rows that actually changed are
+ * bound again and the list keeps its scroll position.
+ */
+public class InstanceListAdapter extends RecyclerView.Adapter<InstanceListAdapter.ViewHolder> {
+
+    private static final int PAGE_SIZE = 50;
+
+    // how close to the end of the loaded rows a row has to be bound for the next page to be loaded
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    private final Listener listener;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private List<InstanceListItem> items = Collections.emptyList();
+    private InstancePageSource source;
+
+    // incremented whenever the rows are to be replaced, so that pages loaded before are dropped
+    private int generation;
+    private boolean loading;
+    private boolean endReached;
+    private boolean refreshQueued;
+    private boolean released;
+
+    public InstanceListAdapter(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the rows with the first page of the given source.
+     */
+    public void setSource(InstancePageSource source) {
+        this.source = source;
+        reload(PAGE_SIZE);
+    }
+
+    /**
+     * Loads the rows shown so far again, e.g. because instances have been added or changed.
+     * Several calls before the rows have started loading again only load them once.
+     */
+    public void refresh() {
+        if (source != null && !refreshQueued) {
+            reload(Math.max(items.size(), PAGE_SIZE));
+        }
+    }
+
+    /**
+     * Stops loading pages. The adapter can't be used any more afterwards.
+     */
+    public void release() {
+        released = true;
+        executor.shutdownNow();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.form_chooser_list_item, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        onBindItem(holder, items.get(position));
+
+        if (position >= items.size() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Shows the given row in the given view holder, which was created by
+     * {@link #onCreateViewHolder}.
+     */
+    protected void onBindItem(@NonNull ViewHolder holder, InstanceListItem item) {
+        holder.bind(item, listener);
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    private void reload(int count) {
+        final int reloadGeneration = ++generation;
+        final InstancePageSource reloadSource = source;
+        final List<InstanceListItem> oldItems = items;
+        loading = true;
+        refreshQueued = true;
+
+        executor.execute(() -> {
+            handler.post(() -> {
+                if (reloadGeneration == generation) {
+                    refreshQueued = false;
+                }
+            });
+
+            List<InstanceListItem> newItems = reloadSource.loadPage(null, count);
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new ItemDiffCallback(oldItems, newItems));
+
+            handler.post(() -> {
+                if (released || reloadGeneration != generation) {
+                    return;
+                }
+                items = newItems;
+                endReached = newItems.size() < count;
+                loading = false;
+                diff.dispatchUpdatesTo(this);
+                listener.onListLoaded(items.size());
+            });
+        });
+    }
+
+    private void loadNextPage() {
+        if (loading || endReached || items.isEmpty()) {
+            return;
+        }
+
+        final int pageGeneration = generation;
+        final InstancePageSource pageSource = source;
+        final InstanceListItem last = items.get(items.size() - 1);
+        loading = true;
+
+        executor.execute(() -> {
+            List<InstanceListItem> page = pageSource.loadPage(last, PAGE_SIZE);
+
+            handler.post(() -> {
+                if (released || pageGeneration != generation) {
+                    return;
+                }
+                int start = items.size();
+                List<InstanceListItem> newItems = new ArrayList<>(start + page.size());
+                newItems.addAll(items);
+                newItems.addAll(page);
+                items = newItems;
+                endReached = page.size() < PAGE_SIZE;
+                loading = false;
+                notifyItemRangeInserted(start, page.size());
+            });
+        });
+    }
+
+    private static class ItemDiffCallback extends DiffUtil.Callback {
+        private final List<InstanceListItem> oldItems;
+        private final List<InstanceListItem> newItems;
+
+        ItemDiffCallback(List<InstanceListItem> oldItems, List<InstanceListItem> newItems) {
+            this.oldItems = oldItems;
+            this.newItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldItems.get(oldItemPosition).getId() == newItems.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldItems.get(oldItemPosition).equals(newItems.get(newItemPosition));
+        }
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView image;
+        final TextView title;
+        final TextView subtitle;
+        final TextView disabledCause;
+
+        ViewHolder(View v) {
+            super(v);
+            image = v.findViewById(R.id.image);
+            title = v.findViewById(R.id.form_title);
+            subtitle = v.findViewById(R.id.form_subtitle);
+            disabledCause = v.findViewById(R.id.form_subtitle2);
+
+            TypedValue background = new TypedValue();
+            v.getContext().getTheme().resolveAttribute(R.attr.selectableItemBackground, background, true);
+            v.setBackgroundResource(background.resourceId);
+        }
+
+        void bind(InstanceListItem item, Listener listener) {
+            title.setText(item.getDisplayName());
+            subtitle.setText(item.getSubtext());
+            setImageFromStatus(item.getStatus());
+
+            // Material design "disabled" opacity is 38%.
+            float alpha = item.isEnabled() ? 1f : 0.38f;
+            title.setAlpha(alpha);
+            subtitle.setAlpha(alpha);
+            disabledCause.setAlpha(alpha);
+            image.setAlpha(alpha);
+            disabledCause.setVisibility(item.isEnabled() ? View.GONE : View.VISIBLE);
+            disabledCause.setText(item.getDisabledMessage());
+
+            itemView.setOnClickListener(v -> listener.onItemClick(item));
+        }
+
+        private void setImageFromStatus(String status) {
+            switch (status) {
+                case InstanceProviderAPI.STATUS_INCOMPLETE:
+                    image.setImageResource(R.drawable.form_state_saved);
+                    break;
+                case InstanceProviderAPI.STATUS_COMPLETE:
+                    image.setImageResource(R.drawable.form_state_finalized);
+                    break;
+                case InstanceProviderAPI.STATUS_SUBMITTED:
+                    image.setImageResource(R.drawable.form_state_submitted);
+                    break;
+                case InstanceProviderAPI.STATUS_SUBMISSION_FAILED:
+                    image.setImageResource(R.drawable.form_state_submission_failed);
+                    break;
+            }
+        }
+    }
+
+    public interface Listener {
+        void onItemClick(InstanceListItem item);
+
+        /**
+         * Called when the rows have been replaced with ones from the current source, e.g. to hide
+         * a progress bar or show that the list is empty.
+         */
+        void onListLoaded(int itemCount);
+    }
+}
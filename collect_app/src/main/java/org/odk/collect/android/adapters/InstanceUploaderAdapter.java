@@ -2,47 +2,46 @@ package org.odk.collect.android.adapters;
 
 import android.app.Activity;
 import android.content.Context;
-import android.database.Cursor;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
-import android.widget.CursorAdapter;
+import android.widget.Checkable;
 import android.widget.ImageView;
-import android.widget.TextView;
+
+import androidx.annotation.NonNull;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dto.InstanceListItem;
 import org.odk.collect.android.events.RxEventBus;
 import org.odk.collect.android.events.SmsRxEvent;
 import org.odk.collect.android.preferences.GeneralSharedPreferences;
-import org.odk.collect.android.provider.InstanceProvider;
-import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.tasks.sms.SmsService;
 import org.odk.collect.android.tasks.sms.contracts.SmsSubmissionManagerContract;
 import org.odk.collect.android.tasks.sms.models.SmsSubmission;
 import org.odk.collect.android.views.ProgressBar;
 
-import java.util.Date;
-
 import javax.inject.Inject;
 
-import butterknife.BindView;
-import butterknife.ButterKnife;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
 import static org.odk.collect.android.preferences.GeneralKeys.KEY_SUBMISSION_TRANSPORT_TYPE;
-import static org.odk.collect.android.provider.InstanceProviderAPI.STATUS_SUBMISSION_FAILED;
-import static org.odk.collect.android.provider.InstanceProviderAPI.STATUS_SUBMITTED;
 import static org.odk.collect.android.tasks.sms.SmsService.RESULT_MESSAGE_READY;
 import static org.odk.collect.android.tasks.sms.SmsService.RESULT_OK_OTHERS_PENDING;
 import static org.odk.collect.android.tasks.sms.SmsService.RESULT_QUEUED;
 import static org.odk.collect.android.tasks.sms.SmsService.RESULT_SENDING;
 import static org.odk.collect.android.tasks.sms.SmsService.getDisplaySubtext;
 
-public class InstanceUploaderAdapter extends CursorAdapter {
+/**
+ * Shows the instances that can be sent with a checkbox for selecting them, and the progress of the
+ * ones that are being sent by SMS. Which instances are selected is up to the {@link Listener}, so
+ * that instances which haven't been loaded yet can be selected as well.
+ */
+public class InstanceUploaderAdapter extends InstanceListAdapter {
 
     @Inject
     RxEventBus eventBus;
@@ -52,64 +51,56 @@ public class InstanceUploaderAdapter extends CursorAdapter {
     SmsService smsService;
 
     private final Context context;
-    private final CompositeDisposable compositeDisposable;
+    private final Listener listener;
+    private final CompositeDisposable compositeDisposable = new CompositeDisposable();
 
-    public InstanceUploaderAdapter(Context context, Cursor cursor) {
-        super(context, cursor);
+    public InstanceUploaderAdapter(Context context, Listener listener) {
+        super(listener);
         this.context = context;
+        this.listener = listener;
         Collect.getInstance().getComponent().inject(this);
-        compositeDisposable = new CompositeDisposable();
     }
 
-    public void onDestroy() {
-        if (compositeDisposable != null) {
-            compositeDisposable.dispose();
-        }
+    @Override
+    public void release() {
+        super.release();
+        compositeDisposable.dispose();
     }
 
+    @NonNull
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        View view = LayoutInflater.from(context).inflate(R.layout.form_chooser_list_item_multiple_choice, parent, false);
-        view.setTag(new ViewHolder(view));
-        return view;
+    public InstanceListAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.form_chooser_list_item_multiple_choice, parent, false));
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        ViewHolder viewHolder = (ViewHolder) view.getTag();
-
-        long lastStatusChangeDate = getCursor().getLong(getCursor().getColumnIndex(InstanceProviderAPI.InstanceColumns.LAST_STATUS_CHANGE_DATE));
-        String status = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.STATUS));
-
-        viewHolder.formTitle.setText(cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.DISPLAY_NAME)));
-        viewHolder.formSubtitle.setText(InstanceProvider.getDisplaySubtext(context, status, new Date(lastStatusChangeDate)));
+    protected void onBindItem(@NonNull InstanceListAdapter.ViewHolder holder, InstanceListItem item) {
+        super.onBindItem(holder, item);
+        ViewHolder viewHolder = (ViewHolder) holder;
 
-        long instanceId = cursor.getLong(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns._ID));
+        ((Checkable) viewHolder.itemView).setChecked(listener.isSelected(item.getId()));
+        viewHolder.itemView.setOnClickListener(v -> {
+            listener.onItemClick(item);
+            ((Checkable) v).setChecked(listener.isSelected(item.getId()));
+        });
 
-        SmsSubmission model = submissionManager.getSubmissionModel(String.valueOf(instanceId));
+        String instanceId = String.valueOf(item.getId());
+        SmsSubmission model = submissionManager.getSubmissionModel(instanceId);
 
         boolean smsTransportEnabled = ((String) GeneralSharedPreferences.getInstance().get(KEY_SUBMISSION_TRANSPORT_TYPE)).equalsIgnoreCase(context.getString(R.string.transport_type_value_sms));
 
         boolean isSmsSubmission = model != null && smsTransportEnabled;
 
-        switch (status) {
-            case STATUS_SUBMISSION_FAILED:
-                viewHolder.statusIcon.setImageResource(R.drawable.form_state_submission_failed);
-                break;
-
-            case STATUS_SUBMITTED:
-                viewHolder.statusIcon.setImageResource(R.drawable.form_state_submitted);
-                break;
-
-            default:
-                viewHolder.statusIcon.setImageResource(R.drawable.form_state_finalized);
-        }
+        // the view holder may have shown an SMS submission before
+        viewHolder.progressBar.setVisibility(View.GONE);
+        viewHolder.closeButton.setVisibility(View.GONE);
+        viewHolder.checkbox.setVisibility(View.VISIBLE);
 
         if (isSmsSubmission) {
             viewHolder.progressBar.setVisibility(View.VISIBLE);
             viewHolder.progressBar.setProgressPercent((int) model.getCompletion().getPercentage(), false);
 
-            int smsStatus = submissionManager.checkNextMessageResultCode(String.valueOf(instanceId));
+            int smsStatus = submissionManager.checkNextMessageResultCode(instanceId);
 
             setSmsSubmissionStateIcons(smsStatus, viewHolder);
 
@@ -121,11 +112,12 @@ public class InstanceUploaderAdapter extends CursorAdapter {
             setDisplaySubTextView(currentStatus, viewHolder);
 
             setupCloseButton(viewHolder, smsStatus);
-            viewHolder.closeButton.setOnClickListener(v -> smsService.cancelFormSubmission(String.valueOf(instanceId)));
+            viewHolder.closeButton.setOnClickListener(v -> smsService.cancelFormSubmission(instanceId));
         }
 
-        compositeDisposable.add(eventBus.register(SmsRxEvent.class)
-                .filter(event -> event.getInstanceId().equals(String.valueOf(instanceId)))
+        disposeSmsEvents(viewHolder);
+        viewHolder.smsEvents = eventBus.register(SmsRxEvent.class)
+                .filter(event -> event.getInstanceId().equals(instanceId))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(event -> {
@@ -133,7 +125,21 @@ public class InstanceUploaderAdapter extends CursorAdapter {
                     setSmsSubmissionStateIcons(event.getResultCode(), viewHolder);
                     setDisplaySubTextView(event, viewHolder);
                     setupCloseButton(viewHolder, event.getResultCode());
-                }));
+                });
+        compositeDisposable.add(viewHolder.smsEvents);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull InstanceListAdapter.ViewHolder holder) {
+        disposeSmsEvents((ViewHolder) holder);
+    }
+
+    private void disposeSmsEvents(ViewHolder viewHolder) {
+        if (viewHolder.smsEvents != null) {
+            // removing it from the composite disposes it as well
+            compositeDisposable.remove(viewHolder.smsEvents);
+            viewHolder.smsEvents = null;
+        }
     }
 
     private void setupCloseButton(ViewHolder viewHolder, int resultCode) {
@@ -150,18 +156,18 @@ public class InstanceUploaderAdapter extends CursorAdapter {
     private void setSmsSubmissionStateIcons(int smsStatus, ViewHolder viewHolder) {
         switch (smsStatus) {
             case Activity.RESULT_OK:
-                viewHolder.statusIcon.setImageResource(R.drawable.form_state_submitted);
+                viewHolder.image.setImageResource(R.drawable.form_state_submitted);
                 break;
 
             case RESULT_QUEUED:
             case RESULT_OK_OTHERS_PENDING:
             case RESULT_SENDING:
             case RESULT_MESSAGE_READY:
-                viewHolder.statusIcon.setImageResource(R.drawable.form_state_sending);
+                viewHolder.image.setImageResource(R.drawable.form_state_sending);
                 break;
 
             default:
-                viewHolder.statusIcon.setImageResource(R.drawable.form_state_submission_failed);
+                viewHolder.image.setImageResource(R.drawable.form_state_submission_failed);
                 break;
         }
     }
@@ -169,26 +175,29 @@ public class InstanceUploaderAdapter extends CursorAdapter {
     private void setDisplaySubTextView(SmsRxEvent event, ViewHolder viewHolder) {
         String text = getDisplaySubtext(event.getResultCode(), event.getLastUpdated(), event.getProgress(), context);
         if (text != null) {
-            viewHolder.formSubtitle.setText(text);
+            viewHolder.subtitle.setText(text);
         }
     }
 
-    static class ViewHolder {
-        @BindView(R.id.form_title)
-        TextView formTitle;
-        @BindView(R.id.form_subtitle)
-        TextView formSubtitle;
-        @BindView(R.id.checkbox)
-        CheckBox checkbox;
-        @BindView(R.id.progress_bar)
-        ProgressBar progressBar;
-        @BindView(R.id.image)
-        ImageView statusIcon;
-        @BindView(R.id.close_box)
-        ImageView closeButton;
-
-        ViewHolder(View view) {
-            ButterKnife.bind(this, view);
+    static class ViewHolder extends InstanceListAdapter.ViewHolder {
+        final CheckBox checkbox;
+        final ProgressBar progressBar;
+        final ImageView closeButton;
+
+        Disposable smsEvents;
+
+        ViewHolder(View v) {
+            super(v);
+            checkbox = v.findViewById(R.id.checkbox);
+            progressBar = v.findViewById(R.id.progress_bar);
+            closeButton = v.findViewById(R.id.close_box);
         }
     }
+
+    public interface Listener extends InstanceListAdapter.Listener {
+        /**
+         * @return whether the instance with the given id has been selected to be sent
+         */
+        boolean isSelected(long instanceId);
+    }
 }
@@ -0,0 +1,285 @@
+package org.odk.collect.android.dao;
+
+import android.content.Context;
+import android.database.Cursor;
+import androidx.annotation.Nullable;
+
+import org.odk.collect.android.R;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dto.InstanceListItem;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.odk.collect.android.provider.InstanceProvider;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Loads a list of instances a page at a time. Every {@link Order} ends with the unique _id, so a
+ * page can be selected as the rows that come after the last row of the previous page ("keyset
+ * pagination") instead of skipping all the rows before it with an OFFSET. That keeps pages at the
+ * end of a long list as quick to load as the first one, and rows added or removed further up the
+ * list don't shift the pages after them.
+ * <p>
+ * The text that is shown for each row is worked out while loading, so that it happens on the
+ * loading thread and with one forms query per page rather than per row.
+ */
+public class InstancePageSource {
+
+    private static final String[] PROJECTION = {
+            InstanceColumns._ID,
+            InstanceColumns.DISPLAY_NAME,
+            InstanceColumns.STATUS,
+            InstanceColumns.LAST_STATUS_CHANGE_DATE,
+            InstanceColumns.DELETED_DATE,
+            InstanceColumns.CAN_EDIT_WHEN_COMPLETE,
+            InstanceColumns.JR_FORM_ID
+    };
+
+    private enum Key {
+        NAME(InstanceColumns.DISPLAY_NAME + " COLLATE NOCASE"),
+        STATUS(InstanceColumns.STATUS),
+        DATE(InstanceColumns.LAST_STATUS_CHANGE_DATE),
+        ID(InstanceColumns._ID);
+
+        private final String expression;
+
+        Key(String expression) {
+            this.expression = expression;
+        }
+
+        String getValue(InstanceListItem item) {
+            switch (this) {
+                case NAME:
+                    return item.getDisplayName();
+                case STATUS:
+                    return item.getStatus();
+                case DATE:
+                    return String.valueOf(item.getLastStatusChangeDate());
+                default:
+                    return String.valueOf(item.getId());
+            }
+        }
+    }
+
+    public enum Order {
+        BY_NAME_ASC(new Key[] {Key.NAME, Key.STATUS, Key.ID}, new boolean[] {false, true, false}),
+        BY_NAME_DESC(new Key[] {Key.NAME, Key.STATUS, Key.ID}, new boolean[] {true, true, false}),
+        BY_DATE_ASC(new Key[] {Key.DATE, Key.ID}, new boolean[] {false, false}),
+        BY_DATE_DESC(new Key[] {Key.DATE, Key.ID}, new boolean[] {true, true}),
+        BY_STATUS_ASC(new Key[] {Key.STATUS, Key.NAME, Key.ID}, new boolean[] {false, false, false}),
+        BY_STATUS_DESC(new Key[] {Key.STATUS, Key.NAME, Key.ID}, new boolean[] {true, false, false});
+
+        private final Key[] keys;
+        private final boolean[] descending;
+
+        Order(Key[] keys, boolean[] descending) {
+            this.keys = keys;
+            this.descending = descending;
+        }
+
+        String getSortOrder() {
+            StringBuilder sortOrder = new StringBuilder();
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) {
+                    sortOrder.append(", ");
+                }
+                sortOrder.append(keys[i].expression).append(descending[i] ? " DESC" : " ASC");
+            }
+            return sortOrder.toString();
+        }
+
+        /**
+         * @return a selection of the rows that come after the row with the given key values, e.g.
+         * {@code (a > ?) OR (a = ? AND b > ?)} for two ascending keys. Row values can't be compared
+         * directly because SQLite only supports that from version 3.15.
+         */
+        String getKeysetSelection() {
+            StringBuilder selection = new StringBuilder();
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) {
+                    selection.append(" OR ");
+                }
+                selection.append('(');
+                for (int j = 0; j < i; j++) {
+                    selection.append(keys[j].expression).append(" = ? AND ");
+                }
+                selection.append(keys[i].expression).append(descending[i] ? " < ?" : " > ?");
+                selection.append(')');
+            }
+            return selection.toString();
+        }
+
+        List<String> getKeysetSelectionArgs(InstanceListItem after) {
+            List<String> selectionArgs = new ArrayList<>();
+            for (int i = 0; i < keys.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    selectionArgs.add(keys[j].getValue(after));
+                }
+            }
+            return selectionArgs;
+        }
+    }
+
+    private final String selection;
+    private final String[] selectionArgs;
+    private final Order order;
+    private final boolean checkDisabled;
+
+    /**
+     * @param checkDisabled whether to disable the rows of instances that have been deleted or whose
+     *                      form has been deleted or is encrypted, which can't be viewed
+     */
+    public InstancePageSource(@Nullable String selection, @Nullable String[] selectionArgs, Order order,
+                              boolean checkDisabled) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs != null ? selectionArgs : new String[0];
+        this.order = order;
+        this.checkDisabled = checkDisabled;
+    }
+
+    /**
+     * Loads the rows that come after the given one. This queries the database, so it must not be
+     * called on the main thread.
+     *
+     * @param after the last row of the previous page, or null to load the first page
+     */
+    public List<InstanceListItem> loadPage(@Nullable InstanceListItem after, int pageSize) {
+        String pageSelection = selection;
+        List<String> pageSelectionArgs = new ArrayList<>(Arrays.asList(selectionArgs));
+        if (after != null) {
+            String keysetSelection = order.getKeysetSelection();
+            pageSelection = selection != null
+                    ? "(" + selection + ") AND (" + keysetSelection + ")"
+                    : keysetSelection;
+            pageSelectionArgs.addAll(order.getKeysetSelectionArgs(after));
+        }
+
+        List<Row> rows = new ArrayList<>();
+        try (Cursor cursor = new InstancesDao().getInstancesPageCursor(PROJECTION, pageSelection,
+                pageSelectionArgs.toArray(new String[0]), order.getSortOrder(), pageSize)) {
+            if (cursor == null) {
+                return Collections.emptyList();
+            }
+            while (cursor.moveToNext()) {
+                rows.add(new Row(cursor));
+            }
+        }
+
+        Map<String, Boolean> encryptedByFormId = checkDisabled ? getEncryptedByFormId(rows) : null;
+
+        Context context = Collect.getInstance();
+        List<InstanceListItem> items = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String subtext = InstanceProvider.getDisplaySubtext(context, row.status, new Date(row.lastStatusChangeDate));
+            String disabledMessage = checkDisabled ? getDisabledMessage(context, row, encryptedByFormId) : null;
+            items.add(new InstanceListItem(row.id, row.displayName, row.status, row.lastStatusChangeDate,
+                    row.canEditWhenComplete, subtext, disabledMessage));
+        }
+        return items;
+    }
+
+    /**
+     * Loads the ids of all the rows in order, e.g. to select all of them without loading every
+     * row. This queries the database, so it must not be called on the main thread.
+     */
+    public List<Long> loadIds() {
+        List<Long> ids = new ArrayList<>();
+        try (Cursor cursor = new InstancesDao().getInstancesCursor(new String[] {InstanceColumns._ID},
+                selection, selectionArgs, order.getSortOrder())) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return whether the form of each of the given rows is encrypted, leaving out the forms that
+     * don't exist any more
+     */
+    private static Map<String, Boolean> getEncryptedByFormId(List<Row> rows) {
+        Set<String> formIds = new LinkedHashSet<>();
+        for (Row row : rows) {
+            formIds.add(row.jrFormId);
+        }
+
+        Map<String, Boolean> encryptedByFormId = new HashMap<>();
+        if (formIds.isEmpty()) {
+            return encryptedByFormId;
+        }
+
+        StringBuilder selection = new StringBuilder(FormsColumns.JR_FORM_ID + " IN (");
+        for (int i = 0; i < formIds.size(); i++) {
+            selection.append(i > 0 ? ",?" : "?");
+        }
+        selection.append(')');
+
+        try (Cursor cursor = new FormsDao().getFormsCursor(selection.toString(), formIds.toArray(new String[0]))) {
+            if (cursor != null) {
+                int formIdColumnIndex = cursor.getColumnIndex(FormsColumns.JR_FORM_ID);
+                int base64RSAPublicKeyColumnIndex = cursor.getColumnIndex(FormsColumns.BASE64_RSA_PUBLIC_KEY);
+                while (cursor.moveToNext()) {
+                    String formId = cursor.getString(formIdColumnIndex);
+                    if (!encryptedByFormId.containsKey(formId)) {
+                        String base64RSAPublicKey = cursor.getString(base64RSAPublicKeyColumnIndex);
+                        encryptedByFormId.put(formId, base64RSAPublicKey != null && !base64RSAPublicKey.isEmpty());
+                    }
+                }
+            }
+        }
+        return encryptedByFormId;
+    }
+
+    @Nullable
+    private static String getDisabledMessage(Context context, Row row, Map<String, Boolean> encryptedByFormId) {
+        if (row.deletedDate != 0) {
+            try {
+                String deletedTime = context.getString(R.string.deleted_on_date_at_time);
+                return new SimpleDateFormat(deletedTime, Locale.getDefault()).format(new Date(row.deletedDate));
+            } catch (IllegalArgumentException e) {
+                Timber.e(e);
+                return context.getString(R.string.submission_deleted);
+            }
+        } else if (!encryptedByFormId.containsKey(row.jrFormId)) {
+            return context.getString(R.string.deleted_form);
+        } else if (encryptedByFormId.get(row.jrFormId)) {
+            return context.getString(R.string.encrypted_form);
+        } else {
+            return null;
+        }
+    }
+
+    private static class Row {
+        final long id;
+        final String displayName;
+        final String status;
+        final long lastStatusChangeDate;
+        final long deletedDate;
+        final boolean canEditWhenComplete;
+        final String jrFormId;
+
+        Row(Cursor cursor) {
+            id = cursor.getLong(cursor.getColumnIndex(InstanceColumns._ID));
+            displayName = cursor.getString(cursor.getColumnIndex(InstanceColumns.DISPLAY_NAME));
+            status = cursor.getString(cursor.getColumnIndex(InstanceColumns.STATUS));
+            lastStatusChangeDate = cursor.getLong(cursor.getColumnIndex(InstanceColumns.LAST_STATUS_CHANGE_DATE));
+            deletedDate = cursor.getLong(cursor.getColumnIndex(InstanceColumns.DELETED_DATE));
+            canEditWhenComplete = Boolean.parseBoolean(cursor.getString(cursor.getColumnIndex(InstanceColumns.CAN_EDIT_WHEN_COMPLETE)));
+            jrFormId = cursor.getString(cursor.getColumnIndex(InstanceColumns.JR_FORM_ID));
+        }
+    }
+}
@@ -16,9 +16,14 @@
 
 package org.odk.collect.android.dao;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.net.Uri;
+import android.os.RemoteException;
 import androidx.loader.content.CursorLoader;
 
 import org.odk.collect.android.application.Collect;
@@ -29,6 +34,8 @@ import org.odk.collect.android.utilities.ApplicationConstants;
 import java.util.ArrayList;
 import java.util.List;
 
+import timber.log.Timber;
+
 /**
  * This class is used to encapsulate all access to the {@link org.odk.collect.android.provider.InstanceProvider#DATABASE_NAME}
  * For more information about this pattern go to https://en.wikipedia.org/wiki/Data_access_object
@@ -43,29 +50,15 @@ public class InstancesDao {
         return getInstancesCursor(null, selection, selectionArgs, sortOrder);
     }
 
-    public CursorLoader getSentInstancesCursorLoader(CharSequence charSequence, String sortOrder) {
-        CursorLoader cursorLoader;
-        if (charSequence.length() == 0) {
-            cursorLoader = getSentInstancesCursorLoader(sortOrder);
-        } else {
-            String selection =
-                    InstanceProviderAPI.InstanceColumns.STATUS + " =? and "
-                            + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
-            String[] selectionArgs = {
-                    InstanceProviderAPI.STATUS_SUBMITTED,
-                    "%" + charSequence + "%"};
-
-            cursorLoader = getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
-        }
-
-        return cursorLoader;
-    }
-
-    public CursorLoader getSentInstancesCursorLoader(String sortOrder) {
+    public InstancePageSource getSentInstancesPageSource(CharSequence charSequence, InstancePageSource.Order order) {
         String selection = InstanceProviderAPI.InstanceColumns.STATUS + " =? ";
         String[] selectionArgs = {InstanceProviderAPI.STATUS_SUBMITTED};
+        if (charSequence.length() != 0) {
+            selection += "and " + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
+            selectionArgs = new String[] {InstanceProviderAPI.STATUS_SUBMITTED, "%" + charSequence + "%"};
+        }
 
-        return getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
+        return new InstancePageSource(selection, selectionArgs, order, true);
     }
 
     public Cursor getUnsentInstancesCursor() {
@@ -76,29 +69,15 @@ public class InstancesDao {
         return getInstancesCursor(null, selection, selectionArgs, sortOrder);
     }
 
-    public CursorLoader getUnsentInstancesCursorLoader(String sortOrder) {
+    public InstancePageSource getUnsentInstancesPageSource(CharSequence charSequence, InstancePageSource.Order order) {
         String selection = InstanceProviderAPI.InstanceColumns.STATUS + " !=? ";
         String[] selectionArgs = {InstanceProviderAPI.STATUS_SUBMITTED};
-
-        return getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
-    }
-
-    public CursorLoader getUnsentInstancesCursorLoader(CharSequence charSequence, String sortOrder) {
-        CursorLoader cursorLoader;
-        if (charSequence.length() == 0) {
-            cursorLoader = getUnsentInstancesCursorLoader(sortOrder);
-        } else {
-            String selection =
-                    InstanceProviderAPI.InstanceColumns.STATUS + " !=? and "
-                            + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
-            String[] selectionArgs = {
-                    InstanceProviderAPI.STATUS_SUBMITTED,
-                    "%" + charSequence + "%"};
-
-            cursorLoader = getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
+        if (charSequence.length() != 0) {
+            selection += "and " + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
+            selectionArgs = new String[] {InstanceProviderAPI.STATUS_SUBMITTED, "%" + charSequence + "%"};
         }
 
-        return cursorLoader;
+        return new InstancePageSource(selection, selectionArgs, order, false);
     }
 
     public Cursor getSavedInstancesCursor(String sortOrder) {
@@ -136,31 +115,18 @@ public class InstancesDao {
         return getInstancesCursor(null, selection, selectionArgs, sortOrder);
     }
 
-    public CursorLoader getFinalizedInstancesCursorLoader(String sortOrder) {
+    public InstancePageSource getFinalizedInstancesPageSource(CharSequence charSequence, InstancePageSource.Order order) {
         String selection = InstanceProviderAPI.InstanceColumns.STATUS + "=? or " + InstanceProviderAPI.InstanceColumns.STATUS + "=?";
         String[] selectionArgs = {InstanceProviderAPI.STATUS_COMPLETE, InstanceProviderAPI.STATUS_SUBMISSION_FAILED};
-
-        return getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
-    }
-
-    public CursorLoader getFinalizedInstancesCursorLoader(CharSequence charSequence, String sortOrder) {
-        CursorLoader cursorLoader;
-        if (charSequence.length() == 0) {
-            cursorLoader = getFinalizedInstancesCursorLoader(sortOrder);
-        } else {
-            String selection =
-                    "(" + InstanceProviderAPI.InstanceColumns.STATUS + "=? or "
-                            + InstanceProviderAPI.InstanceColumns.STATUS + "=?) and "
-                            + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
-            String[] selectionArgs = {
+        if (charSequence.length() != 0) {
+            selection = "(" + selection + ") and " + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
+            selectionArgs = new String[] {
                     InstanceProviderAPI.STATUS_COMPLETE,
                     InstanceProviderAPI.STATUS_SUBMISSION_FAILED,
                     "%" + charSequence + "%"};
-
-            cursorLoader = getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
         }
 
-        return cursorLoader;
+        return new InstancePageSource(selection, selectionArgs, order, false);
     }
 
     public Cursor getInstancesCursorForFilePath(String path) {
@@ -184,39 +150,24 @@ public class InstancesDao {
         return getInstancesCursor(null, selection, selectionArgs, sortOrder);
     }
 
-    public CursorLoader getAllCompletedUndeletedInstancesCursorLoader(String sortOrder) {
+    public InstancePageSource getCompletedUndeletedInstancesPageSource(CharSequence charSequence, InstancePageSource.Order order) {
         String selection = InstanceProviderAPI.InstanceColumns.DELETED_DATE + " IS NULL and ("
                 + InstanceProviderAPI.InstanceColumns.STATUS + "=? or "
                 + InstanceProviderAPI.InstanceColumns.STATUS + "=? or "
                 + InstanceProviderAPI.InstanceColumns.STATUS + "=?)";
-
         String[] selectionArgs = {InstanceProviderAPI.STATUS_COMPLETE,
                 InstanceProviderAPI.STATUS_SUBMISSION_FAILED,
                 InstanceProviderAPI.STATUS_SUBMITTED};
-
-        return getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
-    }
-
-    public CursorLoader getCompletedUndeletedInstancesCursorLoader(CharSequence charSequence, String sortOrder) {
-        CursorLoader cursorLoader;
-        if (charSequence.length() == 0) {
-            cursorLoader = getAllCompletedUndeletedInstancesCursorLoader(sortOrder);
-        } else {
-            String selection = InstanceProviderAPI.InstanceColumns.DELETED_DATE + " IS NULL and ("
-                    + InstanceProviderAPI.InstanceColumns.STATUS + "=? or "
-                    + InstanceProviderAPI.InstanceColumns.STATUS + "=? or "
-                    + InstanceProviderAPI.InstanceColumns.STATUS + "=?) and "
-                    + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
-
-            String[] selectionArgs = {
+        if (charSequence.length() != 0) {
+            selection += " and " + InstanceProviderAPI.InstanceColumns.DISPLAY_NAME + " LIKE ?";
+            selectionArgs = new String[] {
                     InstanceProviderAPI.STATUS_COMPLETE,
                     InstanceProviderAPI.STATUS_SUBMISSION_FAILED,
                     InstanceProviderAPI.STATUS_SUBMITTED,
                     "%" + charSequence + "%"};
-
-            cursorLoader = getInstancesCursorLoader(null, selection, selectionArgs, sortOrder);
         }
-        return cursorLoader;
+
+        return new InstancePageSource(selection, selectionArgs, order, false);
     }
 
     public Cursor getInstancesCursorForId(String id) {
@@ -235,6 +186,17 @@ public class InstancesDao {
                 .query(InstanceProviderAPI.InstanceColumns.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
     }
 
+    /**
+     * @return at most the given number of rows, so that a list can be loaded a page at a time
+     */
+    public Cursor getInstancesPageCursor(String[] projection, String selection, String[] selectionArgs, String sortOrder, int limit) {
+        Uri uri = InstanceProviderAPI.InstanceColumns.CONTENT_URI.buildUpon()
+                .appendQueryParameter(InstanceProviderAPI.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+        return Collect.getInstance().getContentResolver()
+                .query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
     public CursorLoader getInstancesCursorLoader(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         return new CursorLoader(
                 Collect.getInstance(),
@@ -249,6 +211,46 @@ public class InstancesDao {
         return Collect.getInstance().getContentResolver().insert(InstanceProviderAPI.InstanceColumns.CONTENT_URI, values);
     }
 
+    /**
+     * Inserts the given instances with a single batch, which the provider applies in one
+     * transaction. A batch is all or nothing, so if it fails the instances are inserted one at a
+     * time instead, so that an instance that can't be inserted doesn't keep out the others.
+     *
+     * @return the URIs of the new instances in the order they were given, with null for each
+     * instance that couldn't be inserted
+     */
+    public List<Uri> saveInstances(List<ContentValues> values) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues instanceValues : values) {
+            operations.add(ContentProviderOperation
+                    .newInsert(InstanceProviderAPI.InstanceColumns.CONTENT_URI)
+                    .withValues(instanceValues)
+                    .build());
+        }
+
+        List<Uri> uris = new ArrayList<>();
+        try {
+            ContentProviderResult[] results = Collect.getInstance().getContentResolver()
+                    .applyBatch(InstanceProviderAPI.AUTHORITY, operations);
+            for (ContentProviderResult result : results) {
+                uris.add(result.uri);
+            }
+            return uris;
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Timber.w(e, "Unable to insert %d instances at once, inserting them one at a time", values.size());
+        }
+
+        for (ContentValues instanceValues : values) {
+            try {
+                uris.add(saveInstance(instanceValues));
+            } catch (SQLException e) {
+                Timber.e(e);
+                uris.add(null);
+            }
+        }
+        return uris;
+    }
+
     public int updateInstance(ContentValues values, String where, String[] whereArgs) {
         return Collect.getInstance().getContentResolver().update(InstanceProviderAPI.InstanceColumns.CONTENT_URI, values, where, whereArgs);
     }
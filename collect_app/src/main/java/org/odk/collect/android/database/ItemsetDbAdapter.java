@@ -5,12 +5,18 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 
 import org.odk.collect.android.application.Collect;
 
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -124,6 +130,38 @@ public class ItemsetDbAdapter {
         return true;
     }
 
+    /**
+     * Creates the indexes that the given queries need on an itemset table, unless they exist
+     * already. Every query matches on list_name and most on further columns, so there is one index
+     * on list_name followed by the filter columns for each distinct set of filter columns.
+     */
+    public void createIndexes(String pathHash, List<ItemsetQuery> queries) {
+        Set<List<String>> indexes = new LinkedHashSet<>();
+        for (ItemsetQuery query : queries) {
+            if (!query.getFilterColumns().isEmpty()) {
+                List<String> columns = new ArrayList<>();
+                columns.add("list_name");
+                columns.addAll(query.getFilterColumns());
+                indexes.add(columns);
+            }
+        }
+        if (indexes.isEmpty()) {
+            indexes.add(Collections.singletonList("list_name"));
+        }
+
+        for (List<String> columns : indexes) {
+            String columnList = "\"" + TextUtils.join("\", \"", columns) + "\"";
+            String indexName = DATABASE_TABLE + pathHash + "_" + getMd5FromString(columnList);
+            try {
+                db.execSQL("CREATE INDEX IF NOT EXISTS \"" + indexName + "\" ON " + DATABASE_TABLE
+                        + pathHash + " (" + columnList + ");");
+            } catch (SQLException e) {
+                // e.g. the query refers to a column that isn't in itemsets.csv
+                Timber.w(e, "Could not index %s", columnList);
+            }
+        }
+    }
+
     public boolean addRow(String tableName, String[] columns, String[] newRow) {
         ContentValues cv = new ContentValues();
 
@@ -0,0 +1,202 @@
+package org.odk.collect.android.database;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The itemsets.csv query of a select question, parsed into a selection on the itemset table and
+ * the XPath expressions that give its arguments. The query has the form
+ * {@code instance('cities')/root/item[state=/data/state and county=/data/county]}.
+ * <p>
+ * Queries are parsed once and then shared by every widget built for them, since a widget is
+ * built again each time its question is shown. Only the text of the argument expressions is
+ * shared: widgets parse it themselves, so that a query doesn't hold on to parts of a form.
+ */
+public final class ItemsetQuery {
+
+    private static final String QUOTATION_MARK = "\"";
+    private static final int CACHE_SIZE = 100;
+
+    private static final Map<String, ItemsetQuery> CACHE =
+            new LinkedHashMap<String, ItemsetQuery>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ItemsetQuery> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private final String listName;
+    private final String selection;
+    private final List<String> arguments;
+    private final List<String> filterColumns;
+
+    private ItemsetQuery(String listName, String selection, List<String> arguments,
+            List<String> filterColumns) {
+        this.listName = listName;
+        this.selection = selection;
+        this.arguments = arguments;
+        this.filterColumns = filterColumns;
+    }
+
+    /**
+     * @param nodeset the value of the question's query attribute
+     */
+    public static ItemsetQuery get(String nodeset) {
+        synchronized (CACHE) {
+            ItemsetQuery query = CACHE.get(nodeset);
+            if (query == null) {
+                query = parse(nodeset);
+                CACHE.put(nodeset, query);
+            }
+            return query;
+        }
+    }
+
+    static ItemsetQuery parse(String nodeset) {
+        // parse out the list name, between the ''
+        String listName = nodeset.substring(nodeset.indexOf('\'') + 1, nodeset.lastIndexOf('\''));
+
+        // isolate the string between between the [ ] characters
+        String queryString = nodeset.substring(nodeset.indexOf('[') + 1, nodeset.lastIndexOf(']'));
+
+        List<String> arguments = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        boolean usesOr = false;
+
+        StringBuilder selectionString = new StringBuilder();
+        // add the list name as the first argument, which will always be there
+        selectionString.append("list_name=?");
+
+        // check to see if there are any arguments
+        if (queryString.indexOf('=') != -1) {
+            selectionString.append(" and ");
+        }
+
+        // can't just split on 'and' or 'or' because they have different
+        // behavior, so loop through and break them off until we don't have any more
+        // must include the spaces in indexOf so we don't match words like "land"
+        int andIndex;
+        int orIndex = -1;
+
+        while ((andIndex = queryString.indexOf(" and ")) != -1 || (orIndex = queryString.indexOf(" or ")) != -1) {
+            if (andIndex != -1) {
+                String[] pair = queryString
+                        .substring(0, andIndex)
+                        .split("=");
+
+                if (pair.length == 2) {
+                    selectionString
+                            .append(QUOTATION_MARK)
+                            .append(pair[0].trim())
+                            .append(QUOTATION_MARK)
+                            .append("=? and ");
+
+                    columns.add(pair[0].trim());
+                    arguments
+                            .add(pair[1]
+                                    .trim());
+                }
+                // move string forward to after " and "
+                queryString = queryString.substring(andIndex + 5, queryString.length());
+            } else {
+                String subString = queryString.substring(0, orIndex);
+                String[] pair = subString.split("=");
+
+                if (pair.length == 2) {
+                    selectionString
+                            .append(QUOTATION_MARK)
+                            .append(pair[0].trim())
+                            .append(QUOTATION_MARK)
+                            .append("=? or ");
+                    columns.add(pair[0].trim());
+                    arguments.add(pair[1].trim());
+                }
+                usesOr = true;
+                // move string forward to after " or "
+                queryString = queryString.substring(orIndex + 4, queryString.length());
+                orIndex = -1;
+            }
+        }
+
+        // parse the last segment (or only segment if there are no 'and' or 'or' clauses
+        String[] pair = queryString.split("=");
+        if (pair.length == 2) {
+            selectionString
+                    .append(QUOTATION_MARK)
+                    .append(pair[0].trim())
+                    .append(QUOTATION_MARK)
+                    .append("=?");
+            columns.add(pair[0].trim());
+            arguments.add(pair[1].trim());
+        }
+
+        // an index on the filter columns can only be used if every one of them must match
+        List<String> filterColumns = usesOr ? Collections.emptyList() : columns;
+
+        return new ItemsetQuery(listName, selectionString.toString(), arguments, filterColumns);
+    }
+
+    /**
+     * @return the queries of all the itemset questions in the given form
+     */
+    public static List<ItemsetQuery> findQueries(InputStream formXml)
+            throws IOException, XmlPullParserException {
+        List<ItemsetQuery> queries = new ArrayList<>();
+
+        KXmlParser parser = new KXmlParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(formXml, null);
+
+        for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+                eventType = parser.next()) {
+            if (eventType == XmlPullParser.START_TAG) {
+                String nodeset = parser.getAttributeValue(null, "query");
+                if (nodeset != null && nodeset.indexOf('[') != -1 && nodeset.indexOf('\'') != -1) {
+                    queries.add(get(nodeset));
+                }
+            }
+        }
+
+        return queries;
+    }
+
+    public String getListName() {
+        return listName;
+    }
+
+    /**
+     * @return the selection on the itemset table. Its first argument is the list name, followed
+     * by the values of the expressions given by {@link #getArgument(int)} in order.
+     */
+    public String getSelection() {
+        return selection;
+    }
+
+    public int getArgumentCount() {
+        return arguments.size();
+    }
+
+    /**
+     * @return the XPath expression that gives the value of the given argument
+     */
+    public String getArgument(int index) {
+        return arguments.get(index);
+    }
+
+    /**
+     * @return the columns that rows must match on, in addition to list_name, or an empty list if
+     * the query has alternatives
+     */
+    public List<String> getFilterColumns() {
+        return filterColumns;
+    }
+}
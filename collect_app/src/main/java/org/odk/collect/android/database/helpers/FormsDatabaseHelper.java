@@ -50,12 +50,16 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "forms.db";
     public static final String FORMS_TABLE_NAME = "forms";
 
-    private static final int DATABASE_VERSION = 7;
+    private static final int DATABASE_VERSION = 8;
 
     // These exist in database versions 2 and 3, but not in 4...
     private static final String TEMP_FORMS_TABLE_NAME = "forms_v4";
     private static final String MODEL_VERSION = "modelVersion";
 
+    private static final String FORM_ID_INDEX = FORMS_TABLE_NAME + "_" + JR_FORM_ID + "_index";
+    private static final String MD5_HASH_INDEX = FORMS_TABLE_NAME + "_" + MD5_HASH + "_index";
+    private static final String FILE_PATH_INDEX = FORMS_TABLE_NAME + "_" + FORM_FILE_PATH + "_index";
+
     public FormsDatabaseHelper() {
         super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -63,6 +67,7 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         createFormsTableV7(db);
+        createFormsIndexesV8(db);
     }
 
     @SuppressWarnings({"checkstyle:FallThrough"})
@@ -82,6 +87,8 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
                 upgradeToVersion6(db);
             case 6:
                 upgradeToVersion7(db);
+            case 7:
+                createFormsIndexesV8(db);
                 break;
             default:
                 Timber.i("Unknown version %s", oldVersion);
@@ -98,6 +105,7 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
                 .end();
 
         createFormsTableV7(db);
+        createFormsIndexesV8(db);
 
         Timber.i("Downgrading database from %d to %d completed with success.", oldVersion, newVersion);
     }
@@ -322,4 +330,17 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
                 + AUTO_DELETE + " text, "
                 + LAST_DETECTED_FORM_VERSION_HASH + " text);");
     }
+
+    /**
+     * Version 8 adds indexes for the columns that forms are looked up by, e.g. when checking
+     * whether a downloaded form or one found on disk is already known.
+     */
+    private void createFormsIndexesV8(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FORM_ID_INDEX + " ON "
+                + FORMS_TABLE_NAME + " (" + JR_FORM_ID + ", " + JR_VERSION + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + MD5_HASH_INDEX + " ON "
+                + FORMS_TABLE_NAME + " (" + MD5_HASH + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FILE_PATH_INDEX + " ON "
+                + FORMS_TABLE_NAME + " (" + FORM_FILE_PATH + ");");
+    }
 }
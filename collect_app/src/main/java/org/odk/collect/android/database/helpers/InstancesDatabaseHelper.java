@@ -49,12 +49,17 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
     static final String DATABASE_NAME = "instances.db";
     public static final String INSTANCES_TABLE_NAME = "instances";
 
-    static final int DATABASE_VERSION = 5;
+    static final int DATABASE_VERSION = 6;
 
     private static final String[] COLUMN_NAMES_V5 = new String[] {_ID, DISPLAY_NAME, SUBMISSION_URI, CAN_EDIT_WHEN_COMPLETE,
             INSTANCE_FILE_PATH, JR_FORM_ID, JR_VERSION, STATUS, LAST_STATUS_CHANGE_DATE, DELETED_DATE};
     static final String[] CURRENT_VERSION_COLUMN_NAMES = COLUMN_NAMES_V5;
 
+    static final String STATUS_INDEX = INSTANCES_TABLE_NAME + "_" + STATUS + "_index";
+    static final String FORM_ID_INDEX = INSTANCES_TABLE_NAME + "_" + JR_FORM_ID + "_index";
+    static final String FILE_PATH_INDEX = INSTANCES_TABLE_NAME + "_" + INSTANCE_FILE_PATH + "_index";
+    static final String[] CURRENT_VERSION_INDEX_NAMES = {STATUS_INDEX, FORM_ID_INDEX, FILE_PATH_INDEX};
+
     public InstancesDatabaseHelper() {
         super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -62,6 +67,7 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         createInstancesTableV5(db, INSTANCES_TABLE_NAME);
+        createInstancesIndexesV6(db);
     }
 
     /**
@@ -84,6 +90,8 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
                 upgradeToVersion4(db);
             case 4:
                 moveInstancesTableToVersion5(db);
+            case 5:
+                createInstancesIndexesV6(db);
                 break;
             default:
                 Timber.i("Unknown version %d", oldVersion);
@@ -96,6 +104,7 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Timber.i("Downgrading database from version %d to %d", oldVersion, newVersion);
         moveInstancesTableToVersion5(db);
+        createInstancesIndexesV6(db);
 
         Timber.i("Downgrading database from version %d to %d completed with success.", oldVersion, newVersion);
     }
@@ -193,6 +202,20 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
                 + DELETED_DATE + " date );");
     }
 
+    /**
+     * Version 6 adds indexes for the columns that instances are looked up by, so that e.g. finding
+     * the finalized instances or the instance for a file doesn't scan the whole table. Moving the
+     * table to a new one drops its indexes, so this has to happen after any such migration.
+     */
+    private void createInstancesIndexesV6(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + STATUS_INDEX + " ON "
+                + INSTANCES_TABLE_NAME + " (" + STATUS + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FORM_ID_INDEX + " ON "
+                + INSTANCES_TABLE_NAME + " (" + JR_FORM_ID + ", " + JR_VERSION + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + FILE_PATH_INDEX + " ON "
+                + INSTANCES_TABLE_NAME + " (" + INSTANCE_FILE_PATH + ");");
+    }
+
     static List<String> getInstancesColumnNames(SQLiteDatabase db) {
         String[] columnNames;
         try (Cursor c = db.query(INSTANCES_TABLE_NAME, null, null, null, null, null, null)) {
@@ -202,4 +225,15 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
         // Build a full-featured ArrayList rather than the limited array-backed List from asList
         return new ArrayList<>(Arrays.asList(columnNames));
     }
-}
\ No newline at end of file
+
+    static List<String> getInstancesIndexNames(SQLiteDatabase db) {
+        List<String> indexNames = new ArrayList<>();
+        try (Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?",
+                new String[] {INSTANCES_TABLE_NAME})) {
+            while (c.moveToNext()) {
+                indexNames.add(c.getString(0));
+            }
+        }
+        return indexNames;
+    }
+}
@@ -0,0 +1,95 @@
+package org.odk.collect.android.dto;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A row of an instance list with the text it shows already worked out, so that binding it to a view
+ * only sets that text.
+ */
+public final class InstanceListItem {
+
+    private final long id;
+    private final String displayName;
+    private final String status;
+    private final long lastStatusChangeDate;
+    private final boolean canEditWhenComplete;
+    private final String subtext;
+    private final String disabledMessage;
+
+    public InstanceListItem(long id, String displayName, String status, long lastStatusChangeDate,
+                            boolean canEditWhenComplete, String subtext, @Nullable String disabledMessage) {
+        this.id = id;
+        this.displayName = displayName;
+        this.status = status;
+        this.lastStatusChangeDate = lastStatusChangeDate;
+        this.canEditWhenComplete = canEditWhenComplete;
+        this.subtext = subtext;
+        this.disabledMessage = disabledMessage;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getLastStatusChangeDate() {
+        return lastStatusChangeDate;
+    }
+
+    public boolean canEditWhenComplete() {
+        return canEditWhenComplete;
+    }
+
+    public String getSubtext() {
+        return subtext;
+    }
+
+    /**
+     * @return why the instance can't be opened from the list, or null if it can be
+     */
+    @Nullable
+    public String getDisabledMessage() {
+        return disabledMessage;
+    }
+
+    public boolean isEnabled() {
+        return disabledMessage == null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof InstanceListItem)) {
+            return false;
+        }
+        InstanceListItem item = (InstanceListItem) other;
+        return id == item.id
+                && lastStatusChangeDate == item.lastStatusChangeDate
+                && canEditWhenComplete == item.canEditWhenComplete
+                && displayName.equals(item.displayName)
+                && status.equals(item.status)
+                && subtext.equals(item.subtext)
+                && (disabledMessage == null ? item.disabledMessage == null : disabledMessage.equals(item.disabledMessage));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + displayName.hashCode();
+        result = 31 * result + status.hashCode();
+        result = 31 * result + (int) (lastStatusChangeDate ^ (lastStatusChangeDate >>> 32));
+        result = 31 * result + (canEditWhenComplete ? 1 : 0);
+        result = 31 * result + subtext.hashCode();
+        result = 31 * result + (disabledMessage != null ? disabledMessage.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,29 @@
+package org.odk.collect.android.events;
+
+/**
+ * Posted by {@link org.odk.collect.android.tasks.FormDefCacheWorker} each time it has finished
+ * with a form, whether the form was cached, already had a valid cache or couldn't be cached.
+ */
+public class FormDefCacheRxEvent extends RxEvent {
+    private final String formPath;
+    private final int formsProcessed;
+    private final int formsTotal;
+
+    public FormDefCacheRxEvent(String formPath, int formsProcessed, int formsTotal) {
+        this.formPath = formPath;
+        this.formsProcessed = formsProcessed;
+        this.formsTotal = formsTotal;
+    }
+
+    public String getFormPath() {
+        return formPath;
+    }
+
+    public int getFormsProcessed() {
+        return formsProcessed;
+    }
+
+    public int getFormsTotal() {
+        return formsTotal;
+    }
+}
@@ -0,0 +1,289 @@
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * Finds the external data columns a form looks rows up by and indexes them. Only columns ending in
+ * "_key" are indexed when a data set is imported, so without this a pulldata() by any other
+ * column, or a search() filtered by one, scans the whole table every time it is evaluated.
+ * <p>
+ * The indexes are created in each data set's database, so they are only built once per import of
+ * the data set. Finding the lookups means reading the whole form, so callers should only do it
+ * when a data set has been imported or the form has changed.
+ */
+public final class ExternalDataIndexAdvisor {
+
+    private static final Pattern PULLDATA_CALL = Pattern.compile("(?<![\\w:.-])pulldata\\s*\\(");
+    private static final Pattern SEARCH_CALL = Pattern.compile("(?<![\\w:.-])search\\s*\\(");
+
+    /** search() types that compare with LIKE and no leading wildcard, so they can use an index. */
+    private static final Set<String> INDEXABLE_SEARCH_TYPES = new HashSet<>();
+
+    static {
+        INDEXABLE_SEARCH_TYPES.add("matches");
+        INDEXABLE_SEARCH_TYPES.add("startswith");
+    }
+
+    private static final String INDEX_SUFFIX = "_lookup_idx";
+
+    private ExternalDataIndexAdvisor() {
+
+    }
+
+    /**
+     * Creates any missing indexes on the columns the given form looks up external data by. Does
+     * nothing if there is no imported data set in the media folder.
+     *
+     * @return false if the form couldn't be read to find its lookups
+     */
+    public static boolean createLookupIndexes(File formXml, File mediaFolder) {
+        File[] dbFiles = mediaFolder.listFiles(file -> file.getName().endsWith(".db"));
+        if (dbFiles == null || dbFiles.length == 0) {
+            return true;
+        }
+
+        Map<String, Set<String>> lookupColumns;
+        try (InputStream is = new FileInputStream(formXml)) {
+            lookupColumns = findLookupColumns(is);
+        } catch (IOException | XmlPullParserException e) {
+            Timber.w(e, "Could not read %s to find external data lookups", formXml);
+            return false;
+        }
+
+        for (File dbFile : dbFiles) {
+            String dbName = dbFile.getName();
+            // data set names are normalized to lower case when they are looked up
+            String dataSetName = dbName.substring(0, dbName.length() - ".db".length()).toLowerCase(Locale.US);
+            Set<String> columns = lookupColumns.get(dataSetName);
+            if (columns != null) {
+                createIndexes(dbFile, columns);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the safe names of the columns that pulldata() and search() calls in the form look up
+     * rows by, keyed by normalized data set name. Only arguments that are string literals are
+     * considered.
+     */
+    static Map<String, Set<String>> findLookupColumns(InputStream formXml)
+            throws IOException, XmlPullParserException {
+        Map<String, Set<String>> lookupColumns = new HashMap<>();
+
+        KXmlParser parser = new KXmlParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(formXml, null);
+
+        // calculates, conditions, appearances and output values are all in attributes
+        for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+                eventType = parser.next()) {
+            if (eventType != XmlPullParser.START_TAG) {
+                continue;
+            }
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                String value = parser.getAttributeValue(i);
+                addPulldataColumns(value, lookupColumns);
+                addSearchColumns(value, lookupColumns);
+            }
+        }
+
+        return lookupColumns;
+    }
+
+    /**
+     * pulldata(dataSet, queriedColumn, referenceColumn, referenceValue)
+     */
+    private static void addPulldataColumns(String expression, Map<String, Set<String>> lookupColumns) {
+        Matcher matcher = PULLDATA_CALL.matcher(expression);
+        while (matcher.find()) {
+            List<String> args = parseArguments(expression, matcher.end());
+            if (args == null || args.size() != 4) {
+                continue;
+            }
+
+            String dataSet = toStringLiteral(args.get(0));
+            String referenceColumn = toStringLiteral(args.get(2));
+            if (dataSet != null && referenceColumn != null) {
+                getColumns(lookupColumns, dataSet).add(ExternalDataUtil.toSafeColumnName(referenceColumn));
+            }
+        }
+    }
+
+    /**
+     * search(dataSet[, searchType, searchColumns, searchValue[, filterColumn, filterValue]])
+     */
+    private static void addSearchColumns(String expression, Map<String, Set<String>> lookupColumns) {
+        Matcher matcher = SEARCH_CALL.matcher(expression);
+        while (matcher.find()) {
+            List<String> args = parseArguments(expression, matcher.end());
+            if (args == null || (args.size() != 4 && args.size() != 6)) {
+                continue;
+            }
+
+            String dataSet = toStringLiteral(args.get(0));
+            if (dataSet == null) {
+                continue;
+            }
+
+            String searchType = toStringLiteral(args.get(1));
+            String searchColumns = toStringLiteral(args.get(2));
+            if (searchType != null && searchColumns != null
+                    && INDEXABLE_SEARCH_TYPES.contains(searchType.trim().toLowerCase(Locale.US))
+                    && searchColumns.trim().length() > 0) {
+                getColumns(lookupColumns, dataSet).addAll(ExternalDataUtil.createListOfColumns(searchColumns));
+            }
+
+            if (args.size() == 6) {
+                String filterColumn = toStringLiteral(args.get(4));
+                if (filterColumn != null) {
+                    getColumns(lookupColumns, dataSet).add(ExternalDataUtil.toSafeColumnName(filterColumn));
+                }
+            }
+        }
+    }
+
+    private static Set<String> getColumns(Map<String, Set<String>> lookupColumns, String dataSet) {
+        // same normalization as ExternalDataHandlerBase
+        String dataSetName = dataSet.toLowerCase(Locale.US);
+        if (dataSetName.endsWith(".csv")) {
+            dataSetName = dataSetName.substring(0, dataSetName.lastIndexOf(".csv"));
+        }
+
+        Set<String> columns = lookupColumns.get(dataSetName);
+        if (columns == null) {
+            columns = new LinkedHashSet<>();
+            lookupColumns.put(dataSetName, columns);
+        }
+        return columns;
+    }
+
+    /**
+     * @param start the index just after the opening parenthesis of a function call
+     * @return the trimmed top level arguments of the call, or null if it isn't closed
+     */
+    private static List<String> parseArguments(String expression, int start) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        int depth = 0;
+        char quote = 0;
+
+        for (int i = start; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' && depth == 0) {
+                args.add(arg.toString().trim());
+                return args;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                args.add(arg.toString().trim());
+                arg.setLength(0);
+                continue;
+            }
+            arg.append(c);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the value of a quoted string literal, or null if the argument is any other
+     * expression
+     */
+    private static String toStringLiteral(String arg) {
+        if (arg.length() < 2) {
+            return null;
+        }
+        char quote = arg.charAt(0);
+        if ((quote != '\'' && quote != '"') || arg.charAt(arg.length() - 1) != quote
+                || arg.indexOf(quote, 1) != arg.length() - 1) {
+            return null;
+        }
+        return arg.substring(1, arg.length() - 1);
+    }
+
+    private static void createIndexes(File dbFile, Set<String> columns) {
+        SQLiteDatabase db = null;
+        try {
+            db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+
+            Set<String> tableColumns = new HashSet<>();
+            Set<String> indexedColumns = new HashSet<>();
+            try (Cursor c = db.rawQuery("PRAGMA table_info(" + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + ")", null)) {
+                while (c.moveToNext()) {
+                    tableColumns.add(c.getString(c.getColumnIndex("name")));
+                }
+            }
+            try (Cursor c = db.rawQuery("PRAGMA index_list(" + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + ")", null)) {
+                while (c.moveToNext()) {
+                    indexedColumns.addAll(getIndexedColumns(db, c.getString(c.getColumnIndex("name"))));
+                }
+            }
+
+            for (String column : columns) {
+                if (!tableColumns.contains(column) || indexedColumns.contains(column)) {
+                    continue;
+                }
+
+                long start = System.currentTimeMillis();
+                db.execSQL("CREATE INDEX IF NOT EXISTS " + column + INDEX_SUFFIX + " ON "
+                        + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + " (" + column + ");");
+                Timber.i("Indexed %s in %s for lookups in %d ms", column, dbFile.getName(),
+                        System.currentTimeMillis() - start);
+            }
+        } catch (SQLException e) {
+            Timber.w(e, "Could not create lookup indexes in %s", dbFile.getName());
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+    }
+
+    /**
+     * @return the first column of the given index. Later columns of a multi-column index can't be
+     * used to look rows up on their own.
+     */
+    private static Set<String> getIndexedColumns(SQLiteDatabase db, String indexName) {
+        Set<String> columns = new HashSet<>();
+        try (Cursor c = db.rawQuery("PRAGMA index_info(\"" + indexName + "\")", null)) {
+            while (c.moveToNext()) {
+                if (c.getInt(c.getColumnIndex("seqno")) == 0) {
+                    columns.add(c.getString(c.getColumnIndex("name")));
+                }
+            }
+        }
+        return columns;
+    }
+}
@@ -18,13 +18,9 @@
 
 package org.odk.collect.android.external;
 
-import android.database.sqlite.SQLiteDatabase;
-
-import org.apache.commons.io.FileUtils;
 import org.odk.collect.android.tasks.FormLoaderTask;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Map;
 
 import timber.log.Timber;
@@ -50,41 +46,15 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
             if (dataSetFile.exists()) {
                 File dbFile = new File(dataSetFile.getParentFile().getAbsolutePath(),
                         dataSetName + ".db");
-                if (dbFile.exists()) {
-                    // this means the someone updated the csv file, so we need to reload it
-                    boolean deleted = dbFile.delete();
-                    if (!deleted) {
-                        Timber.e("%s has changed but we could not delete the previous DB at %s",
-                                dataSetFile.getName(), dbFile.getAbsolutePath());
-                        continue;
-                    }
-                }
+                // if the DB exists, someone updated the csv file and only the changes are applied
                 ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(
                         dbFile);
                 externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, formLoaderTask);
 
                 if (formLoaderTask.isCancelled()) {
-                    Timber.w(
-                            "The import was cancelled, so we need to rollback.");
-
-                    // we need to drop the database file since it might be partially populated.
-                    // It will be re-created next time.
-
-                    Timber.w("Closing database to be deleted %s", dbFile.toString());
-
-                    // then close the database
-                    SQLiteDatabase db = externalSQLiteOpenHelper.getReadableDatabase();
-                    db.close();
-
-                    // the physically delete the db.
-                    try {
-                        FileUtils.forceDelete(dbFile);
-                        Timber.w("Deleted %s", dbFile.getName());
-                    } catch (IOException e) {
-                        Timber.e(e);
-                    }
-
-                    // then just exit and do not process any other CSVs.
+                    // importFromCSV has already rolled back or deleted what it imported, so just
+                    // exit and do not process any other CSVs.
+                    Timber.w("The import of %s was cancelled", dataSetFile.getName());
                     return;
 
                 } else {
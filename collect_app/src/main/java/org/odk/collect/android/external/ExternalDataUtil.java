@@ -66,17 +66,6 @@ public final class ExternalDataUtil {
 
     }
 
-    public static String toSafeColumnName(String columnName, Map<String, String> cache) {
-        String cachedName = cache.get(columnName);
-        if (cachedName == null) {
-            String safeColumnName = toSafeColumnName(columnName);
-            cache.put(columnName, safeColumnName);
-            return safeColumnName;
-        } else {
-            return cachedName;
-        }
-    }
-
     public static String toSafeColumnName(String columnName) {
         // SCTO-567 - begin all column names with "c_" to avoid possible conflicts with
         // reserved keywords; also, escape any potentially-illegal characters
@@ -18,9 +18,11 @@
 
 package org.odk.collect.android.external;
 
-import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -32,10 +34,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import au.com.bytecode.opencsv.CSVReader;
 import timber.log.Timber;
@@ -52,12 +59,31 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     private static final char QUOTE_CHAR = "\"".charAt(0);
     private static final char ESCAPE_CHAR = "\0".charAt(0);
 
+    /** Number of rows inserted per transaction. Progress is reported once per batch. */
+    private static final int IMPORT_BATCH_SIZE = 5000;
+
+    /**
+     * Hash of each row's values, used to find the rows that changed when a new version of the
+     * data set is imported. Safe column names all start with "c_", so this can't clash with them.
+     */
+    private static final String ROW_HASH_COLUMN_NAME = "row_hash";
+    private static final String PENDING_ROWS_TABLE_NAME = "pendingRows";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte VALUE_SEPARATOR = 0;
+    private static final byte NULL_VALUE_MARKER = 1;
+
+    /** Incremented whenever a data set is imported, so that cached query results are dropped. */
+    private static final AtomicInteger IMPORT_COUNT = new AtomicInteger();
+
+    private final File dbFile;
     private File dataSetFile;
     private ExternalDataReader externalDataReader;
     private FormLoaderTask formLoaderTask;
 
     public ExternalSQLiteOpenHelper(File dbFile) {
         super(new DatabaseContext(dbFile.getParentFile().getAbsolutePath()), dbFile.getName(), null, VERSION);
+        this.dbFile = dbFile;
     }
 
     public void importFromCSV(File dataSetFile, ExternalDataReader externalDataReader,
@@ -69,13 +95,40 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         SQLiteDatabase writableDatabase = null;
         try {
             writableDatabase = getWritableDatabase();
+            // The import commits in batches, so it can't run inside the transaction onCreate is
+            // called in. Instead, a failed or cancelled import deletes the partially populated
+            // database, which is imported again next time.
+            if (!importNamed(writableDatabase, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME)) {
+                Timber.w("Deleting partially populated %s", dbFile.getName());
+                writableDatabase.close();
+                writableDatabase = null;
+                SQLiteDatabase.deleteDatabase(dbFile);
+            }
+        } catch (Exception e) {
+            if (writableDatabase != null) {
+                writableDatabase.close();
+                writableDatabase = null;
+            }
+            SQLiteDatabase.deleteDatabase(dbFile);
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_import_generic_error,
+                            dataSetFile.getName(), e.getMessage()), e);
         } finally {
             if (writableDatabase != null) {
                 writableDatabase.close();
             }
+            IMPORT_COUNT.incrementAndGet();
         }
     }
 
+    /**
+     * @return the number of data set imports started since the app started. Results read from
+     * an external data database are stale once this has changed.
+     */
+    public static int getImportCount() {
+        return IMPORT_COUNT.get();
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         if (externalDataReader == null) {
@@ -87,16 +140,14 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
             return;
         }
 
-        try {
-            onCreateNamed(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
-        } catch (Exception e) {
-            throw new ExternalDataException(
-                    Collect.getInstance().getString(R.string.ext_import_generic_error,
-                            dataSetFile.getName(), e.getMessage()), e);
-        }
+        // The table is created and populated by importFromCSV once the database is open
     }
 
-    private void onCreateNamed(SQLiteDatabase db, String tableName) throws Exception {
+    /**
+     * @return false if the import was cancelled after some rows of the whole data set had been
+     * committed. Applying changes is rolled back when cancelled, so it leaves the table as it was.
+     */
+    private boolean importNamed(SQLiteDatabase db, String tableName) throws Exception {
         Timber.w("Reading data from '%s", dataSetFile.toString());
 
         onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
@@ -104,159 +155,327 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
 
         CSVReader reader = null;
         try {
-            reader = new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"),
-                    DELIMITING_CHAR, QUOTE_CHAR, ESCAPE_CHAR);
-            String[] headerRow = reader.readNext();
-
-            headerRow[0] = removeByteOrderMark(headerRow[0]);
-
-            if (!ExternalDataUtil.containsAnyData(headerRow)) {
-                throw new ExternalDataException(
-                        Collect.getInstance().getString(R.string.ext_file_no_data_error));
+            reader = openDataSet();
+            ImportColumns columns = new ImportColumns(readHeaderRow(reader));
+
+            if (columns.tableColumns.equals(getTableColumns(db, tableName))) {
+                // this data set was imported before with the same columns, so only apply what
+                // has changed since
+                importChanges(db, tableName, reader, columns);
+                return true;
+            } else {
+                db.execSQL("DROP TABLE IF EXISTS " + tableName);
+                return importAll(db, tableName, reader, columns);
             }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
 
-            List<String> conflictingColumns =
-                    ExternalDataUtil.findMatchingColumnsAfterSafeningNames(headerRow);
-
-            if (conflictingColumns != null && !conflictingColumns.isEmpty()) {
-                // this means that after removing invalid characters, some column names resulted
-                // with the same name,
-                // so the create table query will fail with "duplicate column" error.
-                throw new ExternalDataException(
-                        Collect.getInstance().getString(R.string.ext_conflicting_columns_error,
-                                conflictingColumns));
+    /**
+     * @return false if the import was cancelled
+     */
+    private boolean importAll(SQLiteDatabase db, String tableName, CSVReader reader,
+            ImportColumns columns) throws Exception {
+        String sql = "CREATE TABLE " + tableName + " ( "
+                + TextUtils.join(", ", columns.tableColumnDefinitions) + " );";
+        Timber.w("Creating database for %s with query: %s", dataSetFile, sql);
+        db.execSQL(sql);
+
+        // create the indexes.
+        // save the sql for later because inserts will be much faster if we don't have
+        // indexes already.
+        List<String> createIndexesCommands = new ArrayList<String>();
+        for (String header : columns.headerRow) {
+            if (header.endsWith("_key")) {
+                String indexSQL = "CREATE INDEX " + header + "_idx ON " + tableName + " ("
+                        + ExternalDataUtil.toSafeColumnName(header) + ");";
+                createIndexesCommands.add(indexSQL);
+                Timber.w("Will create an index on %s later.", header);
             }
+        }
+        createIndexesCommands.add("CREATE INDEX " + tableName + "_" + ROW_HASH_COLUMN_NAME
+                + "_idx ON " + tableName + " (" + ROW_HASH_COLUMN_NAME + ");");
 
-            Map<String, String> columnNamesCache = new HashMap<String, String>();
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        SQLiteStatement insert = db.compileStatement(columns.getInsertSql(tableName));
 
-            StringBuilder sb = new StringBuilder();
+        // The database is deleted and re-imported if the import doesn't complete, so there's
+        // no need to pay for a rollback journal or for syncing every commit
+        String journalMode = queryPragma(db, "journal_mode");
+        String synchronous = queryPragma(db, "synchronous");
+        queryPragma(db, "journal_mode=OFF");
+        db.execSQL("PRAGMA synchronous=OFF");
 
-            boolean sortColumnAlreadyPresent = false;
+        int rowCount = 0;
+        try {
+            db.beginTransaction();
 
-            sb
-                    .append("CREATE TABLE IF NOT EXISTS ")
-                    .append(tableName)
-                    .append(" ( ");
+            // populate the database
+            String[] row = readDataRow(reader, columns.headerRow);
+            while (row != null && !formLoaderTask.isCancelled()) {
+                rowCount++;
+                columns.bindInsert(insert, row, rowCount, columns.getRowHash(row, digest));
+                insert.executeInsert();
 
-            for (int i = 0; i < headerRow.length; i++) {
-                String columnName = headerRow[i].trim();
-                if (columnName.length() == 0) {
-                    continue;
-                }
-                if (i != 0) {
-                    sb.append(", ");
-                }
-                String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName,
-                        columnNamesCache);
-                if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                    sortColumnAlreadyPresent = true;
-                    sb.append(safeColumnName).append(" real ");
-                } else {
-                    sb.append(safeColumnName).append(" text collate nocase ");
+                if (rowCount % IMPORT_BATCH_SIZE == 0) {
+                    db.setTransactionSuccessful();
+                    db.endTransaction();
+                    db.beginTransaction();
+
+                    onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                            dataSetFile.getName(), " (" + rowCount + " records so far)"));
                 }
-            }
-            if (!sortColumnAlreadyPresent) {
-                sb.append(", ");
-                sb.append(ExternalDataUtil.SORT_COLUMN_NAME).append(" real ");
+
+                row = readDataRow(reader, columns.headerRow);
             }
 
-            sb.append(" );");
-            String sql = sb.toString();
-
-            Timber.w("Creating database for %s with query: %s", dataSetFile, sql);
-            db.execSQL(sql);
-
-            // create the indexes.
-            // save the sql for later because inserts will be much faster if we don't have
-            // indexes already.
-            List<String> createIndexesCommands = new ArrayList<String>();
-            for (String header : headerRow) {
-                if (header.endsWith("_key")) {
-                    String indexSQL = "CREATE INDEX " + header + "_idx ON " + tableName + " ("
-                            + ExternalDataUtil.toSafeColumnName(header, columnNamesCache) + ");";
-                    createIndexesCommands.add(indexSQL);
-                    Timber.w("Will create an index on %s later.", header);
-                }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            queryPragma(db, "journal_mode=" + journalMode);
+            db.execSQL("PRAGMA synchronous=" + synchronous);
+        }
+
+        if (formLoaderTask.isCancelled()) {
+            Timber.w("User canceled reading data from %s", dataSetFile.toString());
+            onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
+            return false;
+        } else {
+
+            onProgress(Collect.getInstance().getString(R.string.ext_import_finalizing_message));
+
+            // now create the indexes
+            for (String createIndexCommand : createIndexesCommands) {
+                Timber.w(createIndexCommand);
+                db.execSQL(createIndexCommand);
             }
 
-            // populate the database
-            String[] row = reader.readNext();
-            int rowCount = 0;
-            while (row != null && !formLoaderTask.isCancelled()) {
-                // SCTO-894 - first we should make sure that this is not an empty line
-                if (!ExternalDataUtil.containsAnyData(row)) {
-                    // yes, that is an empty row, ignore it
-                    row = reader.readNext();
-                    continue;
-                }
+            Timber.w("Read all %d records from %s", rowCount, dataSetFile.toString());
+            onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
+            return true;
+        }
+    }
 
-                // SCTO-894 - then check if the row contains less values than the header
-                // we should not ignore the existing values in the row,
-                // we will just fill up the rest with empty strings
-                if (row.length < headerRow.length) {
-                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
-                }
+    /**
+     * Brings a table imported from an earlier version of the data set up to date in a single
+     * transaction. Rows are matched by a hash of their values: rows whose hash is no longer in the
+     * data set are deleted and rows with a new hash are inserted, so a changed row is replaced.
+     * The data set is read twice, the first time only to hash its rows.
+     */
+    private void importChanges(SQLiteDatabase db, String tableName, CSVReader reader,
+            ImportColumns columns) throws Exception {
+        Timber.w("Applying changes from %s to the existing %s table", dataSetFile, tableName);
 
-                ContentValues values = new ContentValues();
-                if (!sortColumnAlreadyPresent) {
-                    values.put(ExternalDataUtil.SORT_COLUMN_NAME, rowCount + 1);
-                }
+        MessageDigest digest = MessageDigest.getInstance("MD5");
 
-                for (int i = 0; i < row.length && i < headerRow.length; i++) {
-                    String columnName = headerRow[i].trim();
-                    String columnValue = row[i];
-                    if (columnName.length() == 0) {
-                        continue;
-                    }
-                    String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName,
-                            columnNamesCache);
-                    if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                        try {
-                            values.put(safeColumnName, Double.parseDouble(columnValue));
-                        } catch (NumberFormatException e) {
-                            throw new ExternalDataException(Collect.getInstance().getString(
-                                    R.string.ext_sortBy_numeric_error, columnValue));
-                        }
-                    } else {
-                        values.put(safeColumnName, columnValue);
+        db.beginTransaction();
+        try {
+            // the hash and position of every row in the new version of the data set
+            db.execSQL("CREATE TABLE " + PENDING_ROWS_TABLE_NAME + " ( " + ROW_HASH_COLUMN_NAME
+                    + " blob, position integer );");
+
+            SQLiteStatement insertPending = db.compileStatement("INSERT INTO "
+                    + PENDING_ROWS_TABLE_NAME + " (" + ROW_HASH_COLUMN_NAME + ", position) VALUES (?, ?)");
+            int rowCount = 0;
+            try {
+                String[] row = readDataRow(reader, columns.headerRow);
+                while (row != null && !formLoaderTask.isCancelled()) {
+                    rowCount++;
+                    insertPending.bindBlob(1, columns.getRowHash(row, digest));
+                    insertPending.bindLong(2, rowCount);
+                    insertPending.executeInsert();
+
+                    if (rowCount % IMPORT_BATCH_SIZE == 0) {
+                        onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
+                                dataSetFile.getName(), " (" + rowCount + " records so far)"));
                     }
+
+                    row = readDataRow(reader, columns.headerRow);
                 }
-                db.insertOrThrow(tableName, null, values);
-                row = reader.readNext();
-                rowCount++;
-                if (rowCount % 100 == 0) {
-                    onProgress(Collect.getInstance().getString(R.string.ext_import_progress_message,
-                            dataSetFile.getName(), " (" + rowCount + " records so far)"));
-                }
+            } finally {
+                insertPending.close();
             }
 
             if (formLoaderTask.isCancelled()) {
                 Timber.w("User canceled reading data from %s", dataSetFile.toString());
                 onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
-            } else {
+                return;
+            }
 
-                onProgress(Collect.getInstance().getString(R.string.ext_import_finalizing_message));
+            onProgress(Collect.getInstance().getString(R.string.ext_import_finalizing_message));
+
+            db.execSQL("CREATE INDEX " + PENDING_ROWS_TABLE_NAME + "_" + ROW_HASH_COLUMN_NAME
+                    + "_idx ON " + PENDING_ROWS_TABLE_NAME + " (" + ROW_HASH_COLUMN_NAME + ");");
+
+            // Delete the rows that are gone. Identical rows can't be told apart, so if the number
+            // of copies of a row has changed, all of them are deleted and inserted again.
+            SQLiteStatement deleteRemoved = db.compileStatement("DELETE FROM " + tableName
+                    + " WHERE " + ROW_HASH_COLUMN_NAME + " NOT IN (SELECT " + ROW_HASH_COLUMN_NAME
+                    + " FROM " + PENDING_ROWS_TABLE_NAME + ") OR " + ROW_HASH_COLUMN_NAME
+                    + " IN (SELECT " + ROW_HASH_COLUMN_NAME + " FROM (SELECT " + ROW_HASH_COLUMN_NAME
+                    + ", COUNT(*) AS copies FROM " + PENDING_ROWS_TABLE_NAME + " GROUP BY "
+                    + ROW_HASH_COLUMN_NAME + ") AS pending WHERE copies != (SELECT COUNT(*) FROM "
+                    + tableName + " WHERE " + tableName + "." + ROW_HASH_COLUMN_NAME + " = pending."
+                    + ROW_HASH_COLUMN_NAME + "))");
+            int deletedCount;
+            try {
+                deletedCount = deleteRemoved.executeUpdateDelete();
+            } finally {
+                deleteRemoved.close();
+            }
 
-                // now create the indexes
-                for (String createIndexCommand : createIndexesCommands) {
-                    Timber.w(createIndexCommand);
-                    db.execSQL(createIndexCommand);
+            Set<ByteBuffer> addedRowHashes = new HashSet<>();
+            try (Cursor c = db.rawQuery("SELECT DISTINCT " + ROW_HASH_COLUMN_NAME + " FROM "
+                    + PENDING_ROWS_TABLE_NAME + " WHERE " + ROW_HASH_COLUMN_NAME + " NOT IN (SELECT "
+                    + ROW_HASH_COLUMN_NAME + " FROM " + tableName + ")", null)) {
+                while (c.moveToNext()) {
+                    addedRowHashes.add(ByteBuffer.wrap(c.getBlob(0)));
                 }
-
-                Timber.w("Read all data from %s", dataSetFile.toString());
-                onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
             }
-        } finally {
-            if (reader != null) {
+
+            int insertedCount = 0;
+            if (!addedRowHashes.isEmpty()) {
+                CSVReader secondPassReader = null;
+                SQLiteStatement insert = db.compileStatement(columns.getInsertSql(tableName));
                 try {
-                    reader.close();
-                } catch (IOException e) {
-                    Timber.e(e);
+                    secondPassReader = openDataSet();
+                    readHeaderRow(secondPassReader);
+
+                    int position = 0;
+                    String[] row = readDataRow(secondPassReader, columns.headerRow);
+                    while (row != null && !formLoaderTask.isCancelled()) {
+                        position++;
+                        byte[] rowHash = columns.getRowHash(row, digest);
+                        if (addedRowHashes.contains(ByteBuffer.wrap(rowHash))) {
+                            columns.bindInsert(insert, row, position, rowHash);
+                            insert.executeInsert();
+                            insertedCount++;
+                        }
+                        row = readDataRow(secondPassReader, columns.headerRow);
+                    }
+                } finally {
+                    insert.close();
+                    closeQuietly(secondPassReader);
                 }
+
+                if (formLoaderTask.isCancelled()) {
+                    Timber.w("User canceled reading data from %s", dataSetFile.toString());
+                    onProgress(Collect.getInstance().getString(R.string.ext_import_cancelled_message));
+                    return;
+                }
+            }
+
+            if (!columns.sortColumnAlreadyPresent) {
+                // the generated sort value is the row's position, which changes for unchanged
+                // rows when rows before them are added or removed
+                db.execSQL("UPDATE " + tableName + " SET " + ExternalDataUtil.SORT_COLUMN_NAME
+                        + " = (SELECT MIN(position) FROM " + PENDING_ROWS_TABLE_NAME + " WHERE "
+                        + PENDING_ROWS_TABLE_NAME + "." + ROW_HASH_COLUMN_NAME + " = " + tableName + "."
+                        + ROW_HASH_COLUMN_NAME + ") WHERE " + ExternalDataUtil.SORT_COLUMN_NAME
+                        + " NOT IN (SELECT position FROM " + PENDING_ROWS_TABLE_NAME + " WHERE "
+                        + PENDING_ROWS_TABLE_NAME + "." + ROW_HASH_COLUMN_NAME + " = " + tableName + "."
+                        + ROW_HASH_COLUMN_NAME + ")");
+            }
+
+            db.execSQL("DROP TABLE " + PENDING_ROWS_TABLE_NAME);
+            db.setTransactionSuccessful();
+
+            Timber.w("Applied changes from %s: %d records deleted and %d inserted out of %d",
+                    dataSetFile.toString(), deletedCount, insertedCount, rowCount);
+            onProgress(Collect.getInstance().getString(R.string.ext_import_completed_message));
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private CSVReader openDataSet() throws IOException {
+        return new CSVReader(new InputStreamReader(new FileInputStream(dataSetFile), "UTF-8"),
+                DELIMITING_CHAR, QUOTE_CHAR, ESCAPE_CHAR);
+    }
+
+    private String[] readHeaderRow(CSVReader reader) throws IOException {
+        String[] headerRow = reader.readNext();
+
+        headerRow[0] = removeByteOrderMark(headerRow[0]);
+
+        if (!ExternalDataUtil.containsAnyData(headerRow)) {
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_file_no_data_error));
+        }
+
+        List<String> conflictingColumns =
+                ExternalDataUtil.findMatchingColumnsAfterSafeningNames(headerRow);
+
+        if (conflictingColumns != null && !conflictingColumns.isEmpty()) {
+            // this means that after removing invalid characters, some column names resulted
+            // with the same name,
+            // so the create table query will fail with "duplicate column" error.
+            throw new ExternalDataException(
+                    Collect.getInstance().getString(R.string.ext_conflicting_columns_error,
+                            conflictingColumns));
+        }
+
+        return headerRow;
+    }
+
+    /**
+     * @return the next row that has any data, with at least as many values as the header, or null
+     * at the end of the data set
+     */
+    private static String[] readDataRow(CSVReader reader, String[] headerRow) throws IOException {
+        String[] row = reader.readNext();
+
+        // SCTO-894 - first we should make sure that this is not an empty line
+        while (row != null && !ExternalDataUtil.containsAnyData(row)) {
+            // yes, that is an empty row, ignore it
+            row = reader.readNext();
+        }
+
+        // SCTO-894 - then check if the row contains less values than the header
+        // we should not ignore the existing values in the row,
+        // we will just fill up the rest with empty strings
+        if (row != null && row.length < headerRow.length) {
+            row = ExternalDataUtil.fillUpNullValues(row, headerRow);
+        }
+
+        return row;
+    }
+
+    /**
+     * @return the names of the table's columns in order, empty if there is no such table
+     */
+    private static List<String> getTableColumns(SQLiteDatabase db, String tableName) {
+        List<String> columns = new ArrayList<>();
+        try (Cursor c = db.rawQuery("PRAGMA table_info(" + tableName + ")", null)) {
+            int nameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameIndex));
+            }
+        }
+        return columns;
+    }
+
+    private static void closeQuietly(CSVReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Timber.e(e);
             }
         }
     }
 
+    /**
+     * Runs a PRAGMA that returns its value, e.g. journal_mode. These can't be run with execSQL.
+     */
+    private static String queryPragma(SQLiteDatabase db, String pragma) {
+        try (Cursor c = db.rawQuery("PRAGMA " + pragma, null)) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
     }
@@ -276,4 +495,115 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     private String removeByteOrderMark(String bomCheckString) {
         return bomCheckString.startsWith("\uFEFF") ? bomCheckString.substring(1) : bomCheckString;
     }
+
+    /**
+     * The table columns for a data set's header row, and how its rows are bound to the insert.
+     */
+    private static class ImportColumns {
+        private final String[] headerRow;
+
+        /** Safe column name for every CSV column, or null for columns without a header. */
+        private final String[] safeColumnNames;
+        private final int sortColumnIndex;
+        private final boolean sortColumnAlreadyPresent;
+
+        private final List<String> tableColumns = new ArrayList<>();
+        private final List<String> tableColumnDefinitions = new ArrayList<>();
+
+        ImportColumns(String[] headerRow) {
+            this.headerRow = headerRow;
+
+            safeColumnNames = new String[headerRow.length];
+            int sortColumnIndex = -1;
+            for (int i = 0; i < headerRow.length; i++) {
+                String columnName = headerRow[i].trim();
+                if (columnName.length() == 0) {
+                    continue;
+                }
+                safeColumnNames[i] = ExternalDataUtil.toSafeColumnName(columnName);
+                tableColumns.add(safeColumnNames[i]);
+                if (safeColumnNames[i].equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                    sortColumnIndex = i;
+                    tableColumnDefinitions.add(safeColumnNames[i] + " real");
+                } else {
+                    tableColumnDefinitions.add(safeColumnNames[i] + " text collate nocase");
+                }
+            }
+            this.sortColumnIndex = sortColumnIndex;
+
+            sortColumnAlreadyPresent = sortColumnIndex != -1;
+            if (!sortColumnAlreadyPresent) {
+                tableColumns.add(ExternalDataUtil.SORT_COLUMN_NAME);
+                tableColumnDefinitions.add(ExternalDataUtil.SORT_COLUMN_NAME + " real");
+            }
+
+            tableColumns.add(ROW_HASH_COLUMN_NAME);
+            tableColumnDefinitions.add(ROW_HASH_COLUMN_NAME + " blob");
+        }
+
+        /**
+         * @return an insert with one parameter per table column, in {@link #tableColumns} order
+         */
+        String getInsertSql(String tableName) {
+            String[] placeholders = new String[tableColumns.size()];
+            Arrays.fill(placeholders, "?");
+            return "INSERT INTO " + tableName + " (" + TextUtils.join(", ", tableColumns)
+                    + ") VALUES (" + TextUtils.join(", ", placeholders) + ")";
+        }
+
+        /**
+         * Binds a row to an insert from {@link #getInsertSql(String)}.
+         *
+         * @param position the 1-based position of the row in the data set, used as its sort
+         *                 value if the data set doesn't have a sort column
+         */
+        void bindInsert(SQLiteStatement insert, String[] row, int position, byte[] rowHash) {
+            insert.clearBindings();
+
+            int parameterIndex = 0;
+            for (int i = 0; i < headerRow.length; i++) {
+                if (safeColumnNames[i] == null) {
+                    continue;
+                }
+                parameterIndex++;
+
+                String columnValue = row[i];
+                if (i == sortColumnIndex) {
+                    try {
+                        insert.bindDouble(parameterIndex, Double.parseDouble(columnValue));
+                    } catch (NumberFormatException | NullPointerException e) {
+                        throw new ExternalDataException(Collect.getInstance().getString(
+                                R.string.ext_sortBy_numeric_error, columnValue));
+                    }
+                } else if (columnValue == null) {
+                    insert.bindNull(parameterIndex);
+                } else {
+                    insert.bindString(parameterIndex, columnValue);
+                }
+            }
+
+            if (!sortColumnAlreadyPresent) {
+                insert.bindLong(++parameterIndex, position);
+            }
+            insert.bindBlob(++parameterIndex, rowHash);
+        }
+
+        /**
+         * @return the MD5 hash of the values of the row that are imported
+         */
+        byte[] getRowHash(String[] row, MessageDigest digest) {
+            for (int i = 0; i < headerRow.length; i++) {
+                if (safeColumnNames[i] == null) {
+                    continue;
+                }
+                if (row[i] == null) {
+                    digest.update(NULL_VALUE_MARKER);
+                } else {
+                    digest.update(row[i].getBytes(UTF_8));
+                    digest.update(VALUE_SEPARATOR);
+                }
+            }
+            return digest.digest();
+        }
+    }
 }
@@ -29,7 +29,10 @@ import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import timber.log.Timber;
 
@@ -42,10 +45,39 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
 
     public static final String HANDLER_NAME = "pulldata";
 
+    /**
+     * Maximum number of lookups whose results are kept. Calculations are re-evaluated whenever
+     * an answer changes, so the same lookups are repeated throughout a form session.
+     */
+    private static final int RESULT_CACHE_SIZE = 500;
+
+    private final Map<List<String>, String> resultCache =
+            new LinkedHashMap<List<String>, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, String> eldest) {
+                    return size() > RESULT_CACHE_SIZE;
+                }
+            };
+    private int cachedImportCount = ExternalSQLiteOpenHelper.getImportCount();
+    private int cacheHitCount;
+    private int cacheMissCount;
+
     public ExternalDataHandlerPull(ExternalDataManager externalDataManager) {
         super(externalDataManager);
     }
 
+    public int getCacheHitCount() {
+        synchronized (resultCache) {
+            return cacheHitCount;
+        }
+    }
+
+    public int getCacheMissCount() {
+        synchronized (resultCache) {
+            return cacheMissCount;
+        }
+    }
+
     @Override
     public String getName() {
         return HANDLER_NAME;
@@ -82,12 +114,48 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
         // SCTO-545
         dataSetName = normalize(dataSetName);
 
+        List<String> key = Arrays.asList(dataSetName, queriedColumn, referenceColumn, referenceValue);
+        int importCount = ExternalSQLiteOpenHelper.getImportCount();
+        synchronized (resultCache) {
+            if (importCount != cachedImportCount) {
+                // a data set was imported since the results were cached
+                resultCache.clear();
+                cachedImportCount = importCount;
+            }
+
+            String result = resultCache.get(key);
+            if (result != null) {
+                cacheHitCount++;
+                return result;
+            }
+            cacheMissCount++;
+        }
+
+        String result = query(dataSetName, queriedColumn, referenceColumn, referenceValue);
+        if (result == null) {
+            return "";
+        }
+
+        synchronized (resultCache) {
+            if (importCount == cachedImportCount) {
+                resultCache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the queried value, "" if there is no matching row, or null if the data set can't be
+     * queried
+     */
+    private String query(String dataSetName, String queriedColumn, String referenceColumn,
+            String referenceValue) {
         Cursor c = null;
         try {
             ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(
                     dataSetName, false);
             if (sqLiteOpenHelper == null) {
-                return "";
+                return null;
             }
 
             SQLiteDatabase db = sqLiteOpenHelper.getReadableDatabase();
@@ -107,7 +175,7 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
             }
         } catch (SQLiteException e) {
             Timber.i(e);
-            return "";
+            return null;
         } finally {
             if (c != null) {
                 c.close();
@@ -1,27 +1,53 @@
 package org.odk.collect.android.geo;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.BindException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import timber.log.Timber;
 
-/** A minimal HTTP server that serves tiles from a set of TileSources. */
+/**
+ * A minimal HTTP/1.1 server that serves tiles from a set of TileSources.
+ * <p>
+ * Connections are served by a fixed pool of worker threads. A worker keeps reading requests from
+ * its connection for as long as the client keeps it alive, answering pipelined requests in order,
+ * so that a map pan costs a few connections instead of a thread and a TCP handshake per tile. An
+ * idle connection is closed once it has been idle for {@link #KEEP_ALIVE_TIMEOUT_MS} or as soon as
+ * another connection is waiting for a worker, so that idle clients can't hold up busy ones.
+ */
 class TileHttpServer {
     private static final int PORT_MIN = 8000;
     private static final int PORT_MAX = 8999;
 
-    private final Map<String, TileSource> sources = new HashMap<>();
+    static final int WORKER_COUNT = 8;
+    static final int KEEP_ALIVE_TIMEOUT_MS = 5000;
+
+    // how often a worker waiting on an idle connection checks whether other connections are waiting
+    private static final int IDLE_POLL_MS = 100;
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final Map<String, TileSource> sources = new ConcurrentHashMap<>();
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        WORKER_COUNT, WORKER_COUNT, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
     private final ServerThread server;
     private final ServerSocket socket;
 
@@ -61,6 +87,12 @@ class TileHttpServer {
             socket.close();
         } catch (IOException e) { /* ignore */ }
         server.interrupt();
+        workers.shutdownNow();
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) { /* ignore */ }
+        }
         for (TileSource source : sources.values()) {
             if (source instanceof Closeable) {
                 try {
@@ -97,7 +129,8 @@ class TileHttpServer {
                 while (!isInterrupted()) {
                     Socket connection = socket.accept();
                     Timber.i("Accepted a client connection");
-                    new ResponseThread(connection).start();
+                    connections.add(connection);
+                    workers.execute(new ConnectionHandler(connection));
                 }
                 Timber.i("Server thread interrupted");
             } catch (IOException e) {
@@ -106,33 +139,127 @@ class TileHttpServer {
         }
     }
 
-    class ResponseThread extends Thread {
+    class ConnectionHandler implements Runnable {
         final Socket connection;
 
-        ResponseThread(Socket connection) {
+        ConnectionHandler(Socket connection) {
             this.connection = connection;
         }
 
         public void run() {
             try (Socket connection = this.connection) {
-                InputStreamReader reader = new InputStreamReader(connection.getInputStream());
-                String request = new BufferedReader(reader).readLine();
-                Timber.i("Received request: %s", request);
-                if (request == null) {
-                    return;
-                }
-                long start = System.currentTimeMillis();
-                Response response = getResponse(request);
-                if (response == null) {
-                    Timber.i("%s: No tile at these coordinates", request);
-                    return;
+                connection.setTcpNoDelay(true);
+                InputStream input = new BufferedInputStream(connection.getInputStream());
+                OutputStream output = new BufferedOutputStream(connection.getOutputStream());
+
+                boolean keepAlive = true;
+                while (keepAlive && awaitRequest(input)) {
+                    Request request = readRequest(input);
+                    if (request == null) {
+                        sendResponse(output, "400 Bad Request", null, false);
+                        break;
+                    }
+
+                    // Stop after this request if other connections are waiting for a worker
+                    keepAlive = request.keepAlive && workers.getQueue().isEmpty();
+
+                    long start = System.currentTimeMillis();
+                    Response response = getResponse(request.line);
+                    if (response == null) {
+                        Timber.i("%s: No tile at these coordinates", request.line);
+                        sendResponse(output, "404 Not Found", null, keepAlive);
+                    } else {
+                        sendResponse(output, "200 OK", response, keepAlive);
+                        long finish = System.currentTimeMillis();
+                        Timber.i("%s: Served %d bytes in %d ms", request.line, response.data.length, finish - start);
+                    }
+
+                    // Responses to pipelined requests are sent together
+                    if (!keepAlive || input.available() == 0) {
+                        output.flush();
+                    }
                 }
-                sendResponse(connection, response);
-                long finish = System.currentTimeMillis();
-                Timber.i("%s: Served %d bytes in %d ms", request, response.data.length, finish - start);
+                output.flush();
             } catch (IOException e) {
-                Timber.e(e, "Unable to read request from socket");
+                Timber.i("Connection closed: %s", e.getMessage());
+            } finally {
+                connections.remove(connection);
+            }
+        }
+
+        /**
+         * Waits for the next request to start arriving.
+         *
+         * @return false if the connection was closed, has been idle for the keep-alive timeout or
+         * should make way for other connections that are waiting for a worker
+         */
+        boolean awaitRequest(InputStream input) throws IOException {
+            long deadline = System.currentTimeMillis() + KEEP_ALIVE_TIMEOUT_MS;
+            connection.setSoTimeout(IDLE_POLL_MS);
+            while (true) {
+                try {
+                    input.mark(1);
+                    if (input.read() == -1) {
+                        return false;
+                    }
+                    input.reset();
+                    connection.setSoTimeout(KEEP_ALIVE_TIMEOUT_MS);
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    if (System.currentTimeMillis() >= deadline || !workers.getQueue().isEmpty()
+                        || workers.isShutdown()) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        /** Reads a request line and its headers, or returns null if the request is malformed. */
+        Request readRequest(InputStream input) throws IOException {
+            String line = readLine(input);
+            if (line == null) {
+                return null;
             }
+            Timber.i("Received request: %s", line);
+
+            String[] parts = line.split(" ");
+            if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+                return null;
+            }
+
+            // HTTP/1.1 connections are persistent unless the client asks otherwise, and
+            // HTTP/1.0 ones are only persistent if the client asks for it
+            boolean keepAlive = !parts[2].equals("HTTP/1.0");
+            String header;
+            while ((header = readLine(input)) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Connection")) {
+                    String value = header.substring(colon + 1).trim().toLowerCase(Locale.US);
+                    if (value.contains("close")) {
+                        keepAlive = false;
+                    } else if (value.contains("keep-alive")) {
+                        keepAlive = true;
+                    }
+                }
+            }
+            return header != null ? new Request(line, keepAlive) : null;
+        }
+
+        /** Reads a line terminated by CRLF or LF, or returns null at the end of the input. */
+        String readLine(InputStream input) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != -1 && b != '\n') {
+                if (line.size() >= MAX_LINE_LENGTH) {
+                    return null;
+                }
+                line.write(b);
+            }
+            if (b == -1) {
+                return null;
+            }
+            String text = line.toString("ISO-8859-1");
+            return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
         }
 
         protected Response getResponse(String request) {
@@ -161,29 +288,33 @@ class TileHttpServer {
             return null;
         }
 
-        protected void sendResponse(Socket connection, Response response) {
-            String headers = String.format(
-                Locale.US,
-                "HTTP/1.0 200\r\n" +
-                    "Content-Type: %s\r\n" +
-                    "Content-Encoding: %s\r\n" +
-                    "Content-Length: %d\r\n" +
-                    "\r\n",
-                response.contentType,
-                response.contentEncoding,
-                response.data.length
-            );
-
-            try (OutputStream output = connection.getOutputStream()) {
-                output.write(headers.getBytes());
+        protected void sendResponse(OutputStream output, String status, Response response, boolean keepAlive) throws IOException {
+            StringBuilder headers = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+            if (response != null) {
+                headers.append("Content-Type: ").append(response.contentType).append("\r\n");
+                headers.append("Content-Encoding: ").append(response.contentEncoding).append("\r\n");
+            }
+            headers.append("Content-Length: ").append(response != null ? response.data.length : 0).append("\r\n");
+            headers.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+            headers.append("\r\n");
+
+            output.write(headers.toString().getBytes("ISO-8859-1"));
+            if (response != null) {
                 output.write(response.data);
-                output.flush();
-            } catch (IOException e) {
-                Timber.e(e, "Unable to write response to socket");
             }
         }
     }
 
+    static class Request {
+        final String line;
+        final boolean keepAlive;
+
+        Request(String line, boolean keepAlive) {
+            this.line = line;
+            this.keepAlive = keepAlive;
+        }
+    }
+
     public static class Response {
         byte[] data;
         String contentType;
@@ -18,6 +18,8 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -27,6 +29,21 @@ public class CollectServerClient {
 
     public static final String HTTP_CONTENT_TYPE_TEXT_XML = "text/xml";
 
+    private static final int MAX_PARSED_DOCUMENTS = 16;
+
+    /**
+     * The most recently parsed documents by URL, so that a document the server reports as not
+     * modified doesn't have to be parsed again. Documents are only read after parsing so they can
+     * be handed out more than once.
+     */
+    private static final Map<String, ParsedDocument> PARSED_DOCUMENTS =
+            new LinkedHashMap<String, ParsedDocument>(MAX_PARSED_DOCUMENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParsedDocument> eldest) {
+                    return size() > MAX_PARSED_DOCUMENTS;
+                }
+            };
+
     protected OpenRosaHttpInterface httpInterface;
     private final WebCredentialsUtils webCredentialsUtils;
 
@@ -58,6 +75,12 @@ public class CollectServerClient {
                 return new DocumentFetchResult(error, inputStreamResult.getStatusCode());
             }
 
+            doc = getParsedDocumentIfNotModified(urlString, inputStreamResult);
+            if (doc != null) {
+                inputStreamResult.getInputStream().close();
+                return new DocumentFetchResult(doc, inputStreamResult.isOpenRosaResponse(), inputStreamResult.getHash());
+            }
+
             try (InputStream resultInputStream = inputStreamResult.getInputStream();
                  InputStreamReader streamReader = new InputStreamReader(resultInputStream, "UTF-8")) {
 
@@ -67,6 +90,10 @@ public class CollectServerClient {
                 parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
                 doc.parse(parser);
             }
+
+            synchronized (PARSED_DOCUMENTS) {
+                PARSED_DOCUMENTS.put(urlString, new ParsedDocument(doc, inputStreamResult.getHash()));
+            }
         } catch (Exception e) {
             String error = "Parsing failed with " + e.getMessage() + " while accessing " + urlString;
             Timber.e(error);
@@ -76,6 +103,30 @@ public class CollectServerClient {
         return new DocumentFetchResult(doc, inputStreamResult.isOpenRosaResponse(), inputStreamResult.getHash());
     }
 
+    /**
+     * @return the document parsed from the last response for the given URL if the server has
+     * confirmed that it hasn't changed since, or null if it has to be parsed again
+     */
+    @Nullable
+    private static Document getParsedDocumentIfNotModified(String urlString, HttpGetResult result) {
+        if (!result.isNotModified()) {
+            return null;
+        }
+
+        ParsedDocument parsedDocument;
+        synchronized (PARSED_DOCUMENTS) {
+            parsedDocument = PARSED_DOCUMENTS.get(urlString);
+        }
+
+        // The hash tells whether the cached response is still the one the document was parsed from
+        if (parsedDocument == null || result.getHash() == null || !result.getHash().equals(parsedDocument.hash)) {
+            return null;
+        }
+
+        Timber.i("Reusing parsed document for %s as it has not been modified", urlString);
+        return parsedDocument.doc;
+    }
+
     /**
      * Creates a Http connection and input stream
      *
@@ -108,4 +159,14 @@ public class CollectServerClient {
         return "text/plain";
     }
 
+    private static class ParsedDocument {
+        final Document doc;
+        final String hash;
+
+        ParsedDocument(Document doc, String hash) {
+            this.doc = doc;
+            this.hash = hash;
+        }
+    }
+
 }
\ No newline at end of file
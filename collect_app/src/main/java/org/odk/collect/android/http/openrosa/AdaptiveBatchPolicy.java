@@ -0,0 +1,74 @@
+package org.odk.collect.android.http.openrosa;
+
+/**
+ * Sizes requests to what the link has been carrying, so that a request on a slow link doesn't run
+ * into a timeout and a failed request doesn't waste much of what was sent.
+ * <p>
+ * The size follows additive increase, multiplicative decrease: it grows by a fixed step after each
+ * request that is accepted and is halved after each that fails. It is also capped at what the
+ * measured throughput can send in {@link #TARGET_REQUEST_MILLIS}, so that it settles quickly on a
+ * link that is slow without losing requests. The server's own limit always applies.
+ */
+public class AdaptiveBatchPolicy implements BatchPolicy {
+
+    public static final long MIN_REQUEST_BYTES = 256 * 1024;
+    public static final long INITIAL_REQUEST_BYTES = 2 * 1024 * 1024;
+    public static final long REQUEST_BYTES_INCREASE = 1024 * 1024;
+    public static final long TARGET_REQUEST_MILLIS = 30_000;
+
+    // the weight of the latest request in the throughput estimate
+    private static final double THROUGHPUT_SMOOTHING = 0.5;
+
+    private final long minRequestBytes;
+    private final long requestBytesIncrease;
+    private final long targetRequestMillis;
+
+    private long windowBytes;
+    // in bytes per millisecond, or 0 until a request has been accepted
+    private double throughput;
+
+    public AdaptiveBatchPolicy() {
+        this(MIN_REQUEST_BYTES, INITIAL_REQUEST_BYTES, REQUEST_BYTES_INCREASE, TARGET_REQUEST_MILLIS);
+    }
+
+    public AdaptiveBatchPolicy(long minRequestBytes, long initialRequestBytes,
+                               long requestBytesIncrease, long targetRequestMillis) {
+        this.minRequestBytes = minRequestBytes;
+        this.requestBytesIncrease = requestBytesIncrease;
+        this.targetRequestMillis = targetRequestMillis;
+        windowBytes = initialRequestBytes;
+    }
+
+    @Override
+    public synchronized long getMaxRequestBytes(long serverMaxBytes) {
+        long maxBytes = windowBytes;
+        if (throughput > 0) {
+            maxBytes = Math.min(maxBytes, Math.max(minRequestBytes, (long) (throughput * targetRequestMillis)));
+        }
+        return Math.min(maxBytes, serverMaxBytes);
+    }
+
+    @Override
+    public int getMaxRequestFiles() {
+        return FixedBatchPolicy.MAX_REQUEST_FILES;
+    }
+
+    @Override
+    public synchronized void onRequestSucceeded(long bytes, long durationMillis) {
+        double requestThroughput = (double) bytes / Math.max(1, durationMillis);
+        throughput = throughput > 0
+                ? THROUGHPUT_SMOOTHING * requestThroughput + (1 - THROUGHPUT_SMOOTHING) * throughput
+                : requestThroughput;
+
+        // only grow while requests are filling the window, so that a run of small submissions
+        // doesn't leave it far larger than anything that was tried
+        if (bytes >= windowBytes / 2) {
+            windowBytes += requestBytesIncrease;
+        }
+    }
+
+    @Override
+    public synchronized void onRequestFailed(long bytes, long durationMillis) {
+        windowBytes = Math.max(minRequestBytes, Math.min(windowBytes, bytes) / 2);
+    }
+}
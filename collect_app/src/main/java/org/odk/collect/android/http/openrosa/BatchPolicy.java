@@ -0,0 +1,35 @@
+package org.odk.collect.android.http.openrosa;
+
+/**
+ * Decides how many attachments go in each request when a submission is split into several, and
+ * learns from how the requests went.
+ * <p>
+ * A policy is shared by every upload made through the same {@link OpenRosaHttpInterface}, so
+ * implementations must be safe for concurrent use.
+ */
+public interface BatchPolicy {
+
+    /**
+     * @param serverMaxBytes the largest request the server accepts, from its
+     *                       X-OpenRosa-Accept-Content-Length header
+     * @return the largest request to make. A request always holds at least one attachment, even
+     * if that makes it larger.
+     */
+    long getMaxRequestBytes(long serverMaxBytes);
+
+    /**
+     * @return the most attachments to send in one request
+     */
+    int getMaxRequestFiles();
+
+    /**
+     * Called when the server has accepted a request.
+     */
+    void onRequestSucceeded(long bytes, long durationMillis);
+
+    /**
+     * Called when a request failed in a way that suggests the link couldn't carry it: it timed out
+     * or was cut off, or the server answered with a 5xx status.
+     */
+    void onRequestFailed(long bytes, long durationMillis);
+}
@@ -0,0 +1,30 @@
+package org.odk.collect.android.http.openrosa;
+
+/**
+ * Makes every request as large as the server accepts, up to 100 attachments, regardless of how
+ * earlier requests went.
+ */
+public class FixedBatchPolicy implements BatchPolicy {
+
+    public static final int MAX_REQUEST_FILES = 100;
+
+    @Override
+    public long getMaxRequestBytes(long serverMaxBytes) {
+        return serverMaxBytes;
+    }
+
+    @Override
+    public int getMaxRequestFiles() {
+        return MAX_REQUEST_FILES;
+    }
+
+    @Override
+    public void onRequestSucceeded(long bytes, long durationMillis) {
+        // nothing to learn
+    }
+
+    @Override
+    public void onRequestFailed(long bytes, long durationMillis) {
+        // nothing to learn
+    }
+}
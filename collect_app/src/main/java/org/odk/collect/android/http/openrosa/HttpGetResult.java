@@ -32,12 +32,19 @@ public class HttpGetResult {
     private final Map<String, String> headers;
     private final String hash;
     private final int statusCode;
+    private final boolean notModified;
 
     public HttpGetResult(InputStream is, @NonNull Map<String, String> headers, String hash, int statusCode) {
+        this(is, headers, hash, statusCode, false);
+    }
+
+    public HttpGetResult(InputStream is, @NonNull Map<String, String> headers, String hash, int statusCode,
+                         boolean notModified) {
         inputStream = is;
         this.headers = headers;
         this.hash = hash;
         this.statusCode = statusCode;
+        this.notModified = notModified;
     }
 
     public InputStream getInputStream() {
@@ -83,4 +90,12 @@ public class HttpGetResult {
     public int getStatusCode() {
         return statusCode;
     }
+
+    /**
+     * @return true if the body is a stored copy of an earlier response that the server confirmed
+     * is still current, i.e. it answered a conditional request with 304 Not Modified
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
 }
@@ -56,6 +56,8 @@ public interface OpenRosaHttpInterface {
      * @param submissionFile The main file to be uploaded (Form file)
      * @param uri where to send the submissionFile and fileList
      * @param contentLength contentLength requested by the server
+     * @param listener notified of the bytes sent and of the attachments the server has accepted
+     *                 when the files are split into several requests
      * @return ResponseMessageParser object that contains the response XML
      * @throws IOException can be thrown if files do not exist
      */
@@ -64,7 +66,32 @@ public interface OpenRosaHttpInterface {
                                         @NonNull File submissionFile,
                                         @NonNull URI uri,
                                         @Nullable HttpCredentialsInterface credentials,
-                                        @NonNull long contentLength) throws Exception;
+                                        @NonNull long contentLength,
+                                        @Nullable UploadListener listener) throws Exception;
+
+    /**
+     * Returns whether a request to the given URI with the given credentials would be sent with
+     * them straight away, rather than only after the server has challenged it. That is the case
+     * once a challenge from the same server has been answered with these credentials, which is
+     * only remembered in memory.
+     */
+    boolean isAuthenticationCached(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials);
+
+    interface UploadListener {
+
+        /**
+         * Called as the request bodies are written. A body may be written more than once, e.g. after
+         * an authentication challenge, so bytesSent can go back down. bytesTotal can grow a little
+         * with each request because each one sends the submission file again.
+         */
+        void onProgress(long bytesSent, long bytesTotal);
+
+        /**
+         * Called when the server has accepted a request that was marked as incomplete, so that the
+         * given attachments don't need to be sent again if a later request fails.
+         */
+        void onFilesAcknowledged(List<File> files);
+    }
 
     interface FileToContentTypeMapper {
 
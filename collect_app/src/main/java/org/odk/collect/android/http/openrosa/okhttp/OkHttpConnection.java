@@ -4,6 +4,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.apache.commons.io.IOUtils;
+import org.odk.collect.android.http.openrosa.BatchPolicy;
+import org.odk.collect.android.http.openrosa.FixedBatchPolicy;
 import org.odk.collect.android.http.openrosa.HttpCredentialsInterface;
 import org.odk.collect.android.http.openrosa.HttpGetResult;
 import org.odk.collect.android.http.openrosa.HttpHeadResult;
@@ -14,15 +16,19 @@ import org.odk.collect.android.utilities.FileUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.CacheControl;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
@@ -30,12 +36,33 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
 import timber.log.Timber;
 
 public class OkHttpConnection implements OpenRosaHttpInterface {
 
     private static final String HTTP_CONTENT_TYPE_TEXT_XML = "text/xml";
 
+    /**
+     * XML documents such as form lists and manifests may be kept by the client's cache, but they
+     * are always checked with the server, sending the ETag or Last-Modified date of the stored copy
+     * so that the server can answer with 304 Not Modified instead of sending it again.
+     */
+    private static final CacheControl REVALIDATE = new CacheControl.Builder()
+            .maxAge(0, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * Forms and media files are written to storage by the caller and would only be duplicated in
+     * the cache.
+     */
+    private static final CacheControl NO_STORE = new CacheControl.Builder()
+            .noStore()
+            .build();
+
     private final OkHttpOpenRosaServerClientProvider clientFactory;
 
     @NonNull
@@ -44,10 +71,22 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
     @NonNull
     private final String userAgent;
 
+    @NonNull
+    private final BatchPolicy batchPolicy;
+
     public OkHttpConnection(@NonNull OkHttpOpenRosaServerClientProvider clientFactory, @NonNull FileToContentTypeMapper fileToContentTypeMapper, @NonNull String userAgent) {
+        this(clientFactory, fileToContentTypeMapper, userAgent, new FixedBatchPolicy());
+    }
+
+    /**
+     * @param batchPolicy decides how many attachments go in each request when a submission is
+     *                    split into several
+     */
+    public OkHttpConnection(@NonNull OkHttpOpenRosaServerClientProvider clientFactory, @NonNull FileToContentTypeMapper fileToContentTypeMapper, @NonNull String userAgent, @NonNull BatchPolicy batchPolicy) {
         this.clientFactory = clientFactory;
         this.fileToContentTypeMapper = fileToContentTypeMapper;
         this.userAgent = userAgent;
+        this.batchPolicy = batchPolicy;
     }
 
     @NonNull
@@ -57,6 +96,7 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
         Request request = new Request.Builder()
                 .url(uri.toURL())
                 .get()
+                .cacheControl(HTTP_CONTENT_TYPE_TEXT_XML.equals(contentType) ? REVALIDATE : NO_STORE)
                 .build();
 
         Response response = httpClient.makeRequest(request, new Date());
@@ -107,7 +147,22 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
             responseHeaders.put(headers.name(i), headers.value(i));
         }
 
-        return new HttpGetResult(downloadStream, responseHeaders, hash, statusCode);
+        return new HttpGetResult(downloadStream, responseHeaders, hash, statusCode, isNotModified(response));
+    }
+
+    /**
+     * @return true if the response was served from the client's cache after the server answered
+     * the conditional request for it with 304 Not Modified
+     */
+    private static boolean isNotModified(Response response) {
+        Response networkResponse = response.networkResponse();
+        return response.cacheResponse() != null && networkResponse != null
+                && networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    @Override
+    public boolean isAuthenticationCached(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) {
+        return clientFactory.isAuthenticationCached(uri, credentials);
     }
 
     @NonNull
@@ -131,6 +186,16 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
             for (String headerName : headers.names()) {
                 responseHeaders.put(headerName, headers.get(headerName));
             }
+
+            // Include the challenge the credentials were sent in answer to, if there was one, so
+            // callers know which authentication scheme the server uses
+            for (Response prior = response.priorResponse(); prior != null; prior = prior.priorResponse()) {
+                String challenge = prior.header("WWW-Authenticate");
+                if (prior.code() == HttpURLConnection.HTTP_UNAUTHORIZED && challenge != null) {
+                    responseHeaders.put("WWW-Authenticate", challenge);
+                    break;
+                }
+            }
         }
 
         discardEntityBytes(response);
@@ -140,70 +205,126 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
 
     @NonNull
     @Override
-    public HttpPostResult uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials, @NonNull long contentLength) throws Exception {
+    public HttpPostResult uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials, @NonNull long contentLength, @Nullable UploadListener listener) throws Exception {
         HttpPostResult postResult = null;
+        long bytesSent = 0L;
 
         boolean first = true;
         int fileIndex = 0;
-        int lastFileIndex;
         while (fileIndex < fileList.size() || first) {
-            lastFileIndex = fileIndex;
             first = false;
-            long byteCount = 0L;
-
-            RequestBody requestBody = RequestBody.create(MediaType.parse(HTTP_CONTENT_TYPE_TEXT_XML), submissionFile);
-
-            MultipartBody.Builder multipartBuilder = new MultipartBody.Builder()
-                    .setType(MultipartBody.FORM)
-                    .addPart(MultipartBody.Part.createFormData("xml_submission_file", submissionFile.getName(), requestBody));
-
-            Timber.i("added xml_submission_file: %s", submissionFile.getName());
-            byteCount += submissionFile.length();
-
-            for (; fileIndex < fileList.size(); fileIndex++) {
-                File file = fileList.get(fileIndex);
-
-                String contentType = fileToContentTypeMapper.map(file.getName());
 
-                RequestBody fileRequestBody = RequestBody.create(MediaType.parse(contentType), file);
-                multipartBuilder.addPart(MultipartBody.Part.createFormData(file.getName(), file.getName(), fileRequestBody));
+            List<File> chunk = getNextChunk(fileList, fileIndex, submissionFile, contentLength);
+            fileIndex += chunk.size();
+            if (fileIndex < fileList.size()) {
+                Timber.i("Extremely long post is being split into multiple posts");
+            }
 
-                byteCount += file.length();
-                Timber.i("added file of type '%s' %s", contentType, file.getName());
+            MultipartBody multipartBody = buildMultipartBody(submissionFile, chunk, fileIndex < fileList.size());
+            long requestBytes = multipartBody.contentLength();
 
-                // we've added at least one attachment to the request...
-                if (fileIndex + 1 < fileList.size()) {
-                    if ((fileIndex - lastFileIndex + 1 > 100) || (byteCount + fileList.get(fileIndex + 1).length()
-                            > contentLength)) {
-                        // the next file would exceed the 10MB threshold...
-                        Timber.i("Extremely long post is being split into multiple posts");
-                        multipartBuilder.addPart(MultipartBody.Part.createFormData("*isIncomplete*", "yes"));
-                        ++fileIndex; // advance over the last attachment added...
-                        break;
-                    }
-                }
+            RequestBody requestBody = multipartBody;
+            if (listener != null) {
+                long bytesTotal = bytesSent + requestBytes + getLength(fileList.subList(fileIndex, fileList.size()));
+                requestBody = new ProgressRequestBody(multipartBody, bytesSent, bytesTotal, listener);
             }
 
-            MultipartBody multipartBody = multipartBuilder.build();
-            postResult = executePostRequest(uri, credentials, multipartBody);
+            long start = System.nanoTime();
+            try {
+                postResult = executePostRequest(uri, credentials, requestBody);
+            } catch (IOException e) {
+                batchPolicy.onRequestFailed(requestBytes, getMillisSince(start));
+                throw e;
+            }
 
             if (postResult.getResponseCode() != HttpURLConnection.HTTP_CREATED &&
                     postResult.getResponseCode() != HttpURLConnection.HTTP_ACCEPTED) {
+                if (postResult.getResponseCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    batchPolicy.onRequestFailed(requestBytes, getMillisSince(start));
+                }
                 return postResult;
             }
 
+            batchPolicy.onRequestSucceeded(requestBytes, getMillisSince(start));
+            bytesSent += requestBytes;
+            if (listener != null && fileIndex < fileList.size()) {
+                listener.onFilesAcknowledged(chunk);
+            }
         }
 
         return postResult;
     }
 
+    /**
+     * Returns the attachments to send in the next request, starting at the given index, within the
+     * limits set by the batch policy. Every request holds at least one attachment, if there are
+     * any left.
+     */
+    private List<File> getNextChunk(List<File> fileList, int fromIndex, File submissionFile, long contentLength) {
+        long maxBytes = batchPolicy.getMaxRequestBytes(contentLength);
+        int maxFiles = batchPolicy.getMaxRequestFiles();
+
+        List<File> chunk = new ArrayList<>();
+        long byteCount = submissionFile.length();
+        for (int fileIndex = fromIndex; fileIndex < fileList.size(); fileIndex++) {
+            File file = fileList.get(fileIndex);
+
+            // we've added at least one attachment to the request...
+            if (!chunk.isEmpty() && (chunk.size() >= maxFiles || byteCount + file.length() > maxBytes)) {
+                break;
+            }
+
+            chunk.add(file);
+            byteCount += file.length();
+        }
+
+        return chunk;
+    }
+
+    private static long getLength(List<File> files) {
+        long length = 0L;
+        for (File file : files) {
+            length += file.length();
+        }
+        return length;
+    }
+
+    private static long getMillisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private MultipartBody buildMultipartBody(File submissionFile, List<File> files, boolean isIncomplete) {
+        RequestBody requestBody = RequestBody.create(MediaType.parse(HTTP_CONTENT_TYPE_TEXT_XML), submissionFile);
+
+        MultipartBody.Builder multipartBuilder = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addPart(MultipartBody.Part.createFormData("xml_submission_file", submissionFile.getName(), requestBody));
+
+        Timber.i("added xml_submission_file: %s", submissionFile.getName());
+
+        for (File file : files) {
+            String contentType = fileToContentTypeMapper.map(file.getName());
+
+            RequestBody fileRequestBody = RequestBody.create(MediaType.parse(contentType), file);
+            multipartBuilder.addPart(MultipartBody.Part.createFormData(file.getName(), file.getName(), fileRequestBody));
+
+            Timber.i("added file of type '%s' %s", contentType, file.getName());
+        }
+
+        if (isIncomplete) {
+            multipartBuilder.addPart(MultipartBody.Part.createFormData("*isIncomplete*", "yes"));
+        }
+
+        return multipartBuilder.build();
+    }
+
     @NonNull
-    private HttpPostResult executePostRequest(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials, MultipartBody multipartBody) throws Exception {
+    private HttpPostResult executePostRequest(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials, RequestBody requestBody) throws Exception {
         OpenRosaServerClient httpClient = clientFactory.get(uri.getScheme(), userAgent, credentials);
         HttpPostResult postResult;
         Request request = new Request.Builder()
                 .url(uri.toURL())
-                .post(multipartBody)
+                .post(requestBody)
                 .build();
         Response response = httpClient.makeRequest(request, new Date());
 
@@ -240,4 +361,49 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
             }
         }
     }
+
+    /**
+     * Reports the bytes written for a request that is one of several making up a submission.
+     */
+    private static class ProgressRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final long bytesSentBefore;
+        private final long bytesTotal;
+        private final UploadListener listener;
+
+        ProgressRequestBody(RequestBody delegate, long bytesSentBefore, long bytesTotal, UploadListener listener) {
+            this.delegate = delegate;
+            this.bytesSentBefore = bytesSentBefore;
+            this.bytesTotal = bytesTotal;
+            this.listener = listener;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(@NonNull BufferedSink sink) throws IOException {
+            // counted from zero each time because the body is written again if it is retried
+            BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+                private long bytesWritten;
+
+                @Override
+                public void write(@NonNull Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    bytesWritten += byteCount;
+                    listener.onProgress(bytesSentBefore + bytesWritten, bytesTotal);
+                }
+            });
+
+            delegate.writeTo(countingSink);
+            countingSink.flush();
+        }
+    }
 }
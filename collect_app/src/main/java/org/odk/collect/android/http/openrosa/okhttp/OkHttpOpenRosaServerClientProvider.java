@@ -16,13 +16,16 @@ import org.odk.collect.android.http.openrosa.OpenRosaServerClient;
 import org.odk.collect.android.http.openrosa.OpenRosaServerClientProvider;
 
 import java.io.IOException;
+import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -42,20 +45,45 @@ public class OkHttpOpenRosaServerClientProvider implements OpenRosaServerClientP
     private HttpCredentialsInterface lastCredentials;
     private OkHttpOpenRosaServerClient client;
 
+    // the authenticators the current client has answered challenges with, keyed by server
+    private Map<String, CachingAuthenticator> authCache;
+
     public OkHttpOpenRosaServerClientProvider(@NonNull OkHttpClient baseClient) {
         this.baseClient = baseClient;
     }
 
     @Override
-    public OpenRosaServerClient get(String scheme, String userAgent, @Nullable HttpCredentialsInterface credentials) {
+    public synchronized OpenRosaServerClient get(String scheme, String userAgent, @Nullable HttpCredentialsInterface credentials) {
         if (client == null || credentialsHaveChanged(credentials)) {
             lastCredentials = credentials;
+            authCache = null;
             client = createNewClient(scheme, userAgent, credentials);
         }
 
         return client;
     }
 
+    /**
+     * Returns whether the current client holds an authenticator for the given URI's server that
+     * answered a challenge with the given credentials, so that it sends them up front.
+     */
+    public synchronized boolean isAuthenticationCached(URI uri, @Nullable HttpCredentialsInterface credentials) {
+        if (client == null || authCache == null || credentials == null || !credentials.equals(lastCredentials)) {
+            return false;
+        }
+
+        HttpUrl url = HttpUrl.get(uri);
+        return url != null && authCache.containsKey(getCachingKey(url));
+    }
+
+    /**
+     * The key AuthenticationCacheInterceptor and CachingAuthenticatorDecorator look authenticators
+     * up by.
+     */
+    private static String getCachingKey(HttpUrl url) {
+        return url.scheme() + ":" + url.host() + ":" + url.port();
+    }
+
     private boolean credentialsHaveChanged(@Nullable HttpCredentialsInterface credentials) {
         return lastCredentials != null && !lastCredentials.equals(credentials);
     }
@@ -78,7 +106,7 @@ public class OkHttpOpenRosaServerClientProvider implements OpenRosaServerClientP
             }
 
             DispatchingAuthenticator authenticator = daBuilder.build();
-            ConcurrentHashMap<String, CachingAuthenticator> authCache = new ConcurrentHashMap<>();
+            authCache = new ConcurrentHashMap<>();
             builder.authenticator(new CachingAuthenticatorDecorator(authenticator, authCache))
                     .addInterceptor(new AuthenticationCacheInterceptor(authCache)).build();
         }
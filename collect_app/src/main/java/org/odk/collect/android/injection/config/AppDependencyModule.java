@@ -14,6 +14,7 @@ import org.odk.collect.android.dao.InstancesDao;
 import org.odk.collect.android.events.RxEventBus;
 import org.odk.collect.android.http.CollectServerClient;
 import org.odk.collect.android.http.CollectThenSystemContentTypeMapper;
+import org.odk.collect.android.http.openrosa.AdaptiveBatchPolicy;
 import org.odk.collect.android.http.openrosa.okhttp.OkHttpConnection;
 import org.odk.collect.android.http.openrosa.okhttp.OkHttpOpenRosaServerClientProvider;
 import org.odk.collect.android.http.openrosa.OpenRosaHttpInterface;
@@ -23,10 +24,13 @@ import org.odk.collect.android.utilities.DownloadFormListUtils;
 import org.odk.collect.android.utilities.PermissionUtils;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 
+import java.io.File;
+
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 
 /**
@@ -36,6 +40,9 @@ import okhttp3.OkHttpClient;
 @Module
 public class AppDependencyModule {
 
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
     @Provides
     public SmsManager provideSmsManager() {
         return SmsManager.getDefault();
@@ -74,11 +81,16 @@ public class AppDependencyModule {
 
     @Provides
     @Singleton
-    OpenRosaHttpInterface provideHttpInterface(MimeTypeMap mimeTypeMap) {
+    OpenRosaHttpInterface provideHttpInterface(Application application, MimeTypeMap mimeTypeMap) {
+        OkHttpClient baseClient = new OkHttpClient.Builder()
+                .cache(new Cache(new File(application.getCacheDir(), HTTP_CACHE_DIRECTORY), HTTP_CACHE_SIZE))
+                .build();
+
         return new OkHttpConnection(
-                new OkHttpOpenRosaServerClientProvider(new OkHttpClient()),
+                new OkHttpOpenRosaServerClientProvider(baseClient),
                 new CollectThenSystemContentTypeMapper(mimeTypeMap),
-                Collect.getInstance().getUserAgentString()
+                Collect.getInstance().getUserAgentString(),
+                new AdaptiveBatchPolicy()
         );
     }
 
@@ -26,5 +26,11 @@ public interface InstanceUploaderListener {
 
     void progressUpdate(int progress, int total);
 
+    /**
+     * Called after {@link #progressUpdate(int, int)} by uploaders that report the bytes sent for
+     * the instances in flight.
+     */
+    void bytesSentUpdate(long bytesSent, long bytesTotal);
+
     void authRequest(Uri url, HashMap<String, String> doneSoFar);
 }
@@ -31,6 +31,7 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.ItemsetDbAdapter;
 import org.odk.collect.android.database.helpers.FormsDatabaseHelper;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.odk.collect.android.utilities.FileHashIndex;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.MediaUtils;
 
@@ -192,7 +193,8 @@ public class FormsProvider extends ContentProvider {
             if (values.containsKey(FormsColumns.MD5_HASH)) {
                 values.remove(FormsColumns.MD5_HASH);
             }
-            String md5 = FileUtils.getMd5Hash(form);
+            // Going through the index means FormDefCache won't need to hash the form again
+            String md5 = FileHashIndex.getMd5Hash(form);
             values.put(FormsColumns.MD5_HASH, md5);
 
             if (!values.containsKey(FormsColumns.JRCACHE_FILE_PATH)) {
@@ -394,7 +396,7 @@ public class FormsProvider extends ContentProvider {
                         String formFile = values
                                 .getAsString(FormsColumns.FORM_FILE_PATH);
                         values.put(FormsColumns.MD5_HASH,
-                                FileUtils.getMd5Hash(new File(formFile)));
+                                FileHashIndex.getMd5Hash(new File(formFile)));
                     }
 
                     Cursor c = null;
@@ -474,7 +476,7 @@ public class FormsProvider extends ContentProvider {
                                 deleteFileOrDir(update
                                         .getString(update
                                                 .getColumnIndex(FormsColumns.JRCACHE_FILE_PATH)));
-                                String newMd5 = FileUtils
+                                String newMd5 = FileHashIndex
                                         .getMd5Hash(new File(formFile));
                                 values.put(FormsColumns.MD5_HASH, newMd5);
                                 values.put(FormsColumns.JRCACHE_FILE_PATH,
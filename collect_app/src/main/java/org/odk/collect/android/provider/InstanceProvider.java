@@ -15,9 +15,12 @@
 package org.odk.collect.android.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -36,9 +39,12 @@ import org.odk.collect.android.utilities.MediaUtils;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 import timber.log.Timber;
 
@@ -53,6 +59,8 @@ public class InstanceProvider extends ContentProvider {
 
     private static final UriMatcher URI_MATCHER;
 
+    private static final Map<String, SimpleDateFormat> DATE_FORMATS = new HashMap<>();
+
     private static InstancesDatabaseHelper dbHelper;
     
     private synchronized InstancesDatabaseHelper getDbHelper() {
@@ -110,7 +118,8 @@ public class InstanceProvider extends ContentProvider {
         Cursor c = null;
         InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
         if (instancesDatabaseHelper != null) {
-            c = qb.query(instancesDatabaseHelper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
+            c = qb.query(instancesDatabaseHelper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder,
+                    uri.getQueryParameter(InstanceProviderAPI.QUERY_PARAMETER_LIMIT));
 
             // Tell the cursor what uri to watch, so it knows when its source data changes
             c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -175,34 +184,75 @@ public class InstanceProvider extends ContentProvider {
         throw new SQLException("Failed to insert into the instances database.");
     }
 
+    /**
+     * Applies the operations in one transaction, so that e.g. registering thousands of instances
+     * found on disk is a single write to the database rather than one per instance. If any of the
+     * operations fails, none of them are applied.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (instancesDatabaseHelper == null) {
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     public static String getDisplaySubtext(Context context, String state, Date date) {
         try {
-            if (state == null) {
-                return new SimpleDateFormat(context.getString(R.string.added_on_date_at_time),
-                        Locale.getDefault()).format(date);
-            } else if (InstanceProviderAPI.STATUS_INCOMPLETE.equalsIgnoreCase(state)) {
-                return new SimpleDateFormat(context.getString(R.string.saved_on_date_at_time),
-                        Locale.getDefault()).format(date);
-            } else if (InstanceProviderAPI.STATUS_COMPLETE.equalsIgnoreCase(state)) {
-                return new SimpleDateFormat(context.getString(R.string.finalized_on_date_at_time),
-                        Locale.getDefault()).format(date);
-            } else if (InstanceProviderAPI.STATUS_SUBMITTED.equalsIgnoreCase(state)) {
-                return new SimpleDateFormat(context.getString(R.string.sent_on_date_at_time),
-                        Locale.getDefault()).format(date);
-            } else if (InstanceProviderAPI.STATUS_SUBMISSION_FAILED.equalsIgnoreCase(state)) {
-                return new SimpleDateFormat(
-                        context.getString(R.string.sending_failed_on_date_at_time),
-                        Locale.getDefault()).format(date);
-            } else {
-                return new SimpleDateFormat(context.getString(R.string.added_on_date_at_time),
-                        Locale.getDefault()).format(date);
-            }
+            return formatDate(context.getString(getDisplaySubtextPattern(state)), date);
         } catch (IllegalArgumentException e) {
             Timber.e(e);
             return "";
         }
     }
 
+    private static int getDisplaySubtextPattern(String state) {
+        if (InstanceProviderAPI.STATUS_INCOMPLETE.equalsIgnoreCase(state)) {
+            return R.string.saved_on_date_at_time;
+        } else if (InstanceProviderAPI.STATUS_COMPLETE.equalsIgnoreCase(state)) {
+            return R.string.finalized_on_date_at_time;
+        } else if (InstanceProviderAPI.STATUS_SUBMITTED.equalsIgnoreCase(state)) {
+            return R.string.sent_on_date_at_time;
+        } else if (InstanceProviderAPI.STATUS_SUBMISSION_FAILED.equalsIgnoreCase(state)) {
+            return R.string.sending_failed_on_date_at_time;
+        } else {
+            return R.string.added_on_date_at_time;
+        }
+    }
+
+    /**
+     * Formats the date with a format that is kept for as long as the pattern, locale and time zone
+     * stay the same. Creating a format costs far more than using it, and the instance lists format
+     * a date for every row they show.
+     */
+    private static String formatDate(String pattern, Date date) {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        String key = pattern + "\n" + locale + "\n" + timeZone.getID();
+
+        synchronized (DATE_FORMATS) {
+            SimpleDateFormat format = DATE_FORMATS.get(key);
+            if (format == null) {
+                format = new SimpleDateFormat(pattern, locale);
+                format.setTimeZone(timeZone);
+                DATE_FORMATS.put(key, format);
+            }
+            return format.format(date);
+        }
+    }
+
     private void deleteAllFilesInDirectory(File directory) {
         if (directory.exists()) {
             // do not delete the directory if it might be an
@@ -32,6 +32,9 @@ public final class InstanceProviderAPI {
     public static final String STATUS_SUBMITTED = "submitted";
     public static final String STATUS_SUBMISSION_FAILED = "submissionFailed";
 
+    // query parameter that limits the number of rows a query returns, e.g. to load a page of a list
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
     public static final class InstanceColumns implements BaseColumns {
         // This class cannot be instantiated
         private InstanceColumns() {
@@ -25,6 +25,7 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
 import org.odk.collect.android.listeners.DiskSyncListener;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.odk.collect.android.utilities.FileHashIndex;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.Validator;
 
@@ -32,8 +33,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -65,7 +67,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
             File formDir = new File(Collect.FORMS_PATH);
             if (formDir.exists() && formDir.isDirectory()) {
                 // Get all the files in the /odk/foms directory
-                List<File> formsToAdd = new LinkedList<File>();
+                Set<File> formsToAdd = new HashSet<File>();
 
                 // Step 1: assemble the candidate form files
                 //         discard files beginning with "."
@@ -85,8 +87,8 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                 }
 
                 // Step 2: quickly run through and figure out what files we need to
-                // parse and update; this is quick, as we only calculate the md5
-                // and see if it has changed.
+                // parse and update; this is quick, as the md5 only has to be calculated
+                // for files whose size or modification time is not the one last indexed.
                 List<UriFile> uriToUpdate = new ArrayList<UriFile>();
                 Cursor cursor = null;
                 // open the cursor within a try-catch block so it can always be closed.
@@ -112,7 +114,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                             // remove it from the list of forms (we only want forms
                             // we haven't added at the end)
                             formsToAdd.remove(sqlFile);
-                            String md5Computed = FileUtils.getMd5Hash(sqlFile);
+                            String md5Computed = FileHashIndex.getMd5Hash(sqlFile);
                             if (md5Computed == null || md5 == null || !md5Computed.equals(md5)) {
                                 // Probably someone overwrite the file on the sdcard
                                 // So re-parse it and update it's information
@@ -143,6 +145,9 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                     formsDao.deleteFormsFromIDs(idsToDelete.toArray(new String[idsToDelete.size()]));
                 }
 
+                // Forms whose FormDef should be cached in the background once they're registered
+                List<String> formsToCache = new ArrayList<>();
+
                 // Step3: go through uriToUpdate to parse and update each in turn.
                 // This is slow because buildContentValues(...) is slow.
                 Collections.shuffle(uriToUpdate); // Big win if multiple DiskSyncTasks running
@@ -169,16 +174,16 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                             Collect.getInstance().getContentResolver()
                                     .update(updateUri, values, null, null);
                     Timber.i("[%d] %d records successfully updated", instance, count);
+                    formsToCache.add(formDefFile.getAbsolutePath());
                 }
                 uriToUpdate.clear();
 
                 // Step 4: go through the newly-discovered files in xFormsToAdd and add them.
                 // This is slow because buildContentValues(...) is slow.
                 //
-                Collections.shuffle(formsToAdd); // Big win if multiple DiskSyncTasks running
-                while (!formsToAdd.isEmpty()) {
-                    File formDefFile = formsToAdd.remove(0);
-
+                List<File> newForms = new ArrayList<File>(formsToAdd);
+                Collections.shuffle(newForms); // Big win if multiple DiskSyncTasks running
+                for (File formDefFile : newForms) {
                     // Since parsing is so slow, if there are multiple tasks,
                     // they may have already updated the database.
                     // Skip this file if that is the case.
@@ -207,10 +212,15 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
                         // insert failures are OK and expected if multiple
                         // DiskSync scanners are active.
                         formsDao.saveForm(values);
+                        formsToCache.add(formDefFile.getAbsolutePath());
                     } catch (SQLException e) {
                         Timber.i("[%d] %s", instance, e.toString());
                     }
                 }
+
+                if (!formsToCache.isEmpty()) {
+                    FormDefCacheWorker.enqueue(formsToCache);
+                }
             }
             if (errors.length() != 0) {
                 statusMessage = errors.toString();
@@ -242,7 +252,7 @@ public class DiskSyncTask extends AsyncTask<Void, String, String> {
 
     /**
      * Attempts to parse the formDefFile as an XForm.
-     * This is slow because FileUtils.parseXML is slow
+     * This is slow because FileUtils.parseXML has to read the file
      *
      * @return key-value list to update or insert into the content provider
      * @throws IllegalArgumentException if the file failed to parse or was missing fields
@@ -0,0 +1,181 @@
+package org.odk.collect.android.tasks;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.xform.util.XFormUtils;
+import org.kxml2.io.KXmlParser;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.events.FormDefCacheRxEvent;
+import org.odk.collect.android.events.RxEventBus;
+import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.FormDefCache;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Builds the FormDef cache for newly downloaded or changed forms in the background so that the
+ * first time a form is opened it doesn't have to be parsed from XML. Forms that already have a
+ * valid cache are skipped.
+ *
+ * Forms with external secondary instances (including last-saved) are also skipped: parsing them
+ * needs the form's media directory to be mapped into the ReferenceManager session, which is
+ * shared with form entry. They are cached the first time they are opened, as before.
+ */
+public class FormDefCacheWorker extends Worker {
+    public static final String KEY_FORM_PATHS = "formPaths";
+
+    /** Keeps each request's input data well below WorkManager's 10 KB limit. */
+    private static final int MAX_FORMS_PER_REQUEST = 50;
+
+    /** Parsed FormDefs of large forms can take tens of MB each, so only parse a couple at a time. */
+    private static final int MAX_THREADS = 2;
+
+    public FormDefCacheWorker(@NonNull Context context, @NonNull WorkerParameters parameters) {
+        super(context, parameters);
+    }
+
+    /**
+     * Requests that the FormDefs for the given form files be cached. Requests are chained so only
+     * one worker runs at a time.
+     */
+    public static void enqueue(List<String> formPaths) {
+        for (int start = 0; start < formPaths.size(); start += MAX_FORMS_PER_REQUEST) {
+            List<String> batch = formPaths.subList(start, Math.min(start + MAX_FORMS_PER_REQUEST, formPaths.size()));
+
+            OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(FormDefCacheWorker.class)
+                    .addTag(FormDefCacheWorker.class.getName())
+                    .setInputData(new Data.Builder()
+                            .putStringArray(KEY_FORM_PATHS, batch.toArray(new String[0]))
+                            .build())
+                    .build();
+            WorkManager.getInstance().beginUniqueWork(FormDefCacheWorker.class.getName(),
+                    ExistingWorkPolicy.APPEND, request).enqueue();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String[] formPaths = getInputData().getStringArray(KEY_FORM_PATHS);
+        if (formPaths == null || formPaths.length == 0) {
+            return Result.success();
+        }
+
+        RxEventBus eventBus = Collect.getInstance().getComponent().rxEventBus();
+        AtomicInteger formsProcessed = new AtomicInteger();
+        AtomicInteger formsCached = new AtomicInteger();
+        int formsTotal = formPaths.length;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_THREADS, formsTotal));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String formPath : formPaths) {
+                futures.add(executor.submit(() -> {
+                    if (!isStopped() && cacheFormDef(new File(formPath))) {
+                        formsCached.incrementAndGet();
+                    }
+
+                    int processed = formsProcessed.incrementAndGet();
+                    Timber.i("Processed %d of %d forms, cached %d", processed, formsTotal, formsCached.get());
+                    eventBus.post(new FormDefCacheRxEvent(formPath, processed, formsTotal));
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Timber.e(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The cache is an optimization, so failures aren't worth retrying
+        return Result.success();
+    }
+
+    /**
+     * @return true if a FormDef was parsed and written to the cache, false if the form was skipped
+     * or couldn't be cached
+     */
+    private static boolean cacheFormDef(File formXml) {
+        if (!formXml.exists() || FormDefCache.hasValidCache(formXml)) {
+            return false;
+        }
+
+        if (hasExternalInstances(formXml)) {
+            Timber.i("Not caching %s in the background because it has external instances", formXml.getName());
+            return false;
+        }
+
+        try {
+            final long start = System.currentTimeMillis();
+            String lastSavedSrc = FileUtils.getOrCreateLastSavedSrc(formXml);
+            FormDef formDef = XFormUtils.getFormFromFormXml(formXml.getAbsolutePath(), lastSavedSrc);
+            if (formDef != null) {
+                FormDefCache.writeCache(formDef, formXml.getPath());
+                Timber.i("Cached %s in %.3f seconds.", formXml.getName(),
+                        (System.currentTimeMillis() - start) / 1000F);
+                return true;
+            }
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            // The form will be parsed and errors reported when it is opened
+            Timber.w(e, "Unable to cache %s", formXml.getName());
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the form's model declares any instance with a src attribute. Parsing stops
+     * at the start of the body so most of a large form isn't read.
+     */
+    static boolean hasExternalInstances(File formXml) {
+        try (InputStream in = new FileInputStream(formXml)) {
+            XmlPullParser parser = new KXmlParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(in, null);
+
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    if ("body".equals(parser.getName())) {
+                        return false;
+                    }
+
+                    if ("instance".equals(parser.getName()) && parser.getAttributeValue(null, "src") != null) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (IOException | XmlPullParserException e) {
+            Timber.w(e);
+            // Be conservative and leave the form to be parsed when it is opened
+            return true;
+        }
+    }
+}
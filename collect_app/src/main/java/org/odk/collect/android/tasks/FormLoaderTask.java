@@ -18,6 +18,8 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.os.AsyncTask;
 
+import androidx.annotation.Nullable;
+
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.FormIndex;
 import org.javarosa.core.model.instance.InstanceInitializationFactory;
@@ -34,8 +36,10 @@ import org.javarosa.xpath.XPathTypeMismatchException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.ItemsetDbAdapter;
+import org.odk.collect.android.database.ItemsetQuery;
 import org.odk.collect.android.external.ExternalAnswerResolver;
 import org.odk.collect.android.external.ExternalDataHandler;
+import org.odk.collect.android.external.ExternalDataIndexAdvisor;
 import org.odk.collect.android.external.ExternalDataManager;
 import org.odk.collect.android.external.ExternalDataManagerImpl;
 import org.odk.collect.android.external.ExternalDataReader;
@@ -44,17 +48,27 @@ import org.odk.collect.android.external.handler.ExternalDataHandlerPull;
 import org.odk.collect.android.listeners.FormLoaderListener;
 import org.odk.collect.android.logic.FileReferenceFactory;
 import org.odk.collect.android.logic.FormController;
+import org.odk.collect.android.utilities.FileHashIndex;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.FormDefCache;
 import org.odk.collect.android.utilities.ZipUtils;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import au.com.bytecode.opencsv.CSVReader;
 import timber.log.Timber;
@@ -68,6 +82,11 @@ import timber.log.Timber;
 public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FECWrapper> {
     private static final String ITEMSETS_CSV = "itemsets.csv";
 
+    // hidden files in the form's media folder that hold the hash of the form that indexes were
+    // last created for
+    private static final String LOOKUP_INDEXES_FORM_HASH_FILE = ".lookup-indexes";
+    private static final String ITEMSET_INDEXES_FORM_HASH_FILE = ".itemset-indexes";
+
     private FormLoaderListener stateListener;
     private String errorMsg;
     private String instancePath;
@@ -142,82 +161,143 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         addSessionRootTranslators(formMediaDir.getName(), referenceManager,
                 "images", "image", "audio", "video", "file");
 
-        FormDef formDef = null;
+        externalDataManager = new ExternalDataManagerImpl(formMediaDir);
+
+        // The media folder stages (zip extraction, external data import and itemsets) don't
+        // depend on the FormDef, so they run on their own thread. Parsing a form from XML may read
+        // CSVs that the external data import renames, so they only start early if there is a
+        // cached FormDef, and parsing waits for them if the cache can't be read after all.
+        final ExecutorService mediaExecutor = Executors.newSingleThreadExecutor();
         try {
-            formDef = createFormDefFromCacheOrXml(formPath, formXml);
-        } catch (StackOverflowError e) {
-            Timber.e(e);
-            errorMsg = Collect.getInstance().getString(R.string.too_complex_form);
-        }
+            final long loadStart = System.currentTimeMillis();
+            Future<?> externalDataFuture = null;
+            Future<?> itemsetsFuture = null;
+            if (FormDefCache.hasValidCache(formXml)) {
+                externalDataFuture = mediaExecutor.submit(timed("external data", () -> loadExternalData(formXml, formMediaDir)));
+                itemsetsFuture = mediaExecutor.submit(timed("itemsets", () -> processItemSets(formXml, formMediaDir)));
+            }
 
-        if (errorMsg != null || formDef == null) {
-            return null;
-        }
+            FormDef formDef = null;
+            try {
+                final long start = System.currentTimeMillis();
+                formDef = createFormDefFromCacheOrXml(formPath, formXml, externalDataFuture);
+                Timber.i("Stage FormDef took %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
+            } catch (StackOverflowError e) {
+                Timber.e(e);
+                errorMsg = Collect.getInstance().getString(R.string.too_complex_form);
+            }
 
-        externalDataManager = new ExternalDataManagerImpl(formMediaDir);
+            if (errorMsg != null || formDef == null) {
+                return null;
+            }
 
-        // add external data function handlers
-        ExternalDataHandler externalDataHandlerPull = new ExternalDataHandlerPull(
-                externalDataManager);
-        formDef.getEvaluationContext().addFunctionHandler(externalDataHandlerPull);
+            if (externalDataFuture == null) {
+                externalDataFuture = mediaExecutor.submit(timed("external data", () -> loadExternalData(formXml, formMediaDir)));
+                itemsetsFuture = mediaExecutor.submit(timed("itemsets", () -> processItemSets(formXml, formMediaDir)));
+            }
 
-        try {
-            loadExternalData(formMediaDir);
-        } catch (Exception e) {
-            Timber.e(e, "Exception thrown while loading external data");
-            errorMsg = e.getMessage();
-            return null;
-        }
+            // add external data function handlers
+            ExternalDataHandler externalDataHandlerPull = new ExternalDataHandlerPull(
+                    externalDataManager);
+            formDef.getEvaluationContext().addFunctionHandler(externalDataHandlerPull);
 
-        if (isCancelled()) {
-            // that means that the user has cancelled, so no need to go further
-            return null;
-        }
+            // Calculations and external select answers may look up external data, so it must be
+            // imported before the form is initialized
+            try {
+                externalDataFuture.get();
+            } catch (ExecutionException e) {
+                Timber.e(e.getCause(), "Exception thrown while loading external data");
+                errorMsg = e.getCause().getMessage();
+                return null;
+            }
 
-        // create FormEntryController from formdef
-        final FormEntryModel fem = new FormEntryModel(formDef);
-        final FormEntryController fec = new FormEntryController(fem);
+            if (isCancelled()) {
+                // that means that the user has cancelled, so no need to go further
+                return null;
+            }
 
-        boolean usedSavepoint = false;
+            // create FormEntryController from formdef
+            final FormEntryModel fem = new FormEntryModel(formDef);
+            final FormEntryController fec = new FormEntryController(fem);
 
-        try {
-            Timber.i("Initializing form.");
-            final long start = System.currentTimeMillis();
-            usedSavepoint = initializeForm(formDef, fec);
-            Timber.i("Form initialized in %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
-        } catch (IOException | RuntimeException e) {
-            Timber.e(e);
-            if (e.getCause() instanceof XPathTypeMismatchException) {
-                // this is a case of
-                // https://bitbucket.org/m
-                // .sundt/javarosa/commits/e5d344783e7968877402bcee11828fa55fac69de
-                // the data are imported, the survey will be unusable
-                // but we should give the option to the user to edit the form
-                // otherwise the survey will be TOTALLY inaccessible.
-                Timber.w("We have a syntactically correct instance, but the data threw an "
-                                + "exception inside JR. We should allow editing.");
-            } else {
-                errorMsg = e.getMessage();
+            boolean usedSavepoint = false;
+
+            try {
+                Timber.i("Initializing form.");
+                final long start = System.currentTimeMillis();
+                usedSavepoint = initializeForm(formDef, fec);
+                Timber.i("Stage initialization took %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
+            } catch (IOException | RuntimeException e) {
+                Timber.e(e);
+                if (e.getCause() instanceof XPathTypeMismatchException) {
+                    // this is a case of
+                    // https://bitbucket.org/m
+                    // .sundt/javarosa/commits/e5d344783e7968877402bcee11828fa55fac69de
+                    // the data are imported, the survey will be unusable
+                    // but we should give the option to the user to edit the form
+                    // otherwise the survey will be TOTALLY inaccessible.
+                    Timber.w("We have a syntactically correct instance, but the data threw an "
+                                    + "exception inside JR. We should allow editing.");
+                } else {
+                    errorMsg = e.getMessage();
+                    return null;
+                }
+            }
+
+            // Itemsets are only needed once questions are displayed
+            try {
+                itemsetsFuture.get();
+            } catch (ExecutionException e) {
+                Timber.e(e.getCause(), "Exception thrown while loading itemsets");
+                errorMsg = e.getCause().getMessage();
                 return null;
             }
-        }
 
-        processItemSets(formMediaDir);
+            Timber.i("Form loaded in %.3f seconds.", (System.currentTimeMillis() - loadStart) / 1000F);
 
-        final FormController fc = new FormController(formMediaDir, fec, instancePath == null ? null
-                : new File(instancePath));
-        if (xpath != null) {
-            // we are resuming after having terminated -- set index to this
-            // position...
-            FormIndex idx = fc.getIndexFromXPath(xpath);
-            fc.jumpToIndex(idx);
+            final FormController fc = new FormController(formMediaDir, fec, instancePath == null ? null
+                    : new File(instancePath));
+            if (xpath != null) {
+                // we are resuming after having terminated -- set index to this
+                // position...
+                FormIndex idx = fc.getIndexFromXPath(xpath);
+                fc.jumpToIndex(idx);
+            }
+            if (waitingXPath != null) {
+                FormIndex idx = fc.getIndexFromXPath(waitingXPath);
+                fc.setIndexWaitingForData(idx);
+            }
+            data = new FECWrapper(fc, usedSavepoint);
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            shutdownAndWait(mediaExecutor);
         }
-        if (waitingXPath != null) {
-            FormIndex idx = fc.getIndexFromXPath(waitingXPath);
-            fc.setIndexWaitingForData(idx);
+    }
+
+    private static Runnable timed(String stage, Runnable runnable) {
+        return () -> {
+            final long start = System.currentTimeMillis();
+            runnable.run();
+            Timber.i("Stage %s took %.3f seconds.", stage, (System.currentTimeMillis() - start) / 1000F);
+        };
+    }
+
+    /**
+     * Waits for any media stages that are still running, e.g. after the FormDef failed to load,
+     * so that a new attempt to load the form doesn't import the same data concurrently.
+     */
+    private static void shutdownAndWait(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                Timber.i("Waiting for form media stages to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        data = new FECWrapper(fc, usedSavepoint);
-        return data;
     }
 
     private void addSessionRootTranslators(String formMediaDir, ReferenceManager referenceManager, String... hostStrings) {
@@ -228,7 +308,12 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         }
     }
 
-    private FormDef createFormDefFromCacheOrXml(String formPath, File formXml) {
+    /**
+     * @param externalDataFuture the external data import if it has already been started, which
+     *                           has to finish before the form can be parsed from XML
+     */
+    private FormDef createFormDefFromCacheOrXml(String formPath, File formXml,
+                                                @Nullable Future<?> externalDataFuture) throws InterruptedException {
         publishProgress(
                 Collect.getInstance().getString(R.string.survey_loading_reading_form_message));
 
@@ -237,6 +322,15 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
             return formDefFromCache;
         }
 
+        if (externalDataFuture != null) {
+            Timber.i("Waiting for the external data import before parsing the form");
+            try {
+                externalDataFuture.get();
+            } catch (ExecutionException e) {
+                // reported once the form has been parsed
+            }
+        }
+
         // no binary, read from xml
         Timber.i("Attempting to load from: %s", formXml.getAbsolutePath());
         final long start = System.currentTimeMillis();
@@ -261,13 +355,13 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         return null;
     }
 
-    private void processItemSets(File formMediaDir) {
+    private void processItemSets(File formXml, File formMediaDir) {
         // for itemsets.csv, we only check to see if the itemset file has been
         // updated
         final File csv = new File(formMediaDir.getAbsolutePath() + "/" + ITEMSETS_CSV);
         String csvmd5 = null;
         if (csv.exists()) {
-            csvmd5 = FileUtils.getMd5Hash(csv);
+            csvmd5 = FileHashIndex.getMd5Hash(csv);
             boolean readFile = false;
             final ItemsetDbAdapter ida = new ItemsetDbAdapter();
             ida.open();
@@ -297,7 +391,38 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
             if (readFile) {
                 readCSV(csv, csvmd5, ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()));
             }
+
+            // Finding the queries reads the whole form, so only do it when the table has been
+            // created again or the form has changed since the indexes were created
+            File indexedFormHashFile = new File(formMediaDir, ITEMSET_INDEXES_FORM_HASH_FILE);
+            String formHash = FileHashIndex.getMd5Hash(formXml);
+            if ((readFile || !isIndexedFor(indexedFormHashFile, formHash))
+                    && createItemsetIndexes(formXml, ItemsetDbAdapter.getMd5FromString(csv.getAbsolutePath()))) {
+                setIndexedFor(indexedFormHashFile, formHash);
+            }
+        }
+    }
+
+    /**
+     * @return false if the form couldn't be read to find its itemset queries
+     */
+    private boolean createItemsetIndexes(File formXml, String pathHash) {
+        List<ItemsetQuery> queries;
+        try (InputStream is = new FileInputStream(formXml)) {
+            queries = ItemsetQuery.findQueries(is);
+        } catch (IOException | XmlPullParserException e) {
+            Timber.w(e, "Could not read %s to find itemset queries", formXml);
+            return false;
+        }
+
+        ItemsetDbAdapter ida = new ItemsetDbAdapter();
+        ida.open();
+        try {
+            ida.createIndexes(pathHash, queries);
+        } finally {
+            ida.close();
         }
+        return true;
     }
 
     private boolean initializeForm(FormDef formDef, FormEntryController fec) throws IOException {
@@ -347,7 +472,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
     }
 
     @SuppressWarnings("unchecked")
-    private void loadExternalData(File mediaFolder) {
+    private void loadExternalData(File formXml, File mediaFolder) {
         // SCTO-594
         File[] zipFiles = mediaFolder.listFiles(new FileFilter() {
             @Override
@@ -357,6 +482,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         });
 
         if (zipFiles != null) {
+            final long start = System.currentTimeMillis();
             ZipUtils.unzip(zipFiles);
             for (File zipFile : zipFiles) {
                 boolean deleted = zipFile.delete();
@@ -364,6 +490,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
                     Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
                 }
             }
+            Timber.i("Stage zip extraction took %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
         }
 
         File[] csvFiles = mediaFolder.listFiles(new FileFilter() {
@@ -394,6 +521,45 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
                 externalDataReader.doImport(externalDataMap);
             }
         }
+
+        if (!isCancelled()) {
+            // Finding the lookups reads the whole form, so only do it when there is new data or
+            // the form has changed since the indexes were created
+            File indexedFormHashFile = new File(mediaFolder, LOOKUP_INDEXES_FORM_HASH_FILE);
+            String formHash = FileHashIndex.getMd5Hash(formXml);
+            if ((!externalDataMap.isEmpty() || !isIndexedFor(indexedFormHashFile, formHash))
+                    && ExternalDataIndexAdvisor.createLookupIndexes(formXml, mediaFolder)) {
+                setIndexedFor(indexedFormHashFile, formHash);
+            }
+        }
+    }
+
+    /**
+     * @return true if the given file records that indexes were created for a form with the given hash
+     */
+    private static boolean isIndexedFor(File indexedFormHashFile, String formHash) {
+        if (formHash == null || !indexedFormHashFile.exists()) {
+            return false;
+        }
+
+        try {
+            return formHash.equals(org.apache.commons.io.FileUtils.readFileToString(indexedFormHashFile, "UTF-8").trim());
+        } catch (IOException e) {
+            Timber.w(e);
+            return false;
+        }
+    }
+
+    private static void setIndexedFor(File indexedFormHashFile, String formHash) {
+        if (formHash == null) {
+            return;
+        }
+
+        try {
+            org.apache.commons.io.FileUtils.writeStringToFile(indexedFormHashFile, formHash, "UTF-8");
+        } catch (IOException e) {
+            Timber.w(e);
+        }
     }
 
     public void publishExternalDataLoadingProgress(String message) {
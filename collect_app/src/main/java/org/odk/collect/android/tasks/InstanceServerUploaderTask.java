@@ -20,12 +20,16 @@ import org.odk.collect.android.dto.Instance;
 import org.odk.collect.android.http.openrosa.OpenRosaHttpInterface;
 import org.odk.collect.android.logic.PropertyManager;
 import org.odk.collect.android.upload.InstanceServerUploader;
+import org.odk.collect.android.upload.InstanceUploadScheduler;
+import org.odk.collect.android.upload.ServerCapabilityCache;
 import org.odk.collect.android.upload.UploadAuthRequestedException;
 import org.odk.collect.android.upload.UploadException;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
@@ -47,6 +51,15 @@ public class InstanceServerUploaderTask extends InstanceUploaderTask {
     private String customUsername;
     private String customPassword;
 
+    private int instanceCount;
+    // written by the scheduling thread and read by the upload threads when they report bytes sent
+    private volatile int uploadsStarted;
+
+    // bytes sent and bytes to send for each instance that has reported any
+    private final Map<Long, long[]> bytesByInstanceId = new HashMap<>();
+    private int publishedKilobytesSent = -1;
+    private int publishedKilobytesTotal = -1;
+
     public InstanceServerUploaderTask() {
         Collect.getInstance().getComponent().inject(this);
     }
@@ -55,41 +68,81 @@ public class InstanceServerUploaderTask extends InstanceUploaderTask {
     protected Outcome doInBackground(Long... instanceIdsToUpload) {
         Outcome outcome = new Outcome();
 
-        InstanceServerUploader uploader = new InstanceServerUploader(httpInterface, webCredentialsUtils, new HashMap<>());
+        // uploads share the redirects found by their HEAD requests and run concurrently
+        InstanceServerUploader uploader = new InstanceServerUploader(httpInterface, webCredentialsUtils, new ConcurrentHashMap<>(),
+                ServerCapabilityCache.getInstance());
         List<Instance> instancesToUpload = uploader.getInstancesFromIds(instanceIdsToUpload);
+        instanceCount = instancesToUpload.size();
+        uploader.setProgressListener(this::onBytesSent);
 
         String deviceId = new PropertyManager(Collect.getInstance().getApplicationContext())
                     .getSingularProperty(PropertyManager.withUri(PropertyManager.PROPMGR_DEVICE_ID));
 
-        for (int i = 0; i < instancesToUpload.size(); i++) {
-            if (isCancelled()) {
-                return outcome;
+        InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader);
+        for (Instance instance : instancesToUpload) {
+            scheduler.add(instance, uploader.getUrlToSubmitTo(instance, deviceId, completeDestinationUrl));
+        }
+
+        scheduler.run(new InstanceUploadScheduler.Callback() {
+            @Override
+            public boolean isCancelled() {
+                return InstanceServerUploaderTask.this.isCancelled();
             }
-            Instance instance = instancesToUpload.get(i);
 
-            publishProgress(i + 1, instancesToUpload.size());
+            @Override
+            public void onUploadStarted(Instance instance) {
+                publishProgress(++uploadsStarted, instanceCount);
+            }
 
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, completeDestinationUrl);
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
+            @Override
+            public void onUploadSucceeded(Instance instance, String customMessage) {
                 outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
                         customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
 
                 Collect.getInstance().logRemoteAnalytics("Submission", "HTTP", Collect.getFormIdentifierHash(instance.getJrFormId(), instance.getJrVersion()));
-            } catch (UploadAuthRequestedException e) {
-                outcome.authRequestingServer = e.getAuthRequestingServer();
-                // Don't add the instance that caused an auth request to the map because we want to
-                // retry. Items present in the map are considered already attempted and won't be
-                // retried.
-            } catch (UploadException e) {
-                outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
-                        e.getDisplayMessage());
             }
-        }
-        
+
+            @Override
+            public void onUploadFailed(Instance instance, UploadException e) {
+                if (e instanceof UploadAuthRequestedException) {
+                    outcome.authRequestingServer = ((UploadAuthRequestedException) e).getAuthRequestingServer();
+                    // Don't add the instance that caused an auth request to the map because we want to
+                    // retry. Items present in the map are considered already attempted and won't be
+                    // retried.
+                } else {
+                    outcome.messagesByInstanceId.put(instance.getDatabaseId().toString(),
+                            e.getDisplayMessage());
+                }
+            }
+        });
+
         return outcome;
     }
 
+    /**
+     * Publishes the bytes sent across all the uploads in flight. Uploads report every write to the
+     * network, so progress is only published once it has moved on by a percent.
+     */
+    private synchronized void onBytesSent(Instance instance, long bytesSent, long bytesTotal) {
+        bytesByInstanceId.put(instance.getDatabaseId(), new long[] {bytesSent, bytesTotal});
+
+        long allBytesSent = 0;
+        long allBytesTotal = 0;
+        for (long[] bytes : bytesByInstanceId.values()) {
+            allBytesSent += bytes[0];
+            allBytesTotal += bytes[1];
+        }
+
+        int kilobytesSent = (int) (allBytesSent / 1024);
+        int kilobytesTotal = (int) (allBytesTotal / 1024);
+        if (kilobytesTotal != publishedKilobytesTotal
+                || Math.abs(kilobytesSent - publishedKilobytesSent) >= Math.max(1, kilobytesTotal / 100)) {
+            publishedKilobytesSent = kilobytesSent;
+            publishedKilobytesTotal = kilobytesTotal;
+            publishProgress(uploadsStarted, instanceCount, kilobytesSent, kilobytesTotal);
+        }
+    }
+
     @Override
     protected void onPostExecute(Outcome outcome) {
         super.onPostExecute(outcome);
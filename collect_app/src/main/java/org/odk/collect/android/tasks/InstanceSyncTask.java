@@ -19,9 +19,9 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.preference.PreferenceManager;
-import android.provider.BaseColumns;
 
 import org.apache.commons.io.FileUtils;
+import org.kxml2.io.KXmlParser;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
@@ -33,20 +33,19 @@ import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.utilities.EncryptionUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.Map;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -77,7 +76,7 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         Timber.i("[%d] doInBackground begins!", instance);
 
         try {
-            List<String> candidateInstances = new LinkedList<String>();
+            Set<String> candidateInstances = new HashSet<String>();
             File instancesPath = new File(Collect.INSTANCES_PATH);
             if (instancesPath.exists() && instancesPath.isDirectory()) {
                 File[] instanceFolders = instancesPath.listFiles();
@@ -87,7 +86,7 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                     return currentStatus;
                 }
 
-                // Build the list of potential path that we need to add to the content provider
+                // Build the set of potential paths that we need to add to the content provider
                 for (File instanceDir : instanceFolders) {
                     File instanceFile = new File(instanceDir, instanceDir.getName() + ".xml");
                     if (!instanceFile.exists()) {
@@ -103,7 +102,6 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                         Timber.i("[%d] Ignoring: %s", instance, instanceDir.getAbsolutePath());
                     }
                 }
-                Collections.sort(candidateInstances);
 
                 List<String> filesToRemove = new ArrayList<>();
 
@@ -111,23 +109,22 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
                 Cursor instanceCursor = null;
                 InstancesDao instancesDao = new InstancesDao();
                 try {
-                    String sortOrder = InstanceColumns.INSTANCE_FILE_PATH + " ASC ";
-                    instanceCursor = instancesDao.getSavedInstancesCursor(sortOrder);
+                    instanceCursor = instancesDao.getSavedInstancesCursor(null);
                     if (instanceCursor == null) {
                         Timber.e("[%d] Instance content provider returned null", instance);
                         return currentStatus;
                     }
 
+                    int filePathColumn = instanceCursor.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH);
+                    int statusColumn = instanceCursor.getColumnIndex(InstanceColumns.STATUS);
+
                     instanceCursor.moveToPosition(-1);
 
                     while (instanceCursor.moveToNext()) {
-                        String instanceFilename = instanceCursor.getString(
-                                instanceCursor.getColumnIndex(InstanceColumns.INSTANCE_FILE_PATH));
-                        String instanceStatus = instanceCursor.getString(
-                                instanceCursor.getColumnIndex(InstanceColumns.STATUS));
-                        if (candidateInstances.contains(instanceFilename) || instanceStatus.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
-                            candidateInstances.remove(instanceFilename);
-                        } else {
+                        String instanceFilename = instanceCursor.getString(filePathColumn);
+                        String instanceStatus = instanceCursor.getString(statusColumn);
+                        if (!candidateInstances.remove(instanceFilename)
+                                && !instanceStatus.equals(InstanceProviderAPI.STATUS_SUBMITTED)) {
                             filesToRemove.add(instanceFilename);
                         }
                     }
@@ -140,56 +137,68 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
 
                 instancesDao.deleteInstancesFromIDs(filesToRemove);
 
+                if (candidateInstances.isEmpty()) {
+                    return currentStatus;
+                }
+
                 final boolean instanceSyncFlag = PreferenceManager.getDefaultSharedPreferences(
                         Collect.getInstance().getApplicationContext()).getBoolean(
                         GeneralKeys.KEY_INSTANCE_SYNC, true);
 
-                int counter = 0;
-                // Begin parsing and add them to the content provider
-                for (String candidateInstance : candidateInstances) {
-                    String instanceFormId = getFormIdFromInstance(candidateInstance);
+                Map<String, FormDefinition> formsById = getFormsById();
+
+                List<String> newInstancePaths = new ArrayList<>(candidateInstances);
+                Collections.sort(newInstancePaths);
+
+                List<NewInstance> newInstances = new ArrayList<>();
+                for (String candidateInstance : newInstancePaths) {
+                    Map<String, String> rootAttributes = getRootAttributes(candidateInstance);
                     // only process if we can find the id from the instance file
-                    if (instanceFormId != null) {
-                        Cursor formCursor = null;
+                    String instanceFormId = rootAttributes.get("id");
+                    if (instanceFormId == null) {
+                        continue;
+                    }
+
+                    FormDefinition form = formsById.get(instanceFormId);
+                    if (form == null) {
+                        continue;
+                    }
+
+                    // add missing fields into content values
+                    ContentValues values = new ContentValues();
+                    values.put(InstanceColumns.INSTANCE_FILE_PATH, candidateInstance);
+                    values.put(InstanceColumns.SUBMISSION_URI, form.submissionUri);
+                    values.put(InstanceColumns.DISPLAY_NAME, form.displayName);
+                    values.put(InstanceColumns.JR_FORM_ID, form.jrFormId);
+                    values.put(InstanceColumns.JR_VERSION, form.jrVersion);
+                    values.put(InstanceColumns.STATUS, instanceSyncFlag
+                            ? InstanceProviderAPI.STATUS_COMPLETE : InstanceProviderAPI.STATUS_INCOMPLETE);
+                    values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
+
+                    newInstances.add(new NewInstance(candidateInstance, rootAttributes.get("instanceID"), form, values));
+                }
+
+                // save the new instance objects
+                List<ContentValues> newInstanceValues = new ArrayList<>();
+                for (NewInstance newInstance : newInstances) {
+                    newInstanceValues.add(newInstance.values);
+                }
+                List<Uri> newInstanceUris = instancesDao.saveInstances(newInstanceValues);
+
+                int counter = 0;
+                for (int i = 0; i < newInstanceUris.size(); i++) {
+                    Uri uri = newInstanceUris.get(i);
+                    if (uri == null) {
+                        continue;
+                    }
+                    counter++;
+
+                    NewInstance newInstance = newInstances.get(i);
+                    if (newInstance.form.shouldBeEncrypted()) {
                         try {
-                            String selection = FormsColumns.JR_FORM_ID + " = ? ";
-                            String[] selectionArgs = new String[]{instanceFormId};
-                            // retrieve the form definition
-                            formCursor = new FormsDao().getFormsCursor(selection, selectionArgs);
-                            // TODO: optimize this by caching the previously found form definition
-                            // TODO: optimize this by caching unavailable form definition to skip
-                            if (formCursor != null && formCursor.moveToFirst()) {
-                                String submissionUri = null;
-                                if (!formCursor.isNull(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI))) {
-                                    submissionUri = formCursor.getString(formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI));
-                                }
-                                String jrFormId = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_FORM_ID));
-                                String jrVersion = formCursor.getString(formCursor.getColumnIndex(FormsColumns.JR_VERSION));
-                                String formName = formCursor.getString(formCursor.getColumnIndex(FormsColumns.DISPLAY_NAME));
-
-                                // add missing fields into content values
-                                ContentValues values = new ContentValues();
-                                values.put(InstanceColumns.INSTANCE_FILE_PATH, candidateInstance);
-                                values.put(InstanceColumns.SUBMISSION_URI, submissionUri);
-                                values.put(InstanceColumns.DISPLAY_NAME, formName);
-                                values.put(InstanceColumns.JR_FORM_ID, jrFormId);
-                                values.put(InstanceColumns.JR_VERSION, jrVersion);
-                                values.put(InstanceColumns.STATUS, instanceSyncFlag
-                                        ? InstanceProviderAPI.STATUS_COMPLETE : InstanceProviderAPI.STATUS_INCOMPLETE);
-                                values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(true));
-                                // save the new instance object
-
-                                instancesDao.saveInstance(values);
-                                counter++;
-
-                                encryptInstanceIfNeeded(formCursor, candidateInstance, values, instancesDao);
-                            }
+                            encryptInstance(uri, newInstance, instancesDao);
                         } catch (IOException | EncryptionException e) {
                             Timber.w(e);
-                        } finally {
-                            if (formCursor != null) {
-                                formCursor.close();
-                            }
                         }
                     }
                 }
@@ -205,54 +214,66 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         return currentStatus;
     }
 
-    private String getFormIdFromInstance(final String instancePath) {
-        String instanceFormId = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(instancePath));
-            Element element = document.getDocumentElement();
-            instanceFormId = element.getAttribute("id");
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            Timber.w("Unable to read form id from %s", instancePath);
-        }
-        return instanceFormId;
-    }
+    /**
+     * Reads all form definitions at once rather than querying for the form of each instance. If
+     * there are several versions of a form, the first one returned is used, as a query by form id
+     * alone would.
+     */
+    private Map<String, FormDefinition> getFormsById() {
+        Map<String, FormDefinition> formsById = new HashMap<>();
+        try (Cursor formCursor = new FormsDao().getFormsCursor()) {
+            if (formCursor == null) {
+                return formsById;
+            }
 
-    private String getInstanceIdFromInstance(final String instancePath) {
-        String instanceId = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(instancePath));
-            Element element = document.getDocumentElement();
-            instanceId = element.getAttribute("instanceID");
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            Timber.w("Unable to read form instanceID from %s", instancePath);
+            int submissionUriColumn = formCursor.getColumnIndex(FormsColumns.SUBMISSION_URI);
+            int jrFormIdColumn = formCursor.getColumnIndex(FormsColumns.JR_FORM_ID);
+            int jrVersionColumn = formCursor.getColumnIndex(FormsColumns.JR_VERSION);
+            int displayNameColumn = formCursor.getColumnIndex(FormsColumns.DISPLAY_NAME);
+            int base64RsaPublicKeyColumn = formCursor.getColumnIndex(FormsColumns.BASE64_RSA_PUBLIC_KEY);
+
+            while (formCursor.moveToNext()) {
+                String jrFormId = formCursor.getString(jrFormIdColumn);
+                if (!formsById.containsKey(jrFormId)) {
+                    formsById.put(jrFormId, new FormDefinition(
+                            formCursor.isNull(submissionUriColumn) ? null : formCursor.getString(submissionUriColumn),
+                            jrFormId,
+                            formCursor.getString(jrVersionColumn),
+                            formCursor.getString(displayNameColumn),
+                            formCursor.getString(base64RsaPublicKeyColumn)));
+                }
+            }
         }
-        return instanceId;
+        return formsById;
     }
 
-    private void encryptInstanceIfNeeded(Cursor formCursor, String candidateInstance,
-                                         ContentValues values, InstancesDao instancesDao)
-            throws EncryptionException, IOException {
-
-        Cursor instanceCursor = new InstancesDao().getInstancesCursorForFilePath(candidateInstance);
-        if (instanceCursor != null && instanceCursor.moveToFirst()) {
-            if (shouldInstanceBeEncrypted(formCursor)) {
-                encryptInstance(instanceCursor, candidateInstance, values, instancesDao);
+    /**
+     * Reads the attributes of the root element of an instance without parsing the rest of it.
+     *
+     * @return the attributes by name, which is empty if the file couldn't be read
+     */
+    private Map<String, String> getRootAttributes(final String instancePath) {
+        Map<String, String> attributes = new HashMap<>();
+        try (InputStream in = new FileInputStream(instancePath)) {
+            KXmlParser parser = new KXmlParser();
+            // let the parser detect the encoding and skip any byte order mark
+            parser.setInput(in, null);
+            parser.nextTag();
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
             }
+        } catch (IOException | XmlPullParserException e) {
+            Timber.w("Unable to read root attributes from %s", instancePath);
         }
+        return attributes;
     }
 
-    private void encryptInstance(Cursor instanceCursor, String candidateInstance,
-                                 ContentValues values, InstancesDao instancesDao)
+    private void encryptInstance(Uri uri, NewInstance newInstance, InstancesDao instancesDao)
             throws EncryptionException, IOException {
 
-        File instanceXml = new File(candidateInstance);
+        File instanceXml = new File(newInstance.path);
         if (!new File(instanceXml.getParentFile(), "submission.xml.enc").exists()) {
-            Uri uri = Uri.parse(InstanceColumns.CONTENT_URI + "/" + instanceCursor.getInt(instanceCursor.getColumnIndex(BaseColumns._ID)));
-            FormController.InstanceMetadata instanceMetadata = new FormController.InstanceMetadata(getInstanceIdFromInstance(candidateInstance), null, null);
+            FormController.InstanceMetadata instanceMetadata = new FormController.InstanceMetadata(newInstance.instanceId, null, null);
             EncryptionUtils.EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri, instanceMetadata);
 
             if (formInfo != null) {
@@ -261,8 +282,9 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
 
                 EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
 
+                ContentValues values = newInstance.values;
                 values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(false));
-                instancesDao.updateInstance(values, InstanceColumns.INSTANCE_FILE_PATH + "=?", new String[]{candidateInstance});
+                instancesDao.updateInstance(values, InstanceColumns.INSTANCE_FILE_PATH + "=?", new String[]{newInstance.path});
 
                 SaveToDiskTask.manageFilesAfterSavingEncryptedForm(instanceXml, submissionXml);
                 if (!EncryptionUtils.deletePlaintextFiles(instanceXml, null)) {
@@ -272,11 +294,6 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
         }
     }
 
-    private boolean shouldInstanceBeEncrypted(Cursor formCursor) {
-        String base64RSAPublicKey = formCursor.getString(formCursor.getColumnIndex(FormsColumns.BASE64_RSA_PUBLIC_KEY));
-        return base64RSAPublicKey != null && !base64RSAPublicKey.isEmpty();
-    }
-
     @Override
     protected void onPostExecute(String result) {
         super.onPostExecute(result);
@@ -284,4 +301,39 @@ public class InstanceSyncTask extends AsyncTask<Void, String, String> {
             diskSyncListener.syncComplete(result);
         }
     }
+
+    private static class FormDefinition {
+        final String submissionUri;
+        final String jrFormId;
+        final String jrVersion;
+        final String displayName;
+        final String base64RsaPublicKey;
+
+        FormDefinition(String submissionUri, String jrFormId, String jrVersion, String displayName,
+                       String base64RsaPublicKey) {
+            this.submissionUri = submissionUri;
+            this.jrFormId = jrFormId;
+            this.jrVersion = jrVersion;
+            this.displayName = displayName;
+            this.base64RsaPublicKey = base64RsaPublicKey;
+        }
+
+        boolean shouldBeEncrypted() {
+            return base64RsaPublicKey != null && !base64RsaPublicKey.isEmpty();
+        }
+    }
+
+    private static class NewInstance {
+        final String path;
+        final String instanceId;
+        final FormDefinition form;
+        final ContentValues values;
+
+        NewInstance(String path, String instanceId, FormDefinition form, ContentValues values) {
+            this.path = path;
+            this.instanceId = instanceId;
+            this.form = form;
+            this.values = values;
+        }
+    }
 }
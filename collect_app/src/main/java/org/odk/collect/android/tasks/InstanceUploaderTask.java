@@ -126,6 +126,11 @@ public abstract class InstanceUploaderTask extends AsyncTask<Long, Integer, Inst
         synchronized (this) {
             if (stateListener != null) {
                 stateListener.progressUpdate(values[0], values[1]);
+
+                // uploads that report the bytes they have sent add them in kilobytes
+                if (values.length == 4) {
+                    stateListener.bytesSentUpdate(values[2] * 1024L, values[3] * 1024L);
+                }
             }
         }
     }
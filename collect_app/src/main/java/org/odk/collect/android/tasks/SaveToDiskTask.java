@@ -36,9 +36,9 @@ import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.MediaManager;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 
 import timber.log.Timber;
 
@@ -65,6 +65,9 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
     public static final int SAVED_AND_EXIT = 504;
     public static final int ENCRYPTION_ERROR = 505;
 
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     public SaveToDiskTask(Uri uri, boolean saveAndExit, boolean markCompleted, String updatedName) {
         this.uri = uri;
         save = saveAndExit;
@@ -272,11 +275,11 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
 
         // Write SMS data
         final ByteArrayPayload payloadSms = formController.getFilledInFormSMS();
-        writeFile(payloadSms, getSmsInstancePath(instancePath));
+        writeFile(payloadSms, getSmsInstancePath(instancePath), false);
 
-        // Write last-saved instance
+        // Write last-saved instance from the same serialized payload
         String lastSavedPath = formController.getLastSavedPath();
-        writeFile(payload, lastSavedPath);
+        writeFile(payload, lastSavedPath, false);
 
         // update the uri. We have exported the reloadable instance, so update status...
         // Since we saved a reloadable instance, it is flagged as re-openable so that if any error
@@ -297,18 +300,21 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
             File instanceXml = formController.getInstanceFile();
             File submissionXml = new File(instanceXml.getParentFile(), "submission.xml");
 
-            payload = formController.getSubmissionXml();
-
-            // write out submission.xml -- the data to actually submit to aggregate
-
             publishProgress(
                     Collect.getInstance().getString(R.string.survey_saving_finalizing_message));
 
-            writeFile(payload, submissionXml.getAbsolutePath());
-
             // see if the form is encrypted and we can encrypt it...
             EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri,
                     formController.getSubmissionMetadata());
+
+            // write out submission.xml -- the data to actually submit to aggregate. It is only
+            // needed if it is going to be encrypted or differs from the instanceXml; otherwise it
+            // would be identical to the instanceXml and deleted right away.
+            if (!canEditAfterCompleted || formInfo != null) {
+                payload = formController.getSubmissionXml();
+                writeFile(payload, submissionXml.getAbsolutePath());
+            }
+
             if (formInfo != null) {
                 // if we are encrypting, the form cannot be reopened afterward
                 canEditAfterCompleted = false;
@@ -317,7 +323,9 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
                 publishProgress(
                         Collect.getInstance().getString(R.string.survey_saving_encrypting_message));
 
-                EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo);
+                EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo,
+                        (filesEncrypted, filesTotal) -> publishProgress(Collect.getInstance().getString(
+                                R.string.survey_saving_encrypting_progress_message, filesEncrypted, filesTotal)));
                 isEncrypted = true;
             }
 
@@ -336,7 +344,7 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
 
             if (!canEditAfterCompleted) {
                 manageFilesAfterSavingEncryptedForm(instanceXml, submissionXml);
-            } else {
+            } else if (submissionXml.exists()) {
                 // try to delete the submissionXml file, since it is
                 // identical to the existing instanceXml file
                 // (we don't need to delete and rename anything).
@@ -385,37 +393,58 @@ public class SaveToDiskTask extends AsyncTask<Void, String, SaveResult> {
     }
 
     /**
-     * Writes payload contents to the disk.
+     * Writes payload contents to the disk. The contents are streamed to a hidden temporary file in
+     * the same folder, synced once and then renamed over the given path, so the file at the path is
+     * always either the previous version or the complete new one.
      */
     static void writeFile(ByteArrayPayload payload, String path) throws IOException {
+        writeFile(payload, path, true);
+    }
+
+    /**
+     * @param sync whether to sync the file to the storage device before it replaces the previous
+     *             version. Files that can be derived from the instance again don't need to be.
+     */
+    static void writeFile(ByteArrayPayload payload, String path, boolean sync) throws IOException {
         File file = new File(path);
-        if (file.exists() && !file.delete()) {
-            throw new IOException("Cannot overwrite " + path + ". Perhaps the file is locked?");
+        if (payload.getLength() <= 0) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Cannot overwrite " + path + ". Perhaps the file is locked?");
+            }
+            return;
         }
 
-        // create data stream
+        // Make sure the directory path to this file exists.
+        file.getParentFile().mkdirs();
+
+        // Hidden, so that a temporary file left behind by a crash isn't uploaded or encrypted with
+        // the instance's attachments
+        File temp = new File(file.getParentFile(), "." + file.getName() + TEMP_FILE_SUFFIX);
         InputStream is = payload.getPayloadStream();
-        int len = (int) payload.getLength();
-
-        // read from data stream
-        byte[] data = new byte[len];
-        int read = is.read(data, 0, len);
-        if (read > 0) {
-            // Make sure the directory path to this file exists.
-            file.getParentFile().mkdirs();
-            // write xml file
-            RandomAccessFile randomAccessFile = null;
-            try {
-                randomAccessFile = new RandomAccessFile(file, "rws");
-                randomAccessFile.write(data);
-            } finally {
-                if (randomAccessFile != null) {
-                    try {
-                        randomAccessFile.close();
-                    } catch (IOException e) {
-                        Timber.e(e, "Error closing RandomAccessFile: %s", path);
-                    }
-                }
+        FileOutputStream os = new FileOutputStream(temp);
+        boolean written = false;
+        try {
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+            }
+            if (sync) {
+                os.getFD().sync();
+            }
+            written = true;
+        } finally {
+            os.close();
+            if (!written) {
+                FileUtils.deleteAndReport(temp);
+            }
+        }
+
+        if (!temp.renameTo(file)) {
+            // rename only replaces an existing file on some file systems
+            if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+                FileUtils.deleteAndReport(temp);
+                throw new IOException("Cannot overwrite " + path + ". Perhaps the file is locked?");
             }
         }
     }
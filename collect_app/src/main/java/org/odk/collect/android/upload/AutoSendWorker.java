@@ -50,6 +50,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
 
@@ -102,12 +104,14 @@ public class AutoSendWorker extends Worker {
         GeneralSharedPreferences settings = GeneralSharedPreferences.getInstance();
         String protocol = (String) settings.get(GeneralKeys.KEY_PROTOCOL);
 
+        boolean isGoogleSheets = protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets));
         InstanceUploader uploader;
+        InstanceUploadScheduler scheduler;
         Map<String, String> resultMessagesByInstanceId = new HashMap<>();
         String deviceId = null;
-        boolean anyFailure = false;
+        AtomicBoolean anyFailure = new AtomicBoolean();
 
-        if (protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets))) {
+        if (isGoogleSheets) {
             if (PermissionUtils.isGetAccountsPermissionGranted(getApplicationContext())) {
                 GoogleAccountsManager accountsManager = new GoogleAccountsManager(Collect.getInstance());
                 String googleUsername = accountsManager.getLastSelectedAccountIfValid();
@@ -117,6 +121,9 @@ public class AutoSendWorker extends Worker {
                 }
                 accountsManager.selectAccount(googleUsername);
                 uploader = new InstanceGoogleSheetsUploader(accountsManager);
+                // the uploader keeps track of the spreadsheet it is writing to, so only one
+                // instance can be uploaded at a time
+                scheduler = new InstanceUploadScheduler(uploader, 1, 1);
             } else {
                 showUploadStatusNotification(true, Collect.getInstance().getString(R.string.odk_permissions_fail));
                 return Result.failure();
@@ -124,21 +131,35 @@ public class AutoSendWorker extends Worker {
         } else {
             OpenRosaHttpInterface httpInterface = Collect.getInstance().getComponent().openRosaHttpInterface();
             uploader = new InstanceServerUploader(httpInterface,
-                    new WebCredentialsUtils(), new HashMap<>());
+                    new WebCredentialsUtils(), new ConcurrentHashMap<>(), ServerCapabilityCache.getInstance());
+            scheduler = new InstanceUploadScheduler(uploader);
             deviceId = new PropertyManager(Collect.getInstance().getApplicationContext())
                     .getSingularProperty(PropertyManager.withUri(PropertyManager.PROPMGR_DEVICE_ID));
         }
 
         for (Instance instance : toUpload) {
-            try {
-                String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, null);
-                if (protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets))
-                        && !InstanceUploaderUtils.doesUrlRefersToGoogleSheetsFile(destinationUrl)) {
-                    anyFailure = true;
-                    resultMessagesByInstanceId.put(instance.getDatabaseId().toString(), SPREADSHEET_UPLOADED_TO_GOOGLE_DRIVE);
-                    continue;
-                }
-                String customMessage = uploader.uploadOneSubmission(instance, destinationUrl);
+            String destinationUrl = uploader.getUrlToSubmitTo(instance, deviceId, null);
+            if (isGoogleSheets && !InstanceUploaderUtils.doesUrlRefersToGoogleSheetsFile(destinationUrl)) {
+                anyFailure.set(true);
+                resultMessagesByInstanceId.put(instance.getDatabaseId().toString(), SPREADSHEET_UPLOADED_TO_GOOGLE_DRIVE);
+                continue;
+            }
+            scheduler.add(instance, destinationUrl);
+        }
+
+        scheduler.run(new InstanceUploadScheduler.Callback() {
+            @Override
+            public boolean isCancelled() {
+                return isStopped();
+            }
+
+            @Override
+            public void onUploadStarted(Instance instance) {
+
+            }
+
+            @Override
+            public void onUploadSucceeded(Instance instance, String customMessage) {
                 resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
                         customMessage != null ? customMessage : Collect.getInstance().getString(R.string.success));
 
@@ -153,19 +174,21 @@ public class AutoSendWorker extends Worker {
                     Collect.getInstance().getContentResolver().delete(deleteForm, null, null);
                 }
 
-                String action = protocol.equals(getApplicationContext().getString(R.string.protocol_google_sheets)) ?
-                        "HTTP-Sheets auto" : "HTTP auto";
+                String action = isGoogleSheets ? "HTTP-Sheets auto" : "HTTP auto";
                 String label = Collect.getFormIdentifierHash(instance.getJrFormId(), instance.getJrVersion());
                 Collect.getInstance().logRemoteAnalytics("Submission", action, label);
-            } catch (UploadException e) {
+            }
+
+            @Override
+            public void onUploadFailed(Instance instance, UploadException e) {
                 Timber.d(e);
-                anyFailure = true;
+                anyFailure.set(true);
                 resultMessagesByInstanceId.put(instance.getDatabaseId().toString(),
                         e.getDisplayMessage());
             }
-        }
+        });
 
-        showUploadStatusNotification(anyFailure, InstanceUploaderUtils.getUploadResultMessage(getApplicationContext(), resultMessagesByInstanceId));
+        showUploadStatusNotification(anyFailure.get(), InstanceUploaderUtils.getUploadResultMessage(getApplicationContext(), resultMessagesByInstanceId));
         return Result.success();
     }
 
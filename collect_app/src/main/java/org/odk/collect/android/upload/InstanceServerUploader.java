@@ -18,6 +18,7 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -26,10 +27,12 @@ import org.odk.collect.android.http.openrosa.HttpHeadResult;
 import org.odk.collect.android.http.openrosa.HttpPostResult;
 import org.odk.collect.android.http.openrosa.OpenRosaHttpInterface;
 import org.odk.collect.android.preferences.GeneralKeys;
+import org.odk.collect.android.upload.ServerCapabilityCache.ServerCapabilities;
 import org.odk.collect.android.utilities.ResponseMessageParser;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
@@ -48,25 +51,95 @@ public class InstanceServerUploader extends InstanceUploader {
     private final OpenRosaHttpInterface httpInterface;
     private final WebCredentialsUtils webCredentialsUtils;
     private final Map<Uri, Uri> uriRemap;
+    private final ServerCapabilityCache capabilityCache;
+
+    private volatile ProgressListener progressListener;
+
+    public interface ProgressListener {
+        /**
+         * Called from the thread uploading the instance as its files are sent.
+         *
+         * @param bytesTotal the size of the requests still to be sent when the upload started,
+         *                   which leaves out any attachments accepted by an earlier attempt
+         */
+        void onProgress(Instance instance, long bytesSent, long bytesTotal);
+    }
 
     public InstanceServerUploader(OpenRosaHttpInterface httpInterface,
                                   WebCredentialsUtils webCredentialsUtils,
                                   Map<Uri, Uri> uriRemap) {
+        this(httpInterface, webCredentialsUtils, uriRemap, null);
+    }
+
+    /**
+     * @param capabilityCache if not null, used to post without a HEAD request first when the
+     *                        server has been checked recently
+     */
+    public InstanceServerUploader(OpenRosaHttpInterface httpInterface,
+                                  WebCredentialsUtils webCredentialsUtils,
+                                  Map<Uri, Uri> uriRemap,
+                                  @Nullable ServerCapabilityCache capabilityCache) {
         this.httpInterface = httpInterface;
         this.webCredentialsUtils = webCredentialsUtils;
         this.uriRemap = uriRemap;
+        this.capabilityCache = capabilityCache;
+    }
+
+    public void setProgressListener(@Nullable ProgressListener progressListener) {
+        this.progressListener = progressListener;
     }
 
     /**
      * Uploads all files associated with an instance to the specified URL. Writes fail/success
      * status to database.
      *
+     * If an earlier attempt was split into several requests and failed part of the way through,
+     * only the attachments the server hasn't accepted yet are sent.
+     *
      * Returns a custom success message if one is provided by the server.
      */
     @Override
     public String uploadOneSubmission(Instance instance, String urlString) throws UploadException {
         Uri submissionUri = Uri.parse(urlString);
 
+        // When encrypting submissions, there is a failure window that may mark the submission as
+        // complete but leave the file-to-be-uploaded with the name "submission.xml" and the plaintext
+        // submission files on disk.  In this case, upload the submission.xml and all the files in
+        // the directory. This means the plaintext files and the encrypted files will be sent to the
+        // server and the server will have to figure out what to do with them.
+        File instanceFile = new File(instance.getInstanceFilePath());
+        File submissionFile = new File(instanceFile.getParentFile(), "submission.xml");
+        if (submissionFile.exists()) {
+            Timber.w("submission.xml will be uploaded instead of %s", instanceFile.getAbsolutePath());
+        } else {
+            submissionFile = instanceFile;
+        }
+
+        if (!instanceFile.exists() && !submissionFile.exists()) {
+            saveFailedStatusToDatabase(instance);
+            throw new UploadException(FAIL + "instance XML file does not exist!");
+        }
+
+        List<File> files = getFilesInParentDirectory(instanceFile, submissionFile);
+
+        // TODO: when can this happen? It used to cause the whole submission attempt to fail. Should it?
+        if (files == null) {
+            throw new UploadException("Error reading files to upload");
+        }
+
+        ServerCapabilities capabilities = getRecentCapabilities(urlString);
+        if (capabilities != null) {
+            try {
+                return post(instance, urlString, capabilities.getSubmissionUri(), submissionFile,
+                        files, capabilities.getMaxContentLength(), true);
+            } catch (StaleCapabilitiesException e) {
+                // The server has changed since it was checked, so check it again
+                Timber.i("Submission to %s with cached server capabilities failed: %s", urlString, e.getMessage());
+                capabilityCache.invalidate(urlString);
+                uriRemap.remove(submissionUri);
+            }
+        }
+
         long contentLength = 10000000L;
 
         // We already issued a head request and got a response, so we know it was an
@@ -144,6 +217,11 @@ public class InstanceServerUploader extends InstanceUploader {
                         throw new UploadException(FAIL + urlString + " " + e.toString());
                     }
                 }
+
+                if (capabilityCache != null) {
+                    capabilityCache.put(urlString, new ServerCapabilities(submissionUri, contentLength,
+                            getAuthScheme(responseHeaders)));
+                }
             } else {
                 Timber.w("Status code on Head request: %d", headResult.getStatusCode());
                 if (headResult.getStatusCode() >= HttpsURLConnection.HTTP_OK
@@ -155,44 +233,95 @@ public class InstanceServerUploader extends InstanceUploader {
             }
         }
 
-        // When encrypting submissions, there is a failure window that may mark the submission as
-        // complete but leave the file-to-be-uploaded with the name "submission.xml" and the plaintext
-        // submission files on disk.  In this case, upload the submission.xml and all the files in
-        // the directory. This means the plaintext files and the encrypted files will be sent to the
-        // server and the server will have to figure out what to do with them.
-        File instanceFile = new File(instance.getInstanceFilePath());
-        File submissionFile = new File(instanceFile.getParentFile(), "submission.xml");
-        if (submissionFile.exists()) {
-            Timber.w("submission.xml will be uploaded instead of %s", instanceFile.getAbsolutePath());
-        } else {
-            submissionFile = instanceFile;
+        return post(instance, urlString, submissionUri, submissionFile, files, contentLength, false);
+    }
+
+    /**
+     * Returns the cached capabilities of the server at the given URL if they are recent enough to
+     * post with, or null if a HEAD request should be made first.
+     */
+    @Nullable
+    private ServerCapabilities getRecentCapabilities(String urlString) {
+        if (capabilityCache == null) {
+            return null;
         }
 
-        if (!instanceFile.exists() && !submissionFile.exists()) {
-            saveFailedStatusToDatabase(instance);
-            throw new UploadException(FAIL + "instance XML file does not exist!");
+        ServerCapabilities capabilities = capabilityCache.get(urlString);
+        if (capabilities == null || capabilities.getAuthScheme() == null) {
+            return capabilities;
         }
 
-        List<File> files = getFilesInParentDirectory(instanceFile, submissionFile);
+        // The server asks for credentials. A post is only sent with them up front once the client
+        // has answered a challenge from the server, which it only remembers in memory. Otherwise
+        // the whole body would be sent, rejected and sent again, so the HEAD request is cheaper.
+        try {
+            URI uri = URI.create(capabilities.getSubmissionUri().toString());
+            return httpInterface.isAuthenticationCached(uri, webCredentialsUtils.getCredentials(uri)) ? capabilities : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        // TODO: when can this happen? It used to cause the whole submission attempt to fail. Should it?
-        if (files == null) {
-            throw new UploadException("Error reading files to upload");
+    /**
+     * Returns the scheme of the authentication challenge the HEAD request was answered with, if
+     * any, e.g. "Digest" for {@code WWW-Authenticate: Digest realm="..."}.
+     */
+    @Nullable
+    private static String getAuthScheme(Map<String, String> responseHeaders) {
+        String challenge = responseHeaders.get("WWW-Authenticate");
+        if (challenge == null || challenge.trim().isEmpty()) {
+            return null;
         }
+        return challenge.trim().split("\\s+")[0];
+    }
 
+    /**
+     * @param withCachedCapabilities whether the submission URI and content length come from the
+     *                               capability cache. If they do, a failure that suggests the server
+     *                               has changed since it was checked throws a
+     *                               {@link StaleCapabilitiesException} and doesn't change the status
+     *                               of the instance.
+     */
+    private String post(Instance instance, String urlString, Uri submissionUri, File submissionFile,
+                        List<File> files, long contentLength, boolean withCachedCapabilities) throws UploadException {
         HttpPostResult postResult;
         ResponseMessageParser messageParser = new ResponseMessageParser();
+        UploadCheckpoint checkpoint = UploadCheckpoint.load(submissionFile, urlString);
 
         try {
             URI uri = URI.create(submissionUri.toString());
 
-            postResult = httpInterface.uploadSubmissionFile(files, submissionFile, uri,
-                    webCredentialsUtils.getCredentials(uri), contentLength);
+            List<File> remainingFiles = checkpoint.getRemainingFiles(files);
+            if (remainingFiles.size() < files.size()) {
+                Timber.i("Resuming submission %s: %d of %d attachments already accepted",
+                        instance.getDatabaseId(), files.size() - remainingFiles.size(), files.size());
+            }
+
+            postResult = httpInterface.uploadSubmissionFile(remainingFiles, submissionFile, uri,
+                    webCredentialsUtils.getCredentials(uri), contentLength,
+                    new OpenRosaHttpInterface.UploadListener() {
+                        @Override
+                        public void onProgress(long bytesSent, long bytesTotal) {
+                            ProgressListener listener = progressListener;
+                            if (listener != null) {
+                                listener.onProgress(instance, bytesSent, bytesTotal);
+                            }
+                        }
+
+                        @Override
+                        public void onFilesAcknowledged(List<File> acknowledgedFiles) {
+                            checkpoint.acknowledge(acknowledgedFiles);
+                        }
+                    });
 
             int responseCode = postResult.getResponseCode();
             messageParser.setMessageResponse(postResult.getHttpResponse());
 
             if (responseCode != HttpsURLConnection.HTTP_CREATED && responseCode != HttpsURLConnection.HTTP_ACCEPTED) {
+                if (withCachedCapabilities && isStaleCapabilitiesResponse(responseCode)) {
+                    throw new StaleCapabilitiesException(postResult.getReasonPhrase() + " (" + responseCode + ")");
+                }
+
                 UploadException exception;
                 if (responseCode == HttpsURLConnection.HTTP_OK) {
                     exception = new UploadException(FAIL + "Network login failure? Again?");
@@ -212,12 +341,20 @@ public class InstanceServerUploader extends InstanceUploader {
                 throw exception;
             }
 
+        } catch (StaleCapabilitiesException e) {
+            throw e;
         } catch (Exception e) {
+            if (withCachedCapabilities && e instanceof IOException) {
+                // e.g. the server has moved and can't be reached at the cached URI any more
+                throw new StaleCapabilitiesException(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+
             saveFailedStatusToDatabase(instance);
             throw new UploadException(FAIL + "Generic Exception: "
                     + (e.getMessage() != null ? e.getMessage() : e.toString()));
         }
 
+        checkpoint.delete();
         saveSuccessStatusToDatabase(instance);
 
         if (messageParser.isValid()) {
@@ -227,6 +364,17 @@ public class InstanceServerUploader extends InstanceUploader {
         return null;
     }
 
+    /**
+     * @return whether a post made with cached server capabilities should be made again after a
+     * HEAD request because it was redirected or challenged for credentials. Other failures are
+     * reported as they are, rather than sending the whole submission a second time.
+     */
+    private static boolean isStaleCapabilitiesResponse(int responseCode) {
+        return (responseCode >= HttpsURLConnection.HTTP_MULT_CHOICE && responseCode < HttpsURLConnection.HTTP_BAD_REQUEST)
+                || responseCode == HttpsURLConnection.HTTP_UNAUTHORIZED
+                || responseCode == HttpsURLConnection.HTTP_PROXY_AUTH;
+    }
+
     private List<File> getFilesInParentDirectory(File instanceFile, File submissionFile) {
         List<File> files = new ArrayList<>();
 
@@ -308,4 +456,14 @@ public class InstanceServerUploader extends InstanceUploader {
 
         return serverBase + submissionPath;
     }
+
+    /**
+     * Thrown when a post made with cached server capabilities fails in a way that suggests the
+     * server has changed since it was checked.
+     */
+    private static class StaleCapabilitiesException extends UploadException {
+        StaleCapabilitiesException(String message) {
+            super(message);
+        }
+    }
 }
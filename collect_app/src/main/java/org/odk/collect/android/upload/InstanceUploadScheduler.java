@@ -0,0 +1,201 @@
+package org.odk.collect.android.upload;
+
+import android.net.Uri;
+
+import org.odk.collect.android.dto.Instance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Uploads several instances at once so that the round trips of one submission overlap with those
+ * of the others. This makes the most difference on high-latency links, where each submission
+ * spends most of its time waiting on the server.
+ * <p>
+ * The number of uploads in flight is bounded overall and per host. Only one instance is uploaded
+ * to a destination URL until the first upload to it has finished, so that the HEAD request it
+ * makes can record any redirect in the uploader's uriRemap for the others to reuse. The uriRemap
+ * given to the uploader must therefore be safe for concurrent use.
+ * <p>
+ * Uploads are started and their results delivered to the {@link Callback} on the thread that
+ * calls {@link #run(Callback)}.
+ */
+public class InstanceUploadScheduler {
+
+    public static final int DEFAULT_MAX_UPLOADS = 4;
+    public static final int DEFAULT_MAX_UPLOADS_PER_HOST = 3;
+
+    public interface Callback {
+        /**
+         * Checked before each upload is started. Uploads that are already in flight are not
+         * interrupted and their results are still delivered.
+         */
+        boolean isCancelled();
+
+        void onUploadStarted(Instance instance);
+
+        /**
+         * @param customMessage the custom success message provided by the server, if any
+         */
+        void onUploadSucceeded(Instance instance, String customMessage);
+
+        void onUploadFailed(Instance instance, UploadException e);
+    }
+
+    private final InstanceUploader uploader;
+    private final int maxUploads;
+    private final int maxUploadsPerHost;
+
+    private final List<Upload> pending = new ArrayList<>();
+    private final Map<String, Integer> uploadsByHost = new HashMap<>();
+    private final Set<String> destinationsInFlight = new HashSet<>();
+    private final Set<String> destinationsReached = new HashSet<>();
+
+    public InstanceUploadScheduler(InstanceUploader uploader) {
+        this(uploader, DEFAULT_MAX_UPLOADS, DEFAULT_MAX_UPLOADS_PER_HOST);
+    }
+
+    public InstanceUploadScheduler(InstanceUploader uploader, int maxUploads, int maxUploadsPerHost) {
+        this.uploader = uploader;
+        this.maxUploads = maxUploads;
+        this.maxUploadsPerHost = maxUploadsPerHost;
+    }
+
+    /**
+     * Queues the instance to be uploaded to the given URL. Instances are started in the order
+     * they are added, as far as the limits allow.
+     */
+    public void add(Instance instance, String destinationUrl) {
+        pending.add(new Upload(instance, destinationUrl));
+    }
+
+    /**
+     * Uploads the queued instances, returning once every upload that was started has finished or
+     * the calling thread is interrupted.
+     */
+    public void run(Callback callback) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxUploads, pending.size()));
+        CompletionService<Upload> completionService = new ExecutorCompletionService<>(executor);
+        int inFlight = 0;
+
+        try {
+            while (true) {
+                if (!callback.isCancelled()) {
+                    inFlight += startUploads(completionService, inFlight, callback);
+                }
+
+                if (inFlight == 0) {
+                    return;
+                }
+
+                Upload upload = completionService.take().get();
+                inFlight--;
+                finish(upload);
+
+                if (upload.exception != null) {
+                    callback.onUploadFailed(upload.instance, upload.exception);
+                } else {
+                    callback.onUploadSucceeded(upload.instance, upload.customMessage);
+                }
+            }
+        } catch (InterruptedException e) {
+            Timber.i("Interrupted with %d uploads in flight", inFlight);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // uploadOneSubmission reports expected failures as UploadExceptions
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of uploads started
+     */
+    private int startUploads(CompletionService<Upload> completionService, int inFlight, Callback callback) {
+        int started = 0;
+
+        Iterator<Upload> iterator = pending.iterator();
+        while (iterator.hasNext() && inFlight + started < maxUploads) {
+            Upload upload = iterator.next();
+            if (!canStart(upload)) {
+                continue;
+            }
+
+            iterator.remove();
+            Integer hostUploads = uploadsByHost.get(upload.host);
+            uploadsByHost.put(upload.host, hostUploads == null ? 1 : hostUploads + 1);
+            if (!destinationsReached.contains(upload.destinationUrl)) {
+                destinationsInFlight.add(upload.destinationUrl);
+            }
+
+            callback.onUploadStarted(upload.instance);
+            completionService.submit(() -> {
+                try {
+                    upload.customMessage = uploader.uploadOneSubmission(upload.instance, upload.destinationUrl);
+                } catch (UploadException e) {
+                    upload.exception = e;
+                }
+                return upload;
+            });
+            started++;
+        }
+
+        return started;
+    }
+
+    private boolean canStart(Upload upload) {
+        Integer hostUploads = uploadsByHost.get(upload.host);
+        if (hostUploads != null && hostUploads >= maxUploadsPerHost) {
+            return false;
+        }
+
+        // wait for the first upload to this destination to find out where it redirects to
+        return !destinationsInFlight.contains(upload.destinationUrl);
+    }
+
+    private void finish(Upload upload) {
+        uploadsByHost.put(upload.host, uploadsByHost.get(upload.host) - 1);
+        destinationsInFlight.remove(upload.destinationUrl);
+        destinationsReached.add(upload.destinationUrl);
+    }
+
+    private static class Upload {
+        final Instance instance;
+        final String destinationUrl;
+        final String host;
+
+        // written by the upload thread before the upload is handed back through the
+        // CompletionService, which makes them visible to the scheduling thread
+        String customMessage;
+        UploadException exception;
+
+        Upload(Instance instance, String destinationUrl) {
+            this.instance = instance;
+            this.destinationUrl = destinationUrl;
+
+            String host = Uri.parse(destinationUrl).getHost();
+            this.host = host != null ? host.toLowerCase(Locale.US) : "";
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.odk.collect.android.upload;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import androidx.annotation.Nullable;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.DatabaseContext;
+
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Persistent record of what the HEAD request before a submission found out about the server: the
+ * URL to post to after any redirect, the largest request it accepts and the authentication scheme
+ * it challenged with. With a fresh record, an upload can post straight away instead of making the
+ * HEAD request again, which is a whole round trip per instance on slow links.
+ * <p>
+ * Records are keyed by the submission URL they were found for and expire after a day, so that
+ * changes on the server are eventually noticed even if posting keeps working.
+ */
+public class ServerCapabilityCache {
+
+    public static final String DATABASE_NAME = "server_capabilities.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(1);
+
+    private static final String CAPABILITIES_TABLE = "capabilities";
+    private static final String KEY_URL = "url";
+    private static final String KEY_SUBMISSION_URL = "submissionUrl";
+    private static final String KEY_MAX_CONTENT_LENGTH = "maxContentLength";
+    private static final String KEY_AUTH_SCHEME = "authScheme";
+    private static final String KEY_CHECKED_AT = "checkedAt";
+
+    private static final String CREATE_CAPABILITIES_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + CAPABILITIES_TABLE + " ("
+                    + KEY_URL + " text primary key, "
+                    + KEY_SUBMISSION_URL + " text not null, "
+                    + KEY_MAX_CONTENT_LENGTH + " integer not null, "
+                    + KEY_AUTH_SCHEME + " text, "
+                    + KEY_CHECKED_AT + " integer not null"
+                    + ");";
+
+    private static ServerCapabilityCache instance;
+
+    private final DatabaseHelper dbHelper;
+    private final long ttl;
+
+    /**
+     * This class helps open, create, and upgrade the database file.
+     */
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_CAPABILITIES_TABLE);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The records are found again by the next HEAD request, so it is safe to start over
+            db.execSQL("DROP TABLE IF EXISTS " + CAPABILITIES_TABLE);
+            onCreate(db);
+        }
+    }
+
+    public static final class ServerCapabilities {
+        private final Uri submissionUri;
+        private final long maxContentLength;
+        private final String authScheme;
+
+        public ServerCapabilities(Uri submissionUri, long maxContentLength, @Nullable String authScheme) {
+            this.submissionUri = submissionUri;
+            this.maxContentLength = maxContentLength;
+            this.authScheme = authScheme;
+        }
+
+        /**
+         * @return the URL to post to, which differs from the one the record is for if the server
+         * redirected
+         */
+        public Uri getSubmissionUri() {
+            return submissionUri;
+        }
+
+        public long getMaxContentLength() {
+            return maxContentLength;
+        }
+
+        /**
+         * @return the scheme of the challenge the server answered the HEAD request with, e.g.
+         * "Digest", or null if it didn't challenge it
+         */
+        @Nullable
+        public String getAuthScheme() {
+            return authScheme;
+        }
+    }
+
+    public static synchronized ServerCapabilityCache getInstance() {
+        if (instance == null) {
+            instance = new ServerCapabilityCache(new DatabaseContext(Collect.METADATA_PATH), DEFAULT_TTL);
+        }
+        return instance;
+    }
+
+    ServerCapabilityCache(Context context, long ttl) {
+        dbHelper = new DatabaseHelper(context);
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return the record for the given submission URL, or null if there is none or it has expired
+     */
+    @Nullable
+    public ServerCapabilities get(String url) {
+        String[] projection = {KEY_SUBMISSION_URL, KEY_MAX_CONTENT_LENGTH, KEY_AUTH_SCHEME};
+        String selection = KEY_URL + "=? AND " + KEY_CHECKED_AT + ">?";
+        String[] selectionArgs = {url, String.valueOf(System.currentTimeMillis() - ttl)};
+
+        try (Cursor c = dbHelper.getReadableDatabase().query(CAPABILITIES_TABLE, projection,
+                selection, selectionArgs, null, null, null)) {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            return new ServerCapabilities(Uri.parse(c.getString(0)), c.getLong(1), c.getString(2));
+        } catch (SQLException e) {
+            // The cache is an optimization only, so fall back to asking the server
+            Timber.w(e);
+            return null;
+        }
+    }
+
+    public void put(String url, ServerCapabilities capabilities) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_URL, url);
+        values.put(KEY_SUBMISSION_URL, capabilities.getSubmissionUri().toString());
+        values.put(KEY_MAX_CONTENT_LENGTH, capabilities.getMaxContentLength());
+        values.put(KEY_AUTH_SCHEME, capabilities.getAuthScheme());
+        values.put(KEY_CHECKED_AT, System.currentTimeMillis());
+
+        try {
+            dbHelper.getWritableDatabase().insertWithOnConflict(CAPABILITIES_TABLE, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Removes the record for the given submission URL, e.g. because posting with it failed.
+     */
+    public void invalidate(String url) {
+        try {
+            dbHelper.getWritableDatabase().delete(CAPABILITIES_TABLE, KEY_URL + "=?",
+                    new String[] {url});
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+}
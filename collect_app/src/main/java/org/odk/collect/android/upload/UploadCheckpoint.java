@@ -0,0 +1,131 @@
+package org.odk.collect.android.upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Records which attachments of an instance the server has already accepted when its submission is
+ * split into several requests, so that an upload that fails part of the way through only sends the
+ * remaining attachments when it is tried again.
+ * <p>
+ * The record is kept in a hidden file in the instance folder so that it isn't uploaded itself and
+ * goes away with the instance. It only applies to the destination it was made for, and it is
+ * ignored once the submission file has changed. An attachment only counts as accepted if its size
+ * and modification time are still the ones it was sent with.
+ */
+public class UploadCheckpoint {
+
+    static final String FILE_NAME = ".upload-checkpoint";
+    private static final String CHARSET = "UTF-8";
+
+    private final File checkpointFile;
+    private final String destinationUrl;
+    private final String submissionFileDescription;
+    private final Set<String> acknowledgedFiles;
+
+    private UploadCheckpoint(File checkpointFile, String destinationUrl,
+                             String submissionFileDescription, Set<String> acknowledgedFiles) {
+        this.checkpointFile = checkpointFile;
+        this.destinationUrl = destinationUrl;
+        this.submissionFileDescription = submissionFileDescription;
+        this.acknowledgedFiles = acknowledgedFiles;
+    }
+
+    /**
+     * @return the checkpoint for uploading the given submission file to the given destination,
+     * which is empty if there is no record for them yet
+     */
+    public static UploadCheckpoint load(File submissionFile, String destinationUrl) {
+        File checkpointFile = new File(submissionFile.getParentFile(), FILE_NAME);
+        String submissionFileDescription = describe(submissionFile);
+        Set<String> acknowledgedFiles = new LinkedHashSet<>();
+
+        if (checkpointFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(checkpointFile), CHARSET))) {
+                if (destinationUrl.equals(reader.readLine())
+                        && submissionFileDescription.equals(reader.readLine())) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        acknowledgedFiles.add(line);
+                    }
+                }
+            } catch (IOException e) {
+                // The checkpoint only saves sending files again, so start over without it
+                Timber.w(e);
+            }
+        }
+
+        return new UploadCheckpoint(checkpointFile, destinationUrl, submissionFileDescription, acknowledgedFiles);
+    }
+
+    /**
+     * @return the files that the server hasn't accepted yet, in the order they were given
+     */
+    public List<File> getRemainingFiles(List<File> files) {
+        List<File> remainingFiles = new ArrayList<>();
+        for (File file : files) {
+            if (!acknowledgedFiles.contains(describe(file))) {
+                remainingFiles.add(file);
+            }
+        }
+        return remainingFiles;
+    }
+
+    /**
+     * Records that the server has accepted the given files. The record is replaced atomically, so
+     * that it is never left half written.
+     */
+    public synchronized void acknowledge(List<File> files) {
+        for (File file : files) {
+            acknowledgedFiles.add(describe(file));
+        }
+
+        File tempFile = new File(checkpointFile.getParentFile(), FILE_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET));
+            writer.write(destinationUrl + "\n");
+            writer.write(submissionFileDescription + "\n");
+            for (String acknowledgedFile : acknowledgedFiles) {
+                writer.write(acknowledgedFile + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Timber.w(e);
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(checkpointFile)) {
+            Timber.w("Unable to rename %s to %s", tempFile, checkpointFile);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Removes the record, e.g. because the whole submission has been accepted.
+     */
+    public void delete() {
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            Timber.w("Unable to delete %s", checkpointFile);
+        }
+    }
+
+    private static String describe(File file) {
+        return file.getName() + "\t" + file.length() + "\t" + file.lastModified();
+    }
+}
@@ -2,7 +2,6 @@
 package org.odk.collect.android.utilities;
 
 import android.location.Location;
-import android.os.AsyncTask;
 import android.os.SystemClock;
 
 import org.javarosa.core.model.FormIndex;
@@ -11,7 +10,6 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.logic.AuditConfig;
 import org.odk.collect.android.logic.AuditEvent;
 import org.odk.collect.android.logic.FormController;
-import org.odk.collect.android.tasks.AuditEventSaveTask;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -26,7 +24,7 @@ import static org.odk.collect.android.logic.FormController.AUDIT_FILE_NAME;
 
 /**
  * Handle logging of auditEvents (which contain time and might contain location coordinates),
- * and pass them to an Async task to append to a file
+ * and pass them to the {@link AuditEventWriter} to append to a file
  * Notes:
  * 1) If the user has saved the form, then resumes editing, then exits without saving then the timing data during the
  * second editing session will be saved.  This is OK as it records user activity.  However if the user exits
@@ -38,7 +36,6 @@ public class AuditEventLogger {
 
     private List<Location> locations = new ArrayList<>();
 
-    private static AsyncTask saveTask;
     private ArrayList<AuditEvent> auditEvents = new ArrayList<>();
     private File auditFile;
     private long surveyOpenTime;
@@ -206,17 +203,30 @@ public class AuditEventLogger {
     }
 
     private void writeEvents() {
-        if (saveTask == null || saveTask.getStatus() == AsyncTask.Status.FINISHED) {
-            AuditEvent[] auditEventArray = auditEvents.toArray(new AuditEvent[0]);
-            if (auditFile != null) {
-                saveTask = new AuditEventSaveTask(auditFile, auditConfig.isLocationEnabled(), auditConfig.isTrackingChangesEnabled()).execute(auditEventArray);
-            } else {
-                Timber.e("auditFile null when attempting to write auditEvents.");
+        if (auditFile != null) {
+            AuditEventWriter auditEventWriter = AuditEventWriter.getInstance();
+            auditEventWriter.write(auditFile, auditConfig.isLocationEnabled(), auditConfig.isTrackingChangesEnabled(), auditEvents);
+
+            // Make sure that the events are on the disk along with the instance they belong to
+            if (containsSaveOrExitEvent(auditEvents)) {
+                auditEventWriter.flush();
             }
-            auditEvents = new ArrayList<>();
         } else {
-            Timber.i("Queueing AuditEvent");
+            Timber.e("auditFile null when attempting to write auditEvents.");
         }
+        auditEvents = new ArrayList<>();
+    }
+
+    private static boolean containsSaveOrExitEvent(List<AuditEvent> auditEvents) {
+        for (AuditEvent aev : auditEvents) {
+            AuditEvent.AuditEventType eventType = aev.getAuditEventType();
+            if (eventType == AuditEvent.AuditEventType.FORM_SAVE
+                    || eventType == AuditEvent.AuditEventType.FORM_EXIT
+                    || eventType == AuditEvent.AuditEventType.FORM_FINALIZE) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /*
@@ -0,0 +1,254 @@
+package org.odk.collect.android.utilities;
+
+import androidx.annotation.NonNull;
+
+import org.odk.collect.android.logic.AuditEvent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * Appends audit events to the audit files of instances on a single long-lived thread.
+ * <p>
+ * Events are handed over through a lock-free queue, so logging one never waits for the disk. The
+ * writer keeps the audit file open and buffered between events and commits them in groups: once
+ * {@link #FLUSH_EVENT_COUNT} events are buffered or {@link #FLUSH_DELAY_MILLIS} after the first
+ * of them, whichever comes first. {@link #flush()} writes everything out and syncs it to the disk,
+ * e.g. when the form is saved or exited.
+ * <p>
+ * The header of an existing file is only checked when the file is opened, and it is rewritten if
+ * the form now audits more columns than the file has.
+ */
+public class AuditEventWriter {
+
+    static final int FLUSH_EVENT_COUNT = 64;
+    static final long FLUSH_DELAY_MILLIS = 1000;
+
+    private static final String CHARSET = "UTF-8";
+    private static final String DEFAULT_COLUMNS = "event,node,start,end";
+    private static final String LOCATION_COORDINATES_COLUMNS = ",latitude,longitude,accuracy";
+    private static final String ANSWER_VALUES_COLUMNS = ",old-value,new-value";
+
+    private static AuditEventWriter instance;
+
+    private final Queue<Batch> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AuditEventWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only used on the writer thread
+    private File openFile;
+    private String openHeader;
+    private FileOutputStream outputStream;
+    private Writer writer;
+    private int unflushedEventCount;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public static synchronized AuditEventWriter getInstance() {
+        if (instance == null) {
+            instance = new AuditEventWriter();
+        }
+        return instance;
+    }
+
+    AuditEventWriter() {
+    }
+
+    /**
+     * Queues the given events to be appended to the given audit file. The events are turned into
+     * lines straight away, so they may be changed once this returns.
+     */
+    public void write(@NonNull File file, boolean isLocationEnabled, boolean isTrackingChangesEnabled,
+                      List<AuditEvent> events) {
+        List<String> lines = new ArrayList<>(events.size());
+        for (AuditEvent event : events) {
+            lines.add(event.toString());
+        }
+        queue.add(new Batch(file, getHeader(isLocationEnabled, isTrackingChangesEnabled), lines));
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Writes the events queued so far to the disk and closes the file they were written to.
+     *
+     * @return a future that is done once the events are on the disk
+     */
+    public Future<?> flush() {
+        return executor.submit(() -> {
+            drain();
+            flushWriter(true);
+            closeWriter();
+        });
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+
+        Batch batch;
+        while ((batch = queue.poll()) != null) {
+            try {
+                Writer writer = getWriter(batch);
+                for (String line : batch.lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                    Timber.i("Log audit event: %s", line);
+                }
+                unflushedEventCount += batch.lines.size();
+            } catch (IOException e) {
+                Timber.e(e);
+                closeWriter();
+            }
+        }
+
+        if (unflushedEventCount >= FLUSH_EVENT_COUNT) {
+            flushWriter(false);
+        } else if (unflushedEventCount > 0 && scheduledFlush == null) {
+            scheduledFlush = executor.schedule(() -> flushWriter(false), FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Writer getWriter(Batch batch) throws IOException {
+        // The file may have been deleted with its instance since it was opened
+        if (writer != null && batch.file.equals(openFile) && batch.header.equals(openHeader) && openFile.exists()) {
+            return writer;
+        }
+
+        closeWriter();
+
+        boolean newFile = !batch.file.exists();
+        if (!newFile) {
+            updateHeaderIfNeeded(batch.file, batch.header);
+        }
+
+        outputStream = new FileOutputStream(batch.file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(outputStream, CHARSET));
+        openFile = batch.file;
+        openHeader = batch.header;
+
+        if (newFile) {
+            writer.write(batch.header);
+            writer.write('\n');
+        }
+        return writer;
+    }
+
+    private void flushWriter(boolean sync) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.flush();
+            if (sync) {
+                outputStream.getFD().sync();
+            }
+            unflushedEventCount = 0;
+        } catch (IOException e) {
+            Timber.e(e);
+            closeWriter();
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Timber.e(e);
+            }
+        }
+        writer = null;
+        outputStream = null;
+        openFile = null;
+        openHeader = null;
+        unflushedEventCount = 0;
+    }
+
+    /**
+     * Rewrites the file with the given header if its own is missing any of the columns, e.g.
+     * because location tracking has been added to the form since the file was started.
+     */
+    private static void updateHeaderIfNeeded(File file, String header) throws IOException {
+        File temporaryFile = new File(file.getParentFile(), "temporaryAudit.csv");
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+            if (!shouldHeaderBeUpdated(reader.readLine(), header)) {
+                return;
+            }
+
+            try (Writer temporaryWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), CHARSET))) {
+                temporaryWriter.write(header);
+                temporaryWriter.write('\n');
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    temporaryWriter.write(line);
+                    temporaryWriter.write('\n');
+                }
+            }
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Unable to rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    private static boolean shouldHeaderBeUpdated(String fileHeader, String header) {
+        return fileHeader == null
+                || (header.contains(LOCATION_COORDINATES_COLUMNS) && !fileHeader.contains(LOCATION_COORDINATES_COLUMNS))
+                || (header.contains(ANSWER_VALUES_COLUMNS) && !fileHeader.contains(ANSWER_VALUES_COLUMNS));
+    }
+
+    private static String getHeader(boolean isLocationEnabled, boolean isTrackingChangesEnabled) {
+        String header = DEFAULT_COLUMNS;
+        if (isLocationEnabled) {
+            header += LOCATION_COORDINATES_COLUMNS;
+        }
+        if (isTrackingChangesEnabled) {
+            header += ANSWER_VALUES_COLUMNS;
+        }
+        return header;
+    }
+
+    private static class Batch {
+        final File file;
+        final String header;
+        final List<String> lines;
+
+        Batch(File file, String header, List<String> lines) {
+            this.file = file;
+            this.header = header;
+            this.lines = lines;
+        }
+    }
+}
@@ -38,7 +38,9 @@ import java.io.File;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -447,8 +449,9 @@ public class DownloadFormListUtils {
         if (mediaDirPath != null) {
             File[] localMediaFiles = new File(mediaDirPath).listFiles();
             if (localMediaFiles != null) {
+                Set<String> localMediaFileHashes = getMd5Hashes(localMediaFiles);
                 for (MediaFile newMediaFile : newMediaFiles) {
-                    if (!isMediaFileAlreadyDownloaded(localMediaFiles, newMediaFile)) {
+                    if (!isMediaFileAlreadyDownloaded(localMediaFileHashes, newMediaFile)) {
                         return true;
                     }
                 }
@@ -460,7 +463,22 @@ public class DownloadFormListUtils {
         return false;
     }
 
-    private static boolean isMediaFileAlreadyDownloaded(File[] localMediaFiles, MediaFile newMediaFile) {
+    /**
+     * Hashes each local media file once, through the index so that files that haven't changed since
+     * the last check aren't read again.
+     */
+    private static Set<String> getMd5Hashes(File[] localMediaFiles) {
+        Set<String> md5Hashes = new HashSet<>();
+        for (File localMediaFile : localMediaFiles) {
+            String md5Hash = FileHashIndex.getMd5Hash(localMediaFile);
+            if (md5Hash != null) {
+                md5Hashes.add(md5Hash);
+            }
+        }
+        return md5Hashes;
+    }
+
+    private static boolean isMediaFileAlreadyDownloaded(Set<String> localMediaFileHashes, MediaFile newMediaFile) {
         // TODO Zip files are ignored we should find a way to take them into account too
         if (newMediaFile.getFilename().endsWith(".zip")) {
             return true;
@@ -468,12 +486,7 @@ public class DownloadFormListUtils {
 
         String mediaFileHash = newMediaFile.getHash();
         mediaFileHash = mediaFileHash.substring(4, mediaFileHash.length());
-        for (File localMediaFile : localMediaFiles) {
-            if (mediaFileHash.equals(FileUtils.getMd5Hash(localMediaFile))) {
-                return true;
-            }
-        }
-        return false;
+        return localMediaFileHashes.contains(mediaFileHash);
     }
 
     private static boolean isXformsListNamespacedElement(Element e) {
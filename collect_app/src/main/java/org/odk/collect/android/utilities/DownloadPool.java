@@ -0,0 +1,107 @@
+package org.odk.collect.android.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs downloads on a fixed number of threads, so that the round trips and transfers of several
+ * files overlap without opening an unbounded number of connections. One pool can be shared by
+ * several callers at once, which then share its limit.
+ */
+class DownloadPool {
+
+    private final ExecutorService executor;
+
+    DownloadPool(int maxDownloads) {
+        executor = Executors.newFixedThreadPool(maxDownloads);
+    }
+
+    /**
+     * Runs the given downloads and waits for them to finish.
+     * <p>
+     * Once one of them has failed, the ones that haven't started yet are skipped. The ones already
+     * in progress are waited for, so that nothing is still writing files when this returns.
+     *
+     * @return the results of the downloads, in the order they were given
+     * @throws Exception the exception of the first download in the given order that failed
+     */
+    <T> List<T> runAll(List<Callable<T>> downloads) throws Exception {
+        AtomicBoolean failed = new AtomicBoolean();
+
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> download : downloads) {
+            futures.add(executor.submit(() -> {
+                if (failed.get()) {
+                    throw new SkippedException();
+                }
+
+                try {
+                    return download.call();
+                } catch (Exception | Error e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }));
+        }
+
+        List<T> results = new ArrayList<>();
+        Exception failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(getUninterruptibly(future));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else if (!(cause instanceof SkippedException) && failure == null) {
+                    failure = (Exception) cause;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Stops the threads once the downloads that have been started are done.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the download even if the calling thread is interrupted, so that callers can rely
+     * on downloads having finished, and then restores the interrupt.
+     */
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class SkippedException extends Exception {
+        SkippedException() {
+            super("Skipped because another download failed");
+        }
+    }
+}
@@ -34,15 +34,16 @@ import org.odk.collect.android.logic.FormController.InstanceMetadata;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -55,10 +56,15 @@ import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
@@ -100,10 +106,16 @@ public class EncryptionUtils {
             "base64EncryptedElementSignature";
     private static final String NEW_LINE = "\n";
     private static final String ENCRYPTION_PROVIDER = "BC";
+    private static final int ENCRYPTION_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ENCRYPTION_THREADS = 4;
 
     private EncryptionUtils() {
     }
 
+    public interface EncryptionProgressListener {
+        void onFileEncrypted(int filesEncrypted, int filesTotal);
+    }
+
     public static final class EncryptedFormInformation {
         public final String formId;
         public final String formVersion;
@@ -177,8 +189,11 @@ public class EncryptionUtils {
         }
 
         public void appendFileSignatureSource(File file) {
-            String md5Hash = FileUtils.getMd5Hash(file);
-            appendElementSignatureSource(file.getName() + "::" + md5Hash);
+            appendFileSignatureSource(file.getName(), FileUtils.getMd5Hash(file));
+        }
+
+        public void appendFileSignatureSource(String fileName, String md5Hash) {
+            appendElementSignatureSource(fileName + "::" + md5Hash);
         }
 
         public String getBase64EncryptedElementSignature() {
@@ -378,53 +393,74 @@ public class EncryptionUtils {
         return new EncryptedFormInformation(formId, formVersion, instanceMetadata, pk);
     }
 
-    private static void encryptFile(File file, EncryptedFormInformation formInfo)
+    private static Cipher getCipher(File file, EncryptedFormInformation formInfo)
+            throws EncryptionException {
+        try {
+            return formInfo.getCipher();
+        } catch (GeneralSecurityException e) {
+            String msg = "Error encrypting: " + file.getName();
+            Timber.e(e, "%s due to %s ", msg, e.getMessage());
+            throw new EncryptionException(msg, e);
+        }
+    }
+
+    /**
+     * @return the MD5 hash of the unencrypted file, for its signature source
+     */
+    private static String encryptFile(File file, Cipher cipher)
             throws IOException, EncryptionException {
-        File encryptedFile = new File(file.getParentFile(), file.getName()
-                + ".enc");
+        File encryptedFile = getEncryptedFile(file);
 
         if (encryptedFile.exists() && !encryptedFile.delete()) {
             throw new IOException("Cannot overwrite " + encryptedFile.getAbsolutePath()
                     + ". Perhaps the file is locked?");
         }
 
-        // add elementSignatureSource for this file...
-        formInfo.appendFileSignatureSource(file);
-
-        RandomAccessFile randomAccessFile = null;
-        CipherOutputStream cipherOutputStream = null;
         try {
-            Cipher c = formInfo.getCipher();
-
-            randomAccessFile = new RandomAccessFile(encryptedFile, "rws");
-            ByteArrayOutputStream encryptedData = new ByteArrayOutputStream();
-            cipherOutputStream = new CipherOutputStream(encryptedData, c);
-            InputStream fin = new FileInputStream(file);
-            byte[] buffer = new byte[2048];
-            int len = fin.read(buffer);
-            while (len != -1) {
-                cipherOutputStream.write(buffer, 0, len);
-                len = fin.read(buffer);
-            }
-            fin.close();
-            cipherOutputStream.flush();
-            cipherOutputStream.close();
-
-            randomAccessFile.write(encryptedData.toByteArray());
-
+            String md5Hash = encryptFile(file, encryptedFile, cipher);
             Timber.i("Encrpyted:%s -> %s", file.getName(), encryptedFile.getName());
+            return md5Hash;
         } catch (Exception e) {
             String msg = "Error encrypting: " + file.getName() + " -> "
                     + encryptedFile.getName();
             Timber.e(e, "%s due to %s ", msg, e.getMessage());
             throw new EncryptionException(msg, e);
-        } finally {
-            IOUtils.closeQuietly(cipherOutputStream);
+        }
+    }
+
+    private static File getEncryptedFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".enc");
+    }
 
-            if (randomAccessFile != null) {
-                randomAccessFile.close();
+    /**
+     * Encrypts the file into encryptedFile a chunk at a time, so that the memory needed doesn't
+     * depend on the size of the file. The encrypted file is synced to disk once it is complete.
+     *
+     * @return the zero-padded MD5 hash of the unencrypted contents, computed in the same pass
+     */
+    static String encryptFile(File file, File encryptedFile, Cipher cipher)
+            throws IOException, GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[ENCRYPTION_BUFFER_SIZE];
+
+        try (InputStream in = new FileInputStream(file);
+             FileOutputStream fileOut = new FileOutputStream(encryptedFile)) {
+            OutputStream out = new BufferedOutputStream(fileOut, ENCRYPTION_BUFFER_SIZE);
+
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                md.update(buffer, 0, len);
+                byte[] encrypted = cipher.update(buffer, 0, len);
+                if (encrypted != null) {
+                    out.write(encrypted);
+                }
             }
+            out.write(cipher.doFinal());
+            out.flush();
+            fileOut.getFD().sync();
         }
+
+        return FileUtils.toHexString(md.digest());
     }
 
     public static boolean deletePlaintextFiles(File instanceXml, @Nullable File lastSaved) {
@@ -460,7 +496,8 @@ public class EncryptionUtils {
     }
 
     private static List<File> encryptSubmissionFiles(File instanceXml,
-            File submissionXml, EncryptedFormInformation formInfo)
+            File submissionXml, EncryptedFormInformation formInfo,
+            @Nullable EncryptionProgressListener listener)
             throws IOException, EncryptionException {
         // NOTE: assume the directory containing the instanceXml contains ONLY
         // files related to this one instance.
@@ -489,17 +526,84 @@ public class EncryptionUtils {
                 filesToProcess.add(f);
             }
         }
-        // encrypt here...
-        for (File f : filesToProcess) {
-            encryptFile(f, formInfo);
-        }
+        // the submission.xml is listed as the last file...
+        List<File> filesToEncrypt = new ArrayList<>(filesToProcess);
+        filesToEncrypt.add(submissionXml);
 
-        // encrypt the submission.xml as the last file...
-        encryptFile(submissionXml, formInfo);
+        int filesTotal = filesToEncrypt.size();
+        AtomicInteger filesEncrypted = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(filesTotal,
+                Math.min(MAX_ENCRYPTION_THREADS, Runtime.getRuntime().availableProcessors())));
+        boolean encrypted = false;
+        try {
+            // each cipher's iv comes from a counter, so the ciphers are created in the same order
+            // as the files are listed in the manifest, whichever order they are encrypted in
+            List<Future<String>> md5Hashes = new ArrayList<>();
+            for (File f : filesToEncrypt) {
+                Cipher c = getCipher(f, formInfo);
+                md5Hashes.add(executor.submit(() -> {
+                    String md5Hash = encryptFile(f, c);
+                    if (listener != null) {
+                        listener.onFileEncrypted(filesEncrypted.incrementAndGet(), filesTotal);
+                    }
+                    return md5Hash;
+                }));
+            }
+
+            // add elementSignatureSource for each file, in the same order...
+            for (int i = 0; i < filesTotal; i++) {
+                formInfo.appendFileSignatureSource(filesToEncrypt.get(i).getName(),
+                        getMd5Hash(md5Hashes.get(i)));
+            }
+            encrypted = true;
+        } finally {
+            executor.shutdownNow();
+            if (!encrypted) {
+                // Files that are being encrypted can't be interrupted, so wait for them to finish
+                // before deleting what was written. Otherwise they would still be written after the
+                // failure has been reported, e.g. while a new attempt to save deletes them.
+                awaitTermination(executor);
+                for (File f : filesToEncrypt) {
+                    File encryptedFile = getEncryptedFile(f);
+                    if (encryptedFile.exists() && !encryptedFile.delete()) {
+                        Timber.w("Unable to delete %s", encryptedFile.getAbsolutePath());
+                    }
+                }
+            }
+        }
 
         return filesToProcess;
     }
 
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                Timber.i("Waiting for files being encrypted to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String getMd5Hash(Future<String> encryption)
+            throws IOException, EncryptionException {
+        try {
+            return encryption.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EncryptionException("Interrupted while encrypting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof EncryptionException) {
+                throw (EncryptionException) cause;
+            }
+            throw new EncryptionException("Error encrypting", cause);
+        }
+    }
+
     /**
      * Constructs the encrypted attachments, encrypted form xml, and the
      * plaintext submission manifest (with signature) for the form submission.
@@ -509,6 +613,18 @@ public class EncryptionUtils {
     public static void generateEncryptedSubmission(File instanceXml,
             File submissionXml, EncryptedFormInformation formInfo)
             throws IOException, EncryptionException {
+        generateEncryptedSubmission(instanceXml, submissionXml, formInfo, null);
+    }
+
+    /**
+     * Like {@link #generateEncryptedSubmission(File, File, EncryptedFormInformation)}, reporting
+     * each file to the listener as it is encrypted. Files are encrypted in parallel, so the
+     * listener is called on background threads.
+     */
+    public static void generateEncryptedSubmission(File instanceXml,
+            File submissionXml, EncryptedFormInformation formInfo,
+            @Nullable EncryptionProgressListener listener)
+            throws IOException, EncryptionException {
         // submissionXml is the submission data to be published to Aggregate
         if (!submissionXml.exists() || !submissionXml.isFile()) {
             throw new IOException("No submission.xml found");
@@ -518,7 +634,7 @@ public class EncryptionUtils {
 
         // Step 1: encrypt the submission and all the media files...
         List<File> mediaFiles = encryptSubmissionFiles(instanceXml,
-                submissionXml, formInfo);
+                submissionXml, formInfo, listener);
 
         // Step 2: build the encrypted-submission manifest (overwrites
         // submission.xml)...
@@ -0,0 +1,144 @@
+package org.odk.collect.android.utilities;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.DatabaseContext;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * Persistent index from (path, size, last modified time) to the MD5 hash of a file's contents.
+ * Hashing a large form or media file means reading all of it, so callers that only need to know
+ * whether a file has changed should go through this index rather than
+ * {@link FileUtils#getMd5Hash(File)}. A file whose size or modification time differs from the
+ * indexed entry is re-hashed and the entry is replaced.
+ */
+public final class FileHashIndex {
+
+    public static final String DATABASE_NAME = "filehashes.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String FILE_HASHES_TABLE = "file_hashes";
+    private static final String KEY_PATH = "path";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_MD5_HASH = "md5Hash";
+
+    private static final String CREATE_FILE_HASHES_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + FILE_HASHES_TABLE + " ("
+                    + KEY_PATH + " text primary key, "
+                    + KEY_SIZE + " integer not null, "
+                    + KEY_LAST_MODIFIED + " integer not null, "
+                    + KEY_MD5_HASH + " text not null"
+                    + ");";
+
+    private static DatabaseHelper dbHelper;
+
+    /**
+     * This class helps open, create, and upgrade the database file.
+     */
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper() {
+            super(new DatabaseContext(Collect.METADATA_PATH), DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_FILE_HASHES_TABLE);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // The index only caches values that can be recomputed, so it is safe to start over
+            db.execSQL("DROP TABLE IF EXISTS " + FILE_HASHES_TABLE);
+            onCreate(db);
+        }
+    }
+
+    private FileHashIndex() {
+    }
+
+    /**
+     * Returns the MD5 hash of the given file, reading the file only if it is not in the index or
+     * has been modified since it was indexed.
+     *
+     * @return the hash, or null if the file can't be read
+     */
+    public static String getMd5Hash(File file) {
+        if (!file.isFile()) {
+            return FileUtils.getMd5Hash(file);
+        }
+
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        String md5Hash = getIndexedMd5Hash(path, size, lastModified);
+        if (md5Hash != null) {
+            return md5Hash;
+        }
+
+        md5Hash = FileUtils.getMd5Hash(file);
+        if (md5Hash != null) {
+            putIndexedMd5Hash(path, size, lastModified, md5Hash);
+        }
+        return md5Hash;
+    }
+
+    /**
+     * Removes the entry for the given file, e.g. because it has been deleted or is about to be
+     * overwritten in a way that might preserve its size and modification time.
+     */
+    public static void invalidate(File file) {
+        try {
+            getDatabase().delete(FILE_HASHES_TABLE, KEY_PATH + "=?",
+                    new String[] {file.getAbsolutePath()});
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    private static String getIndexedMd5Hash(String path, long size, long lastModified) {
+        String[] projection = {KEY_MD5_HASH};
+        String selection = KEY_PATH + "=? AND " + KEY_SIZE + "=? AND " + KEY_LAST_MODIFIED + "=?";
+        String[] selectionArgs = {path, String.valueOf(size), String.valueOf(lastModified)};
+
+        try (Cursor c = getDatabase().query(FILE_HASHES_TABLE, projection, selection, selectionArgs,
+                null, null, null)) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } catch (SQLException e) {
+            // The index is an optimization only, so fall back to hashing the file
+            Timber.w(e);
+            return null;
+        }
+    }
+
+    private static void putIndexedMd5Hash(String path, long size, long lastModified, String md5Hash) {
+        ContentValues values = new ContentValues();
+        values.put(KEY_PATH, path);
+        values.put(KEY_SIZE, size);
+        values.put(KEY_LAST_MODIFIED, lastModified);
+        values.put(KEY_MD5_HASH, md5Hash);
+
+        try {
+            getDatabase().insertWithOnConflict(FILE_HASHES_TABLE, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLException e) {
+            Timber.w(e);
+        }
+    }
+
+    private static synchronized SQLiteDatabase getDatabase() {
+        if (dbHelper == null) {
+            dbHelper = new DatabaseHelper();
+        }
+        return dbHelper.getWritableDatabase();
+    }
+}
@@ -25,12 +25,11 @@ import android.os.Build;
 import android.os.Environment;
 
 import org.apache.commons.io.IOUtils;
-import org.javarosa.xform.parse.XFormParser;
-import org.kxml2.kdom.Document;
-import org.kxml2.kdom.Element;
-import org.kxml2.kdom.Node;
+import org.kxml2.io.KXmlParser;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -39,7 +38,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.FileNameMap;
 import java.net.URLConnection;
@@ -53,9 +51,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
 import timber.log.Timber;
 
 /**
@@ -132,13 +132,8 @@ public class FileUtils {
                 md.update(buffer, 0, result);
             }
 
-            StringBuilder md5 = new StringBuilder(new BigInteger(1, md.digest()).toString(16));
-            while (md5.length() < 32) {
-                md5.insert(0, "0");
-            }
-
             is.close();
-            return md5.toString();
+            return toHexString(md.digest());
 
         } catch (NoSuchAlgorithmException e) {
             Timber.e(e);
@@ -150,6 +145,18 @@ public class FileUtils {
         }
     }
 
+    /**
+     * @return the given digest as a lower case hex string, padded with leading zeros to two digits
+     * per byte
+     */
+    public static String toHexString(byte[] digest) {
+        StringBuilder hex = new StringBuilder(new BigInteger(1, digest).toString(16));
+        while (hex.length() < digest.length * 2) {
+            hex.insert(0, "0");
+        }
+        return hex.toString();
+    }
+
     public static Bitmap getBitmapScaledToDisplay(File file, int screenHeight, int screenWidth) {
         return getBitmapScaledToDisplay(file, screenHeight, screenWidth, false);
     }
@@ -261,111 +268,149 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Reads the title, form id, version and submission settings of a form. Only the head of the
+     * form is read, and it is read as a stream rather than into a document, so that neither the
+     * body nor the rest of the primary instance have to be held in memory.
+     *
+     * @throws IllegalStateException if the file can't be read or isn't a form
+     */
     public static HashMap<String, String> parseXML(File xmlFile) {
         final HashMap<String, String> fields = new HashMap<String, String>();
-        final InputStream is;
-        try {
-            is = new FileInputStream(xmlFile);
-        } catch (FileNotFoundException e1) {
-            Timber.d(e1);
-            throw new IllegalStateException(e1);
-        }
 
-        InputStreamReader isr;
-        try {
-            isr = new InputStreamReader(is, "UTF-8");
-        } catch (UnsupportedEncodingException uee) {
-            Timber.w(uee, "Trying default encoding as UTF 8 encoding unavailable");
-            isr = new InputStreamReader(is);
-        }
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(xmlFile), "UTF-8")) {
+            KXmlParser parser = new KXmlParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(reader);
 
-        final Document doc;
-        try {
-            doc = XFormParser.getXMLDocument(isr);
-        } catch (IOException e) {
+            parser.nextTag();
+            final String html = parser.getNamespace();
+            final int rootDepth = parser.getDepth();
+
+            while (nextChildElement(parser, rootDepth)) {
+                if (html.equals(parser.getNamespace()) && "head".equals(parser.getName())) {
+                    parseHead(parser, html, fields, xmlFile);
+                    // the body isn't needed
+                    return fields;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            Timber.d(e);
+            throw new IllegalStateException(e);
+        } catch (IOException | XmlPullParserException e) {
             Timber.e(e, "Unable to parse XML document %s", xmlFile.getAbsolutePath());
             throw new IllegalStateException("Unable to parse XML document", e);
-        } finally {
-            try {
-                isr.close();
-            } catch (IOException e) {
-                Timber.w("%s error closing from reader", xmlFile.getAbsolutePath());
-            }
         }
 
-        final String xforms = "http://www.w3.org/2002/xforms";
-        final String html = doc.getRootElement().getNamespace();
-
-        final Element head = doc.getRootElement().getElement(html, "head");
-        final Element title = head.getElement(html, "title");
-        if (title != null) {
-            fields.put(TITLE, XFormParser.getXMLText(title, true));
-        }
+        throw new IllegalStateException(xmlFile.getAbsolutePath() + " has no head");
+    }
 
-        final Element model = getChildElement(head, "model");
-        Element cur = getChildElement(model, "instance");
+    private static void parseHead(XmlPullParser parser, String html, Map<String, String> fields,
+                                  File xmlFile) throws IOException, XmlPullParserException {
+        final int headDepth = parser.getDepth();
+        boolean titleFound = false;
+        boolean modelFound = false;
 
-        final int idx = cur.getChildCount();
-        int i;
-        for (i = 0; i < idx; ++i) {
-            if (cur.isText(i)) {
-                continue;
-            }
-            if (cur.getType(i) == Node.ELEMENT) {
-                break;
+        while (!(titleFound && modelFound) && nextChildElement(parser, headDepth)) {
+            if (!titleFound && html.equals(parser.getNamespace()) && "title".equals(parser.getName())) {
+                titleFound = true;
+                fields.put(TITLE, readText(parser));
+            } else if (!modelFound && "model".equalsIgnoreCase(parser.getName())) {
+                modelFound = true;
+                parseModel(parser, fields, xmlFile);
             }
         }
 
-        if (i < idx) {
-            cur = cur.getElement(i); // this is the first data element
-            final String id = cur.getAttributeValue(null, "id");
+        if (!titleFound) {
+            throw new IllegalStateException(xmlFile.getAbsolutePath() + " has no title");
+        }
+        if (!modelFound) {
+            throw new IllegalStateException(xmlFile.getAbsolutePath() + " could not be parsed");
+        }
+    }
+
+    private static void parseModel(XmlPullParser parser, Map<String, String> fields, File xmlFile)
+            throws IOException, XmlPullParserException {
+        final String xforms = "http://www.w3.org/2002/xforms";
+        final int modelDepth = parser.getDepth();
+        boolean instanceFound = false;
+        boolean submissionFound = false;
+
+        while (!(instanceFound && submissionFound) && nextChildElement(parser, modelDepth)) {
+            if (!instanceFound && "instance".equalsIgnoreCase(parser.getName())) {
+                instanceFound = true;
+
+                if (!nextChildElement(parser, parser.getDepth())) {
+                    throw new IllegalStateException(xmlFile.getAbsolutePath() + " could not be parsed");
+                }
 
-            final String version = cur.getAttributeValue(null, "version");
-            final String uiVersion = cur.getAttributeValue(null, "uiVersion");
-            if (uiVersion != null) {
-                // pre-OpenRosa 1.0 variant of spec
-                Timber.e("Obsolete use of uiVersion -- IGNORED -- only using version: %s",
-                        version);
+                // this is the first data element
+                final String id = parser.getAttributeValue(null, "id");
+                final String version = parser.getAttributeValue(null, "version");
+                final String uiVersion = parser.getAttributeValue(null, "uiVersion");
+                if (uiVersion != null) {
+                    // pre-OpenRosa 1.0 variant of spec
+                    Timber.e("Obsolete use of uiVersion -- IGNORED -- only using version: %s",
+                            version);
+                }
+
+                fields.put(FORMID, (id == null) ? parser.getNamespace() : id);
+                fields.put(VERSION, version);
+            } else if (!submissionFound && xforms.equals(parser.getNamespace())
+                    && "submission".equals(parser.getName())) {
+                submissionFound = true;
+
+                final String base64RsaPublicKey = parser.getAttributeValue(null, "base64RsaPublicKey");
+                fields.put(SUBMISSIONURI, parser.getAttributeValue(null, "action"));
+                fields.put(BASE64_RSA_PUBLIC_KEY,
+                        (base64RsaPublicKey == null || base64RsaPublicKey.trim().length() == 0)
+                                ? null : base64RsaPublicKey.trim());
+                fields.put(AUTO_DELETE, parser.getAttributeValue(null, "auto-delete"));
+                fields.put(AUTO_SEND, parser.getAttributeValue(null, "auto-send"));
             }
+        }
 
-            fields.put(FORMID, (id == null) ? cur.getNamespace() : id);
-            fields.put(VERSION, (version == null) ? null : version);
-        } else {
+        if (!instanceFound) {
             throw new IllegalStateException(xmlFile.getAbsolutePath() + " could not be parsed");
         }
-        try {
-            final Element submission = model.getElement(xforms, "submission");
-            final String base64RsaPublicKey = submission.getAttributeValue(null, "base64RsaPublicKey");
-            final String autoDelete = submission.getAttributeValue(null, "auto-delete");
-            final String autoSend = submission.getAttributeValue(null, "auto-send");
-
-            fields.put(SUBMISSIONURI, submission.getAttributeValue(null, "action"));
-            fields.put(BASE64_RSA_PUBLIC_KEY,
-                    (base64RsaPublicKey == null || base64RsaPublicKey.trim().length() == 0)
-                            ? null : base64RsaPublicKey.trim());
-            fields.put(AUTO_DELETE, autoDelete);
-            fields.put(AUTO_SEND, autoSend);
-        } catch (Exception e) {
-            Timber.i("XML file %s does not have a submission element", xmlFile.getAbsolutePath());
+        if (!submissionFound) {
             // and that's totally fine.
+            Timber.i("XML file %s does not have a submission element", xmlFile.getAbsolutePath());
         }
+    }
 
-        return fields;
+    /**
+     * Moves the parser to the start of the next child element of the element at the given depth,
+     * passing over the content of any children before it.
+     *
+     * @return false if the end of the element was reached instead
+     */
+    private static boolean nextChildElement(XmlPullParser parser, int depth)
+            throws IOException, XmlPullParserException {
+        while (true) {
+            int eventType = parser.next();
+            if (eventType == XmlPullParser.START_TAG && parser.getDepth() == depth + 1) {
+                return true;
+            } else if (eventType == XmlPullParser.END_TAG && parser.getDepth() == depth
+                    || eventType == XmlPullParser.END_DOCUMENT) {
+                return false;
+            }
+        }
     }
 
-    // needed because element.getelement fails when there are attributes
-    private static Element getChildElement(Element parent, String childName) {
-        Element e = null;
-        int c = parent.getChildCount();
-        int i = 0;
-        for (i = 0; i < c; i++) {
-            if (parent.getType(i) == Node.ELEMENT) {
-                if (parent.getElement(i).getName().equalsIgnoreCase(childName)) {
-                    return parent.getElement(i);
-                }
+    /**
+     * @return the trimmed text at the start of the element the parser is on, or null if it doesn't
+     * start with text
+     */
+    private static String readText(XmlPullParser parser) throws IOException, XmlPullParserException {
+        StringBuilder text = null;
+        while (parser.next() == XmlPullParser.TEXT) {
+            if (text == null) {
+                text = new StringBuilder();
             }
+            text.append(parser.getText());
         }
-        return e;
+        return text == null ? null : text.toString().trim();
     }
 
     public static void deleteAndReport(File file) {
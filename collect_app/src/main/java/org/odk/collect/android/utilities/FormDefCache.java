@@ -1,21 +1,58 @@
 package org.odk.collect.android.utilities;
 
 import org.javarosa.core.model.FormDef;
+import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
+import org.odk.collect.android.BuildConfig;
 import org.odk.collect.android.application.Collect;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import timber.log.Timber;
 
-/** Methods for reading from and writing to the FormDef cache */
+/**
+ * Methods for reading from and writing to the FormDef cache.
+ *
+ * Each cache file starts with a header identifying the cache format version, the JavaRosa
+ * version that serialized the FormDef and the hash of the form XML it was built from. A file
+ * whose header doesn't match what the running app would write is deleted and rebuilt from the
+ * XML rather than being deserialized.
+ */
 public class FormDefCache {
 
+    private static final String CACHE_FILE_SUFFIX = ".formdef";
+
+    /** Identifies a cache file written in the headed format. Files from before it don't start with it. */
+    private static final int MAGIC = 0x4F444B46; // "ODKF"
+
+    /** Must be incremented whenever the layout of the header or body changes. */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Whether new cache files are deflate-compressed. Reading handles both. */
+    static boolean compress; // May be set by unit test
+
+    /**
+     * Upper bound on the total size of the .formdef files kept in the cache. When it is exceeded,
+     * the least recently used files are deleted.
+     */
+    static long maxCacheSize = 100 * 1024 * 1024; // May be set by unit test
+
     private FormDefCache() {
         // Private constructor
     }
@@ -30,17 +67,19 @@ public class FormDefCache {
      */
     public static void writeCache(FormDef formDef, String formPath) throws IOException {
         final long formSaveStart = System.currentTimeMillis();
-        File cachedFormDefFile = FormDefCache.getCacheFile(new File(formPath));
+        final String formHash = FileHashIndex.getMd5Hash(new File(formPath));
+        if (formHash == null) {
+            throw new IOException("Unable to hash form file " + formPath);
+        }
+        File cachedFormDefFile = FormDefCache.getCacheFile(formHash);
         final File tempCacheFile = File.createTempFile("cache", null,
                 new File(Collect.CACHE_PATH));
         Timber.i("Started saving %s to the cache via temp file %s",
                 formDef.getTitle(), tempCacheFile.getName());
 
         Exception caughtException = null;
-        try {
-            DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempCacheFile));
-            formDef.writeExternal(dos);
-            dos.close();
+        try (OutputStream out = new FileOutputStream(tempCacheFile)) {
+            writeFormDef(formDef, formHash, out, compress);
         } catch (IOException exception) {
             caughtException = exception;
         }
@@ -60,6 +99,7 @@ public class FormDefCache {
                         tempCacheFile.getName(), cachedFormDefFile.getName());
                 Timber.i("Caching %s took %.3f seconds.", formDef.getTitle(),
                         (System.currentTimeMillis() - formSaveStart) / 1000F);
+                evictLeastRecentlyUsed(new File(Collect.CACHE_PATH), cachedFormDefFile);
             } else {
                 Timber.e("Unable to rename temporary file %s to cache file %s",
                         tempCacheFile.toString(), cachedFormDefFile.toString());
@@ -77,19 +117,27 @@ public class FormDefCache {
      * @return a FormDef, or null if the form is not present in the cache
      */
     public static FormDef readCache(File formXml) {
-        final File cachedForm = getCacheFile(formXml);
+        final String formHash = FileHashIndex.getMd5Hash(formXml);
+        if (formHash == null) {
+            return null;
+        }
+        final File cachedForm = getCacheFile(formHash);
         if (cachedForm.exists()) {
             Timber.i("Attempting to load %s from cached file: %s.",
                     formXml.getName(), cachedForm.getName());
             final long start = System.currentTimeMillis();
-            final FormDef deserializedFormDef = deserializeFormDef(cachedForm);
+            final FormDef deserializedFormDef = deserializeFormDef(cachedForm, formHash);
             if (deserializedFormDef != null) {
                 Timber.i("Loaded in %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
+                // The modification time tracks last use so that eviction is least recently used
+                if (!cachedForm.setLastModified(System.currentTimeMillis())) {
+                    Timber.w("Unable to update last use time of %s", cachedForm.getName());
+                }
                 return deserializedFormDef;
             }
 
-            // An error occurred with deserialization. Remove the file, and make a
-            // new .formdef from xml.
+            // The file was written by a different format or JavaRosa version, or an error
+            // occurred with deserialization. Remove the file, and make a new .formdef from xml.
             Timber.w("Deserialization FAILED! Deleting cache file: %s",
                     cachedForm.getAbsolutePath());
             cachedForm.delete();
@@ -98,32 +146,175 @@ public class FormDefCache {
     }
 
     /**
-     * Builds and returns a File object for the cached version of a form.
-     * @param formXml the File containing the XML form
+     * Builds and returns a File object for the cached version of a form. The form's hash should
+     * come from {@link FileHashIndex} so the XML is only read if it has changed since it was hashed.
+     * @param formHash the MD5 hash of the XML form
      * @return a File object
      */
-    private static File getCacheFile(File formXml) {
-        return new File(Collect.CACHE_PATH + File.separator +
-                FileUtils.getMd5Hash(formXml) + ".formdef");
+    private static File getCacheFile(String formHash) {
+        return new File(Collect.CACHE_PATH + File.separator + formHash + CACHE_FILE_SUFFIX);
+    }
+
+    /**
+     * Deletes the least recently used .formdef files in the cache directory until their total
+     * size is no more than {@link #maxCacheSize}. Files cached for forms that have since changed
+     * or been deleted are never read again so they are the first to go.
+     *
+     * @param cacheDir    the directory containing the .formdef files
+     * @param mostRecent  a file that must be kept, even if it is larger than the limit
+     */
+    static void evictLeastRecentlyUsed(File cacheDir, File mostRecent) {
+        File[] cacheFiles = cacheDir.listFiles((dir, name) -> name.endsWith(CACHE_FILE_SUFFIX));
+        if (cacheFiles == null) {
+            return;
+        }
+
+        long totalSize = 0;
+        for (File cacheFile : cacheFiles) {
+            totalSize += cacheFile.length();
+        }
+
+        Arrays.sort(cacheFiles, (lhs, rhs) -> Long.compare(lhs.lastModified(), rhs.lastModified()));
+        for (File cacheFile : cacheFiles) {
+            if (totalSize <= maxCacheSize) {
+                break;
+            }
+
+            if (cacheFile.equals(mostRecent)) {
+                continue;
+            }
+
+            long size = cacheFile.length();
+            if (cacheFile.delete()) {
+                Timber.i("Evicted %s from the FormDef cache", cacheFile.getName());
+                totalSize -= size;
+            } else {
+                Timber.w("Unable to evict %s from the FormDef cache", cacheFile.getName());
+            }
+        }
     }
 
-    private static FormDef deserializeFormDef(File serializedFormDef) {
-        FileInputStream fis;
-        FormDef fd;
-        try {
-            // create new form def
-            fd = new FormDef();
-            fis = new FileInputStream(serializedFormDef);
-            DataInputStream dis = new DataInputStream(fis);
-
-            // read serialized formdef into new formdef
-            fd.readExternal(dis, ExtUtil.defaultPrototypes());
-            dis.close();
-        } catch (Exception e) {
+    private static FormDef deserializeFormDef(File serializedFormDef, String formHash) {
+        try (InputStream in = new FileInputStream(serializedFormDef)) {
+            return readFormDef(in, formHash);
+        } catch (IOException | DeserializationException | RuntimeException e) {
             Timber.e(e);
-            fd = null;
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cache header followed by the serialized FormDef. The caller is responsible for
+     * closing the stream.
+     *
+     * @param formHash the MD5 hash of the form XML the FormDef was built from
+     * @param compress whether to deflate the serialized FormDef
+     */
+    static void writeFormDef(FormDef formDef, String formHash, OutputStream out, boolean compress)
+            throws IOException {
+        DataOutputStream header = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeUTF(BuildConfig.JAVAROSA_VERSION);
+        header.writeUTF(formHash);
+        header.writeBoolean(compress);
+
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream deflaterStream = new DeflaterOutputStream(header, deflater, BUFFER_SIZE);
+                DataOutputStream body = new DataOutputStream(new BufferedOutputStream(deflaterStream, BUFFER_SIZE));
+                formDef.writeExternal(body);
+                body.flush();
+                deflaterStream.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            formDef.writeExternal(header);
+        }
+        header.flush();
+    }
+
+    /**
+     * Reads a FormDef written by {@link #writeFormDef}. The caller is responsible for closing
+     * the stream.
+     *
+     * @param formHash the MD5 hash of the current form XML
+     * @return the FormDef, or null if the header shows the data is stale or in another format
+     */
+    static FormDef readFormDef(InputStream in, String formHash)
+            throws IOException, DeserializationException {
+        DataInputStream header = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (!isHeaderCurrent(header, formHash)) {
+            return null;
+        }
+
+        FormDef formDef = new FormDef();
+        if (header.readBoolean()) {
+            Inflater inflater = new Inflater();
+            try {
+                DataInputStream body = new DataInputStream(new BufferedInputStream(
+                        new InflaterInputStream(header, inflater, BUFFER_SIZE), BUFFER_SIZE));
+                formDef.readExternal(body, ExtUtil.defaultPrototypes());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            formDef.readExternal(header, ExtUtil.defaultPrototypes());
+        }
+        return formDef;
+    }
+
+    /**
+     * Returns true if there is a cache file for the given form that was written from the form's
+     * current XML by the running cache format and JavaRosa version. Only the header is read.
+     */
+    public static boolean hasValidCache(File formXml) {
+        final String formHash = FileHashIndex.getMd5Hash(formXml);
+        if (formHash == null) {
+            return false;
+        }
+
+        final File cachedForm = getCacheFile(formHash);
+        if (!cachedForm.exists()) {
+            return false;
+        }
+
+        try (DataInputStream header = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(cachedForm), 1024))) {
+            return isHeaderCurrent(header, formHash);
+        } catch (IOException e) {
+            Timber.w(e);
+            return false;
+        }
+    }
+
+    private static boolean isHeaderCurrent(DataInputStream header, String formHash) throws IOException {
+        if (header.readInt() != MAGIC) {
+            Timber.i("Cached FormDef is in a legacy format");
+            return false;
+        }
+
+        int formatVersion = header.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            Timber.i("Cached FormDef has format version %d, expected %d", formatVersion, FORMAT_VERSION);
+            return false;
+        }
+
+        String javaRosaVersion = header.readUTF();
+        if (!javaRosaVersion.equals(BuildConfig.JAVAROSA_VERSION)) {
+            Timber.i("Cached FormDef was written by JavaRosa %s, running %s",
+                    javaRosaVersion, BuildConfig.JAVAROSA_VERSION);
+            return false;
+        }
+
+        String sourceHash = header.readUTF();
+        if (!sourceHash.equals(formHash)) {
+            Timber.i("Cached FormDef was built from a different version of the form");
+            return false;
         }
 
-        return fd;
+        return true;
     }
 }
@@ -30,6 +30,7 @@ import org.odk.collect.android.listeners.FormDownloaderListener;
 import org.odk.collect.android.logic.FormDetails;
 import org.odk.collect.android.logic.MediaFile;
 import org.odk.collect.android.provider.FormsProviderAPI;
+import org.odk.collect.android.tasks.FormDefCacheWorker;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -38,9 +39,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
@@ -50,12 +56,22 @@ public class FormDownloader {
 
     private static final String MD5_COLON_PREFIX = "md5:";
     private static final String TEMP_DOWNLOAD_EXTENSION = ".tempDownload";
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    // forms are fetched a few at a time, and the media files of all of them share a separate pool
+    // so that a form with many files doesn't hold up the others
+    private static final int MAX_FORM_DOWNLOADS = 2;
+    private static final int MAX_MEDIA_DOWNLOADS = 4;
 
     private FormDownloaderListener stateListener;
 
-    private FormsDao formsDao;
+    private DownloadPool mediaDownloadPool;
+
+    // paths chosen for forms that are being downloaded but may not exist yet
+    private final Set<String> reservedFormPaths = new HashSet<>();
 
     @Inject CollectServerClient collectServerClient;
+    @Inject FormsDao formsDao;
 
     public FormDownloader() {
         Collect.getInstance().getComponent().inject(this);
@@ -88,21 +104,49 @@ public class FormDownloader {
         }
     }
 
+    /**
+     * Downloads the given forms and their media files. Several forms are downloaded at once. If the
+     * task is cancelled, forms that haven't been installed yet are cleaned up and left out of the
+     * result.
+     */
     public HashMap<FormDetails, String> downloadForms(List<FormDetails> toDownload) {
-        formsDao = new FormsDao();
         int total = toDownload.size();
-        int count = 1;
 
         final HashMap<FormDetails, String> result = new HashMap<>();
 
-        for (FormDetails fd : toDownload) {
-            try {
-                String message = processOneForm(total, count++, fd);
-                result.put(fd, message.isEmpty() ?
-                        Collect.getInstance().getString(R.string.success) : message);
-            } catch (TaskCancelledException cd) {
-                break;
+        List<Callable<String>> downloads = new ArrayList<>();
+        for (int i = 0; i < toDownload.size(); i++) {
+            FormDetails fd = toDownload.get(i);
+            int count = i + 1;
+            downloads.add(() -> {
+                try {
+                    return processOneForm(total, count, fd);
+                } catch (TaskCancelledException e) {
+                    // the other forms find out about the cancellation by themselves
+                    return null;
+                }
+            });
+        }
+
+        DownloadPool formDownloadPool = new DownloadPool(MAX_FORM_DOWNLOADS);
+        mediaDownloadPool = new DownloadPool(MAX_MEDIA_DOWNLOADS);
+        try {
+            List<String> messages = formDownloadPool.runAll(downloads);
+            for (int i = 0; i < messages.size(); i++) {
+                String message = messages.get(i);
+                if (message != null) {
+                    result.put(toDownload.get(i), message.isEmpty() ?
+                            Collect.getInstance().getString(R.string.success) : message);
+                }
             }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // processOneForm reports failures in its message, so only unchecked exceptions get here
+            throw new RuntimeException(e);
+        } finally {
+            formDownloadPool.shutdown();
+            mediaDownloadPool.shutdown();
         }
 
         return result;
@@ -118,9 +162,7 @@ public class FormDownloader {
      * @throws TaskCancelledException to signal that form downloading is to be canceled
      */
     private String processOneForm(int total, int count, FormDetails fd) throws TaskCancelledException {
-        if (stateListener != null) {
-            stateListener.progressUpdate(fd.getFormName(), String.valueOf(count), String.valueOf(total));
-        }
+        reportProgress(fd.getFormName(), count, total);
         String message = "";
         if (stateListener != null && stateListener.isTaskCanceled()) {
             throw new TaskCancelledException();
@@ -135,9 +177,10 @@ public class FormDownloader {
             fileResult = downloadXform(fd.getFormName(), fd.getDownloadUrl());
 
             if (fd.getManifestUrl() != null) {
-                // use a temporary media path until everything is ok.
+                // use a temporary media path until everything is ok. Forms are downloaded at the
+                // same time, so the path includes the number of the form.
                 tempMediaPath = new File(Collect.CACHE_PATH,
-                        String.valueOf(System.currentTimeMillis())).getAbsolutePath();
+                        System.currentTimeMillis() + "_" + count).getAbsolutePath();
                 finalMediaPath = FileUtils.constructMediaPath(
                         fileResult.getFile().getAbsolutePath());
                 String error = downloadManifestAndMediaFiles(tempMediaPath, finalMediaPath, fd,
@@ -210,6 +253,9 @@ public class FormDownloader {
                     File formMediaPath = new File(uriResult.getMediaPath());
                     FileUtils.moveMediaFiles(tempMediaPath, formMediaPath);
                 }
+
+                // Parse the form in the background so that opening it for the first time is fast
+                FormDefCacheWorker.enqueue(Collections.singletonList(fileResult.file.getAbsolutePath()));
                 return true;
             } else {
                 Timber.w("Form uri = null");
@@ -329,13 +375,23 @@ public class FormDownloader {
         String path = Collect.FORMS_PATH + File.separator + rootName + ".xml";
         int i = 2;
         File f = new File(path);
-        while (f.exists()) {
-            path = Collect.FORMS_PATH + File.separator + rootName + "_" + i + ".xml";
-            f = new File(path);
-            i++;
+        synchronized (reservedFormPaths) {
+            // forms with the same name may be downloading at the same time
+            while (f.exists() || reservedFormPaths.contains(path)) {
+                path = Collect.FORMS_PATH + File.separator + rootName + "_" + i + ".xml";
+                f = new File(path);
+                i++;
+            }
+            reservedFormPaths.add(path);
         }
 
-        downloadFile(f, url);
+        try {
+            downloadFile(f, url);
+        } finally {
+            synchronized (reservedFormPaths) {
+                reservedFormPaths.remove(path);
+            }
+        }
 
         boolean isNew = true;
 
@@ -343,7 +399,8 @@ public class FormDownloader {
         // make sure it's not the same as a file we already have
         Cursor c = null;
         try {
-            c = formsDao.getFormsCursorForMd5Hash(FileUtils.getMd5Hash(f));
+            // hashed through the index, so that saving the form to the database doesn't read it again
+            c = formsDao.getFormsCursorForMd5Hash(FileHashIndex.getMd5Hash(f));
             if (c.getCount() > 0) {
                 // Should be at most, 1
                 c.moveToFirst();
@@ -354,6 +411,7 @@ public class FormDownloader {
                 Timber.w("A duplicate file has been found, we need to remove the downloaded file "
                         + "and return the other one.");
                 FileUtils.deleteAndReport(f);
+                FileHashIndex.invalidate(f);
 
                 // set the file returned to the file we already had
                 String existingPath = c.getString(c.getColumnIndex(FormsProviderAPI.FormsColumns.FORM_FILE_PATH));
@@ -373,16 +431,17 @@ public class FormDownloader {
      * Common routine to download a document from the downloadUrl and save the contents in the file
      * 'file'. Shared by media file download and form file download.
      * <p>
-     * SurveyCTO: The file is saved into a temp folder and is moved to the final place if everything
-     * is okay, so that garbage is not left over on cancel.
+     * SurveyCTO: The file is saved into a temp file and is moved to the final place if everything
+     * is okay, so that garbage is not left over on cancel. The temp file is in the same folder as
+     * the final one, so that it can be renamed into place in one step.
      *
      * @param file        the final file
      * @param downloadUrl the url to get the contents from.
      */
     private void downloadFile(File file, String downloadUrl)
             throws IOException, TaskCancelledException, URISyntaxException, Exception {
-        File tempFile = File.createTempFile(file.getName(), TEMP_DOWNLOAD_EXTENSION,
-                new File(Collect.CACHE_PATH));
+        File tempFile = File.createTempFile("." + file.getName() + "-", TEMP_DOWNLOAD_EXTENSION,
+                file.getParentFile());
 
         // WiFi network connections can be renegotiated during a large form download sequence.
         // This will cause intermittent download failures.  Silently retry once after each
@@ -404,7 +463,7 @@ public class FormDownloader {
                     is = collectServerClient.getHttpInputStream(downloadUrl, null).getInputStream();
                     os = new FileOutputStream(tempFile);
 
-                    byte[] buf = new byte[4096];
+                    byte[] buf = new byte[DOWNLOAD_BUFFER_SIZE];
                     int len;
                     while ((len = is.read(buf)) > 0 && (stateListener == null || !stateListener.isTaskCanceled())) {
                         os.write(buf, 0, len);
@@ -457,6 +516,12 @@ public class FormDownloader {
         Timber.d("Completed downloading of %s. It will be moved to the proper path...",
                 tempFile.getAbsolutePath());
 
+        // renaming replaces any existing file in one step
+        if (tempFile.renameTo(file)) {
+            return;
+        }
+
+        Timber.w("Unable to rename %s to %s, copying it instead", tempFile.getAbsolutePath(), file.getAbsolutePath());
         FileUtils.deleteAndReport(file);
 
         String errorMessage = FileUtils.copyFile(tempFile, file);
@@ -523,10 +588,8 @@ public class FormDownloader {
             return null;
         }
 
-        if (stateListener != null) {
-            stateListener.progressUpdate(Collect.getInstance().getString(R.string.fetching_manifest, fd.getFormName()),
-                    String.valueOf(count), String.valueOf(total));
-        }
+        reportProgress(Collect.getInstance().getString(R.string.fetching_manifest, fd.getFormName()),
+                count, total);
 
         List<MediaFile> files = new ArrayList<MediaFile>();
 
@@ -622,7 +685,6 @@ public class FormDownloader {
 
         // OK we now have the full set of files to download...
         Timber.i("Downloading %d media files.", files.size());
-        int mediaCount = 0;
         if (!files.isEmpty()) {
             File tempMediaDir = new File(tempMediaPath);
             File finalMediaDir = new File(finalMediaPath);
@@ -630,46 +692,69 @@ public class FormDownloader {
             FileUtils.checkMediaPath(tempMediaDir);
             FileUtils.checkMediaPath(finalMediaDir);
 
+            AtomicInteger mediaCount = new AtomicInteger();
+            List<Callable<Void>> downloads = new ArrayList<>();
             for (MediaFile toDownload : files) {
-                ++mediaCount;
-                if (stateListener != null) {
-                    stateListener.progressUpdate(
-                            Collect.getInstance().getString(R.string.form_download_progress,
-                                    fd.getFormName(),
-                                    String.valueOf(mediaCount), String.valueOf(files.size())),
-                            String.valueOf(count), String.valueOf(total));
-                }
+                downloads.add(() -> {
+                    reportMediaProgress(fd.getFormName(), mediaCount, files.size(), count, total);
 
-                //try {
-                File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
-                File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
-
-                if (!finalMediaFile.exists()) {
-                    downloadFile(tempMediaFile, toDownload.getDownloadUrl());
-                } else {
-                    String currentFileHash = FileUtils.getMd5Hash(finalMediaFile);
-                    String downloadFileHash = getMd5Hash(toDownload.getHash());
-
-                    if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
-                        // if the hashes match, it's the same file
-                        // otherwise delete our current one and replace it with the new one
-                        FileUtils.deleteAndReport(finalMediaFile);
-                        downloadFile(tempMediaFile, toDownload.getDownloadUrl());
-                    } else {
-                        // exists, and the hash is the same
-                        // no need to download it again
-                        Timber.i("Skipping media file fetch -- file hashes identical: %s",
-                                finalMediaFile.getAbsolutePath());
-                    }
-                }
-                //  } catch (Exception e) {
-                //  return e.getLocalizedMessage();
-                //}
+                    downloadMediaFile(toDownload, tempMediaDir, finalMediaDir);
+                    return null;
+                });
             }
+
+            // a failed or cancelled download stops the rest, and its exception is thrown here once
+            // the downloads in progress have finished
+            mediaDownloadPool.runAll(downloads);
         }
         return null;
     }
 
+    /**
+     * Reports progress to the listener. Several forms and their media files are downloaded at
+     * once, so updates are passed on one at a time.
+     */
+    private synchronized void reportProgress(String currentFile, int count, int total) {
+        if (stateListener != null) {
+            stateListener.progressUpdate(currentFile, String.valueOf(count), String.valueOf(total));
+        }
+    }
+
+    /**
+     * Reports that the next media file of a form is being downloaded. The file is numbered while
+     * holding the same lock as the update, so that a form's numbers reach the listener in order.
+     */
+    private synchronized void reportMediaProgress(String formName, AtomicInteger mediaCount,
+                                                  int mediaTotal, int count, int total) {
+        reportProgress(Collect.getInstance().getString(R.string.form_download_progress, formName,
+                String.valueOf(mediaCount.incrementAndGet()), String.valueOf(mediaTotal)), count, total);
+    }
+
+    private void downloadMediaFile(MediaFile toDownload, File tempMediaDir, File finalMediaDir) throws Exception {
+        File finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
+        File tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+
+        if (!finalMediaFile.exists()) {
+            downloadFile(tempMediaFile, toDownload.getDownloadUrl());
+        } else {
+            String currentFileHash = FileHashIndex.getMd5Hash(finalMediaFile);
+            String downloadFileHash = getMd5Hash(toDownload.getHash());
+
+            if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
+                // if the hashes match, it's the same file
+                // otherwise delete our current one and replace it with the new one
+                FileUtils.deleteAndReport(finalMediaFile);
+                FileHashIndex.invalidate(finalMediaFile);
+                downloadFile(tempMediaFile, toDownload.getDownloadUrl());
+            } else {
+                // exists, and the hash is the same
+                // no need to download it again
+                Timber.i("Skipping media file fetch -- file hashes identical: %s",
+                        finalMediaFile.getAbsolutePath());
+            }
+        }
+    }
+
     public static String getMd5Hash(String hash) {
         return hash == null || hash.isEmpty() ? null : hash.substring(MD5_COLON_PREFIX.length());
     }
@@ -10,6 +10,7 @@ import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.preferences.GeneralKeys;
 
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,7 +19,8 @@ import javax.inject.Singleton;
 @Singleton
 public class WebCredentialsUtils {
 
-    private static final Map<String, HttpCredentialsInterface> HOST_CREDENTIALS = new HashMap<>();
+    // java.net.URI gives a null host for names such as my_server, so the map must allow null keys
+    private static final Map<String, HttpCredentialsInterface> HOST_CREDENTIALS = Collections.synchronizedMap(new HashMap<>());
 
     public void saveCredentials(@NonNull String url, @NonNull String username, @NonNull String password) {
         if (username.isEmpty()) {
@@ -32,6 +32,7 @@ import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.ItemsetDbAdapter;
+import org.odk.collect.android.database.ItemsetQuery;
 import org.odk.collect.android.logic.FormController;
 import org.odk.collect.android.utilities.FileUtil;
 import org.odk.collect.android.utilities.XPathParseTool;
@@ -51,8 +52,6 @@ import timber.log.Timber;
 @SuppressLint("ViewConstructor")
 public class ItemsetWidget extends AbstractSelectOneWidget {
 
-    private static final String QUOTATION_MARK = "\"";
-
     private final XPathParseTool parseTool;
     private final ItemsetDbAdapter adapter;
     private final FileUtil fileUtil;
@@ -85,15 +84,12 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
     }
 
     private List<SelectChoice> getItems() {
-        String nodesetString = getNodesetString();
-
-        List<String> arguments = new ArrayList<>();
-        String selectionString = getSelectionStringAndPopulateArguments(getQueryString(nodesetString), arguments);
+        ItemsetQuery query = ItemsetQuery.get(getNodesetString());
 
         FormController formController = Collect.getInstance().getFormController();
-        String[] selectionArgs = getSelectionArgs(arguments, nodesetString, formController);
+        String[] selectionArgs = getSelectionArgs(query, formController);
 
-        return selectionArgs == null ? null : getItemsFromDatabase(selectionString, selectionArgs, formController);
+        return selectionArgs == null ? null : getItemsFromDatabase(query.getSelection(), selectionArgs, formController);
     }
 
     private String getNodesetString() {
@@ -103,85 +99,11 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         return getFormEntryPrompt().getQuestion().getAdditionalAttribute(null, "query");
     }
 
-    private String getQueryString(String nodesetStr) {
-        // isolate the string between between the [ ] characters
-        return nodesetStr.substring(nodesetStr.indexOf('[') + 1, nodesetStr.lastIndexOf(']'));
-    }
-
-    private String getSelectionStringAndPopulateArguments(String queryString, List<String> arguments) {
-        StringBuilder selectionString = new StringBuilder();
-        // add the list name as the first argument, which will always be there
-        selectionString.append("list_name=?");
-
-        // check to see if there are any arguments
-        if (queryString.indexOf('=') != -1) {
-            selectionString.append(" and ");
-        }
-
-        // can't just split on 'and' or 'or' because they have different
-        // behavior, so loop through and break them off until we don't have any more
-        // must include the spaces in indexOf so we don't match words like "land"
-        int andIndex;
-        int orIndex = -1;
-
-        while ((andIndex = queryString.indexOf(" and ")) != -1 || (orIndex = queryString.indexOf(" or ")) != -1) {
-            if (andIndex != -1) {
-                String[] pair = queryString
-                        .substring(0, andIndex)
-                        .split("=");
-
-                if (pair.length == 2) {
-                    selectionString
-                            .append(QUOTATION_MARK)
-                            .append(pair[0].trim())
-                            .append(QUOTATION_MARK)
-                            .append("=? and ");
-
-                    arguments
-                            .add(pair[1]
-                                    .trim());
-                }
-                // move string forward to after " and "
-                queryString = queryString.substring(andIndex + 5, queryString.length());
-            } else {
-                String subString = queryString.substring(0, orIndex);
-                String[] pair = subString.split("=");
-
-                if (pair.length == 2) {
-                    selectionString
-                            .append(QUOTATION_MARK)
-                            .append(pair[0].trim())
-                            .append(QUOTATION_MARK)
-                            .append("=? or ");
-                    arguments.add(pair[1].trim());
-                }
-                // move string forward to after " or "
-                queryString = queryString.substring(orIndex + 4, queryString.length());
-                orIndex = -1;
-            }
-        }
-
-        // parse the last segment (or only segment if there are no 'and' or 'or' clauses
-        String[] pair = queryString.split("=");
-        if (pair.length == 2) {
-            selectionString
-                    .append(QUOTATION_MARK)
-                    .append(pair[0].trim())
-                    .append(QUOTATION_MARK)
-                    .append("=?");
-            arguments.add(pair[1].trim());
-        }
-        return selectionString.toString();
-    }
-
-    private String[] getSelectionArgs(List<String> arguments, String nodesetStr, FormController formController) {
+    private String[] getSelectionArgs(ItemsetQuery query, FormController formController) {
         // +1 is for the list_name
-        String[] selectionArgs = new String[arguments.size() + 1];
-
-        // parse out the list name, between the ''
-        String listName = nodesetStr.substring(nodesetStr.indexOf('\'') + 1, nodesetStr.lastIndexOf('\''));
+        String[] selectionArgs = new String[query.getArgumentCount() + 1];
 
-        selectionArgs[0] = listName; // first argument is always listname
+        selectionArgs[0] = query.getListName(); // first argument is always listname
 
         if (formController == null) {
             Timber.w("Can't instantiate ItemsetWidget with a null FormController.");
@@ -189,14 +111,14 @@ public class ItemsetWidget extends AbstractSelectOneWidget {
         }
 
         // loop through the arguments, evaluate any expressions and build the query string for the DB
-        for (int i = 0; i < arguments.size(); i++) {
+        for (int i = 0; i < query.getArgumentCount(); i++) {
             XPathExpression xpr;
             try {
-                xpr = parseTool.parseXPath(arguments.get(i));
+                xpr = parseTool.parseXPath(query.getArgument(i));
             } catch (XPathSyntaxException e) {
                 Timber.e(e);
                 TextView error = new TextView(getContext());
-                error.setText(String.format(getContext().getString(R.string.parser_exception), arguments.get(i)));
+                error.setText(String.format(getContext().getString(R.string.parser_exception), query.getArgument(i)));
                 addAnswerView(error);
                 break;
             }
@@ -0,0 +1,68 @@
+package org.odk.collect.android.database;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ItemsetQueryTest {
+
+    @Test
+    public void parse_buildsSelectionAndArguments() {
+        ItemsetQuery query = ItemsetQuery.parse("instance('cities')/root/item[state=/data/state and county= /data/county ]");
+
+        assertEquals("cities", query.getListName());
+        assertEquals("list_name=? and \"state\"=? and \"county\"=?", query.getSelection());
+        assertEquals(2, query.getArgumentCount());
+        assertEquals("/data/state", query.getArgument(0));
+        assertEquals("/data/county", query.getArgument(1));
+        assertEquals(Arrays.asList("state", "county"), query.getFilterColumns());
+    }
+
+    @Test
+    public void parse_withoutFilter_onlySelectsByListName() {
+        ItemsetQuery query = ItemsetQuery.parse("instance('states')/root/item[true()]");
+
+        assertEquals("list_name=?", query.getSelection());
+        assertEquals(0, query.getArgumentCount());
+        assertEquals(Collections.emptyList(), query.getFilterColumns());
+    }
+
+    @Test
+    public void parse_withAlternatives_hasNoFilterColumns() {
+        ItemsetQuery query = ItemsetQuery.parse("instance('cities')/root/item[state=/data/a or state=/data/b]");
+
+        assertEquals("list_name=? and \"state\"=? or \"state\"=?", query.getSelection());
+        assertEquals(Collections.emptyList(), query.getFilterColumns());
+    }
+
+    @Test
+    public void get_returnsTheSameQueryForTheSameNodeset() {
+        String nodeset = "instance('cities')/root/item[state=/data/state]";
+
+        assertSame(ItemsetQuery.get(nodeset), ItemsetQuery.get(nodeset));
+    }
+
+    @Test
+    public void findQueries_returnsQueryOfEveryItemsetQuestion() throws Exception {
+        String form = "<?xml version=\"1.0\"?>"
+                + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+                + "<h:head><h:title>Form</h:title><model><instance><data id=\"f\"/></instance></model></h:head>"
+                + "<h:body>"
+                + "<select1 ref=\"/data/state\" query=\"instance('states')/root/item[true()]\"/>"
+                + "<select1 ref=\"/data/city\" query=\"instance('cities')/root/item[state= /data/state ]\"/>"
+                + "<input ref=\"/data/name\"/>"
+                + "</h:body></h:html>";
+
+        List<ItemsetQuery> queries = ItemsetQuery.findQueries(new ByteArrayInputStream(form.getBytes("UTF-8")));
+
+        assertEquals(2, queries.size());
+        assertEquals("states", queries.get(0).getListName());
+        assertEquals(Collections.singletonList("state"), queries.get(1).getFilterColumns());
+    }
+}
@@ -0,0 +1,215 @@
+package org.odk.collect.android.database.helpers;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.odk.collect.android.database.helpers.FormsDatabaseHelper.FORMS_TABLE_NAME;
+import static org.odk.collect.android.database.helpers.InstancesDatabaseHelper.INSTANCES_TABLE_NAME;
+import static org.odk.collect.android.support.BenchmarkHelpers.assumeBenchmarksEnabled;
+import static org.odk.collect.android.support.BenchmarkHelpers.report;
+
+/**
+ * Times the selections that InstancesDao and FormsDao query with, on tables created by the
+ * database helpers, with and without the indexes the helpers create.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseIndexBenchmarkTest {
+    private static final int INSTANCE_COUNT = 50_000;
+    private static final int FORM_COUNT = 5_000;
+    private static final int ITERATIONS = 20;
+
+    private static final List<String> STATUSES = Arrays.asList(InstanceProviderAPI.STATUS_INCOMPLETE,
+            InstanceProviderAPI.STATUS_COMPLETE, InstanceProviderAPI.STATUS_SUBMITTED,
+            InstanceProviderAPI.STATUS_SUBMISSION_FAILED);
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setup() {
+        db = SQLiteDatabase.create(null);
+        new InstancesDatabaseHelper().onCreate(db);
+        new FormsDatabaseHelper().onCreate(db);
+    }
+
+    @After
+    public void teardown() {
+        db.close();
+    }
+
+    @Test
+    public void helpersCreateIndexes() {
+        assertEquals(new HashSet<>(Arrays.asList(InstancesDatabaseHelper.CURRENT_VERSION_INDEX_NAMES)),
+                new HashSet<>(InstancesDatabaseHelper.getInstancesIndexNames(db)));
+    }
+
+    @Test
+    public void daoQueries() {
+        assumeBenchmarksEnabled();
+
+        populate();
+        Map<String, Query> queries = getDaoQueries();
+
+        Map<String, Long> indexedNanos = new LinkedHashMap<>();
+        Map<String, Integer> indexedCounts = new LinkedHashMap<>();
+        for (Map.Entry<String, Query> query : queries.entrySet()) {
+            indexedCounts.put(query.getKey(), query.getValue().run(db));
+            indexedNanos.put(query.getKey(), time(query.getValue()));
+        }
+
+        dropIndexes();
+
+        for (Map.Entry<String, Query> query : queries.entrySet()) {
+            assertEquals(indexedCounts.get(query.getKey()).intValue(), query.getValue().run(db));
+            long scanNanos = time(query.getValue());
+
+            report(query.getKey(), "%.3f ms without indexes, %.3f ms with indexes",
+                    scanNanos / 1e6, indexedNanos.get(query.getKey()) / 1e6);
+        }
+    }
+
+    private Map<String, Query> getDaoQueries() {
+        Map<String, Query> queries = new LinkedHashMap<>();
+        queries.put("InstancesDao.getUnsentInstancesCursor", new Query(INSTANCES_TABLE_NAME,
+                InstanceColumns.STATUS + " !=? ",
+                new String[] {InstanceProviderAPI.STATUS_SUBMITTED},
+                InstanceColumns.STATUS + " DESC, " + InstanceColumns.DISPLAY_NAME + " ASC"));
+        queries.put("InstancesDao.getFinalizedInstancesCursor", new Query(INSTANCES_TABLE_NAME,
+                InstanceColumns.STATUS + "=? or " + InstanceColumns.STATUS + "=?",
+                new String[] {InstanceProviderAPI.STATUS_COMPLETE, InstanceProviderAPI.STATUS_SUBMISSION_FAILED},
+                InstanceColumns.DISPLAY_NAME + " ASC"));
+        queries.put("InstancesDao.getInstancesCursorForFilePath", new Query(INSTANCES_TABLE_NAME,
+                InstanceColumns.INSTANCE_FILE_PATH + "=?",
+                new String[] {getInstanceFilePath(INSTANCE_COUNT / 2)}, null));
+        queries.put("FormsDao.getFormsCursorForFormId", new Query(FORMS_TABLE_NAME,
+                FormsColumns.JR_FORM_ID + "=?",
+                new String[] {getFormId(FORM_COUNT / 2)}, null));
+        queries.put("FormsDao.getFormsCursor for form version", new Query(FORMS_TABLE_NAME,
+                FormsColumns.JR_FORM_ID + "=? AND " + FormsColumns.JR_VERSION + "=?",
+                new String[] {getFormId(FORM_COUNT / 2), "1"}, null));
+        queries.put("FormsDao.getFormsCursorForMd5Hash", new Query(FORMS_TABLE_NAME,
+                FormsColumns.MD5_HASH + "=?",
+                new String[] {getMd5Hash(FORM_COUNT / 2)}, null));
+        queries.put("FormsDao.getFormsCursorForFormFilePath", new Query(FORMS_TABLE_NAME,
+                FormsColumns.FORM_FILE_PATH + "=?",
+                new String[] {getFormFilePath(FORM_COUNT / 2)}, null));
+        return queries;
+    }
+
+    private void populate() {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < FORM_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(FormsColumns.DISPLAY_NAME, "Form " + i);
+                values.put(FormsColumns.JR_FORM_ID, getFormId(i));
+                values.put(FormsColumns.JR_VERSION, "1");
+                values.put(FormsColumns.MD5_HASH, getMd5Hash(i));
+                values.put(FormsColumns.DATE, i);
+                values.put(FormsColumns.FORM_MEDIA_PATH, "/sdcard/odk/forms/form" + i + "-media");
+                values.put(FormsColumns.FORM_FILE_PATH, getFormFilePath(i));
+                values.put(FormsColumns.JRCACHE_FILE_PATH, "/sdcard/odk/.cache/" + getMd5Hash(i) + ".formdef");
+                db.insert(FORMS_TABLE_NAME, null, values);
+            }
+
+            for (int i = 0; i < INSTANCE_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(InstanceColumns.DISPLAY_NAME, "Form " + (i % FORM_COUNT));
+                values.put(InstanceColumns.INSTANCE_FILE_PATH, getInstanceFilePath(i));
+                values.put(InstanceColumns.JR_FORM_ID, getFormId(i % FORM_COUNT));
+                values.put(InstanceColumns.JR_VERSION, "1");
+                // most instances are kept after they have been sent
+                values.put(InstanceColumns.STATUS, i % 20 == 0 ? STATUSES.get(i % STATUSES.size())
+                        : InstanceProviderAPI.STATUS_SUBMITTED);
+                values.put(InstanceColumns.LAST_STATUS_CHANGE_DATE, i);
+                db.insert(INSTANCES_TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("ANALYZE");
+    }
+
+    private void dropIndexes() {
+        List<String> indexNames = new ArrayList<>();
+        try (Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL", null)) {
+            while (c.moveToNext()) {
+                indexNames.add(c.getString(0));
+            }
+        }
+        for (String indexName : indexNames) {
+            db.execSQL("DROP INDEX " + indexName);
+        }
+    }
+
+    private long time(Query query) {
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            query.run(db);
+            total += System.nanoTime() - start;
+        }
+        return total / ITERATIONS;
+    }
+
+    private static String getFormId(int i) {
+        return "form" + i;
+    }
+
+    private static String getMd5Hash(int i) {
+        return String.format("%032x", i);
+    }
+
+    private static String getFormFilePath(int i) {
+        return "/sdcard/odk/forms/form" + i + ".xml";
+    }
+
+    private static String getInstanceFilePath(int i) {
+        return "/sdcard/odk/instances/form_" + i + "/form_" + i + ".xml";
+    }
+
+    private static class Query {
+        private final String table;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String sortOrder;
+
+        Query(String table, String selection, String[] selectionArgs, String sortOrder) {
+            this.table = table;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+
+        /**
+         * @return the number of rows, which are all read as a cursor's user would
+         */
+        int run(SQLiteDatabase db) {
+            try (Cursor c = db.query(table, null, selection, selectionArgs, null, null, sortOrder)) {
+                int count = 0;
+                while (c.moveToNext()) {
+                    count++;
+                }
+                return count;
+            }
+        }
+    }
+}
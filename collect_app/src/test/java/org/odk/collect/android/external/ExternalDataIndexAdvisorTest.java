@@ -0,0 +1,125 @@
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.tasks.FormLoaderTask;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExternalDataIndexAdvisorTest {
+    @Rule
+    public TemporaryFolder mediaFolder = new TemporaryFolder();
+
+    @Test
+    public void findLookupColumns_findsPulldataReferenceColumns() throws Exception {
+        Map<String, Set<String>> columns = findLookupColumns(
+                "<bind nodeset=\"/data/pop\" calculate=\"pulldata('Towns.csv', 'population', 'town id', /data/town)\"/>"
+                        + "<bind nodeset=\"/data/mayor\" calculate=\"concat(pulldata(&quot;towns&quot;, 'mayor', 'name', /data/town), '!')\"/>");
+
+        assertEquals(Collections.singletonMap("towns", new HashSet<>(Arrays.asList("c_town_id", "c_name"))), columns);
+    }
+
+    @Test
+    public void findLookupColumns_findsIndexableSearchColumns() throws Exception {
+        Map<String, Set<String>> columns = findLookupColumns(
+                "<select1 ref=\"/data/a\" appearance=\"minimal search('towns', 'matches', 'name', ${q}, 'district', /data/d)\"/>"
+                        + "<select1 ref=\"/data/b\" appearance=\"search('towns', 'contains', 'label', /data/q)\"/>"
+                        + "<select1 ref=\"/data/c\" appearance=\"search('regions')\"/>");
+
+        assertEquals(Collections.singletonMap("towns", new HashSet<>(Arrays.asList("c_name", "c_district"))), columns);
+    }
+
+    @Test
+    public void findLookupColumns_ignoresColumnsThatAreNotLiterals() throws Exception {
+        Map<String, Set<String>> columns = findLookupColumns(
+                "<bind nodeset=\"/data/pop\" calculate=\"pulldata('towns', 'population', /data/column, /data/town)\"/>");
+
+        assertEquals(Collections.emptyMap(), columns);
+    }
+
+    @Test
+    public void createLookupIndexes_indexesColumnsThatArentIndexedYet() throws Exception {
+        importTowns();
+        File formXml = writeForm("<bind nodeset=\"/data/pop\" calculate=\"pulldata('towns', 'population', 'name', /data/town)\"/>"
+                + "<bind nodeset=\"/data/id\" calculate=\"pulldata('towns', 'name', 'town_key', /data/town)\"/>"
+                + "<bind nodeset=\"/data/x\" calculate=\"pulldata('towns', 'name', 'missing', /data/town)\"/>");
+
+        ExternalDataIndexAdvisor.createLookupIndexes(formXml, mediaFolder.getRoot());
+        ExternalDataIndexAdvisor.createLookupIndexes(formXml, mediaFolder.getRoot());
+
+        Set<String> indexes = getIndexes();
+        assertEquals(new HashSet<>(Arrays.asList("town_key_idx", "c_name_lookup_idx")), indexes);
+    }
+
+    @Test
+    public void createLookupIndexes_doesNothingWithoutImportedDataSets() throws Exception {
+        File formXml = writeForm("<bind nodeset=\"/data/pop\" calculate=\"pulldata('towns', 'population', 'name', /data/town)\"/>");
+
+        ExternalDataIndexAdvisor.createLookupIndexes(formXml, mediaFolder.getRoot());
+
+        assertFalse(new File(mediaFolder.getRoot(), "towns.db").exists());
+    }
+
+    private Map<String, Set<String>> findLookupColumns(String body) throws Exception {
+        try (InputStream is = new ByteArrayInputStream(wrapInForm(body).getBytes("UTF-8"))) {
+            return ExternalDataIndexAdvisor.findLookupColumns(is);
+        }
+    }
+
+    private File writeForm(String body) throws IOException {
+        File formXml = mediaFolder.newFile("form.xml");
+        try (FileWriter writer = new FileWriter(formXml)) {
+            writer.write(wrapInForm(body));
+        }
+        return formXml;
+    }
+
+    private static String wrapInForm(String body) {
+        return "<?xml version=\"1.0\"?>"
+                + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+                + "<h:head><h:title>Form</h:title><model>" + body + "</model></h:head>"
+                + "<h:body/></h:html>";
+    }
+
+    private void importTowns() throws IOException {
+        File csv = new File(mediaFolder.getRoot(), "towns.csv");
+        try (FileWriter writer = new FileWriter(csv)) {
+            writer.write("town_key,name,population\n1,Paris,2000000\n2,Lyon,500000\n");
+        }
+
+        FormLoaderTask formLoaderTask = new FormLoaderTask(null, null, null);
+        new ExternalSQLiteOpenHelper(new File(mediaFolder.getRoot(), "towns.db"))
+                .importFromCSV(csv, new ExternalDataReaderImpl(formLoaderTask), formLoaderTask);
+    }
+
+    private Set<String> getIndexes() {
+        Set<String> indexes = new HashSet<>();
+        File dbFile = new File(mediaFolder.getRoot(), "towns.db");
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+             Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND tbl_name='externalData' AND name NOT LIKE '%row_hash%'", null)) {
+            while (c.moveToNext()) {
+                indexes.add(c.getString(0));
+            }
+        }
+        return indexes;
+    }
+}
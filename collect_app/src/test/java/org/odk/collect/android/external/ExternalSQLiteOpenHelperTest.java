@@ -0,0 +1,187 @@
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.tasks.FormLoaderTask;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.odk.collect.android.support.BenchmarkHelpers.assumeBenchmarksEnabled;
+import static org.odk.collect.android.support.BenchmarkHelpers.report;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExternalSQLiteOpenHelperTest {
+    private static final int BENCHMARK_ROWS = 200_000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void importFromCSV_insertsEveryRow_andGeneratesSortColumn() throws IOException {
+        File csv = writeCsv("name,label,town_key", 12_000);
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+
+        importFromCSV(csv, dbFile);
+
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+             Cursor c = db.rawQuery("SELECT c_name, c_label, c_sortby FROM externalData ORDER BY c_sortby", null)) {
+            assertEquals(12_000, c.getCount());
+
+            c.moveToFirst();
+            assertEquals("name0", c.getString(0));
+            assertEquals("Label 0", c.getString(1));
+            assertEquals(1, c.getLong(2));
+
+            c.moveToLast();
+            assertEquals("name11999", c.getString(0));
+            assertEquals(12_000, c.getLong(2));
+        }
+    }
+
+    @Test
+    public void importFromCSV_createsIndexesOnKeyColumns() throws IOException {
+        File csv = writeCsv("name,label,town_key", 10);
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+
+        importFromCSV(csv, dbFile);
+
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+             Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name='town_key_idx'", null)) {
+            assertTrue(c.moveToFirst());
+        }
+    }
+
+    @Test
+    public void importFromCSV_whenDataSetWasImportedBefore_appliesInsertsUpdatesAndDeletes() throws IOException {
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+        importFromCSV(writeCsvLines("name,label", "a,A", "b,B", "c,C", "d,D"), dbFile);
+
+        importFromCSV(writeCsvLines("name,label", "new,New", "a,A", "c,Changed", "d,D"), dbFile);
+
+        assertEquals(Arrays.asList("new:New:1", "a:A:2", "c:Changed:3", "d:D:4"), readRows(dbFile));
+    }
+
+    @Test
+    public void importFromCSV_whenNumberOfIdenticalRowsChanges_keepsTheNewNumberOfCopies() throws IOException {
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+        importFromCSV(writeCsvLines("name,label", "a,A", "a,A", "b,B"), dbFile);
+
+        importFromCSV(writeCsvLines("name,label", "a,A", "b,B"), dbFile);
+
+        assertEquals(Arrays.asList("a:A:1", "b:B:2"), readRows(dbFile));
+    }
+
+    @Test
+    public void importFromCSV_whenColumnsChange_replacesTheWholeTable() throws IOException {
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+        importFromCSV(writeCsvLines("name,label,extra", "a,A,1", "b,B,2"), dbFile);
+
+        importFromCSV(writeCsvLines("name,label", "b,B", "c,C"), dbFile);
+
+        assertEquals(Arrays.asList("b:B:1", "c:C:2"), readRows(dbFile));
+    }
+
+    @Test
+    public void importFromCSV_whenCancelledWhileApplyingChanges_keepsThePreviousData() throws IOException {
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+        importFromCSV(writeCsvLines("name,label", "a,A", "b,B"), dbFile);
+
+        FormLoaderTask formLoaderTask = new FormLoaderTask(null, null, null);
+        formLoaderTask.cancel(true);
+        importFromCSV(writeCsvLines("name,label", "b,B", "c,C"), dbFile, formLoaderTask);
+
+        assertEquals(Arrays.asList("a:A:1", "b:B:2"), readRows(dbFile));
+    }
+
+    @Test
+    public void importFromCSV_whenCancelledWhileImportingTheWholeDataSet_deletesTheDatabase() throws IOException {
+        File dbFile = new File(temporaryFolder.getRoot(), "towns.db");
+
+        FormLoaderTask formLoaderTask = new FormLoaderTask(null, null, null);
+        formLoaderTask.cancel(true);
+        importFromCSV(writeCsvLines("name,label", "a,A", "b,B"), dbFile, formLoaderTask);
+
+        assertFalse(dbFile.exists());
+    }
+
+    @Test
+    public void importFromCSV_benchmark() throws IOException {
+        assumeBenchmarksEnabled();
+
+        File csv = writeCsv("name,label,district_key,region_key,population", BENCHMARK_ROWS);
+        File dbFile = new File(temporaryFolder.getRoot(), "benchmark.db");
+
+        long start = System.nanoTime();
+        importFromCSV(csv, dbFile);
+        long elapsed = System.nanoTime() - start;
+
+        report("external CSV import", "%d rows in %.3f s (%.0f rows/s)", BENCHMARK_ROWS,
+                elapsed / 1e9, BENCHMARK_ROWS / (elapsed / 1e9));
+    }
+
+    private static void importFromCSV(File csv, File dbFile) {
+        importFromCSV(csv, dbFile, new FormLoaderTask(null, null, null));
+    }
+
+    private static void importFromCSV(File csv, File dbFile, FormLoaderTask formLoaderTask) {
+        new ExternalSQLiteOpenHelper(dbFile).importFromCSV(csv, new ExternalDataReaderImpl(formLoaderTask), formLoaderTask);
+    }
+
+    private static List<String> readRows(File dbFile) {
+        List<String> rows = new ArrayList<>();
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+             Cursor c = db.rawQuery("SELECT c_name, c_label, c_sortby FROM externalData ORDER BY c_sortby", null)) {
+            while (c.moveToNext()) {
+                rows.add(c.getString(0) + ":" + c.getString(1) + ":" + c.getInt(2));
+            }
+        }
+        return rows;
+    }
+
+    private File writeCsvLines(String... lines) throws IOException {
+        File csv = new File(temporaryFolder.getRoot(), "towns.csv");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csv))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return csv;
+    }
+
+    /**
+     * Writes a CSV with the given header and rows whose first two columns are "name<i>" and
+     * "Label <i>". Any further columns are filled with values derived from the row number.
+     */
+    private File writeCsv(String header, int rows) throws IOException {
+        int columns = header.split(",").length;
+        File csv = temporaryFolder.newFile("data.csv");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csv))) {
+            writer.write(header);
+            writer.newLine();
+            for (int i = 0; i < rows; i++) {
+                writer.write("name" + i + ",\"Label " + i + "\"");
+                for (int column = 2; column < columns; column++) {
+                    writer.write("," + (i % (column * 100)));
+                }
+                writer.newLine();
+            }
+        }
+        return csv;
+    }
+}
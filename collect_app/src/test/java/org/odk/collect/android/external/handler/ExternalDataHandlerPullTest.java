@@ -0,0 +1,77 @@
+package org.odk.collect.android.external.handler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.external.ExternalDataManagerImpl;
+import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
+import org.odk.collect.android.tasks.FormLoaderTask;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExternalDataHandlerPullTest {
+    @Rule
+    public TemporaryFolder mediaFolder = new TemporaryFolder();
+
+    private ExternalDataHandlerPull handler;
+
+    @Before
+    public void setup() throws IOException {
+        importTowns("name,population\nParis,2000000\nLyon,500000\n");
+        handler = new ExternalDataHandlerPull(new ExternalDataManagerImpl(mediaFolder.getRoot()));
+    }
+
+    @Test
+    public void repeatedLookups_areOnlyQueriedOnce() {
+        assertEquals("2000000", pullPopulation("Paris"));
+        assertEquals("2000000", pullPopulation("Paris"));
+        assertEquals("500000", pullPopulation("Lyon"));
+
+        assertEquals(1, handler.getCacheHitCount());
+        assertEquals(2, handler.getCacheMissCount());
+    }
+
+    @Test
+    public void lookupsWithNoMatchingRow_areCachedToo() {
+        assertEquals("", pullPopulation("Nice"));
+        assertEquals("", pullPopulation("Nice"));
+
+        assertEquals(1, handler.getCacheHitCount());
+        assertEquals(1, handler.getCacheMissCount());
+    }
+
+    @Test
+    public void cachedResults_areDroppedWhenADataSetIsImported() throws IOException {
+        assertEquals("2000000", pullPopulation("Paris"));
+
+        importTowns("name,population\nParis,2100000\nLyon,500000\n");
+
+        assertEquals("2100000", pullPopulation("Paris"));
+        assertEquals(0, handler.getCacheHitCount());
+        assertEquals(2, handler.getCacheMissCount());
+    }
+
+    private Object pullPopulation(String name) {
+        return handler.eval(new Object[] {"towns", "population", "name", name}, null);
+    }
+
+    private void importTowns(String contents) throws IOException {
+        File csv = new File(mediaFolder.getRoot(), "towns.csv");
+        try (FileWriter writer = new FileWriter(csv)) {
+            writer.write(contents);
+        }
+
+        FormLoaderTask formLoaderTask = new FormLoaderTask(null, null, null);
+        new ExternalSQLiteOpenHelper(new File(mediaFolder.getRoot(), "towns.db"))
+                .importFromCSV(csv, new ExternalDataReaderImpl(formLoaderTask), formLoaderTask);
+    }
+}
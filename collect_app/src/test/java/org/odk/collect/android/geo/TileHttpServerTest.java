@@ -0,0 +1,340 @@
+package org.odk.collect.android.geo;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.odk.collect.android.support.BenchmarkHelpers.assumeBenchmarksEnabled;
+import static org.odk.collect.android.support.BenchmarkHelpers.percentile;
+import static org.odk.collect.android.support.BenchmarkHelpers.report;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileHttpServerTest {
+    private static final byte[] PNG_HEADER = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private static final int MAX_ZOOM = 6;
+    private static final int REQUEST_COUNT = 5_000;
+    private static final int CLIENT_THREADS = TileHttpServer.WORKER_COUNT;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TileHttpServer server;
+    private int port;
+
+    @Before
+    public void setup() throws IOException {
+        server = new TileHttpServer();
+        server.addSource("test", new FakeTileSource());
+        server.start();
+        port = Integer.parseInt(server.getUrlTemplate("test").split("[:/]+")[2]);
+    }
+
+    @After
+    public void teardown() {
+        server.destroy();
+    }
+
+    @Test
+    public void connectionIsKeptAliveBetweenRequests() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            for (int x = 0; x < 3; x++) {
+                output.write(request("/test/2/" + x + "/1", null));
+                output.flush();
+
+                HttpResponse response = readResponse(input);
+                assertEquals("HTTP/1.1 200 OK", response.statusLine);
+                assertArrayEquals(FakeTileSource.tile(2, x, 1), response.body);
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            requests.write(request("/test/3/1/2", null));
+            requests.write(request("/test/3/7/7", null));
+            requests.write(request("/test/3/100/0", null));
+            requests.write(request("/test/3/0/0", null));
+            output.write(requests.toByteArray());
+            output.flush();
+
+            assertArrayEquals(FakeTileSource.tile(3, 1, 2), readResponse(input).body);
+            assertArrayEquals(FakeTileSource.tile(3, 7, 7), readResponse(input).body);
+            assertEquals("HTTP/1.1 404 Not Found", readResponse(input).statusLine);
+            assertArrayEquals(FakeTileSource.tile(3, 0, 0), readResponse(input).body);
+        }
+    }
+
+    @Test
+    public void connectionIsClosedWhenTheClientAsksForIt() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(request("/test/1/0/0", "close"));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            HttpResponse response = readResponse(input);
+            assertEquals("close", response.connection);
+            assertEquals(-1, input.read());
+        }
+    }
+
+    @Test
+    public void http10ConnectionIsOnlyKeptAliveWhenTheClientAsksForIt() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /test/1/0/0 HTTP/1.0\r\n\r\n".getBytes("ISO-8859-1"));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            assertEquals("close", readResponse(input).connection);
+            assertEquals(-1, input.read());
+        }
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /test/1/0/0 HTTP/1.0\r\nConnection: keep-alive\r\n\r\n".getBytes("ISO-8859-1"));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            assertEquals("keep-alive", readResponse(input).connection);
+        }
+    }
+
+    @Test
+    public void missingTilesAndSourcesAreNotFound() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            output.write(request("/test/1/5/5", null));
+            output.write(request("/other/1/0/0", null));
+            output.write(request("/test/1/0", null));
+
+            for (int i = 0; i < 3; i++) {
+                HttpResponse response = readResponse(input);
+                assertEquals("HTTP/1.1 404 Not Found", response.statusLine);
+                assertEquals(0, response.body.length);
+            }
+        }
+    }
+
+    @Test
+    public void servesTilesFromMbtilesFile() throws Exception {
+        server.addSource("mbtiles", new MbtilesFile(createMbtilesFile(2)));
+
+        OkHttpClient client = new OkHttpClient();
+        String url = String.format(Locale.US, "http://localhost:%d/mbtiles/2/3/1", port);
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+            assertEquals(200, response.code());
+            assertEquals("image/png", response.header("Content-Type"));
+            assertArrayEquals(FakeTileSource.tile(2, 3, 1), response.body().bytes());
+        }
+    }
+
+    @Test
+    public void concurrentFetchesFromMbtilesFile() throws Exception {
+        assumeBenchmarksEnabled();
+
+        server.addSource("mbtiles", new MbtilesFile(createMbtilesFile(MAX_ZOOM)));
+
+        // Warm up the server, the database and the client
+        fetchTiles(new OkHttpClient(), REQUEST_COUNT / 10, false);
+
+        long[] keepAliveNanos = fetchTiles(new OkHttpClient(), REQUEST_COUNT, false);
+        report("TileHttpServer keep-alive", "%d tiles over %d connections, p50 %.2f ms, p99 %.2f ms",
+                REQUEST_COUNT, CLIENT_THREADS, percentile(keepAliveNanos, 50) / 1e6, percentile(keepAliveNanos, 99) / 1e6);
+
+        OkHttpClient closingClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
+                .build();
+        long[] closeNanos = fetchTiles(closingClient, REQUEST_COUNT, true);
+        report("TileHttpServer connection per tile", "%d tiles, p50 %.2f ms, p99 %.2f ms",
+                REQUEST_COUNT, percentile(closeNanos, 50) / 1e6, percentile(closeNanos, 99) / 1e6);
+    }
+
+    /**
+     * Fetches tiles at random from the highest zoom level on several threads at once.
+     *
+     * @return the time each fetch took in nanoseconds
+     */
+    private long[] fetchTiles(OkHttpClient client, int count, boolean closeConnections) throws Exception {
+        long[] nanos = new long[count];
+        AtomicInteger next = new AtomicInteger();
+        int size = 1 << MAX_ZOOM;
+
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENT_THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < CLIENT_THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < count) {
+                    int x = (i * 31) % size;
+                    int y = (i * 17) % size;
+                    Request.Builder request = new Request.Builder().url(String.format(Locale.US,
+                            "http://localhost:%d/mbtiles/%d/%d/%d", port, MAX_ZOOM, x, y));
+                    if (closeConnections) {
+                        request.header("Connection", "close");
+                    }
+
+                    long start = System.nanoTime();
+                    try (Response response = client.newCall(request.build()).execute()) {
+                        response.body().bytes();
+                        assertEquals(200, response.code());
+                    }
+                    nanos[i] = System.nanoTime() - start;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return nanos;
+    }
+
+    /** Creates an .mbtiles file with the tiles of FakeTileSource at each zoom level up to the given one. */
+    private File createMbtilesFile(int maxZoom) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "sample.mbtiles");
+        try (SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null)) {
+            db.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+            db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+            db.execSQL("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+            db.execSQL("INSERT INTO metadata VALUES ('name', 'sample')");
+            db.execSQL("INSERT INTO metadata VALUES ('format', 'png')");
+
+            db.beginTransaction();
+            try {
+                for (int zoom = 0; zoom <= maxZoom; zoom++) {
+                    int size = 1 << zoom;
+                    for (int x = 0; x < size; x++) {
+                        for (int y = 0; y < size; y++) {
+                            ContentValues values = new ContentValues();
+                            values.put("zoom_level", zoom);
+                            values.put("tile_column", x);
+                            // TMS coordinates are used in .mbtiles files, so Y is flipped
+                            values.put("tile_row", size - 1 - y);
+                            values.put("tile_data", FakeTileSource.tile(zoom, x, y));
+                            db.insert("tiles", null, values);
+                        }
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] request(String path, String connection) throws IOException {
+        String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (connection != null ? "Connection: " + connection + "\r\n" : "") + "\r\n";
+        return request.getBytes("ISO-8859-1");
+    }
+
+    private static HttpResponse readResponse(InputStream input) throws IOException {
+        HttpResponse response = new HttpResponse();
+        response.statusLine = readLine(input);
+
+        int contentLength = 0;
+        String header;
+        while (!(header = readLine(input)).isEmpty()) {
+            String[] parts = header.split(":\\s*", 2);
+            if (parts[0].equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(parts[1]);
+            } else if (parts[0].equalsIgnoreCase("Connection")) {
+                response.connection = parts[1];
+            }
+        }
+
+        response.body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int count = input.read(response.body, read, contentLength - read);
+            assertNotEquals(-1, count);
+            read += count;
+        }
+        return response;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != '\n') {
+            assertNotEquals(-1, b);
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static class HttpResponse {
+        String statusLine;
+        String connection;
+        byte[] body;
+    }
+
+    /** Serves a PNG header followed by the coordinates for each tile within the bounds of its zoom level. */
+    private static class FakeTileSource implements TileSource {
+        static byte[] tile(int zoom, int x, int y) {
+            byte[] tile = new byte[PNG_HEADER.length + 3];
+            System.arraycopy(PNG_HEADER, 0, tile, 0, PNG_HEADER.length);
+            tile[PNG_HEADER.length] = (byte) zoom;
+            tile[PNG_HEADER.length + 1] = (byte) x;
+            tile[PNG_HEADER.length + 2] = (byte) y;
+            return tile;
+        }
+
+        @Override
+        public byte[] getTileBlob(int zoom, int x, int y) {
+            int size = 1 << zoom;
+            return x < size && y < size ? tile(zoom, x, y) : null;
+        }
+
+        @Override
+        public String getContentType() {
+            return "image/png";
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return "identity";
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.odk.collect.android.http;
+
+import org.junit.Test;
+import org.odk.collect.android.http.openrosa.AdaptiveBatchPolicy;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveBatchPolicyTest {
+
+    private static final long KB = 1024;
+    private static final long SERVER_MAX_BYTES = 10_000 * KB;
+
+    private final AdaptiveBatchPolicy policy = new AdaptiveBatchPolicy(100 * KB, 400 * KB, 100 * KB, 1000);
+
+    @Test
+    public void getMaxRequestBytes_startsAtTheInitialSize() {
+        assertEquals(400 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+    }
+
+    @Test
+    public void getMaxRequestBytes_neverExceedsWhatTheServerAccepts() {
+        assertEquals(50 * KB, policy.getMaxRequestBytes(50 * KB));
+    }
+
+    @Test
+    public void whenRequestsAreFastAndFull_growsAdditively() {
+        policy.onRequestSucceeded(400 * KB, 10);
+        assertEquals(500 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+
+        policy.onRequestSucceeded(500 * KB, 10);
+        assertEquals(600 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+    }
+
+    @Test
+    public void whenRequestsAreSmall_doesNotGrow() {
+        policy.onRequestSucceeded(10 * KB, 1);
+        assertEquals(400 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+    }
+
+    @Test
+    public void whenRequestFails_halvesDownToTheMinimum() {
+        policy.onRequestFailed(400 * KB, 1000);
+        assertEquals(200 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+
+        policy.onRequestFailed(200 * KB, 1000);
+        assertEquals(100 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+
+        policy.onRequestFailed(100 * KB, 1000);
+        assertEquals(100 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+    }
+
+    @Test
+    public void whenLinkIsSlow_isLimitedToWhatItCanSendInTheTargetTime() {
+        // 200KB/s with a target of one second
+        policy.onRequestSucceeded(400 * KB, 2000);
+
+        assertEquals(200 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+    }
+
+    @Test
+    public void whenLinkIsVerySlow_stillAllowsTheMinimum() {
+        policy.onRequestSucceeded(400 * KB, 60_000);
+
+        assertEquals(100 * KB, policy.getMaxRequestBytes(SERVER_MAX_BYTES));
+    }
+}
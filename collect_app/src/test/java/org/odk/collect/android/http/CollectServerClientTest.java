@@ -1,16 +1,29 @@
 package org.odk.collect.android.http;
 
+import android.webkit.MimeTypeMap;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpConnection;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpOpenRosaServerClientProvider;
 import org.odk.collect.android.http.stub.StubOpenRosaHttpInterface;
 import org.odk.collect.android.http.stub.StubOpenRosaHttpInterfaceError;
+import org.odk.collect.android.http.support.MockWebServerRule;
 import org.odk.collect.android.utilities.DocumentFetchResult;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 import org.robolectric.RobolectricTestRunner;
 
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
@@ -18,6 +31,12 @@ public class CollectServerClientTest {
 
     static final String URL_STRING = "http://testurl";
 
+    @Rule
+    public MockWebServerRule mockWebServerRule = new MockWebServerRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     CollectServerClient collectServerClient;
     CollectServerClient collectServerClientError;
 
@@ -41,6 +60,36 @@ public class CollectServerClientTest {
         assertTrue(fetchResult.isOpenRosaResponse);
     }
 
+    @Test
+    public void getXmlDocument_whenServerRespondsNotModified_returnsThePreviouslyParsedDocument() throws Exception {
+        MockWebServer mockWebServer = mockWebServerRule.start();
+        mockWebServer.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/xml; charset=utf-8")
+                .setHeader("X-OpenRosa-Version", "1.0")
+                .setHeader("ETag", "\"v1\"")
+                .setBody("<xforms xmlns=\"http://openrosa.org/xforms/xformsList\"/>"));
+        mockWebServer.enqueue(new MockResponse()
+                .setResponseCode(304)
+                .setHeader("ETag", "\"v1\""));
+
+        OkHttpClient baseClient = new OkHttpClient.Builder()
+                .cache(new Cache(temporaryFolder.getRoot(), 1024 * 1024))
+                .build();
+        CollectServerClient client = new CollectServerClient(new OkHttpConnection(
+                new OkHttpOpenRosaServerClientProvider(baseClient),
+                new CollectThenSystemContentTypeMapper(MimeTypeMap.getSingleton()),
+                "Test Agent"), new WebCredentialsUtils());
+
+        String url = mockWebServer.url("/formList").toString();
+        DocumentFetchResult first = client.getXmlDocument(url);
+        DocumentFetchResult second = client.getXmlDocument(url);
+
+        assertNull(second.errorMessage);
+        assertTrue(second.isOpenRosaResponse);
+        assertSame(first.doc, second.doc);
+        assertEquals(first.getHash(), second.getHash());
+    }
+
     @Test
     public void testGetPlainTextMimeType() {
         assertEquals(CollectServerClient.getPlainTextMimeType(), "text/plain");
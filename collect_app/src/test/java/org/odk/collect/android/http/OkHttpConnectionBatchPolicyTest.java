@@ -0,0 +1,132 @@
+package org.odk.collect.android.http;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.odk.collect.android.http.openrosa.AdaptiveBatchPolicy;
+import org.odk.collect.android.http.openrosa.HttpPostResult;
+import org.odk.collect.android.http.openrosa.OpenRosaHttpInterface;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpConnection;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpOpenRosaServerClientProvider;
+import org.odk.collect.android.http.support.MockWebServerRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Uploads through a local server that simulates slow and lossy links, to check that requests
+ * are sized by what the link has carried.
+ */
+public class OkHttpConnectionBatchPolicyTest {
+
+    private static final int KB = 1024;
+    private static final long SERVER_MAX_BYTES = 10_000 * KB;
+    private static final int ATTACHMENT_COUNT = 16;
+
+    @Rule
+    public MockWebServerRule mockWebServerRule = new MockWebServerRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer mockWebServer;
+    private OpenRosaHttpInterface subject;
+    private File submissionFile;
+    private List<File> attachments;
+
+    @Before
+    public void setup() throws Exception {
+        mockWebServer = mockWebServerRule.start();
+        subject = new OkHttpConnection(
+                new OkHttpOpenRosaServerClientProvider(new OkHttpClient()),
+                fileName -> "application/octet-stream",
+                "Test Agent",
+                new AdaptiveBatchPolicy(32 * KB, 256 * KB, 64 * KB, 250));
+
+        submissionFile = writeFile("submission.xml", 20);
+        attachments = new ArrayList<>();
+        for (int i = 0; i < ATTACHMENT_COUNT; i++) {
+            attachments.add(writeFile("photo" + i + ".jpg", 32 * KB));
+        }
+    }
+
+    @Test
+    public void onSlowLink_laterRequestsAreSmallerThanTheFirst() throws Exception {
+        // about 320KB/s, so the first request of 7 photos takes most of a second
+        for (int i = 0; i < ATTACHMENT_COUNT; i++) {
+            mockWebServer.enqueue(new MockResponse()
+                    .setResponseCode(201)
+                    .throttleBody(32 * KB, 100, TimeUnit.MILLISECONDS));
+        }
+
+        URI uri = mockWebServer.url("/submission").uri();
+        HttpPostResult result = subject.uploadSubmissionFile(attachments, submissionFile, uri, null, SERVER_MAX_BYTES, null);
+
+        assertThat(result.getResponseCode(), equalTo(201));
+
+        int firstRequestAttachments = getAttachmentCount(mockWebServer.takeRequest());
+        assertThat(firstRequestAttachments, equalTo(7));
+
+        int sent = firstRequestAttachments;
+        while (sent < ATTACHMENT_COUNT) {
+            int requestAttachments = getAttachmentCount(mockWebServer.takeRequest());
+            assertThat(requestAttachments, lessThanOrEqualTo(3));
+            sent += requestAttachments;
+        }
+        assertThat(sent, equalTo(ATTACHMENT_COUNT));
+    }
+
+    @Test
+    public void onLossyLink_retryAfterServerErrorSendsSmallerRequests() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        URI uri = mockWebServer.url("/submission").uri();
+
+        HttpPostResult result = subject.uploadSubmissionFile(attachments, submissionFile, uri, null, SERVER_MAX_BYTES, null);
+
+        assertThat(result.getResponseCode(), equalTo(503));
+        assertThat(getAttachmentCount(mockWebServer.takeRequest()), equalTo(7));
+
+        for (int i = 0; i < ATTACHMENT_COUNT; i++) {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(201));
+        }
+        result = subject.uploadSubmissionFile(attachments, submissionFile, uri, null, SERVER_MAX_BYTES, null);
+
+        assertThat(result.getResponseCode(), equalTo(201));
+        assertThat(getAttachmentCount(mockWebServer.takeRequest()), equalTo(3));
+    }
+
+    private File writeFile(String name, int size) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] bytes = new byte[size];
+            Arrays.fill(bytes, (byte) 'a');
+            out.write(bytes);
+        }
+        return file;
+    }
+
+    private static int getAttachmentCount(RecordedRequest request) {
+        String body = request.getBody().readUtf8();
+
+        // every part but the submission file is an attachment
+        int parts = body.split("filename=\"", -1).length - 1;
+        return parts - 1;
+    }
+}
@@ -0,0 +1,113 @@
+package org.odk.collect.android.http;
+
+import android.webkit.MimeTypeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.odk.collect.android.http.openrosa.HttpGetResult;
+import org.odk.collect.android.http.openrosa.OpenRosaHttpInterface;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpConnection;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpOpenRosaServerClientProvider;
+import org.odk.collect.android.http.support.MockWebServerRule;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class OkHttpConnectionCacheTest {
+
+    private static final String FORM_LIST = "<xforms xmlns=\"http://openrosa.org/xforms/xformsList\"/>";
+
+    @Rule
+    public MockWebServerRule mockWebServerRule = new MockWebServerRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockWebServer mockWebServer;
+    private OpenRosaHttpInterface subject;
+
+    @Before
+    public void setup() throws Exception {
+        OkHttpClient baseClient = new OkHttpClient.Builder()
+                .cache(new Cache(temporaryFolder.getRoot(), 1024 * 1024))
+                .build();
+
+        subject = new OkHttpConnection(
+                new OkHttpOpenRosaServerClientProvider(baseClient),
+                new CollectThenSystemContentTypeMapper(MimeTypeMap.getSingleton()),
+                OpenRosaGetRequestTest.USER_AGENT
+        );
+        mockWebServer = mockWebServerRule.start();
+    }
+
+    @Test
+    public void xmlRequest_isRevalidatedWithTheStoredETag() throws Exception {
+        mockWebServer.enqueue(xmlResponse().setHeader("ETag", "\"v1\""));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        URI uri = mockWebServer.url("/formList").uri();
+        HttpGetResult first = subject.executeGetRequest(uri, CollectServerClient.HTTP_CONTENT_TYPE_TEXT_XML, null);
+        IOUtils.toString(first.getInputStream(), Charset.defaultCharset());
+        HttpGetResult second = subject.executeGetRequest(uri, CollectServerClient.HTTP_CONTENT_TYPE_TEXT_XML, null);
+
+        mockWebServer.takeRequest();
+        RecordedRequest revalidation = mockWebServer.takeRequest();
+        assertThat(revalidation.getHeader("If-None-Match"), equalTo("\"v1\""));
+
+        assertThat(first.isNotModified(), equalTo(false));
+        assertThat(second.isNotModified(), equalTo(true));
+        assertThat(second.getHash(), equalTo(first.getHash()));
+        assertThat(IOUtils.toString(second.getInputStream(), Charset.defaultCharset()), equalTo(FORM_LIST));
+    }
+
+    @Test
+    public void xmlRequest_isAlwaysSentToTheServer_evenIfTheStoredResponseWouldStillBeFresh() throws Exception {
+        mockWebServer.enqueue(xmlResponse()
+                .setHeader("Cache-Control", "max-age=3600")
+                .setHeader("Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT"));
+        mockWebServer.enqueue(xmlResponse());
+
+        URI uri = mockWebServer.url("/formList").uri();
+        HttpGetResult first = subject.executeGetRequest(uri, CollectServerClient.HTTP_CONTENT_TYPE_TEXT_XML, null);
+        IOUtils.toString(first.getInputStream(), Charset.defaultCharset());
+        HttpGetResult second = subject.executeGetRequest(uri, CollectServerClient.HTTP_CONTENT_TYPE_TEXT_XML, null);
+
+        assertThat(mockWebServer.getRequestCount(), equalTo(2));
+        mockWebServer.takeRequest();
+        assertThat(mockWebServer.takeRequest().getHeader("If-Modified-Since"), equalTo("Mon, 01 Jan 2018 00:00:00 GMT"));
+        assertThat(second.isNotModified(), equalTo(false));
+    }
+
+    @Test
+    public void otherRequests_areNotStored() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setBody("I AM MEDIA").setHeader("ETag", "\"v1\""));
+        mockWebServer.enqueue(new MockResponse().setBody("I AM MEDIA").setHeader("ETag", "\"v1\""));
+
+        URI uri = mockWebServer.url("/media.png").uri();
+        HttpGetResult first = subject.executeGetRequest(uri, null, null);
+        IOUtils.toString(first.getInputStream(), Charset.defaultCharset());
+        subject.executeGetRequest(uri, null, null);
+
+        mockWebServer.takeRequest();
+        assertThat(mockWebServer.takeRequest().getHeader("If-None-Match"), nullValue());
+    }
+
+    private static MockResponse xmlResponse() {
+        return new MockResponse()
+                .setHeader("Content-Type", "text/xml; charset=utf-8")
+                .setBody(FORM_LIST);
+    }
+}
@@ -57,7 +57,7 @@ public abstract class OpenRosaPostRequestTest {
         mockWebServer.enqueue(new MockResponse().setResponseCode(201));
 
         URI uri = mockWebServer.url("/blah").uri();
-        subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0);
+        subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0, null);
 
         assertThat(mockWebServer.getRequestCount(), equalTo(1));
 
@@ -73,7 +73,7 @@ public abstract class OpenRosaPostRequestTest {
                 .setBody("I AM BODY"));
 
         URI uri = mockWebServer.url("/blah").uri();
-        HttpPostResult response = subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0);
+        HttpPostResult response = subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0, null);
 
         assertThat(response.getResponseCode(), equalTo(200));
         assertThat(response.getHttpResponse(), equalTo("I AM BODY"));
@@ -87,7 +87,7 @@ public abstract class OpenRosaPostRequestTest {
                 .setBody(new Buffer().write(gzip("I AM BODY"))));
 
         URI uri = mockWebServer.url("/blah").uri();
-        HttpPostResult response = subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0);
+        HttpPostResult response = subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0, null);
 
         assertThat(response.getHttpResponse(), equalTo("I AM BODY"));
     }
@@ -98,7 +98,7 @@ public abstract class OpenRosaPostRequestTest {
                 .setResponseCode(204));
 
         URI uri = mockWebServer.url("/blah").uri();
-        subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0);
+        subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0, null);
     }
 
     @Test
@@ -108,7 +108,7 @@ public abstract class OpenRosaPostRequestTest {
                 .setBody("blah"));
 
         URI uri = mockWebServer.url("/blah").uri();
-        HttpPostResult response = subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0);
+        HttpPostResult response = subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0, null);
 
         assertThat(response, notNullValue());
         assertThat(response.getResponseCode(), equalTo(500));
@@ -118,7 +118,7 @@ public abstract class OpenRosaPostRequestTest {
     public void whenRequestFails_throwsExceptionWithMessage() {
         try {
             URI uri = new URI("http://localhost:8443");
-            subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0);
+            subject.uploadSubmissionFile(new ArrayList<>(), File.createTempFile("blah", "blah"), uri, null, 0, null);
             fail();
         } catch (Exception e) {
             assertThat(e, isA(Exception.class));
@@ -133,7 +133,7 @@ public abstract class OpenRosaPostRequestTest {
         URI uri = mockWebServer.url("/blah").uri();
         String submissionContent = "<node>content</node>";
         File tempFile = createTempFile(submissionContent);
-        subject.uploadSubmissionFile(new ArrayList<>(), tempFile, uri, null, 0);
+        subject.uploadSubmissionFile(new ArrayList<>(), tempFile, uri, null, 0, null);
 
         RecordedRequest request = mockWebServer.takeRequest();
         String[] firstPartLines = splitMultiPart(request).get(0);
@@ -150,7 +150,7 @@ public abstract class OpenRosaPostRequestTest {
         URI uri = mockWebServer.url("/blah").uri();
         File attachment1 = createTempFile("blah blah blah");
         File attachment2 = createTempFile("blah2 blah2 blah2");
-        subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 1024);
+        subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 1024, null);
 
         RecordedRequest request = mockWebServer.takeRequest();
         List<String[]> parts = splitMultiPart(request);
@@ -174,7 +174,7 @@ public abstract class OpenRosaPostRequestTest {
         File xmlAttachment = createTempFile("<node>blah blah blah</node>", ".xml");
         File plainAttachment = createTempFile("blah", ".blah");
 
-        subject.uploadSubmissionFile(asList(xmlAttachment, plainAttachment), createTempFile("<node>content</node>"), uri, null, 1024);
+        subject.uploadSubmissionFile(asList(xmlAttachment, plainAttachment), createTempFile("<node>content</node>"), uri, null, 1024, null);
 
         RecordedRequest request = mockWebServer.takeRequest();
         List<String[]> parts = splitMultiPart(request);
@@ -190,7 +190,7 @@ public abstract class OpenRosaPostRequestTest {
         URI uri = mockWebServer.url("/blah").uri();
         File attachment1 = createTempFile("blah blah blah");
         File attachment2 = createTempFile("blah2 blah2 blah2");
-        subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0);
+        subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0, null);
 
         RecordedRequest request = mockWebServer.takeRequest();
         List<String[]> parts = splitMultiPart(request);
@@ -223,7 +223,7 @@ public abstract class OpenRosaPostRequestTest {
         URI uri = mockWebServer.url("/blah").uri();
         File attachment1 = createTempFile("blah blah blah");
         File attachment2 = createTempFile("blah2 blah2 blah2");
-        HttpPostResult response = subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0);
+        HttpPostResult response = subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0, null);
 
         assertThat(mockWebServer.getRequestCount(), equalTo(1));
         assertThat(response, notNullValue());
@@ -238,13 +238,48 @@ public abstract class OpenRosaPostRequestTest {
         URI uri = mockWebServer.url("/blah").uri();
         File attachment1 = createTempFile("blah blah blah");
         File attachment2 = createTempFile("blah2 blah2 blah2");
-        HttpPostResult response = subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0);
+        HttpPostResult response = subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0, null);
 
         assertThat(mockWebServer.getRequestCount(), equalTo(2));
         assertThat(response, notNullValue());
         assertThat(response.getResponseCode(), equalTo(500));
     }
 
+    @Test
+    public void whenRequestIsSplit_reportsTheAttachmentsOfEachAcceptedIncompleteRequest() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+
+        URI uri = mockWebServer.url("/blah").uri();
+        File attachment1 = createTempFile("blah blah blah");
+        File attachment2 = createTempFile("blah2 blah2 blah2");
+        File attachment3 = createTempFile("blah3 blah3 blah3");
+        RecordingUploadListener listener = new RecordingUploadListener();
+        HttpPostResult response = subject.uploadSubmissionFile(asList(attachment1, attachment2, attachment3),
+                createTempFile("<node>content</node>"), uri, null, 0, listener);
+
+        assertThat(response.getResponseCode(), equalTo(500));
+        assertThat(listener.acknowledgedFiles, equalTo(asList(attachment1, attachment2)));
+    }
+
+    @Test
+    public void reportsBytesSent_upToTheSizeOfAllRequests() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(201));
+
+        URI uri = mockWebServer.url("/blah").uri();
+        File attachment1 = createTempFile("blah blah blah");
+        File attachment2 = createTempFile("blah2 blah2 blah2");
+        RecordingUploadListener listener = new RecordingUploadListener();
+        subject.uploadSubmissionFile(asList(attachment1, attachment2), createTempFile("<node>content</node>"), uri, null, 0, listener);
+
+        long requestBytes = mockWebServer.takeRequest().getBodySize() + mockWebServer.takeRequest().getBodySize();
+        assertThat(listener.bytesSent, equalTo(requestBytes));
+        assertThat(listener.bytesTotal, equalTo(requestBytes));
+        assertThat(listener.acknowledgedFiles, equalTo(asList(attachment1)));
+    }
+
     private File createTempFile(String content) throws Exception {
         return createTempFile(content, ".tmp");
     }
@@ -279,6 +314,23 @@ public abstract class OpenRosaPostRequestTest {
         return compressed;
     }
 
+    private static class RecordingUploadListener implements OpenRosaHttpInterface.UploadListener {
+        final List<File> acknowledgedFiles = new ArrayList<>();
+        long bytesSent;
+        long bytesTotal;
+
+        @Override
+        public void onProgress(long bytesSent, long bytesTotal) {
+            this.bytesSent = bytesSent;
+            this.bytesTotal = bytesTotal;
+        }
+
+        @Override
+        public void onFilesAcknowledged(List<File> files) {
+            acknowledgedFiles.addAll(files);
+        }
+    }
+
     private class XmlOrBlahContentTypeMapper implements OpenRosaHttpInterface.FileToContentTypeMapper {
 
         @NonNull
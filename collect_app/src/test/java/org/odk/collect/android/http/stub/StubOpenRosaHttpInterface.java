@@ -50,7 +50,12 @@ public class StubOpenRosaHttpInterface implements OpenRosaHttpInterface {
 
     @NonNull
     @Override
-    public HttpPostResult uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials, @NonNull long contentLength) throws IOException {
+    public HttpPostResult uploadSubmissionFile(@NonNull List<File> fileList, @NonNull File submissionFile, @NonNull URI uri, @Nullable HttpCredentialsInterface credentials, @NonNull long contentLength, @Nullable UploadListener listener) throws IOException {
         return new HttpPostResult("", 0, "");
     }
+
+    @Override
+    public boolean isAuthenticationCached(@NonNull URI uri, @Nullable HttpCredentialsInterface credentials) {
+        return false;
+    }
 }
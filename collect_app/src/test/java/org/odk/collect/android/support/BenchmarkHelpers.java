@@ -0,0 +1,37 @@
+package org.odk.collect.android.support;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Helpers for JVM benchmarks. Benchmarks are regular JUnit tests that are skipped unless the
+ * build is run with {@code -Pbenchmark}, e.g.
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*BenchmarkTest'}.
+ */
+public final class BenchmarkHelpers {
+
+    private BenchmarkHelpers() {
+
+    }
+
+    public static void assumeBenchmarksEnabled() {
+        assumeTrue("Benchmarks are only run with -Pbenchmark", Boolean.getBoolean("collect.benchmark"));
+    }
+
+    /**
+     * @return the smallest of the given values that is at least as large as the given percentage
+     * of them, e.g. the median for 50
+     */
+    public static long percentile(long[] values, double percent) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    public static void report(String name, String format, Object... args) {
+        System.out.println("[benchmark] " + name + ": " + String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,56 @@
+package org.odk.collect.android.tasks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FormDefCacheWorkerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void hasExternalInstances_isFalse_forFormWithOnlyInternalInstances() throws IOException {
+        File form = writeForm("<instance><data id=\"form\"><q/></data></instance>"
+                + "<instance id=\"choices\"><root><item/></root></instance>");
+
+        assertFalse(FormDefCacheWorker.hasExternalInstances(form));
+    }
+
+    @Test
+    public void hasExternalInstances_isTrue_forFormWithExternalInstance() throws IOException {
+        File form = writeForm("<instance><data id=\"form\"><q/></data></instance>"
+                + "<instance id=\"towns\" src=\"jr://file-csv/towns.csv\"/>");
+
+        assertTrue(FormDefCacheWorker.hasExternalInstances(form));
+    }
+
+    @Test
+    public void hasExternalInstances_isTrue_forFormThatCannotBeParsed() throws IOException {
+        File form = temporaryFolder.newFile("form.xml");
+        try (FileWriter writer = new FileWriter(form)) {
+            writer.write("<h:html><h:head>");
+        }
+
+        assertTrue(FormDefCacheWorker.hasExternalInstances(form));
+    }
+
+    private File writeForm(String instances) throws IOException {
+        File form = temporaryFolder.newFile("form.xml");
+        try (FileWriter writer = new FileWriter(form)) {
+            writer.write("<?xml version=\"1.0\"?>"
+                    + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+                    + "<h:head><h:title>Form</h:title><model>" + instances + "</model></h:head>"
+                    + "<h:body><input ref=\"/data/q\"/></h:body>"
+                    + "<instance src=\"jr://file/after-body.xml\"/>"
+                    + "</h:html>");
+        }
+        return form;
+    }
+}
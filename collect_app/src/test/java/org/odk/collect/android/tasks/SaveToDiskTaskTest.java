@@ -0,0 +1,69 @@
+package org.odk.collect.android.tasks;
+
+import org.javarosa.core.services.transport.payload.ByteArrayPayload;
+import org.javarosa.core.services.transport.payload.IDataPayload;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SaveToDiskTaskTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeFile_replacesExistingFile_andLeavesNoTemporaryFile() throws IOException {
+        File instanceFolder = temporaryFolder.newFolder("instance");
+        File instanceXml = new File(instanceFolder, "instance.xml");
+        try (FileOutputStream os = new FileOutputStream(instanceXml)) {
+            os.write("<old/>".getBytes(UTF_8));
+        }
+
+        byte[] contents = largeInstance();
+        SaveToDiskTask.writeFile(payload(contents), instanceXml.getAbsolutePath());
+
+        assertArrayEquals(contents, Files.readAllBytes(instanceXml.toPath()));
+        assertEquals(1, instanceFolder.list().length);
+    }
+
+    @Test
+    public void writeFile_createsMissingFolders() throws IOException {
+        File instanceXml = new File(temporaryFolder.getRoot(), "a/b/instance.xml");
+
+        SaveToDiskTask.writeFile(payload("<data/>".getBytes(UTF_8)), instanceXml.getAbsolutePath(), false);
+
+        assertArrayEquals("<data/>".getBytes(UTF_8), Files.readAllBytes(instanceXml.toPath()));
+    }
+
+    @Test
+    public void writeFile_withEmptyPayload_deletesExistingFile() throws IOException {
+        File smsFile = temporaryFolder.newFile("instance.txt");
+
+        SaveToDiskTask.writeFile(payload(new byte[0]), smsFile.getAbsolutePath(), false);
+
+        assertFalse(smsFile.exists());
+    }
+
+    private static ByteArrayPayload payload(byte[] contents) {
+        return new ByteArrayPayload(contents, null, IDataPayload.PAYLOAD_TYPE_XML);
+    }
+
+    private static byte[] largeInstance() {
+        StringBuilder xml = new StringBuilder("<data>");
+        for (int i = 0; i < 20_000; i++) {
+            xml.append("<repeat><name>Name ").append(i).append("</name></repeat>");
+        }
+        return xml.append("</data>").toString().getBytes(UTF_8);
+    }
+}
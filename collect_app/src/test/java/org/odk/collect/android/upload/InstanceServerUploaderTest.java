@@ -0,0 +1,255 @@
+package org.odk.collect.android.upload;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.dto.Instance;
+import org.odk.collect.android.http.openrosa.HttpHeadResult;
+import org.odk.collect.android.http.openrosa.HttpPostResult;
+import org.odk.collect.android.http.openrosa.OpenRosaHttpInterface;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpConnection;
+import org.odk.collect.android.http.openrosa.okhttp.OkHttpOpenRosaServerClientProvider;
+import org.odk.collect.android.http.support.MockWebServerRule;
+import org.odk.collect.android.utilities.WebCredentialsUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstanceServerUploaderTest {
+
+    private static final String URL = "http://example.com/submission?deviceID=1";
+    private static final String REDIRECTED_URL = "https://example.com/submission?deviceID=1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public MockWebServerRule mockWebServerRule = new MockWebServerRule();
+
+    private final OpenRosaHttpInterface httpInterface = mock(OpenRosaHttpInterface.class);
+    private ServerCapabilityCache capabilityCache;
+    private Instance instance;
+
+    @Before
+    public void setup() throws Exception {
+        capabilityCache = new ServerCapabilityCache(RuntimeEnvironment.application, TimeUnit.HOURS.toMillis(1));
+
+        File instanceFile = new File(temporaryFolder.newFolder("instance"), "instance.xml");
+        instanceFile.createNewFile();
+        instance = new Instance.Builder()
+                .databaseId(1L)
+                .instanceFilePath(instanceFile.getAbsolutePath())
+                .build();
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Location", REDIRECTED_URL);
+        headers.put("X-OpenRosa-Accept-Content-Length", "5000");
+        when(httpInterface.executeHeadRequest(any(), any())).thenReturn(new HttpHeadResult(204, headers));
+        when(httpInterface.uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any()))
+                .thenReturn(new HttpPostResult("", 201, ""));
+    }
+
+    @Test
+    public void uploadOneSubmission_whenServerWasCheckedRecently_postsWithoutHeadRequest() throws Exception {
+        newUploader().uploadOneSubmission(instance, URL);
+        newUploader().uploadOneSubmission(instance, URL);
+
+        verify(httpInterface, times(1)).executeHeadRequest(any(), any());
+        verify(httpInterface, times(2)).uploadSubmissionFile(any(), any(), eq(URI.create(REDIRECTED_URL)), any(), eq(5000L), any());
+    }
+
+    @Test
+    public void uploadOneSubmission_whenPostWithCachedCapabilitiesIsChallenged_checksServerAgain() throws Exception {
+        newUploader().uploadOneSubmission(instance, URL);
+        when(httpInterface.uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any()))
+                .thenReturn(new HttpPostResult("", 401, "Unauthorized"))
+                .thenReturn(new HttpPostResult("", 201, ""));
+
+        newUploader().uploadOneSubmission(instance, URL);
+
+        verify(httpInterface, times(2)).executeHeadRequest(any(), any());
+        verify(httpInterface, times(3)).uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any());
+    }
+
+    @Test
+    public void uploadOneSubmission_whenPostWithCachedCapabilitiesCantConnect_checksServerAgain() throws Exception {
+        newUploader().uploadOneSubmission(instance, URL);
+        when(httpInterface.uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any()))
+                .thenThrow(new IOException("Failed to connect"))
+                .thenReturn(new HttpPostResult("", 201, ""));
+
+        newUploader().uploadOneSubmission(instance, URL);
+
+        verify(httpInterface, times(2)).executeHeadRequest(any(), any());
+        verify(httpInterface, times(3)).uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any());
+    }
+
+    @Test
+    public void uploadOneSubmission_whenPostWithCachedCapabilitiesIsRejected_reportsFailureWithoutPostingAgain() throws Exception {
+        newUploader().uploadOneSubmission(instance, URL);
+        when(httpInterface.uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any()))
+                .thenReturn(new HttpPostResult("", 500, "Internal Server Error"));
+
+        try {
+            newUploader().uploadOneSubmission(instance, URL);
+            fail();
+        } catch (UploadException expected) {
+            assertTrue(expected.getMessage().contains("500"));
+        }
+
+        verify(httpInterface, times(1)).executeHeadRequest(any(), any());
+        verify(httpInterface, times(2)).uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any());
+        assertNotNull(capabilityCache.get(URL));
+    }
+
+    @Test
+    public void uploadOneSubmission_whenServerAsksForCredentials_checksServerAgainUntilClientHasAnsweredAChallenge() throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-OpenRosa-Accept-Content-Length", "5000");
+        headers.put("WWW-Authenticate", "Digest realm=\"example\"");
+        when(httpInterface.executeHeadRequest(any(), any())).thenReturn(new HttpHeadResult(204, headers));
+
+        newUploader().uploadOneSubmission(instance, URL);
+        newUploader().uploadOneSubmission(instance, URL);
+        verify(httpInterface, times(2)).executeHeadRequest(any(), any());
+
+        when(httpInterface.isAuthenticationCached(any(), any())).thenReturn(true);
+        newUploader().uploadOneSubmission(instance, URL);
+        verify(httpInterface, times(2)).executeHeadRequest(any(), any());
+        verify(httpInterface, times(3)).uploadSubmissionFile(any(), any(), any(), any(), anyLong(), any());
+    }
+
+    @Test
+    public void uploadOneSubmission_withoutCache_alwaysMakesHeadRequest() throws Exception {
+        new InstanceServerUploader(httpInterface, new WebCredentialsUtils(), new HashMap<>()).uploadOneSubmission(instance, URL);
+        new InstanceServerUploader(httpInterface, new WebCredentialsUtils(), new HashMap<>()).uploadOneSubmission(instance, URL);
+
+        verify(httpInterface, times(2)).executeHeadRequest(any(), any());
+    }
+
+    @Test
+    public void uploadOneSubmission_whenHeadRequestFails_cachesNothing() throws Exception {
+        when(httpInterface.executeHeadRequest(any(), any())).thenReturn(new HttpHeadResult(404, new HashMap<>()));
+
+        newUploader().uploadOneSubmission(instance, URL);
+
+        assertNull(capabilityCache.get(URL));
+        verify(httpInterface, never()).uploadSubmissionFile(any(), any(), eq(URI.create(REDIRECTED_URL)), any(), anyLong(), any());
+    }
+
+    @Test
+    public void uploadOneSubmission_afterSplitSubmissionFailedPartOfTheWay_sendsOnlyTheAttachmentsNotYetAccepted() throws Exception {
+        File instanceDir = new File(instance.getInstanceFilePath()).getParentFile();
+        for (int i = 0; i < 4; i++) {
+            writeFile(new File(instanceDir, "photo" + i + ".jpg"), 3000);
+        }
+
+        // the server accepts 5000 bytes per request, so each request holds one photo
+        MockWebServer server = mockWebServerRule.start();
+        server.enqueue(headResponse());
+        server.enqueue(new MockResponse().setResponseCode(201));
+        server.enqueue(new MockResponse().setResponseCode(201));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        String url = server.url("/submission").toString();
+
+        OpenRosaHttpInterface okHttpConnection = new OkHttpConnection(
+                new OkHttpOpenRosaServerClientProvider(new OkHttpClient()), fileName -> "image/jpeg", "Test Agent");
+        InstanceServerUploader uploader = new InstanceServerUploader(okHttpConnection, new WebCredentialsUtils(), new HashMap<>());
+        try {
+            uploader.uploadOneSubmission(instance, url);
+            fail();
+        } catch (UploadException expected) {
+            // the third request was rejected
+        }
+
+        server.takeRequest();
+        Set<String> accepted = new HashSet<>();
+        accepted.addAll(getAttachmentNames(server.takeRequest()));
+        accepted.addAll(getAttachmentNames(server.takeRequest()));
+        Set<String> rejected = getAttachmentNames(server.takeRequest());
+        assertEquals(2, accepted.size());
+        assertEquals(1, rejected.size());
+
+        server.enqueue(headResponse());
+        server.enqueue(new MockResponse().setResponseCode(201));
+        server.enqueue(new MockResponse().setResponseCode(201));
+        uploader.uploadOneSubmission(instance, url);
+
+        server.takeRequest();
+        Set<String> resent = new HashSet<>();
+        resent.addAll(getAttachmentNames(server.takeRequest()));
+        resent.addAll(getAttachmentNames(server.takeRequest()));
+        assertEquals(2, resent.size());
+        assertTrue(resent.containsAll(rejected));
+        for (String name : accepted) {
+            assertFalse(resent.contains(name));
+        }
+        assertEquals(7, server.getRequestCount());
+        assertFalse(new File(instanceDir, UploadCheckpoint.FILE_NAME).exists());
+    }
+
+    private InstanceServerUploader newUploader() {
+        return new InstanceServerUploader(httpInterface, new WebCredentialsUtils(), new HashMap<>(), capabilityCache);
+    }
+
+    private static MockResponse headResponse() {
+        return new MockResponse()
+                .setResponseCode(204)
+                .setHeader("X-OpenRosa-Accept-Content-Length", "5000");
+    }
+
+    private static Set<String> getAttachmentNames(RecordedRequest request) {
+        Set<String> names = new HashSet<>();
+        Matcher matcher = Pattern.compile("name=\"([^\"]+)\"; filename=").matcher(request.getBody().readUtf8());
+        while (matcher.find()) {
+            if (!matcher.group(1).equals("xml_submission_file")) {
+                names.add(matcher.group(1));
+            }
+        }
+        return names;
+    }
+
+    private static void writeFile(File file, int size) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] bytes = new byte[size];
+            Arrays.fill(bytes, (byte) 'a');
+            out.write(bytes);
+        }
+    }
+}
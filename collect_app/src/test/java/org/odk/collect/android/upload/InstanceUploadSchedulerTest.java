@@ -0,0 +1,183 @@
+package org.odk.collect.android.upload;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.dto.Instance;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class InstanceUploadSchedulerTest {
+
+    private static final String SERVER_A = "https://a.example.com/submission?deviceID=1";
+    private static final String SERVER_B = "https://b.example.com/submission?deviceID=1";
+
+    @Test
+    public void run_uploadsEveryInstance_withinTheOverallAndPerHostLimits() {
+        FakeUploader uploader = new FakeUploader();
+        InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader, 4, 2);
+        for (long id = 0; id < 20; id++) {
+            scheduler.add(instance(id), id % 2 == 0 ? SERVER_A : SERVER_B);
+        }
+
+        RecordingCallback callback = new RecordingCallback();
+        scheduler.run(callback);
+
+        assertEquals(20, callback.succeeded.size());
+        assertEquals(20, callback.started.size());
+        assertEquals(2, uploader.maxInFlightByHost.get("a.example.com").get());
+        assertEquals(2, uploader.maxInFlightByHost.get("b.example.com").get());
+        assertTrue(uploader.maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void run_uploadsOnlyTheFirstInstanceToADestination_untilItHasFinished() {
+        FakeUploader uploader = new FakeUploader();
+        InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader, 4, 4);
+        for (long id = 0; id < 8; id++) {
+            scheduler.add(instance(id), SERVER_A);
+        }
+
+        RecordingCallback callback = new RecordingCallback();
+        scheduler.run(callback);
+
+        assertEquals("0", callback.succeeded.get(0));
+        for (int i = 1; i < 8; i++) {
+            assertTrue(uploader.finishedWhenStarted.get(i) >= 1);
+        }
+        assertEquals(8, callback.succeeded.size());
+    }
+
+    @Test
+    public void run_reportsFailuresForTheInstancesThatFailed() {
+        FakeUploader uploader = new FakeUploader();
+        uploader.failingInstanceId = 3L;
+        InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader, 4, 4);
+        for (long id = 0; id < 6; id++) {
+            scheduler.add(instance(id), SERVER_A);
+        }
+
+        RecordingCallback callback = new RecordingCallback();
+        scheduler.run(callback);
+
+        assertEquals(5, callback.succeeded.size());
+        assertEquals(1, callback.failed.size());
+        assertEquals("3", callback.failed.get(0));
+    }
+
+    @Test
+    public void run_whenCancelled_startsNoMoreUploads() {
+        FakeUploader uploader = new FakeUploader();
+        InstanceUploadScheduler scheduler = new InstanceUploadScheduler(uploader, 2, 2);
+        for (long id = 0; id < 10; id++) {
+            scheduler.add(instance(id), SERVER_A);
+        }
+
+        RecordingCallback callback = new RecordingCallback() {
+            @Override
+            public boolean isCancelled() {
+                return succeeded.size() >= 3;
+            }
+        };
+        scheduler.run(callback);
+
+        assertEquals(callback.started.size(), callback.succeeded.size());
+        assertTrue(callback.started.size() < 10);
+    }
+
+    private static Instance instance(long id) {
+        return new Instance.Builder().databaseId(id).build();
+    }
+
+    private static class RecordingCallback implements InstanceUploadScheduler.Callback {
+        final List<String> started = new ArrayList<>();
+        final List<String> succeeded = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void onUploadStarted(Instance instance) {
+            started.add(instance.getDatabaseId().toString());
+        }
+
+        @Override
+        public void onUploadSucceeded(Instance instance, String customMessage) {
+            succeeded.add(instance.getDatabaseId().toString());
+        }
+
+        @Override
+        public void onUploadFailed(Instance instance, UploadException e) {
+            failed.add(instance.getDatabaseId().toString());
+        }
+    }
+
+    private static class FakeUploader extends InstanceUploader {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Map<String, AtomicInteger> inFlightByHost = new HashMap<>();
+        final Map<String, AtomicInteger> maxInFlightByHost = new HashMap<>();
+        final List<Integer> finishedWhenStarted = new ArrayList<>();
+        Long failingInstanceId;
+
+        @Override
+        public String uploadOneSubmission(Instance instance, String destinationUrl) throws UploadException {
+            String host = destinationUrl.substring("https://".length(), destinationUrl.indexOf('/', "https://".length()));
+            AtomicInteger hostInFlight;
+            AtomicInteger hostMaxInFlight;
+            synchronized (this) {
+                if (!inFlightByHost.containsKey(host)) {
+                    inFlightByHost.put(host, new AtomicInteger());
+                    maxInFlightByHost.put(host, new AtomicInteger());
+                }
+                hostInFlight = inFlightByHost.get(host);
+                hostMaxInFlight = maxInFlightByHost.get(host);
+                finishedWhenStarted.add(finished.get());
+            }
+
+            updateMax(maxInFlight, inFlight.incrementAndGet());
+            updateMax(hostMaxInFlight, hostInFlight.incrementAndGet());
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                hostInFlight.decrementAndGet();
+                finished.incrementAndGet();
+            }
+
+            if (instance.getDatabaseId().equals(failingInstanceId)) {
+                throw new UploadException("Error: failed");
+            }
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public String getUrlToSubmitTo(Instance currentInstance, String deviceId, String overrideURL) {
+            return SERVER_A;
+        }
+
+        private static void updateMax(AtomicInteger max, int value) {
+            int current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+    }
+}
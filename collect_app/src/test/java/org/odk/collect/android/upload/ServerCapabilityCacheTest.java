@@ -0,0 +1,51 @@
+package org.odk.collect.android.upload;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.upload.ServerCapabilityCache.ServerCapabilities;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ServerCapabilityCacheTest {
+
+    private static final String URL = "http://example.com/submission?deviceID=1";
+
+    @Test
+    public void get_returnsTheCapabilitiesPutForTheUrl() {
+        ServerCapabilityCache cache = new ServerCapabilityCache(RuntimeEnvironment.application, TimeUnit.HOURS.toMillis(1));
+        cache.put(URL, new ServerCapabilities(Uri.parse("https://example.com/submission?deviceID=1"), 5000L, "Digest"));
+
+        ServerCapabilities capabilities = cache.get(URL);
+        assertEquals("https://example.com/submission?deviceID=1", capabilities.getSubmissionUri().toString());
+        assertEquals(5000L, capabilities.getMaxContentLength());
+        assertEquals("Digest", capabilities.getAuthScheme());
+
+        assertNull(cache.get("http://example.com/other"));
+    }
+
+    @Test
+    public void get_whenRecordHasExpired_returnsNull() {
+        ServerCapabilityCache cache = new ServerCapabilityCache(RuntimeEnvironment.application, 0);
+        cache.put(URL, new ServerCapabilities(Uri.parse(URL), 5000L, null));
+
+        assertNull(cache.get(URL));
+    }
+
+    @Test
+    public void get_afterInvalidate_returnsNull() {
+        ServerCapabilityCache cache = new ServerCapabilityCache(RuntimeEnvironment.application, TimeUnit.HOURS.toMillis(1));
+        cache.put(URL, new ServerCapabilities(Uri.parse(URL), 5000L, null));
+
+        cache.invalidate(URL);
+
+        assertNull(cache.get(URL));
+    }
+}
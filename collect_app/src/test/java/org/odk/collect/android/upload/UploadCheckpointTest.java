@@ -0,0 +1,93 @@
+package org.odk.collect.android.upload;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class UploadCheckpointTest {
+
+    private static final String URL = "https://example.com/submission?deviceID=1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File submissionFile;
+    private File photo1;
+    private File photo2;
+
+    @Before
+    public void setup() throws Exception {
+        submissionFile = writeFile("submission.xml", "<data/>");
+        photo1 = writeFile("photo1.jpg", "photo 1");
+        photo2 = writeFile("photo2.jpg", "photo 2");
+    }
+
+    @Test
+    public void getRemainingFiles_leavesOutFilesAcknowledgedBefore() {
+        UploadCheckpoint.load(submissionFile, URL).acknowledge(singletonList(photo1));
+
+        List<File> remainingFiles = UploadCheckpoint.load(submissionFile, URL).getRemainingFiles(asList(photo1, photo2));
+
+        assertEquals(singletonList(photo2), remainingFiles);
+    }
+
+    @Test
+    public void getRemainingFiles_forAnotherDestination_includesEveryFile() {
+        UploadCheckpoint.load(submissionFile, URL).acknowledge(singletonList(photo1));
+
+        List<File> remainingFiles = UploadCheckpoint.load(submissionFile, "https://other.example.com/submission")
+                .getRemainingFiles(asList(photo1, photo2));
+
+        assertEquals(asList(photo1, photo2), remainingFiles);
+    }
+
+    @Test
+    public void getRemainingFiles_whenSubmissionFileHasChanged_includesEveryFile() throws Exception {
+        UploadCheckpoint.load(submissionFile, URL).acknowledge(singletonList(photo1));
+        writeFile("submission.xml", "<data><edited/></data>");
+
+        List<File> remainingFiles = UploadCheckpoint.load(submissionFile, URL).getRemainingFiles(asList(photo1, photo2));
+
+        assertEquals(asList(photo1, photo2), remainingFiles);
+    }
+
+    @Test
+    public void getRemainingFiles_whenAcknowledgedFileHasChanged_includesIt() throws Exception {
+        UploadCheckpoint.load(submissionFile, URL).acknowledge(asList(photo1, photo2));
+        writeFile("photo1.jpg", "another photo 1");
+
+        List<File> remainingFiles = UploadCheckpoint.load(submissionFile, URL).getRemainingFiles(asList(photo1, photo2));
+
+        assertEquals(singletonList(photo1), remainingFiles);
+    }
+
+    @Test
+    public void delete_removesTheRecord() {
+        UploadCheckpoint checkpoint = UploadCheckpoint.load(submissionFile, URL);
+        checkpoint.acknowledge(singletonList(photo1));
+
+        checkpoint.delete();
+
+        assertFalse(new File(temporaryFolder.getRoot(), UploadCheckpoint.FILE_NAME).exists());
+        assertEquals(asList(photo1, photo2), UploadCheckpoint.load(submissionFile, URL).getRemainingFiles(asList(photo1, photo2)));
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(temporaryFolder.getRoot(), name);
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
@@ -1,14 +1,32 @@
 package org.odk.collect.android.utilities;
 
+import android.database.MatrixCursor;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.kxml2.io.KXmlParser;
+import org.kxml2.kdom.Document;
+import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
 import org.odk.collect.android.http.CollectServerClient;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -16,6 +34,11 @@ import static org.mockito.Mockito.when;
 @RunWith(RobolectricTestRunner.class)
 public class DownloadFormListUtilsTest {
 
+    private static final String SERVER = "https://example.com";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private final CollectServerClient client = mock(CollectServerClient.class);
 
     @Before
@@ -35,4 +58,111 @@ public class DownloadFormListUtilsTest {
         downloadFormListUtils.downloadFormList("http://blah.com///", "user", "password", false);
         verify(client).getXmlDocument("http://blah.com/formList");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void areNewerMediaFilesAvailable_whenLocalFileHashMatches_isFalse() throws Exception {
+        File mediaFolder = temporaryFolder.newFolder("form-media");
+        File mediaFile = new File(mediaFolder, "data.csv");
+        writeFile(mediaFile, "a,b");
+
+        assertFalse(areNewerMediaFilesAvailable(mediaFolder, FileUtils.getMd5Hash(mediaFile)));
+        // the second check is answered by the index
+        assertFalse(areNewerMediaFilesAvailable(mediaFolder, FileUtils.getMd5Hash(mediaFile)));
+    }
+
+    @Test
+    public void areNewerMediaFilesAvailable_whenLocalFileChanged_hashesItAgain() throws Exception {
+        File mediaFolder = temporaryFolder.newFolder("form-media");
+        File mediaFile = new File(mediaFolder, "data.csv");
+        writeFile(mediaFile, "a,b");
+        String serverHash = FileUtils.getMd5Hash(mediaFile);
+        assertFalse(areNewerMediaFilesAvailable(mediaFolder, serverHash));
+
+        // a new size
+        writeFile(mediaFile, "a,b,c");
+        assertTrue(areNewerMediaFilesAvailable(mediaFolder, serverHash));
+
+        // the same size, but a new modification time
+        writeFile(mediaFile, "a,b");
+        assertFalse(areNewerMediaFilesAvailable(mediaFolder, serverHash));
+        long lastModified = mediaFile.lastModified();
+        writeFile(mediaFile, "c,d");
+        mediaFile.setLastModified(lastModified + 1000);
+        assertTrue(areNewerMediaFilesAvailable(mediaFolder, serverHash));
+    }
+
+    @Test
+    public void areNewerMediaFilesAvailable_whenLocalFileWasDeletedAndInvalidated_hashesTheReplacement() throws Exception {
+        File mediaFolder = temporaryFolder.newFolder("form-media");
+        File mediaFile = new File(mediaFolder, "data.csv");
+        writeFile(mediaFile, "a,b");
+        String serverHash = FileUtils.getMd5Hash(mediaFile);
+        assertFalse(areNewerMediaFilesAvailable(mediaFolder, serverHash));
+
+        // a replacement with the same size and modification time is only noticed because the
+        // entry of the deleted file was removed from the index
+        long lastModified = mediaFile.lastModified();
+        FileUtils.deleteAndReport(mediaFile);
+        FileHashIndex.invalidate(mediaFile);
+        writeFile(mediaFile, "c,d");
+        mediaFile.setLastModified(lastModified);
+
+        assertTrue(areNewerMediaFilesAvailable(mediaFolder, serverHash));
+    }
+
+    /**
+     * Lists a form that has already been downloaded to the given media folder, with a manifest of
+     * one media file with the given hash.
+     */
+    private boolean areNewerMediaFilesAvailable(File mediaFolder, String serverMediaFileHash) throws Exception {
+        new File(Collect.METADATA_PATH).mkdirs();
+
+        when(client.getXmlDocument(SERVER + "/formList")).thenReturn(new DocumentFetchResult(parse(
+                "<xforms xmlns=\"http://openrosa.org/xforms/xformsList\"><xform>"
+                        + "<formID>form</formID><name>Form</name><hash>md5:formhash</hash>"
+                        + "<downloadUrl>" + SERVER + "/form.xml</downloadUrl>"
+                        + "<manifestUrl>" + SERVER + "/manifest</manifestUrl>"
+                        + "</xform></xforms>"), true, ""));
+        when(client.getXmlDocument(SERVER + "/manifest")).thenReturn(new DocumentFetchResult(parse(
+                "<manifest xmlns=\"http://openrosa.org/xforms/xformsManifest\"><mediaFile>"
+                        + "<filename>data.csv</filename><hash>md5:" + serverMediaFileHash + "</hash>"
+                        + "<downloadUrl>" + SERVER + "/data.csv</downloadUrl>"
+                        + "</mediaFile></manifest>"), true, ""));
+
+        FormsDao formsDao = mock(FormsDao.class);
+        when(formsDao.getFormsCursorForFormId("form")).thenAnswer(invocation -> formsCursor());
+        when(formsDao.getFormsCursorForMd5Hash("formhash")).thenAnswer(invocation -> formsCursor());
+        when(formsDao.getFormMediaPath(eq("form"), any())).thenReturn(mediaFolder.getAbsolutePath());
+
+        DownloadFormListUtils downloadFormListUtils = new DownloadFormListUtils(
+                RuntimeEnvironment.application,
+                client,
+                new WebCredentialsUtils(),
+                formsDao
+        );
+
+        return downloadFormListUtils.downloadFormList(SERVER, null, null, false)
+                .get("form").areNewerMediaFilesAvailable();
+    }
+
+    private static MatrixCursor formsCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {FormsColumns._ID});
+        cursor.addRow(new Object[] {1});
+        return cursor;
+    }
+
+    private static Document parse(String xml) throws Exception {
+        KXmlParser parser = new KXmlParser();
+        parser.setInput(new StringReader(xml));
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        Document doc = new Document();
+        doc.parse(parser);
+        return doc;
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(contents.getBytes("UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadPoolTest {
+
+    private final DownloadPool pool = new DownloadPool(3);
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void runAll_returnsResultsInTheGivenOrder() throws Exception {
+        List<Callable<Integer>> downloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int result = i;
+            // later downloads finish first
+            downloads.add(() -> {
+                Thread.sleep(50 - result * 5);
+                return result;
+            });
+        }
+
+        assertEquals(asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), pool.runAll(downloads));
+    }
+
+    @Test
+    public void runAll_runsNoMoreThanTheMaximumAtOnce() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Callable<Void>> downloads = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            downloads.add(() -> {
+                int nowRunning = running.incrementAndGet();
+                maxRunning.accumulateAndGet(nowRunning, Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return null;
+            });
+        }
+        pool.runAll(downloads);
+
+        assertEquals(3, maxRunning.get());
+    }
+
+    @Test
+    public void runAll_whenADownloadFails_skipsTheOnesNotStarted_andThrowsItsException() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+
+        List<Callable<Void>> downloads = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int index = i;
+            downloads.add(() -> {
+                started.incrementAndGet();
+                if (index == 1) {
+                    throw new IOException("Download failed");
+                }
+                Thread.sleep(50);
+                finished.incrementAndGet();
+                return null;
+            });
+        }
+
+        try {
+            pool.runAll(downloads);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Download failed", e.getMessage());
+        }
+
+        assertTrue(started.get() < 20);
+        // every download that started, other than the failed one, finished before runAll returned
+        assertEquals(started.get() - 1, finished.get());
+    }
+}
@@ -3,16 +3,248 @@ package org.odk.collect.android.utilities;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
 import org.odk.collect.android.exception.EncryptionException;
 import org.odk.collect.android.logic.FormController;
+import org.odk.collect.android.logic.FormController.InstanceMetadata;
+import org.odk.collect.android.utilities.EncryptionUtils.EncryptedFormInformation;
+import org.robolectric.RobolectricTestRunner;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.odk.collect.android.support.BenchmarkHelpers.assumeBenchmarksEnabled;
+import static org.odk.collect.android.support.BenchmarkHelpers.report;
+
+@RunWith(RobolectricTestRunner.class)
 public class EncryptionUtilsTest {
+    private static final int LARGE_FILE_MB = 300;
+    private static final int HEAP_HEADROOM_MB = 48;
+
     @Rule
     public ExpectedException exceptionRule = ExpectedException.none();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final SecretKeySpec key = createKey();
+    private final byte[] iv = new byte[EncryptionUtils.IV_BYTE_LENGTH];
+
     @Test public void missingInstanceID_causesEncryptionException() throws EncryptionException {
         exceptionRule.expect(EncryptionException.class);
         exceptionRule.expectMessage("This form does not specify an instanceID. You must specify one to enable encryption.");
         EncryptionUtils.getEncryptedFormInformation(null, new FormController.InstanceMetadata(null, null, null));
     }
+
+    @Test
+    public void encryptFile_writesContentsThatDecryptToTheOriginal_andReturnsTheirMd5Hash() throws Exception {
+        // not a multiple of the buffer or block size
+        File file = writeRandomFile(new File(temporaryFolder.getRoot(), "photo.jpg"), 200_003);
+        File encryptedFile = new File(temporaryFolder.getRoot(), "photo.jpg.enc");
+
+        String md5Hash = EncryptionUtils.encryptFile(file, encryptedFile, getCipher(Cipher.ENCRYPT_MODE));
+
+        assertEquals(FileUtils.getMd5Hash(file), md5Hash);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), decrypt(encryptedFile));
+    }
+
+    @Test
+    public void encryptFile_whenFileIsEmpty_writesOnlyPadding() throws Exception {
+        File file = temporaryFolder.newFile("empty.txt");
+        File encryptedFile = new File(temporaryFolder.getRoot(), "empty.txt.enc");
+
+        String md5Hash = EncryptionUtils.encryptFile(file, encryptedFile, getCipher(Cipher.ENCRYPT_MODE));
+
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", md5Hash);
+        assertEquals(0, decrypt(encryptedFile).length);
+    }
+
+    @Test
+    public void generateEncryptedSubmission_signsAndDerivesIvsInManifestOrder_andReportsEveryFile() throws Exception {
+        File instanceDir = temporaryFolder.newFolder("instance");
+        File instanceXml = writeRandomFile(new File(instanceDir, "instance.xml"), 1_000);
+        File submissionXml = writeRandomFile(new File(instanceDir, "submission.xml"), 2_000);
+        for (int i = 0; i < 12; i++) {
+            writeRandomFile(new File(instanceDir, "photo" + i + ".jpg"), 50_000 + i * 7_001);
+        }
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(EncryptionUtils.RSA_ALGORITHM);
+        keyPairGenerator.initialize(1024);
+        EncryptedFormInformation formInfo = new EncryptedFormInformation("form", "1",
+                new InstanceMetadata("uuid:1", null, null), keyPairGenerator.generateKeyPair().getPublic());
+        byte[] ivSeed = formInfo.ivSeedArray.clone();
+
+        // the submission.xml is replaced by the manifest, so hash it first
+        String submissionMd5Hash = FileUtils.getMd5Hash(submissionXml);
+        List<String> progress = Collections.synchronizedList(new ArrayList<>());
+        EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo,
+                (filesEncrypted, filesTotal) -> progress.add(filesEncrypted + "/" + filesTotal));
+
+        List<String> encryptedFiles = new ArrayList<>();
+        Matcher matcher = Pattern.compile("<(?:\\w+:)?(?:file|encryptedXmlFile)>([^<]+)<")
+                .matcher(new String(Files.readAllBytes(submissionXml.toPath()), "UTF-8"));
+        while (matcher.find()) {
+            encryptedFiles.add(matcher.group(1));
+        }
+        assertEquals(13, encryptedFiles.size());
+        assertEquals("submission.xml.enc", encryptedFiles.get(12));
+
+        StringBuilder signatureSource = new StringBuilder("form\n1\n")
+                .append(formInfo.base64RsaEncryptedSymmetricKey).append("\nuuid:1\n");
+        SecretKeySpec symmetricKey = new SecretKeySpec(formInfo.symmetricKey.getEncoded(), "AES");
+        for (int i = 0; i < encryptedFiles.size(); i++) {
+            ++ivSeed[i % ivSeed.length];
+            Cipher cipher = Cipher.getInstance(EncryptionUtils.SYMMETRIC_ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey, new IvParameterSpec(ivSeed));
+
+            String name = encryptedFiles.get(i).replace(".enc", "");
+            byte[] decrypted = cipher.doFinal(Files.readAllBytes(new File(instanceDir, encryptedFiles.get(i)).toPath()));
+            String md5Hash = FileUtils.getMd5Hash(new ByteArrayInputStream(decrypted));
+            if (name.equals("submission.xml")) {
+                assertEquals(submissionMd5Hash, md5Hash);
+            } else {
+                assertEquals(FileUtils.getMd5Hash(new File(instanceDir, name)), md5Hash);
+            }
+            signatureSource.append(name).append("::").append(md5Hash).append('\n');
+        }
+        assertEquals(signatureSource.toString(), formInfo.elementSignatureSource.toString());
+
+        assertEquals(13, progress.size());
+        assertTrue(progress.contains("13/13"));
+    }
+
+    @Test
+    public void generateEncryptedSubmission_whenAFileFails_waitsForTheOthersAndDeletesWhatWasEncrypted() throws Exception {
+        File instanceDir = temporaryFolder.newFolder("instance");
+        File instanceXml = writeRandomFile(new File(instanceDir, "instance.xml"), 1_000);
+        File submissionXml = writeRandomFile(new File(instanceDir, "submission.xml"), 2_000);
+        for (int i = 0; i < 12; i++) {
+            writeRandomFile(new File(instanceDir, "photo" + i + ".jpg"), 50_000 + i * 7_001);
+        }
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(EncryptionUtils.RSA_ALGORITHM);
+        keyPairGenerator.initialize(1024);
+        EncryptedFormInformation formInfo = new EncryptedFormInformation("form", "1",
+                new InstanceMetadata("uuid:1", null, null), keyPairGenerator.generateKeyPair().getPublic());
+
+        AtomicInteger filesFinished = new AtomicInteger();
+        try {
+            EncryptionUtils.generateEncryptedSubmission(instanceXml, submissionXml, formInfo,
+                    (filesEncrypted, filesTotal) -> {
+                        if (filesFinished.incrementAndGet() == 1) {
+                            throw new IllegalStateException("Disk full");
+                        }
+                    });
+            fail("Expected an EncryptionException");
+        } catch (EncryptionException e) {
+            // expected
+        }
+
+        // the files that were still being encrypted when the first one failed were only deleted
+        // once they had been written
+        for (File file : instanceDir.listFiles()) {
+            assertFalse(file.getName(), file.getName().endsWith(".enc"));
+        }
+    }
+
+    /**
+     * Fills the heap so that only a little of it is left before encrypting a file many times that
+     * size. Buffering the encrypted file in memory would run out of heap.
+     */
+    @Test
+    public void encryptFile_whenFileIsMuchLargerThanFreeHeap_doesNotRunOutOfMemory() throws Exception {
+        assumeBenchmarksEnabled();
+
+        File file = writeRandomFile(new File(temporaryFolder.getRoot(), "video.mp4"), LARGE_FILE_MB * 1024 * 1024);
+        File encryptedFile = new File(temporaryFolder.getRoot(), "video.mp4.enc");
+
+        String md5Hash;
+        long elapsed;
+        List<byte[]> ballast = fillHeapLeaving(HEAP_HEADROOM_MB * 1024 * 1024);
+        try {
+            long start = System.nanoTime();
+            md5Hash = EncryptionUtils.encryptFile(file, encryptedFile, getCipher(Cipher.ENCRYPT_MODE));
+            elapsed = System.nanoTime() - start;
+        } finally {
+            ballast.clear();
+        }
+
+        assertEquals(FileUtils.getMd5Hash(file), md5Hash);
+        try (InputStream in = new CipherInputStream(new FileInputStream(encryptedFile), getCipher(Cipher.DECRYPT_MODE))) {
+            assertEquals(md5Hash, FileUtils.getMd5Hash(in));
+        }
+
+        report("attachment encryption", "%d MB with %d MB of free heap in %.3f s (%.0f MB/s)",
+                LARGE_FILE_MB, HEAP_HEADROOM_MB, elapsed / 1e9, LARGE_FILE_MB / (elapsed / 1e9));
+    }
+
+    private static SecretKeySpec createKey() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    private Cipher getCipher(int mode) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(EncryptionUtils.SYMMETRIC_ALGORITHM);
+        cipher.init(mode, key, new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    private byte[] decrypt(File encryptedFile) throws IOException, GeneralSecurityException {
+        return getCipher(Cipher.DECRYPT_MODE).doFinal(Files.readAllBytes(encryptedFile.toPath()));
+    }
+
+    private static File writeRandomFile(File file, int size) throws IOException {
+        Random random = new Random(size);
+        byte[] chunk = new byte[64 * 1024];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static List<byte[]> fillHeapLeaving(long headroom) {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+
+        List<byte[]> ballast = new ArrayList<>();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        while (free > headroom) {
+            int size = (int) Math.min(16 * 1024 * 1024, free - headroom);
+            ballast.add(new byte[size]);
+            free -= size;
+        }
+        return ballast;
+    }
 }
@@ -7,8 +7,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 
 public class FileUtilsTest {
     @Test
@@ -26,6 +29,67 @@ public class FileUtilsTest {
         }
     }
 
+    @Test
+    public void toHexString_padsLeadingZeros() {
+        assertEquals("000f10ff", FileUtils.toHexString(new byte[] {0x00, 0x0f, 0x10, (byte) 0xff}));
+    }
+
+    @Test
+    public void parseXML_readsFieldsFromHead() throws IOException {
+        File form = writeForm("<h:head>"
+                + "<h:title> Sample Form </h:title>"
+                + "<model>"
+                + "<instance><data id=\"sample\" version=\"2019\"><name/></data></instance>"
+                + "<instance id=\"secondary\"><root/></instance>"
+                + "<bind nodeset=\"/data/name\" type=\"string\"/>"
+                + "<submission action=\"https://example.com/submission\" base64RsaPublicKey=\" KEY \" auto-send=\"true\"/>"
+                + "</model>"
+                + "</h:head>"
+                + "<h:body/>");
+
+        Map<String, String> fields = FileUtils.parseXML(form);
+
+        assertEquals("Sample Form", fields.get(FileUtils.TITLE));
+        assertEquals("sample", fields.get(FileUtils.FORMID));
+        assertEquals("2019", fields.get(FileUtils.VERSION));
+        assertEquals("https://example.com/submission", fields.get(FileUtils.SUBMISSIONURI));
+        assertEquals("KEY", fields.get(FileUtils.BASE64_RSA_PUBLIC_KEY));
+        assertEquals("true", fields.get(FileUtils.AUTO_SEND));
+        assertNull(fields.get(FileUtils.AUTO_DELETE));
+    }
+
+    @Test
+    public void parseXML_withoutIdAttribute_usesNamespaceOfDataElement() throws IOException {
+        File form = writeForm("<h:head><h:title>Sample Form</h:title><model>"
+                + "<instance><data xmlns=\"http://example.com/sample\"/></instance>"
+                + "</model></h:head>");
+
+        Map<String, String> fields = FileUtils.parseXML(form);
+
+        assertEquals("http://example.com/sample", fields.get(FileUtils.FORMID));
+        assertNull(fields.get(FileUtils.VERSION));
+        assertFalse(fields.containsKey(FileUtils.SUBMISSIONURI));
+    }
+
+    @Test
+    public void parseXML_doesNotReadBody() throws IOException {
+        File form = writeForm("<h:head><h:title>Sample Form</h:title><model>"
+                + "<instance><data id=\"sample\"/></instance>"
+                + "</model></h:head>"
+                + "<h:body><input></h:body>");
+
+        assertEquals("sample", FileUtils.parseXML(form).get(FileUtils.FORMID));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseXML_withoutDataElement_throws() throws IOException {
+        File form = writeForm("<h:head><h:title>Sample Form</h:title><model>"
+                + "<instance></instance>"
+                + "</model></h:head>");
+
+        FileUtils.parseXML(form);
+    }
+
     @Test
     public void mediaDirNameIsCorrect() {
         String expected = "sample-file-media";
@@ -35,4 +99,16 @@ public class FileUtilsTest {
         assertEquals(expected, FileUtils.constructMediaPath("sample-file.123"));
         assertEquals(expected, FileUtils.constructMediaPath("sample-file.docx"));
     }
+
+    private static File writeForm(String content) throws IOException {
+        File form = File.createTempFile("form", ".xml");
+        form.deleteOnExit();
+        try (FileWriter writer = new FileWriter(form)) {
+            writer.write("<?xml version=\"1.0\"?>"
+                    + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+                    + content
+                    + "</h:html>");
+        }
+        return form;
+    }
 }
@@ -0,0 +1,132 @@
+package org.odk.collect.android.utilities;
+
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.odk.collect.android.support.BenchmarkHelpers.assumeBenchmarksEnabled;
+import static org.odk.collect.android.support.BenchmarkHelpers.report;
+
+/**
+ * Compares the unbuffered legacy FormDef cache format with the headed format written by
+ * {@link FormDefCache}, uncompressed and compressed, on the larger sample forms.
+ */
+public class FormDefCacheBenchmarkTest {
+    private static final File SAMPLE_FORMS_DIR = new File("src/androidTest/assets/forms");
+    private static final long MIN_FORM_SIZE = 20 * 1024;
+    private static final int ITERATIONS = 5;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void registerPrototypes() {
+        PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+        PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+        new XFormsModule().registerModule();
+    }
+
+    @Test
+    public void roundTripLargeSampleForms() throws Exception {
+        assumeBenchmarksEnabled();
+
+        File[] forms = SAMPLE_FORMS_DIR.listFiles((dir, name) -> name.endsWith(".xml"));
+        assertTrue("No sample forms in " + SAMPLE_FORMS_DIR.getAbsolutePath(), forms != null && forms.length > 0);
+
+        for (File form : forms) {
+            if (form.length() < MIN_FORM_SIZE) {
+                continue;
+            }
+
+            FormDef formDef = XFormUtils.getFormFromFormXml(form.getAbsolutePath(), null);
+            benchmark(form.getName() + " legacy", formDef, new LegacyFormat());
+            benchmark(form.getName() + " headed", formDef, new HeadedFormat(false));
+            benchmark(form.getName() + " headed+deflate", formDef, new HeadedFormat(true));
+        }
+    }
+
+    private void benchmark(String name, FormDef formDef, Format format) throws Exception {
+        File cacheFile = temporaryFolder.newFile();
+        long writeNanos = 0;
+        long readNanos = 0;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            try (OutputStream out = new FileOutputStream(cacheFile)) {
+                format.write(formDef, out);
+            }
+            writeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            FormDef read;
+            try (InputStream in = new FileInputStream(cacheFile)) {
+                read = format.read(in);
+            }
+            readNanos += System.nanoTime() - start;
+
+            assertEquals(formDef.getTitle(), read.getTitle());
+        }
+
+        report(name, "%d bytes, write %.1f ms, read %.1f ms", cacheFile.length(),
+                writeNanos / ITERATIONS / 1e6, readNanos / ITERATIONS / 1e6);
+    }
+
+    private interface Format {
+        void write(FormDef formDef, OutputStream out) throws IOException;
+
+        FormDef read(InputStream in) throws IOException, DeserializationException;
+    }
+
+    /** The format used before the cache files had a header: unbuffered and uncompressed. */
+    private static class LegacyFormat implements Format {
+        @Override
+        public void write(FormDef formDef, OutputStream out) throws IOException {
+            formDef.writeExternal(new DataOutputStream(out));
+        }
+
+        @Override
+        public FormDef read(InputStream in) throws IOException, DeserializationException {
+            FormDef formDef = new FormDef();
+            formDef.readExternal(new DataInputStream(in), ExtUtil.defaultPrototypes());
+            return formDef;
+        }
+    }
+
+    private static class HeadedFormat implements Format {
+        private final boolean compress;
+
+        HeadedFormat(boolean compress) {
+            this.compress = compress;
+        }
+
+        @Override
+        public void write(FormDef formDef, OutputStream out) throws IOException {
+            FormDefCache.writeFormDef(formDef, "hash", out, compress);
+        }
+
+        @Override
+        public FormDef read(InputStream in) throws IOException, DeserializationException {
+            return FormDefCache.readFormDef(in, "hash");
+        }
+    }
+}
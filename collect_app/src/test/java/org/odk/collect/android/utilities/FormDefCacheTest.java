@@ -0,0 +1,140 @@
+package org.odk.collect.android.utilities;
+
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FormDefCacheTest {
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private static final String FORM_XML = "<?xml version=\"1.0\"?>"
+            + "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+            + "<h:head><h:title>Cache test</h:title><model><instance>"
+            + "<data id=\"cache-test\"><name/></data>"
+            + "</instance><bind nodeset=\"/data/name\" type=\"string\"/></model></h:head>"
+            + "<h:body><input ref=\"/data/name\"><label>Name</label></input></h:body>"
+            + "</h:html>";
+
+    private long defaultMaxCacheSize;
+
+    @BeforeClass
+    public static void registerPrototypes() {
+        PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+        PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+        new XFormsModule().registerModule();
+    }
+
+    @Before
+    public void setup() {
+        defaultMaxCacheSize = FormDefCache.maxCacheSize;
+        FormDefCache.maxCacheSize = 250;
+    }
+
+    @After
+    public void teardown() {
+        FormDefCache.maxCacheSize = defaultMaxCacheSize;
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed_deletesOldestFilesUntilUnderLimit() throws IOException {
+        File oldest = createCacheFile("oldest.formdef", 100, 1000);
+        File older = createCacheFile("older.formdef", 100, 2000);
+        File newer = createCacheFile("newer.formdef", 100, 3000);
+
+        FormDefCache.evictLeastRecentlyUsed(cacheDir.getRoot(), newer);
+
+        assertFalse(oldest.exists());
+        assertTrue(older.exists());
+        assertTrue(newer.exists());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed_keepsMostRecentFileEvenIfOverLimit() throws IOException {
+        File other = createCacheFile("other.formdef", 100, 2000);
+        File mostRecent = createCacheFile("mostRecent.formdef", 400, 1000);
+
+        FormDefCache.evictLeastRecentlyUsed(cacheDir.getRoot(), mostRecent);
+
+        assertFalse(other.exists());
+        assertTrue(mostRecent.exists());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed_ignoresFilesThatAreNotFormDefs() throws IOException {
+        File tempFile = createCacheFile("tmp.jpg", 500, 1000);
+        File formDef = createCacheFile("form.formdef", 100, 2000);
+
+        FormDefCache.evictLeastRecentlyUsed(cacheDir.getRoot(), formDef);
+
+        assertTrue(tempFile.exists());
+        assertTrue(formDef.exists());
+    }
+
+    private File createCacheFile(String name, int size, long lastModified) throws IOException {
+        File file = cacheDir.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+
+    @Test
+    public void readFormDef_returnsFormDefWrittenByWriteFormDef() throws IOException, DeserializationException {
+        for (boolean compress : new boolean[] {false, true}) {
+            byte[] cached = write(parseForm(), "hash", compress);
+
+            FormDef formDef = FormDefCache.readFormDef(new ByteArrayInputStream(cached), "hash");
+
+            assertEquals("Cache test", formDef.getTitle());
+        }
+    }
+
+    @Test
+    public void readFormDef_returnsNull_whenFormHashHasChanged() throws IOException, DeserializationException {
+        byte[] cached = write(parseForm(), "hash", false);
+
+        assertNull(FormDefCache.readFormDef(new ByteArrayInputStream(cached), "otherHash"));
+    }
+
+    @Test
+    public void readFormDef_returnsNull_forLegacyCacheFiles() throws IOException, DeserializationException {
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        parseForm().writeExternal(new DataOutputStream(legacy));
+
+        assertNull(FormDefCache.readFormDef(new ByteArrayInputStream(legacy.toByteArray()), "hash"));
+    }
+
+    private static FormDef parseForm() {
+        return XFormUtils.getFormFromInputStream(new ByteArrayInputStream(FORM_XML.getBytes()));
+    }
+
+    private static byte[] write(FormDef formDef, String formHash, boolean compress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FormDefCache.writeFormDef(formDef, formHash, out, compress);
+        return out.toByteArray();
+    }
+}
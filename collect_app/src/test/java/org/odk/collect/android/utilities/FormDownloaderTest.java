@@ -0,0 +1,207 @@
+package org.odk.collect.android.utilities;
+
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import androidx.work.Configuration;
+import androidx.work.WorkManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kxml2.io.KXmlParser;
+import org.kxml2.kdom.Document;
+import org.odk.collect.android.R;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.http.CollectServerClient;
+import org.odk.collect.android.http.openrosa.HttpGetResult;
+import org.odk.collect.android.listeners.FormDownloaderListener;
+import org.odk.collect.android.logic.FormDetails;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class FormDownloaderTest {
+
+    private static final String SERVER = "https://example.com/";
+
+    private final CollectServerClient client = mock(CollectServerClient.class);
+    private final FormsDao formsDao = mock(FormsDao.class);
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private FormDownloader formDownloader;
+
+    @Before
+    public void setup() {
+        WorkManager.initialize(RuntimeEnvironment.application, new Configuration.Builder().build());
+        new File(Collect.FORMS_PATH).mkdirs();
+        new File(Collect.CACHE_PATH).mkdirs();
+        new File(Collect.METADATA_PATH).mkdirs();
+
+        // no form has been downloaded before
+        when(formsDao.getFormsCursorForMd5Hash(any())).thenAnswer(invocation -> emptyFormsCursor());
+        when(formsDao.getFormsCursorForFormFilePath(any())).thenAnswer(invocation -> emptyFormsCursor());
+        when(formsDao.saveForm(any())).thenReturn(Uri.withAppendedPath(FormsColumns.CONTENT_URI, "1"));
+
+        formDownloader = new FormDownloader();
+        formDownloader.collectServerClient = client;
+        formDownloader.formsDao = formsDao;
+        formDownloader.setDownloaderListener(new FormDownloaderListener() {
+            @Override
+            public void progressUpdate(String currentFile, String progress, String total) {
+            }
+
+            @Override
+            public boolean isTaskCanceled() {
+                return cancelled.get();
+            }
+        });
+    }
+
+    @After
+    public void teardown() throws IOException {
+        org.apache.commons.io.FileUtils.deleteDirectory(new File(Collect.FORMS_PATH));
+        org.apache.commons.io.FileUtils.deleteDirectory(new File(Collect.CACHE_PATH));
+    }
+
+    @Test
+    public void downloadForms_whenFormsWithTheSameNameAreDownloadedAtOnce_savesThemToDifferentFiles() throws Exception {
+        // neither download finishes until both have started, so neither file exists yet
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        for (String id : Arrays.asList("one", "two")) {
+            when(client.getHttpInputStream(eq(SERVER + id + ".xml"), any())).thenAnswer(invocation -> {
+                bothStarted.countDown();
+                bothStarted.await(5, TimeUnit.SECONDS);
+                return getResult(form(id));
+            });
+        }
+
+        HashMap<FormDetails, String> result = formDownloader.downloadForms(Arrays.asList(
+                formDetails("Same Name", "one", false), formDetails("Same Name", "two", false)));
+
+        String success = RuntimeEnvironment.application.getString(R.string.success);
+        assertEquals(2, result.size());
+        for (String message : result.values()) {
+            assertEquals(success, message);
+        }
+
+        String first = org.apache.commons.io.FileUtils.readFileToString(new File(Collect.FORMS_PATH, "Same Name.xml"), "UTF-8");
+        String second = org.apache.commons.io.FileUtils.readFileToString(new File(Collect.FORMS_PATH, "Same Name_2.xml"), "UTF-8");
+        assertEquals(new HashSet<>(Arrays.asList(form("one"), form("two"))),
+                new HashSet<>(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void downloadForms_whenCancelledPartway_skipsFormsNotStartedAndCleansUpTheOthers() throws Exception {
+        for (String id : Arrays.asList("one", "two", "three")) {
+            serveForm(id, "media.csv");
+            // cancel while the first media file is being downloaded
+            when(client.getHttpInputStream(eq(SERVER + id + "/media.csv"), any())).thenAnswer(invocation -> {
+                cancelled.set(true);
+                return getResult("a,b");
+            });
+        }
+
+        // only two forms are downloaded at once, so the third can only start after the cancellation
+        HashMap<FormDetails, String> result = formDownloader.downloadForms(Arrays.asList(
+                formDetails("One", "one", true), formDetails("Two", "two", true), formDetails("Three", "three", true)));
+
+        assertTrue(result.isEmpty());
+        verify(client, never()).getHttpInputStream(eq(SERVER + "three.xml"), any());
+        assertTrue(listFiles(Collect.CACHE_PATH).isEmpty());
+        assertTrue(listFiles(Collect.FORMS_PATH).isEmpty());
+        verify(formsDao, never()).saveForm(any());
+    }
+
+    @Test
+    public void downloadForms_whenAMediaFileFails_purgesTheFormsTempMediaFolder() throws Exception {
+        serveForm("one", "good.csv", "bad.csv");
+        when(client.getHttpInputStream(eq(SERVER + "one/good.csv"), any())).thenAnswer(invocation -> getResult("a,b"));
+        when(client.getHttpInputStream(eq(SERVER + "one/bad.csv"), any())).thenThrow(new IOException("Connection reset"));
+
+        FormDetails formDetails = formDetails("One", "one", true);
+        HashMap<FormDetails, String> result = formDownloader.downloadForms(Arrays.asList(formDetails));
+
+        assertNotEquals(RuntimeEnvironment.application.getString(R.string.success), result.get(formDetails));
+        assertTrue(listFiles(Collect.CACHE_PATH).isEmpty());
+        assertTrue(listFiles(Collect.FORMS_PATH).isEmpty());
+        verify(formsDao, never()).saveForm(any());
+    }
+
+    private void serveForm(String id, String... mediaFiles) throws Exception {
+        when(client.getHttpInputStream(eq(SERVER + id + ".xml"), any())).thenAnswer(invocation -> getResult(form(id)));
+
+        StringBuilder manifest = new StringBuilder("<manifest xmlns=\"http://openrosa.org/xforms/xformsManifest\">");
+        for (String mediaFile : mediaFiles) {
+            manifest.append("<mediaFile><filename>").append(mediaFile).append("</filename>")
+                    .append("<hash>md5:00000000000000000000000000000000</hash>")
+                    .append("<downloadUrl>").append(SERVER).append(id).append('/').append(mediaFile)
+                    .append("</downloadUrl></mediaFile>");
+        }
+        manifest.append("</manifest>");
+        when(client.getXmlDocument(SERVER + id + "/manifest"))
+                .thenReturn(new DocumentFetchResult(parse(manifest.toString()), true, ""));
+    }
+
+    private static FormDetails formDetails(String name, String id, boolean hasManifest) {
+        return new FormDetails(name, SERVER + id + ".xml", hasManifest ? SERVER + id + "/manifest" : null,
+                id, null, null, null, false, false);
+    }
+
+    private static String form(String id) {
+        return "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\">"
+                + "<h:head><h:title>" + id + "</h:title>"
+                + "<model><instance><data id=\"" + id + "\"/></instance></model>"
+                + "</h:head><h:body/></h:html>";
+    }
+
+    private static HttpGetResult getResult(String body) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        return new HttpGetResult(new ByteArrayInputStream(body.getBytes("UTF-8")), headers, "", 200);
+    }
+
+    private static Document parse(String xml) throws Exception {
+        KXmlParser parser = new KXmlParser();
+        parser.setInput(new StringReader(xml));
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        Document doc = new Document();
+        doc.parse(parser);
+        return doc;
+    }
+
+    private static MatrixCursor emptyFormsCursor() {
+        return new MatrixCursor(new String[] {FormsColumns._ID, FormsColumns.FORM_FILE_PATH});
+    }
+
+    /** Returns the regular files in the given folder and its subfolders. */
+    private static List<File> listFiles(String path) {
+        return new ArrayList<>(org.apache.commons.io.FileUtils.listFiles(new File(path), null, true));
+    }
+}
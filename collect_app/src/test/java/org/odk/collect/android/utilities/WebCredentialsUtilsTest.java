@@ -0,0 +1,36 @@
+package org.odk.collect.android.utilities;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.http.openrosa.HttpCredentialsInterface;
+import org.robolectric.RobolectricTestRunner;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class WebCredentialsUtilsTest {
+
+    @Test
+    public void getCredentials_returnsSavedCredentialsForHost() {
+        WebCredentialsUtils webCredentialsUtils = new WebCredentialsUtils();
+        webCredentialsUtils.saveCredentials("https://example.com/collect", "user", "pass");
+
+        HttpCredentialsInterface credentials = webCredentialsUtils.getCredentials(URI.create("https://example.com/formList"));
+        assertEquals("user", credentials.getUsername());
+        assertEquals("pass", credentials.getPassword());
+
+        webCredentialsUtils.clearCredentials("https://example.com/collect");
+    }
+
+    @Test
+    public void getCredentials_withUrlWithoutParsableHost_returnsNull() {
+        // java.net.URI doesn't parse host names with underscores
+        URI url = URI.create("http://my_server:8080/formList");
+        assertNull(url.getHost());
+
+        assertNull(new WebCredentialsUtils().getCredentials(url));
+    }
+}